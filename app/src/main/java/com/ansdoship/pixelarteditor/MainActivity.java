@@ -46,6 +46,7 @@ import android.graphics.Path;
 import android.graphics.PixelFormat;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
@@ -61,17 +62,28 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.PopupWindow;
+import android.widget.ProgressBar;
 import android.widget.RadioGroup;
 import android.widget.SeekBar;
 import android.widget.TabHost;
 import android.widget.TextView;
 
+import com.ansdoship.pixelarteditor.editor.EditBoundsHistory;
+import com.ansdoship.pixelarteditor.editor.FloodFillBounds;
 import com.ansdoship.pixelarteditor.editor.OriginFlag;
 import com.ansdoship.pixelarteditor.editor.SelectionPopupFlag;
+import com.ansdoship.pixelarteditor.editor.animation.AnimationPlayer;
+import com.ansdoship.pixelarteditor.editor.animation.Frame;
+import com.ansdoship.pixelarteditor.editor.animation.FrameTimeline;
+import com.ansdoship.pixelarteditor.editor.animation.OnionSkinCache;
+import com.ansdoship.pixelarteditor.editor.animation.PlaybackFlag;
+import com.ansdoship.pixelarteditor.editor.atlas.AtlasFormatFlag;
+import com.ansdoship.pixelarteditor.editor.atlas.SpriteSheetExporter;
 import com.ansdoship.pixelarteditor.editor.buffer.BitmapBuffer;
 import com.ansdoship.pixelarteditor.editor.buffer.ClearBuffer;
 import com.ansdoship.pixelarteditor.editor.buffer.FillBuffer;
@@ -83,11 +95,29 @@ import com.ansdoship.pixelarteditor.editor.buffer.PointBuffer;
 import com.ansdoship.pixelarteditor.editor.buffer.RotateBuffer;
 import com.ansdoship.pixelarteditor.editor.buffer.SelectionBuffer;
 import com.ansdoship.pixelarteditor.editor.buffer.ToolBufferPool;
+import com.ansdoship.pixelarteditor.editor.codec.BatchExporter;
+import com.ansdoship.pixelarteditor.editor.codec.DownscaleFlag;
+import com.ansdoship.pixelarteditor.editor.codec.GifEncoder;
+import com.ansdoship.pixelarteditor.editor.codec.IndexedPngEncoder;
+import com.ansdoship.pixelarteditor.editor.codec.LargeImageImporter;
+import com.ansdoship.pixelarteditor.editor.document.AutoSaver;
+import com.ansdoship.pixelarteditor.editor.document.ProjectFile;
+import com.ansdoship.pixelarteditor.editor.palette.ColorHistogram;
+import com.ansdoship.pixelarteditor.editor.palette.ColorUsageCounter;
+import com.ansdoship.pixelarteditor.editor.palette.ImageQuantizer;
 import com.ansdoship.pixelarteditor.editor.palette.Palette;
 import com.ansdoship.pixelarteditor.editor.palette.PaletteFactory;
 import com.ansdoship.pixelarteditor.editor.palette.PaletteFlag;
+import com.ansdoship.pixelarteditor.editor.palette.PaletteImporter;
+import com.ansdoship.pixelarteditor.editor.palette.PaletteSwap;
+import com.ansdoship.pixelarteditor.editor.palette.PaletteSwapRenderer;
+import com.ansdoship.pixelarteditor.editor.palette.QuantizerFlag;
+import com.ansdoship.pixelarteditor.editor.tile.TileStore;
 import com.ansdoship.pixelarteditor.editor.ToolFlag;
 import com.ansdoship.pixelarteditor.ui.view.CanvasView;
+import com.ansdoship.pixelarteditor.ui.browser.DirectoryScanner;
+import com.ansdoship.pixelarteditor.ui.thumbnail.ThumbnailDiskCache;
+import com.ansdoship.pixelarteditor.ui.thumbnail.ThumbnailLoader;
 import com.ansdoship.pixelarteditor.ui.view.CheckedImageView;
 import com.ansdoship.pixelarteditor.ui.view.ColorPickerView;
 import com.ansdoship.pixelarteditor.ui.view.PaletteView;
@@ -112,13 +142,14 @@ import com.tianscar.quickbitmap.BitmapUtils;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 
@@ -133,6 +164,18 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     private String imageFormat;
     public final static String KEY_IMAGE_QUALITY = "image_quality";
     private int imageQuality;
+    public final static String KEY_PNG_COMPRESSION_LEVEL = "png_compression_level";
+    private int pngCompressionLevel;
+    public final static String KEY_SPRITE_SHEET_TRIM = "sprite_sheet_trim";
+    private boolean spriteSheetTrim;
+    public final static String KEY_SPRITE_SHEET_DEDUPE = "sprite_sheet_dedupe";
+    private boolean spriteSheetDedupe;
+    public final static String KEY_ATLAS_FORMAT = "atlas_format";
+    private int atlasFormat;
+    public final static String KEY_BATCH_PNG_SCALES = "batch_png_scales";
+    private int batchPngScales;
+    public final static String KEY_BATCH_JPEG_SCALES = "batch_jpeg_scales";
+    private int batchJpegScales;
     public final static String KEY_IMAGE_PATH = "image_path";
     private String imagePath;
     public final static String KEY_IMAGE_SCALE = "image_scale";
@@ -165,6 +208,12 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
     public final static String KEY_GRID_VISIBLE = "grid_visible";
     private boolean gridVisible;
+    public final static String KEY_ONION_SKIN_ENABLED = "onion_skin_enabled";
+    private boolean onionSkinEnabled;
+    public final static String KEY_PLAYBACK_FLAG = "playback_flag";
+    private int playbackFlag;
+    public final static String KEY_PLAYBACK_FPS = "playback_fps";
+    private int playbackFps;
     public final static String KEY_GRID_WIDTH = "grid_width";
     private int gridWidth;
     public final static String KEY_GRID_HEIGHT = "grid_height";
@@ -178,6 +227,25 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
     private Palette externalPalette;
 
+    private FrameTimeline frameTimeline;
+    private OnionSkinCache onionSkinCache;
+    private AnimationPlayer animationPlayer;
+    private volatile Bitmap playbackBitmap;
+    private PaletteSwapRenderer paletteSwapRenderer;
+    // Region touched by temp buffers since the last edit
+    private final Rect tempDirtyRect = new Rect();
+    private Rect editDirtyRect;
+    private final EditBoundsHistory editBoundsHistory = EditBoundsHistory.createEditBoundsHistory();
+    private final FloodFillBounds floodFillBounds = FloodFillBounds.createFloodFillBounds();
+    private PaletteSwap paletteSwap;
+    private String paletteSwapName;
+    private HashMap<String, PaletteSwap> paletteSwaps;
+    private ColorUsageCounter colorUsageCounter;
+    private AutoSaver autoSaver;
+    private ProjectFile projectFile;
+    private ThumbnailLoader thumbnailLoader;
+    private DirectoryScanner directoryScanner;
+
     private BitmapPool bitmapPool;
 
     private boolean scaleMode;
@@ -205,6 +273,23 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         catch (InterruptedException e) {
             e.printStackTrace();
         }
+        onionSkinCache = new OnionSkinCache();
+        paletteSwapRenderer = new PaletteSwapRenderer();
+        paletteSwaps = new HashMap<>();
+        colorUsageCounter = ColorUsageCounter.createColorUsageCounter(getCurrentBitmap());
+        listPalettes.setColorUsageCounter(colorUsageCounter);
+        autoSaver = AutoSaver.createAutoSaver(getCurrentBitmapPathname(), new AutoSaver.Source() {
+            @Override
+            public Bitmap getBitmap() {
+                return getCurrentBitmap();
+            }
+        });
+        autoSaver.markSaved(getCurrentBitmap());
+        thumbnailLoader = ThumbnailLoader.createThumbnailLoader(
+                getResources().getDimensionPixelSize(R.dimen.thumbnail_size),
+                ThumbnailDiskCache.createThumbnailDiskCache(new File(getCacheDir(), "thumbnails.pack")));
+        directoryScanner = DirectoryScanner.createDirectoryScanner();
+        resetFrameTimeline();
 
         gridPaint = new Paint();
         gridPaint.setAntiAlias(false);
@@ -282,6 +367,12 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         flushImageNameView();
         imageFormat = preferences.getString(KEY_IMAGE_FORMAT, IMAGE_FORMAT_DEFAULT);
         setImageQuality(preferences.getInt(KEY_IMAGE_QUALITY, IMAGE_QUALITY_DEFAULT));
+        setPngCompressionLevel(preferences.getInt(KEY_PNG_COMPRESSION_LEVEL, IndexedPngEncoder.COMPRESSION_LEVEL_DEFAULT));
+        spriteSheetTrim = preferences.getBoolean(KEY_SPRITE_SHEET_TRIM, SPRITE_SHEET_TRIM_DEFAULT);
+        spriteSheetDedupe = preferences.getBoolean(KEY_SPRITE_SHEET_DEDUPE, SPRITE_SHEET_DEDUPE_DEFAULT);
+        atlasFormat = preferences.getInt(KEY_ATLAS_FORMAT, ATLAS_FORMAT_DEFAULT);
+        batchPngScales = preferences.getInt(KEY_BATCH_PNG_SCALES, BATCH_PNG_SCALES_DEFAULT);
+        batchJpegScales = preferences.getInt(KEY_BATCH_JPEG_SCALES, BATCH_JPEG_SCALES_DEFAULT);
         imagePath = preferences.getString(KEY_IMAGE_PATH, IMAGE_PATH_DEFAULT());
         preSetImageScale(preferences.getInt(KEY_IMAGE_SCALE, IMAGE_SCALE_DEFAULT));
         imageToCenterX = preferences.getInt(KEY_IMAGE_TO_CENTER_X, IMAGE_TO_CENTER_X_DEFAULT());
@@ -294,6 +385,9 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         setPaletteFlag(preferences.getInt(KEY_PALETTE_FLAG, PALETTE_FLAG_DEFAULT));
         setPaintWidth(preferences.getInt(KEY_PAINT_WIDTH, PAINT_WIDTH_DEFAULT));
         setGridVisible(preferences.getBoolean(KEY_GRID_VISIBLE, GRID_VISIBLE_DEFAULT));
+        setOnionSkinEnabled(preferences.getBoolean(KEY_ONION_SKIN_ENABLED, ONION_SKIN_ENABLED_DEFAULT));
+        playbackFlag = preferences.getInt(KEY_PLAYBACK_FLAG, PLAYBACK_FLAG_DEFAULT);
+        playbackFps = preferences.getInt(KEY_PLAYBACK_FPS, PLAYBACK_FPS_DEFAULT);
         setGridWidth(preferences.getInt(KEY_GRID_WIDTH, GRID_WIDTH_DEFAULT));
         setGridHeight(preferences.getInt(KEY_GRID_HEIGHT, GRID_HEIGHT_DEFAULT));
         scaleMode = SCALE_MODE_DEFAULT;
@@ -323,6 +417,12 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         editor.putString(KEY_IMAGE_NAME, imageName);
         editor.putString(KEY_IMAGE_FORMAT, imageFormat);
         editor.putInt(KEY_IMAGE_QUALITY, imageQuality);
+        editor.putInt(KEY_PNG_COMPRESSION_LEVEL, pngCompressionLevel);
+        editor.putBoolean(KEY_SPRITE_SHEET_TRIM, spriteSheetTrim);
+        editor.putBoolean(KEY_SPRITE_SHEET_DEDUPE, spriteSheetDedupe);
+        editor.putInt(KEY_ATLAS_FORMAT, atlasFormat);
+        editor.putInt(KEY_BATCH_PNG_SCALES, batchPngScales);
+        editor.putInt(KEY_BATCH_JPEG_SCALES, batchJpegScales);
         editor.putString(KEY_IMAGE_PATH, imagePath);
         editor.putInt(KEY_IMAGE_SCALE, imageScale);
         editor.putInt(KEY_IMAGE_TO_CENTER_X, imageToCenterX);
@@ -336,6 +436,9 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         editor.putString(KEY_EXTERNAL_PALETTE_NAME, externalPaletteName);
         editor.putInt(KEY_PAINT_WIDTH, paintWidth);
         editor.putBoolean(KEY_GRID_VISIBLE, gridVisible);
+        editor.putBoolean(KEY_ONION_SKIN_ENABLED, onionSkinEnabled);
+        editor.putInt(KEY_PLAYBACK_FLAG, playbackFlag);
+        editor.putInt(KEY_PLAYBACK_FPS, playbackFps);
         editor.putInt(KEY_GRID_WIDTH, gridWidth);
         editor.putInt(KEY_GRID_HEIGHT, gridHeight);
         editor.putString(KEY_BACKGROUND_PALETTE, PaletteFactory.encodeString(backgroundPalette));
@@ -343,14 +446,23 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         editor.putString(KEY_BUILTIN_PALETTE, PaletteFactory.encodeString(builtinPalette));
         editor.apply();
 
-        BitmapEncoder.encodeFile(getCurrentBitmapPathname(),
-                getCurrentBitmap(), true, BitmapEncoder.CompressFormat.PNG, 100);
+        autoSaver.saveNow();
 
     }
 
     private void releaseData() {
         BitmapUtils.recycle(cacheBitmap, getCurrentBitmap(), canvasBackgroundBitmap);
         toolBufferPool.release();
+        frameTimeline.release();
+        onionSkinCache.release();
+        paletteSwapRenderer.release();
+        colorUsageCounter.release();
+        autoSaver.release();
+        thumbnailLoader.release();
+        directoryScanner.release();
+        if (projectFile != null) {
+            projectFile.close();
+        }
     }
 
     public static String IMAGE_NAME_DEFAULT() {
@@ -360,6 +472,15 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     public final static int IMAGE_QUALITY_MAX = 100;
     public final static int IMAGE_QUALITY_MIN = 30;
     public final static int IMAGE_QUALITY_DEFAULT = IMAGE_QUALITY_MAX;
+    public final static String IMAGE_FORMAT_SPRITE_SHEET = "sheet";
+    public final static boolean SPRITE_SHEET_TRIM_DEFAULT = true;
+    public final static boolean SPRITE_SHEET_DEDUPE_DEFAULT = true;
+    public final static int ATLAS_FORMAT_DEFAULT = AtlasFormatFlag.JSON;
+    public final static String IMAGE_FORMAT_BATCH = "batch";
+    // Batch scales are bit masks, each scale is its own bit
+    public final static int[] BATCH_SCALES = {1, 2, 4, 8};
+    public final static int BATCH_PNG_SCALES_DEFAULT = 1 | 2 | 4 | 8;
+    public final static int BATCH_JPEG_SCALES_DEFAULT = 0;
     public static String IMAGE_PATH_DEFAULT() {
         return EnvironmentUtils.getAvailableFilesDirPath("images");
     }
@@ -388,6 +509,9 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     public final static int PAINT_WIDTH_DEFAULT = 1;
 
     public final static boolean GRID_VISIBLE_DEFAULT = false;
+    public final static boolean ONION_SKIN_ENABLED_DEFAULT = false;
+    public final static int PLAYBACK_FLAG_DEFAULT = PlaybackFlag.LOOP;
+    public final static int PLAYBACK_FPS_DEFAULT = AnimationPlayer.FPS_DEFAULT;
     public final static int GRID_WIDTH_DEFAULT = 1;
     public final static int GRID_HEIGHT_DEFAULT = 1;
 
@@ -408,10 +532,15 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     public final static int SELECTION_POPUP_FLAG_HORIZONTAL_DEFAULT = SelectionPopupFlag.LEFT;
     public final static int SELECTION_POPUP_FLAG_VERTICAL_DEFAULT = SelectionPopupFlag.TOP;
 
+    public final static int PALETTE_FROM_IMAGE_SIZE_MAX = 256;
+
     public final static int IMAGE_WIDTH_MIN = 1;
     public final static int IMAGE_HEIGHT_MIN = 1;
+    // Every tool draws into one full-size Bitmap, so documents stay within what it can hold
     public final static int IMAGE_WIDTH_MAX = 1024;
     public final static int IMAGE_HEIGHT_MAX = 1024;
+    // Long side of large images downscaled on import
+    public final static int LARGE_IMAGE_TARGET_DEFAULT = 256;
     
     public static int TEXT_SIZE_INTEGER() {
         return ApplicationUtils.getResources().getInteger(R.integer.text_size_integer);
@@ -567,6 +696,11 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         this.imageQuality = MathUtils.clamp(imageQuality, IMAGE_QUALITY_MIN, IMAGE_QUALITY_MAX);
     }
 
+    private void setPngCompressionLevel(int pngCompressionLevel) {
+        this.pngCompressionLevel = MathUtils.clamp(pngCompressionLevel,
+                IndexedPngEncoder.COMPRESSION_LEVEL_MIN, IndexedPngEncoder.COMPRESSION_LEVEL_MAX);
+    }
+
     private void setImageScale(int imageScale) {
         int newScale = MathUtils.clamp(imageScale, IMAGE_SCALE_MIN, IMAGE_SCALE_MAX);
         int offset = this.imageScale - newScale;
@@ -627,6 +761,13 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         }
     }
 
+    // A project palette has no name and no file, it is saved with the project instead
+    private void saveExternalPalette() {
+        if (externalPalette != null && externalPaletteName != null) {
+            PaletteFactory.encodeFile(externalPalette, getExternalPalettePathname(externalPaletteName), true);
+        }
+    }
+
     private void removeExternalPalette() {
         externalPaletteName = null;
         externalPalette = null;
@@ -655,6 +796,14 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         canvasView.invalidate();
     }
 
+    private void setOnionSkinEnabled(boolean onionSkinEnabled) {
+        this.onionSkinEnabled = onionSkinEnabled;
+        if (!onionSkinEnabled) {
+            onionSkinCache.release();
+        }
+        canvasView.invalidate();
+    }
+
     private void setGridWidth(int gridWidth) {
         this.gridWidth = gridWidth;
         flushGridPaint();
@@ -714,6 +863,20 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         }
     }
 
+    @NonNull
+    private Palette getCurrentPalette() {
+        switch (paletteFlag) {
+            case PaletteFlag.BACKGROUND:
+                return backgroundPalette;
+            case PaletteFlag.GRID:
+                return gridPalette;
+            case PaletteFlag.EXTERNAL:
+                return externalPalette == null ? builtinPalette : externalPalette;
+            default:
+                return builtinPalette;
+        }
+    }
+
     @NonNull
     public static List<String> getExternalPaletteNames() {
         File[] externalPaletteFiles = FileUtils.listFiles(new File(getPalettesPath()),
@@ -763,15 +926,447 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
     private void setBitmap(@NonNull Bitmap bitmap) {
         replaceCacheBitmap(bitmap);
+        tempDirtyRect.setEmpty();
+        editBoundsHistory.clear();
         bitmapPool = new BitmapPool(BitmapPool.getDefaultDirectory(), BitmapPool.getDefaultLruCacheMaxSize(),
                 BitmapPool.getDefaultDiskLruCacheMaxSize() * 2);
+        if (colorUsageCounter != null) {
+            colorUsageCounter.reset(getCurrentBitmap());
+            listPalettes.notifyColorUsageChanged();
+        }
+        if (autoSaver != null) {
+            autoSaver.notifyChanged();
+        }
         canvasView.invalidate();
         flushImageSizeView();
         flushImageScaleView();
         flushPointerCoordsView(upX - getOriginX(), upY - getOriginY());
     }
 
-    private boolean dataSaved = false;
+    // Wraps every committed tool buffer. Temp buffers are drawn into the current bitmap,
+    // drop them so the usage snapshot holds committed pixels
+    private void beginEdit(@Nullable Rect dirty) {
+        toolBufferPool.clearTempToolBuffers();
+        colorUsageCounter.beginUpdate(getCurrentBitmap(), dirty);
+        editDirtyRect = dirty;
+    }
+
+    private void endEdit() {
+        finishEdit();
+        editBoundsHistory.record(editDirtyRect);
+    }
+
+    // Undo and redo revert a recorded edit, they finish without recording a new one
+    private void finishEdit() {
+        colorUsageCounter.endUpdate(getCurrentBitmap());
+        // Cleared temp buffers changed the bitmap too
+        Rect dirty = null;
+        if (editDirtyRect != null) {
+            dirty = new Rect(tempDirtyRect);
+            dirty.union(editDirtyRect);
+        }
+        tempDirtyRect.setEmpty();
+        paletteSwapRenderer.invalidate(dirty);
+        listPalettes.notifyColorUsageChanged();
+        autoSaver.notifyChanged(dirty);
+    }
+
+    // Temp buffers are also drawn into the current bitmap, the swap preview remaps every
+    // region they touched since the last edit, including ones already cleared
+    private void invalidateTempToolBuffers() {
+        switch (toolFlag) {
+            case ToolFlag.PAINT:
+            case ToolFlag.SHAPE:
+                tempDirtyRect.union(getStrokeDirtyRect(paint));
+                break;
+            case ToolFlag.ERASER:
+                tempDirtyRect.union(getStrokeDirtyRect(eraser));
+                break;
+            case ToolFlag.SELECTION:
+                switch (selectionFlag) {
+                    case ToolFlag.SelectionFlag.CUT:
+                    case ToolFlag.SelectionFlag.COPY:
+                        tempDirtyRect.union(getSelectionDstRect());
+                        break;
+                }
+                break;
+        }
+        if (!tempDirtyRect.isEmpty()) {
+            paletteSwapRenderer.invalidate(tempDirtyRect);
+        }
+    }
+
+    private void undoEdit() {
+        beginEdit(editBoundsHistory.getUndoBounds());
+        Bitmap bitmap = getCurrentBitmap();
+        int generationId = bitmap.getGenerationId();
+        toolBufferPool.undo();
+        finishEdit();
+        editBoundsHistory.onUndo(getCurrentBitmap() != bitmap || bitmap.getGenerationId() != generationId);
+    }
+
+    private void redoEdit() {
+        beginEdit(editBoundsHistory.getRedoBounds());
+        Bitmap bitmap = getCurrentBitmap();
+        int generationId = bitmap.getGenerationId();
+        toolBufferPool.redo();
+        finishEdit();
+        editBoundsHistory.onRedo(getCurrentBitmap() != bitmap || bitmap.getGenerationId() != generationId);
+    }
+
+    private @NonNull Rect getStrokeDirtyRect(@NonNull Paint strokePaint) {
+        RectF bounds = new RectF();
+        path.computeBounds(bounds, true);
+        bounds.union(downX, downY);
+        int inset = (int) Math.ceil(strokePaint.getStrokeWidth()) + 1;
+        return new Rect((int) Math.floor(bounds.left) - inset, (int) Math.floor(bounds.top) - inset,
+                (int) Math.ceil(bounds.right) + inset, (int) Math.ceil(bounds.bottom) + inset);
+    }
+
+    private void resetFrameTimeline() {
+        if (frameTimeline != null) {
+            frameTimeline.release();
+        }
+        if (projectFile != null) {
+            projectFile.close();
+            projectFile = null;
+        }
+        frameTimeline = FrameTimeline.createFrameTimeline(getCurrentBitmap());
+    }
+
+    // Only the index and frame table are read here, frames decode their tiles when first shown
+    private void openProject(@NonNull File file) {
+        ProjectFile project;
+        try {
+            project = ProjectFile.openProjectFile(file, new TileStore());
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            Utils.showLongToast(this, R.string.error_project_failed);
+            return;
+        }
+        if (project.getWidth() > IMAGE_WIDTH_MAX || project.getHeight() > IMAGE_HEIGHT_MAX) {
+            project.close();
+            Utils.showLongToast(this, R.string.error_image_too_large);
+            return;
+        }
+        stopPlayback();
+        frameTimeline.release();
+        if (projectFile != null) {
+            projectFile.close();
+        }
+        projectFile = project;
+        frameTimeline = project.createFrameTimeline();
+        imageName = FilenameUtils.getBaseName(file.getName());
+        flushImageNameView();
+        flushFrameBitmap();
+        JSONObject metadata = project.getMetadata();
+        if (metadata != null) {
+            setImageScale(metadata.optInt(KEY_IMAGE_SCALE, imageScale));
+            playbackFps = MathUtils.clamp(metadata.optInt(KEY_PLAYBACK_FPS, playbackFps),
+                    AnimationPlayer.FPS_MIN, AnimationPlayer.FPS_MAX);
+            playbackFlag = metadata.optInt(KEY_PLAYBACK_FLAG, playbackFlag);
+        }
+        // The project palette is used from memory as an unnamed external palette, it is written
+        // back with the project and never to the palettes folder
+        Palette palette = project.getPalette();
+        if (palette != null) {
+            externalPaletteName = null;
+            externalPalette = palette;
+            setPaletteFlag(PaletteFlag.EXTERNAL);
+            flushPaint(listPalettes.getCheckedPaletteColor());
+        }
+        resetImageTranslation();
+    }
+
+    private void saveIndexedPng(@NonNull IndexedPngEncoder encoder, @NonNull File file) {
+        if (!encoder.encodeFile(file)) {
+            Utils.showLongToast(this, R.string.error_image_save_failed);
+            return;
+        }
+        imageName = FilenameUtils.getBaseName(file.getName());
+        flushImageNameView();
+        Utils.showLongToast(this, getString(R.string.info_saved_successfully) + "\n" + file.getAbsolutePath());
+    }
+
+    // Saving again to the open project appends only the tiles that changed. Saving to another file
+    // decodes the frames still pending in the previous project, which is closed once that is done.
+    private void saveProject(@NonNull final File file) {
+        flushCurrentFrame();
+        JSONObject metadata = new JSONObject();
+        try {
+            metadata.put(KEY_IMAGE_SCALE, imageScale);
+            metadata.put(KEY_PLAYBACK_FPS, playbackFps);
+            metadata.put(KEY_PLAYBACK_FLAG, playbackFlag);
+        }
+        catch (JSONException e) {
+            e.printStackTrace();
+            Utils.showLongToast(this, R.string.error_project_failed);
+            return;
+        }
+        final ProjectFile previousProject;
+        if (projectFile == null || !file.equals(projectFile.getFile()) ||
+                projectFile.getTileStore() != frameTimeline.getTileStore()) {
+            previousProject = projectFile;
+            projectFile = ProjectFile.createProjectFile(file, frameTimeline.getTileStore());
+        }
+        else {
+            previousProject = null;
+        }
+        final ProjectFile project = projectFile;
+        AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AppDialogTheme);
+        View view = View.inflate(this, R.layout.dialog_progress, null);
+        final ProgressBar progressBar = view.findViewById(R.id.progress_bar);
+        builder.setTitle(R.string.saving);
+        builder.setView(view);
+        builder.setCancelable(false);
+        final AlertDialog progressDialog = builder.create();
+        progressDialog.show();
+        project.saveAsync(frameTimeline, getCurrentPalette(), metadata, new ProjectFile.Callback() {
+            @Override
+            public void onProgress(final int progress) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressBar.setProgress(progress);
+                    }
+                });
+            }
+            @Override
+            public void onFinish(final boolean isSuccess) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressDialog.dismiss();
+                        if (isSuccess) {
+                            if (previousProject != null) {
+                                previousProject.close();
+                            }
+                            imageName = FilenameUtils.getBaseName(file.getName());
+                            flushImageNameView();
+                            Utils.showLongToast(MainActivity.this,
+                                    getString(R.string.info_saved_successfully) + "\n" + file.getAbsolutePath());
+                        }
+                        else {
+                            // A failed save to another file leaves the previous project open
+                            project.close();
+                            if (projectFile == project) {
+                                projectFile = previousProject;
+                            }
+                            Utils.showLongToast(MainActivity.this, R.string.error_project_failed);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    // The playback mode decides the loop count and whether frames are mirrored
+    private void saveGif(@NonNull final File file) {
+        flushCurrentFrame();
+        AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AppDialogTheme);
+        View view = View.inflate(this, R.layout.dialog_progress, null);
+        final ProgressBar progressBar = view.findViewById(R.id.progress_bar);
+        builder.setTitle(R.string.saving);
+        builder.setView(view);
+        builder.setCancelable(false);
+        final AlertDialog progressDialog = builder.create();
+        progressDialog.show();
+        GifEncoder.encodeFileAsync(frameTimeline, getCurrentPalette(), playbackFlag, file, new GifEncoder.Callback() {
+            @Override
+            public void onProgress(final int progress) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressBar.setProgress(progress);
+                    }
+                });
+            }
+            @Override
+            public void onFinish(final boolean isSuccess) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressDialog.dismiss();
+                        if (isSuccess) {
+                            imageName = FilenameUtils.getBaseName(file.getName());
+                            flushImageNameView();
+                            Utils.showLongToast(MainActivity.this,
+                                    getString(R.string.info_saved_successfully) + "\n" + file.getAbsolutePath());
+                        }
+                        else {
+                            Utils.showLongToast(MainActivity.this, R.string.error_image_save_failed);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    // The atlas is written next to the sheet with the same base name
+    private void exportSpriteSheet(@NonNull final File file) {
+        flushCurrentFrame();
+        String baseName = FilenameUtils.getBaseName(file.getName());
+        SpriteSheetExporter exporter = SpriteSheetExporter.createSpriteSheetExporter(frameTimeline, baseName);
+        exporter.setTrimEnabled(spriteSheetTrim);
+        exporter.setDedupeEnabled(spriteSheetDedupe);
+        exporter.setAtlasFormat(atlasFormat);
+        File atlasFile = new File(file.getParentFile(),
+                baseName + "." + SpriteSheetExporter.getAtlasExtension(atlasFormat));
+        AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AppDialogTheme);
+        View view = View.inflate(this, R.layout.dialog_progress, null);
+        final ProgressBar progressBar = view.findViewById(R.id.progress_bar);
+        builder.setTitle(R.string.exporting);
+        builder.setView(view);
+        builder.setCancelable(false);
+        final AlertDialog progressDialog = builder.create();
+        progressDialog.show();
+        exporter.exportAsync(file, atlasFile, new SpriteSheetExporter.Callback() {
+            @Override
+            public void onProgress(final int progress) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressBar.setProgress(progress);
+                    }
+                });
+            }
+            @Override
+            public void onFinish(final boolean isSuccess) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressDialog.dismiss();
+                        if (isSuccess) {
+                            Utils.showLongToast(MainActivity.this,
+                                    getString(R.string.info_saved_successfully) + "\n" + file.getAbsolutePath());
+                        }
+                        else {
+                            Utils.showLongToast(MainActivity.this, R.string.error_image_save_failed);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    // All scales and formats are written in parallel, one report lists the timings when done
+    private void exportBatch(@NonNull BatchExporter exporter, @NonNull String baseName) {
+        exporter.setCompressionLevel(pngCompressionLevel);
+        exporter.setJpegQuality(imageQuality);
+        AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AppDialogTheme);
+        View view = View.inflate(this, R.layout.dialog_progress, null);
+        final ProgressBar progressBar = view.findViewById(R.id.progress_bar);
+        builder.setTitle(R.string.exporting);
+        builder.setView(view);
+        builder.setCancelable(false);
+        final AlertDialog progressDialog = builder.create();
+        progressDialog.show();
+        exporter.exportAsync(new File(imagePath), baseName, new BatchExporter.Callback() {
+            @Override
+            public void onProgress(final int progress) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressBar.setProgress(progress);
+                    }
+                });
+            }
+            @Override
+            public void onFinish(@NonNull final BatchExporter.Report report) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressDialog.dismiss();
+                        buildBatchReportDialog(report);
+                    }
+                });
+            }
+        });
+    }
+
+    private void buildBatchReportDialog(@NonNull BatchExporter.Report report) {
+        StringBuilder message = new StringBuilder();
+        for (BatchExporter.Result result : report.getResults()) {
+            if (result.isSuccess()) {
+                message.append(getString(R.string.batch_result_time, result.getFile().getName(), result.getMillis()));
+            }
+            else {
+                message.append(getString(R.string.batch_result_failed, result.getFile().getName()));
+            }
+            message.append("\n");
+        }
+        message.append(getString(R.string.batch_total_time, report.getMillis()));
+        AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AppDialogTheme);
+        builder.setTitle(report.isSuccess() ? R.string.batch_export_finished : R.string.error_image_save_failed);
+        builder.setMessage(message);
+        builder.setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                dialog.dismiss();
+            }
+        });
+        builder.create().show();
+    }
+
+    private void flushCurrentFrame() {
+        frameTimeline.getCurrentFrame().getImage().update(getCurrentBitmap());
+    }
+
+    private void flushFrameBitmap() {
+        setBitmap(frameTimeline.getCurrentFrame().getImage().toBitmap());
+    }
+
+    private void setFrameIndex(int index) {
+        if (index == frameTimeline.getIndex()) {
+            return;
+        }
+        flushCurrentFrame();
+        frameTimeline.setIndex(index);
+        flushFrameBitmap();
+    }
+
+    private void startPlayback() {
+        stopPlayback();
+        flushCurrentFrame();
+        animationPlayer = AnimationPlayer.createAnimationPlayer(frameTimeline, playbackFlag, playbackFps,
+                new AnimationPlayer.Callback() {
+                    @Override
+                    public void onDrawFrame(@NonNull Bitmap bitmap, int index) {
+                        playbackBitmap = bitmap;
+                        canvasView.invalidate();
+                    }
+                    @Override
+                    public void onStop(final int droppedFrameCount) {
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (droppedFrameCount > 0) {
+                                    Utils.showShortToast(MainActivity.this,
+                                            getString(R.string.dropped_frames, droppedFrameCount));
+                                }
+                                if (animationPlayer != null && !animationPlayer.isPlaying()) {
+                                    stopPlayback();
+                                }
+                            }
+                        });
+                    }
+                });
+        animationPlayer.start();
+    }
+
+    private void stopPlayback() {
+        if (animationPlayer == null) {
+            return;
+        }
+        // No frame arrives after stop(), the last one is released only once it is no longer drawn
+        animationPlayer.stop();
+        playbackBitmap = null;
+        canvasView.invalidate();
+        animationPlayer.release();
+        animationPlayer = null;
+    }
+
     private boolean dataLoaded = false;
 
     // WIDGETS
@@ -883,7 +1478,9 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             public void onClick(View v) {
                 selectionFlag = ToolFlag.SelectionFlag.CUT;
                 flushSelectedBitmap();
+                beginEdit(getSelectionSrcRect());
                 toolBufferPool.addToolBuffer(getClearBuffer());
+                endEdit();
                 window.dismiss();
                 buildSelectionPopup2();
             }
@@ -900,7 +1497,9 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             @Override
             public void onClick(View v) {
                 selectionFlag = ToolFlag.SelectionFlag.NONE;
+                beginEdit(getSelectionSrcRect());
                 toolBufferPool.addToolBuffer(getClearBuffer());
+                endEdit();
                 selected = false;
                 canvasView.invalidate();
                 window.dismiss();
@@ -928,11 +1527,62 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         selectedBitmap = bitmap;
         selected = true;
     }
+    // Cuts every pixel of the color into a floating selection, selections are rectangular
+    // so the other pixels inside the bounds stay in the image
+    private void selectColorPixels(int color) {
+        if (readOnlyMode || selected) {
+            return;
+        }
+        Bitmap bitmap = getCurrentBitmap();
+        Rect bounds = new Rect();
+        Bitmap mask = colorUsageCounter.createColorMask(bitmap, color, bounds);
+        if (mask == null) {
+            Utils.showLongToast(this, R.string.error_color_unused);
+            return;
+        }
+        Bitmap rest = Bitmap.createBitmap(bitmap, bounds.left, bounds.top, bounds.width(), bounds.height());
+        rest = rest.copy(Bitmap.Config.ARGB_8888, true);
+        int[] row = new int[bounds.width()];
+        for (int y = 0; y < bounds.height(); y ++) {
+            rest.getPixels(row, 0, row.length, 0, y, row.length, 1);
+            for (int x = 0; x < row.length; x ++) {
+                if (row[x] == color) {
+                    row[x] = Color.TRANSPARENT;
+                }
+            }
+            rest.setPixels(row, 0, row.length, 0, y, row.length, 1);
+        }
+        selectionBitmapSrcX = bounds.left;
+        selectionBitmapSrcY = bounds.top;
+        selectionBitmapSrcWidth = bounds.width();
+        selectionBitmapSrcHeight = bounds.height();
+        beginEdit(bounds);
+        toolBufferPool.addToolBuffer(new MultiBuffer(getClearBuffer(),
+                new BitmapBuffer(rest, bounds.left, bounds.top, null, null, null)));
+        endEdit();
+        toolFlag = ToolFlag.SELECTION;
+        groupTools.checkIndex(4);
+        flushPasteBitmap(mask);
+        selectionBitmapDstX = bounds.left;
+        selectionBitmapDstY = bounds.top;
+        selectionPopupFlagHorizontal = SelectionPopupFlag.RIGHT;
+        selectionPopupFlagVertical = SelectionPopupFlag.BOTTOM;
+        buildSelectionPopup2();
+        canvasView.invalidate();
+    }
     private void flushSelectedBitmap() {
         selectedBitmap = Bitmap.createBitmap(getCurrentBitmap(),
                 selectionBitmapSrcX, selectionBitmapSrcY,
                 selectionBitmapSrcWidth, selectionBitmapSrcHeight);
     }
+    private @NonNull Rect getSelectionSrcRect() {
+        return new Rect(selectionBitmapSrcX, selectionBitmapSrcY,
+                selectionBitmapSrcX + selectionBitmapSrcWidth, selectionBitmapSrcY + selectionBitmapSrcHeight);
+    }
+    private @NonNull Rect getSelectionDstRect() {
+        return new Rect(selectionBitmapDstX, selectionBitmapDstY,
+                selectionBitmapDstX + selectionBitmapDstWidth, selectionBitmapDstY + selectionBitmapDstHeight);
+    }
     private @NonNull ClearBuffer getClearBuffer() {
         return new ClearBuffer(
                 selectionBitmapSrcX, selectionBitmapSrcY,
@@ -1070,6 +1720,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                         toolBufferPool.addTempToolBuffer(getSelectionBuffer());
                         break;
                 }
+                invalidateTempToolBuffers();
                 canvasView.invalidate();
             }
         });
@@ -1095,6 +1746,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                         toolBufferPool.addTempToolBuffer(getSelectionBuffer());
                         break;
                 }
+                invalidateTempToolBuffers();
                 canvasView.invalidate();
             }
         });
@@ -1116,6 +1768,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                         toolBufferPool.addTempToolBuffer(getSelectionBuffer());
                         break;
                 }
+                invalidateTempToolBuffers();
                 canvasView.invalidate();
             }
         });
@@ -1137,12 +1790,14 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                         toolBufferPool.addTempToolBuffer(getSelectionBuffer());
                         break;
                 }
+                invalidateTempToolBuffers();
                 canvasView.invalidate();
             }
         });
         imgDone.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
+                beginEdit(getSelectionDstRect());
                 switch (selectionFlag) {
                     case ToolFlag.SelectionFlag.CUT:
                         toolBufferPool.addToolBuffer(getBitmapBuffer());
@@ -1151,6 +1806,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                         toolBufferPool.addToolBuffer(getSelectionBuffer());
                         break;
                 }
+                endEdit();
                 selectionFlag = ToolFlag.SelectionFlag.NONE;
                 selectionBitmapRotateBuffer = null;
                 selectionBitmapFlipVerticalBuffer = null;
@@ -1189,6 +1845,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         window.showAsDropDown(imgMenu);
         ImageButton imgLoad = view.findViewById(R.id.img_load);
         ImageButton imgSave = view.findViewById(R.id.img_save);
+        ImageButton imgFrames = view.findViewById(R.id.img_frames);
+        ImageButton imgPlay = view.findViewById(R.id.img_play);
         ImageButton imgHelp = view.findViewById(R.id.img_help);
         ImageButton imgInfo = view.findViewById(R.id.img_info);
         ImageButton imgExit = view.findViewById(R.id.img_exit);
@@ -1206,6 +1864,20 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                 window.dismiss();
             }
         });
+        imgFrames.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                buildFramesDialog();
+                window.dismiss();
+            }
+        });
+        imgPlay.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                buildPlaybackDialog();
+                window.dismiss();
+            }
+        });
         imgHelp.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
@@ -1814,8 +2486,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             public void onClick(DialogInterface dialog, int which) {
                 listPalettes.setCheckedPaletteColor(dialogTempColor);
                 if (paletteFlag == PaletteFlag.EXTERNAL) {
-                    PaletteFactory.encodeFile(externalPalette,
-                            getExternalPalettePathname(externalPaletteName), true);
+                    saveExternalPalette();
                 }
                 flushColors(dialogTempColor);
             }
@@ -1855,6 +2526,12 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                 buildAddPaletteDialog();
             }
         });
+        builder.setNeutralButton(R.string.palette_swap, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                buildPaletteSwapDialog();
+            }
+        });
         final AlertDialog alertDialog = builder.create();
         RecyclerView recyclerView = (RecyclerView) view;
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
@@ -1875,8 +2552,9 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                 checkedPosition = 2;
                 break;
             case PaletteFlag.EXTERNAL:
-                checkedPosition = 3;
-                checkedPosition += externalPaletteNames.indexOf(externalPaletteName);
+                if (externalPaletteName != null) {
+                    checkedPosition = 3 + externalPaletteNames.indexOf(externalPaletteName);
+                }
                 break;
         }
         final PaletteListAdapter adapter = new PaletteListAdapter(this,
@@ -1976,45 +2654,141 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         recyclerView.setAdapter(adapter);
         alertDialog.show();
     }
-    // Add palette dialog
-    private Palette dialogTempPalette;
-    private void buildAddPaletteDialog () {
+    // Palette swap dialog
+    private void buildPaletteSwapDialog() {
         AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AppDialogTheme);
-        String [] items = {
-                getString(R.string.empty_palette),
-                getString(R.string.copy_current_palette),
-                getString(R.string.automatic_gradient)
-        };
-        builder.setItems(items, new DialogInterface.OnClickListener() {
+        View view = View.inflate(this, R.layout.dialog_recycler_view, null);
+        builder.setView(view);
+        builder.setPositiveButton(R.string.apply, new DialogInterface.OnClickListener() {
             @Override
             public void onClick(DialogInterface dialog, int which) {
-                switch (which) {
-                    case 0:
-                        dialogTempPalette = Palette.createPalette(12);
-                        break;
-                    case 1:
-                        switch (paletteFlag) {
-                            case PaletteFlag.BACKGROUND:
-                                dialogTempPalette = Palette.createPalette(backgroundPalette, 12,
-                                        backgroundPalette.getIndex());
-                                break;
-                            case PaletteFlag.GRID:
-                                dialogTempPalette = Palette.createPalette(gridPalette, 12,
-                                        gridPalette.getIndex());
-                                break;
-                            case PaletteFlag.INTERNAL:
-                                dialogTempPalette = Palette.createPalette(builtinPalette);
-                                break;
-                            case PaletteFlag.EXTERNAL:
-                                if (externalPalette == null) {
-                                    dialogTempPalette = Palette.createPalette(12);
-                                }
-                                else {
-                                    dialogTempPalette = Palette.createPalette(externalPalette);
-                                }
-                                break;
-                        }
-                        break;
+                applyPaletteSwap();
+            }
+        });
+        builder.setNegativeButton(R.string.none, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                setPaletteSwap(null);
+            }
+        });
+        builder.setOnCancelListener(new DialogInterface.OnCancelListener() {
+            @Override
+            public void onCancel(DialogInterface dialog) {
+                setPaletteSwap(null);
+            }
+        });
+        final AlertDialog alertDialog = builder.create();
+        RecyclerView recyclerView = (RecyclerView) view;
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        final List<String> externalPaletteNames = getExternalPaletteNames();
+        List<String> itemNames = new ArrayList<>();
+        for (String externalPaletteName : externalPaletteNames) {
+            if (paletteSwap != null && externalPaletteName.equals(paletteSwapName)) {
+                itemNames.add("> " + externalPaletteName);
+            }
+            else {
+                itemNames.add(externalPaletteName);
+            }
+        }
+        TextViewListAdapter adapter = new TextViewListAdapter(this, itemNames,
+                VectorDrawableCompat.create(getResources(), R.drawable.ic_baseline_palette_24, getTheme()));
+        adapter.setOnItemClickListener(new TextViewListAdapter.OnItemClickListener() {
+            @Override
+            public void onClick(int position) {
+                setPaletteSwap(externalPaletteNames.get(position));
+                alertDialog.dismiss();
+                buildPaletteSwapDialog();
+            }
+        });
+        recyclerView.setAdapter(adapter);
+        alertDialog.show();
+    }
+    // Previews the current palette swapped for the named external palette, null to stop
+    private void setPaletteSwap(@Nullable String externalPaletteName) {
+        PaletteSwap swap = null;
+        if (externalPaletteName != null) {
+            Palette targetPalette = PaletteFactory.decodeFile(getExternalPalettePathname(externalPaletteName));
+            if (targetPalette != null) {
+                Palette sourcePalette = getCurrentPalette();
+                swap = paletteSwaps.get(externalPaletteName);
+                // Reuse the swap while both palettes are unchanged so its preview stays cached
+                if (swap == null || !swap.matches(sourcePalette, targetPalette)) {
+                    swap = PaletteSwap.createPaletteSwap(sourcePalette, targetPalette);
+                    paletteSwaps.put(externalPaletteName, swap);
+                }
+            }
+        }
+        paletteSwap = swap;
+        paletteSwapName = swap == null ? null : externalPaletteName;
+        if (swap == null) {
+            paletteSwaps.clear();
+            paletteSwapRenderer.release();
+        }
+        canvasView.invalidate();
+    }
+    // Remaps the image as a single undoable step
+    private void applyPaletteSwap() {
+        if (paletteSwap == null) {
+            return;
+        }
+        // Remap committed pixels only, the edit clears temp buffers anyway
+        toolBufferPool.clearTempToolBuffers();
+        Bitmap bitmap = getCurrentBitmap();
+        Rect changed = new Rect();
+        Bitmap swapped = paletteSwap.apply(bitmap, changed);
+        if (changed.isEmpty()) {
+            swapped.recycle();
+        }
+        else {
+            beginEdit(changed);
+            toolBufferPool.addToolBuffer(new MultiBuffer(
+                    new ClearBuffer(0, 0, bitmap.getWidth(), bitmap.getHeight()),
+                    new BitmapBuffer(swapped, 0, 0, null, null, null)));
+            endEdit();
+        }
+        setPaletteSwap(null);
+    }
+    // Add palette dialog
+    private Palette dialogTempPalette;
+    private void buildAddPaletteDialog () {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AppDialogTheme);
+        String [] items = {
+                getString(R.string.empty_palette),
+                getString(R.string.copy_current_palette),
+                getString(R.string.automatic_gradient),
+                getString(R.string.from_current_image),
+                getString(R.string.import_palettes)
+        };
+        builder.setItems(items, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                switch (which) {
+                    case 0:
+                        dialogTempPalette = Palette.createPalette(12);
+                        break;
+                    case 1:
+                        switch (paletteFlag) {
+                            case PaletteFlag.BACKGROUND:
+                                dialogTempPalette = Palette.createPalette(backgroundPalette, 12,
+                                        backgroundPalette.getIndex());
+                                break;
+                            case PaletteFlag.GRID:
+                                dialogTempPalette = Palette.createPalette(gridPalette, 12,
+                                        gridPalette.getIndex());
+                                break;
+                            case PaletteFlag.INTERNAL:
+                                dialogTempPalette = Palette.createPalette(builtinPalette);
+                                break;
+                            case PaletteFlag.EXTERNAL:
+                                if (externalPalette == null) {
+                                    dialogTempPalette = Palette.createPalette(12);
+                                }
+                                else {
+                                    dialogTempPalette = Palette.createPalette(externalPalette);
+                                }
+                                break;
+                        }
+                        break;
                     case 2:
                         int originalColor = listPalettes.getCheckedPaletteColor();
                         float originalValue = ColorFactory.value(originalColor);
@@ -2046,6 +2820,17 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                         dialogTempPalette = Palette.createPalette(colors,
                                 colorList.indexOf(originalColor));
                         break;
+                    case 3:
+                        dialogTempPalette = ColorHistogram.createColorHistogram(getCurrentBitmap())
+                                .toPalette(PALETTE_FROM_IMAGE_SIZE_MAX);
+                        if (dialogTempPalette == null) {
+                            dialogTempPalette = Palette.createPalette(12);
+                        }
+                        break;
+                    case 4:
+                        buildImportPalettesDialog();
+                        dialog.dismiss();
+                        return;
                 }
                 buildSavePaletteDialog(null);
                 dialog.dismiss();
@@ -2059,6 +2844,67 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         });
         builder.create().show();
     }
+    // Import palettes dialog
+    private void buildImportPalettesDialog () {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AppDialogTheme);
+        View view = View.inflate(this, R.layout.dialog_import_palettes, null);
+        final EditText etImportPath = view.findViewById(R.id.et_import_path);
+        etImportPath.setText(imagePath);
+        builder.setView(view);
+        builder.setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                importPalettes(new File(etImportPath.getText().toString()));
+            }
+        });
+        builder.setNegativeButton(android.R.string.cancel, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                buildAddPaletteDialog();
+            }
+        });
+        builder.setOnCancelListener(new DialogInterface.OnCancelListener() {
+            @Override
+            public void onCancel(DialogInterface dialog) {
+                buildAddPaletteDialog();
+            }
+        });
+        builder.create().show();
+    }
+    private void importPalettes(@NonNull File directory) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AppDialogTheme);
+        View view = View.inflate(this, R.layout.dialog_progress, null);
+        final ProgressBar progressBar = view.findViewById(R.id.progress_bar);
+        builder.setTitle(R.string.importing);
+        builder.setView(view);
+        builder.setCancelable(false);
+        final AlertDialog progressDialog = builder.create();
+        progressDialog.show();
+        PaletteImporter.importDirectoryAsync(directory, new File(getPalettesPath()), "palette",
+                new PaletteImporter.Callback() {
+                    @Override
+                    public void onProgress(final int progress) {
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                progressBar.setProgress(progress);
+                            }
+                        });
+                    }
+                    @Override
+                    public void onFinish(final int importedCount, final int failedCount) {
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                progressDialog.dismiss();
+                                Utils.showLongToast(MainActivity.this,
+                                        getString(R.string.palettes_imported, importedCount, failedCount));
+                                buildPaletteFlagDialog();
+                            }
+                        });
+                    }
+                });
+    }
     // Save palette dialog
     private String dialogTempPaletteName;
     private boolean dialogTempPaletteSameName;
@@ -2272,17 +3118,147 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             tvMessage.invalidate();
         }
     }
+    // Frames dialog
+    private void buildFramesDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AppDialogTheme);
+        View view = View.inflate(this, R.layout.dialog_frames, null);
+        builder.setView(view);
+        CheckBox boxOnionSkin = view.findViewById(R.id.box_onion_skin);
+        boxOnionSkin.setChecked(onionSkinEnabled);
+        boxOnionSkin.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                setOnionSkinEnabled(isChecked);
+            }
+        });
+        builder.setPositiveButton(R.string.add, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                flushCurrentFrame();
+                frameTimeline.addFrame();
+                flushFrameBitmap();
+            }
+        });
+        builder.setNeutralButton(R.string.duplicate, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                flushCurrentFrame();
+                frameTimeline.duplicateFrame(frameTimeline.getIndex());
+                flushFrameBitmap();
+            }
+        });
+        builder.setNegativeButton(R.string.delete, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                if (frameTimeline.size() > 1) {
+                    frameTimeline.removeFrame(frameTimeline.getIndex());
+                    flushFrameBitmap();
+                }
+            }
+        });
+        final AlertDialog alertDialog = builder.create();
+        RecyclerView recyclerView = view.findViewById(R.id.recycler_frames);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        List<String> frameNames = new ArrayList<>();
+        for (int i = 0; i < frameTimeline.size(); i ++) {
+            String frameName = getString(R.string.frame) + " " + (i + 1);
+            if (i == frameTimeline.getIndex()) {
+                frameName = "> " + frameName;
+            }
+            frameNames.add(frameName);
+        }
+        TextViewListAdapter adapter = new TextViewListAdapter(this, frameNames,
+                VectorDrawableCompat.create(getResources(), R.drawable.ic_baseline_movie_24, getTheme()));
+        adapter.setOnItemClickListener(new TextViewListAdapter.OnItemClickListener() {
+            @Override
+            public void onClick(int position) {
+                setFrameIndex(position);
+                alertDialog.dismiss();
+            }
+        });
+        recyclerView.setAdapter(adapter);
+        alertDialog.show();
+    }
+    // Playback dialog
+    private int dialogTempPlaybackFlag;
+    @SuppressLint("SetTextI18n")
+    private void buildPlaybackDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AppDialogTheme);
+        View view = View.inflate(this, R.layout.dialog_playback, null);
+        final Frame currentFrame = frameTimeline.getCurrentFrame();
+        EditText etFrameDuration = view.findViewById(R.id.et_frame_duration);
+        EditText etPlaybackFps = view.findViewById(R.id.et_playback_fps);
+        etFrameDuration.setText(Integer.toString(currentFrame.getDuration()));
+        etPlaybackFps.setText(Integer.toString(playbackFps));
+        RadioGroup groupPlaybackFlag = view.findViewById(R.id.group_playback_flag);
+        dialogTempPlaybackFlag = playbackFlag;
+        switch (playbackFlag) {
+            case PlaybackFlag.LOOP:
+                groupPlaybackFlag.check(R.id.btn_playback_flag_loop);
+                break;
+            case PlaybackFlag.PING_PONG:
+                groupPlaybackFlag.check(R.id.btn_playback_flag_ping_pong);
+                break;
+            case PlaybackFlag.ONCE:
+                groupPlaybackFlag.check(R.id.btn_playback_flag_once);
+                break;
+        }
+        groupPlaybackFlag.setOnCheckedChangeListener(new RadioGroup.OnCheckedChangeListener() {
+            @SuppressLint("NonConstantResourceId")
+            @Override
+            public void onCheckedChanged(RadioGroup group, int checkedId) {
+                switch (checkedId) {
+                    case R.id.btn_playback_flag_loop:
+                        dialogTempPlaybackFlag = PlaybackFlag.LOOP;
+                        break;
+                    case R.id.btn_playback_flag_ping_pong:
+                        dialogTempPlaybackFlag = PlaybackFlag.PING_PONG;
+                        break;
+                    case R.id.btn_playback_flag_once:
+                        dialogTempPlaybackFlag = PlaybackFlag.ONCE;
+                        break;
+                }
+            }
+        });
+        builder.setView(view);
+        builder.setPositiveButton(R.string.play, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                if (etFrameDuration.getText().toString().isEmpty()) {
+                    currentFrame.setDuration(Frame.DURATION_DEFAULT);
+                }
+                else {
+                    currentFrame.setDuration(Integer.parseInt(etFrameDuration.getText().toString()));
+                }
+                if (etPlaybackFps.getText().toString().isEmpty()) {
+                    playbackFps = PLAYBACK_FPS_DEFAULT;
+                }
+                else {
+                    playbackFps = MathUtils.clamp(Integer.parseInt(etPlaybackFps.getText().toString()),
+                            AnimationPlayer.FPS_MIN, AnimationPlayer.FPS_MAX);
+                }
+                playbackFlag = dialogTempPlaybackFlag;
+                startPlayback();
+            }
+        }).setNegativeButton(android.R.string.cancel, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {}
+        });
+        builder.create().show();
+    }
     // Load dialog
     private void buildLoadDialog () {
         AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AppDialogTheme);
         String[] items = {
                 getString(R.string.load_image),
                 getString(R.string.new_image),
-                getString(R.string.paste_image)
+                getString(R.string.paste_image),
+                getString(R.string.import_quantized_image)
         };
         builder.setItems(items, new DialogInterface.OnClickListener() {
             @Override
             public void onClick(DialogInterface dialog, int which) {
+                dialogTempQuantizeImage = false;
                 switch (which) {
                     case 0:
                         buildLoadImageDialog(false);
@@ -2293,11 +3269,114 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                     case 2:
                         buildLoadImageDialog(true);
                         break;
+                    case 3:
+                        buildQuantizeDialog();
+                        break;
+                }
+            }
+        });
+        builder.create().show();
+    }
+    // Quantize dialog
+    private boolean dialogTempQuantizeImage;
+    private int dialogTempColorCount = ImageQuantizer.COLOR_COUNT_DEFAULT;
+    private int dialogTempQuantizerFlag = QuantizerFlag.MEDIAN_CUT;
+    private boolean dialogTempDither;
+    @SuppressLint("SetTextI18n")
+    private void buildQuantizeDialog() {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AppDialogTheme);
+        View view = View.inflate(this, R.layout.dialog_quantize, null);
+        EditText etColorCount = view.findViewById(R.id.et_color_count);
+        etColorCount.setText(Integer.toString(dialogTempColorCount));
+        RadioGroup groupQuantizerFlag = view.findViewById(R.id.group_quantizer_flag);
+        switch (dialogTempQuantizerFlag) {
+            case QuantizerFlag.MEDIAN_CUT:
+                groupQuantizerFlag.check(R.id.btn_quantizer_flag_median_cut);
+                break;
+            case QuantizerFlag.OCTREE:
+                groupQuantizerFlag.check(R.id.btn_quantizer_flag_octree);
+                break;
+        }
+        CheckBox boxDither = view.findViewById(R.id.box_dither);
+        boxDither.setChecked(dialogTempDither);
+        builder.setView(view);
+        builder.setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                if (etColorCount.getText().toString().isEmpty()) {
+                    dialogTempColorCount = ImageQuantizer.COLOR_COUNT_DEFAULT;
                 }
+                else {
+                    dialogTempColorCount = MathUtils.clamp(Integer.parseInt(etColorCount.getText().toString()),
+                            ImageQuantizer.COLOR_COUNT_MIN, ImageQuantizer.COLOR_COUNT_MAX);
+                }
+                if (groupQuantizerFlag.getCheckedRadioButtonId() == R.id.btn_quantizer_flag_octree) {
+                    dialogTempQuantizerFlag = QuantizerFlag.OCTREE;
+                }
+                else {
+                    dialogTempQuantizerFlag = QuantizerFlag.MEDIAN_CUT;
+                }
+                dialogTempDither = boxDither.isChecked();
+                buildLoadImageDialog(false);
+                dialogTempQuantizeImage = true;
             }
+        }).setNegativeButton(android.R.string.cancel, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {}
         });
         builder.create().show();
     }
+    // Quantizes the bitmap in the background, then replaces the image and offers to save the palette
+    private void quantizeImage(@NonNull final Bitmap bitmap, @NonNull final String name) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AppDialogTheme);
+        View view = View.inflate(this, R.layout.dialog_progress, null);
+        final ProgressBar progressBar = view.findViewById(R.id.progress_bar);
+        builder.setTitle(R.string.quantizing);
+        builder.setView(view);
+        builder.setCancelable(false);
+        final AlertDialog progressDialog = builder.create();
+        progressDialog.show();
+        ImageQuantizer.quantizeAsync(bitmap, dialogTempColorCount, dialogTempQuantizerFlag, dialogTempDither,
+                new ImageQuantizer.Callback() {
+                    @Override
+                    public void onProgress(final int progress) {
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                progressBar.setProgress(progress);
+                            }
+                        });
+                    }
+                    @Override
+                    public void onSuccess(@NonNull final Bitmap result, @NonNull final Palette palette) {
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                progressDialog.dismiss();
+                                BitmapUtils.recycle(bitmap);
+                                imageName = FilenameUtils.getBaseName(name);
+                                flushImageNameView();
+                                setBitmap(result);
+                                resetFrameTimeline();
+                                resetImageTranslation();
+                                dialogTempPalette = palette;
+                                buildSavePaletteDialog(imageName);
+                            }
+                        });
+                    }
+                    @Override
+                    public void onFailure() {
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                progressDialog.dismiss();
+                                BitmapUtils.recycle(bitmap);
+                                Utils.showLongToast(MainActivity.this, R.string.error_quantize_failed);
+                            }
+                        });
+                    }
+                });
+    }
     // Load image dialog
     private RecyclerView dialogTempRecyclerImageList;
     private TextView dialogTempTvCurrentPath;
@@ -2319,7 +3398,9 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         dialogTempRecyclerImageList.setLayoutManager(new LinearLayoutManager(this));
         dialogTempTvCurrentPath = view.findViewById(R.id.tv_current_path);
         dialogTempTvCurrentPath.setText(imagePath);
-        dialogTempRecyclerImageList.setAdapter(flushImageListAdapter(imagePath, isPaste));
+        dialogTempImageListAdapter = createImageListAdapter(isPaste);
+        dialogTempRecyclerImageList.setAdapter(dialogTempImageListAdapter);
+        flushImageList(imagePath);
         ImageView imgBack = view.findViewById(R.id.img_back);
         imgBack.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -2333,7 +3414,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                     }
                 }
                 dialogTempTvCurrentPath.setText(imagePath);
-                dialogTempRecyclerImageList.setAdapter(flushImageListAdapter(imagePath, isPaste));
+                flushImageList(imagePath);
             }
         });
         loadImageDialog.show();
@@ -2410,6 +3491,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                 }
                 imageName = IMAGE_NAME_DEFAULT();
                 setBitmap(Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888));
+                resetFrameTimeline();
                 resetImageTranslation();
                 flushImageNameView();
                 dialog.dismiss();
@@ -2516,6 +3598,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                         public void onClick(DialogInterface dialog, int which) {
                             setBitmap(Bitmap.createBitmap(getCurrentBitmap(),
                                     0, 0, finalWidth, finalHeight));
+                            frameTimeline.resize(finalWidth, finalHeight);
+                            flushCurrentFrame();
                             dialog.dismiss();
                         }
                     }, new DialogInterface.OnCancelListener() {
@@ -2530,6 +3614,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                     Canvas canvas = new Canvas(bitmap);
                     canvas.drawBitmap(getCurrentBitmap(), 0, 0, bitmapPaint);
                     setBitmap(bitmap);
+                    frameTimeline.resize(width, height);
+                    flushCurrentFrame();
                     dialog.dismiss();
                 }
             }
@@ -2605,6 +3691,151 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             @Override
             public void onClick(DialogInterface dialog, int which) {
                 dialogTempImageName = dialogTempEtImageName.getText().toString();
+                if (imageFormat.equals(ProjectFile.EXTENSION)) {
+                    dialogTempImageName = dialogTempImageName + "." + ProjectFile.EXTENSION;
+                    ActivityUtils.hideSoftInputFromView(MainActivity.this, dialogTempEtImageName);
+                    final File file = new File(getImagePathname(dialogTempImageName));
+                    if (file.isDirectory()) {
+                        return;
+                    }
+                    if (file.exists() && (projectFile == null || !file.equals(projectFile.getFile()))) {
+                        buildFileSameNameDialog(new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                saveProject(file);
+                            }
+                        }, new DialogInterface.OnCancelListener() {
+                            @Override
+                            public void onCancel(DialogInterface dialog) {
+                                buildSaveDialog(FilenameUtils.getBaseName(dialogTempImageName));
+                            }
+                        });
+                    }
+                    else {
+                        saveProject(file);
+                    }
+                    return;
+                }
+                if (imageFormat.equals(IMAGE_FORMAT_SPRITE_SHEET)) {
+                    dialogTempImageName = dialogTempImageName + ".png";
+                    ActivityUtils.hideSoftInputFromView(MainActivity.this, dialogTempEtImageName);
+                    final File file = new File(getImagePathname(dialogTempImageName));
+                    if (file.isDirectory()) {
+                        return;
+                    }
+                    if (file.exists()) {
+                        buildFileSameNameDialog(new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                exportSpriteSheet(file);
+                            }
+                        }, new DialogInterface.OnCancelListener() {
+                            @Override
+                            public void onCancel(DialogInterface dialog) {
+                                buildSaveDialog(FilenameUtils.getBaseName(dialogTempImageName));
+                            }
+                        });
+                    }
+                    else {
+                        exportSpriteSheet(file);
+                    }
+                    return;
+                }
+                if (imageFormat.equals(IMAGE_FORMAT_BATCH)) {
+                    final String baseName = dialogTempImageName;
+                    final BatchExporter exporter = BatchExporter.createBatchExporter(getCurrentBitmap());
+                    for (int scale : BATCH_SCALES) {
+                        if ((batchPngScales & scale) != 0) {
+                            exporter.addTarget(scale, BatchExporter.FORMAT_PNG);
+                        }
+                        if ((batchJpegScales & scale) != 0) {
+                            exporter.addTarget(scale, BatchExporter.FORMAT_JPEG);
+                        }
+                    }
+                    if (exporter.getTargetCount() < 1) {
+                        Utils.showLongToast(MainActivity.this, R.string.error_batch_empty);
+                        return;
+                    }
+                    ActivityUtils.hideSoftInputFromView(MainActivity.this, dialogTempEtImageName);
+                    boolean exists = false;
+                    for (File file : exporter.getFiles(new File(imagePath), baseName)) {
+                        if (file.isDirectory()) {
+                            return;
+                        }
+                        exists |= file.exists();
+                    }
+                    if (exists) {
+                        buildFileSameNameDialog(new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                exportBatch(exporter, baseName);
+                            }
+                        }, new DialogInterface.OnCancelListener() {
+                            @Override
+                            public void onCancel(DialogInterface dialog) {
+                                buildSaveDialog(baseName);
+                            }
+                        });
+                    }
+                    else {
+                        exportBatch(exporter, baseName);
+                    }
+                    return;
+                }
+                if (imageFormat.equals("gif")) {
+                    dialogTempImageName = dialogTempImageName + ".gif";
+                    ActivityUtils.hideSoftInputFromView(MainActivity.this, dialogTempEtImageName);
+                    final File file = new File(getImagePathname(dialogTempImageName));
+                    if (file.isDirectory()) {
+                        return;
+                    }
+                    if (file.exists()) {
+                        buildFileSameNameDialog(new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                saveGif(file);
+                            }
+                        }, new DialogInterface.OnCancelListener() {
+                            @Override
+                            public void onCancel(DialogInterface dialog) {
+                                buildSaveDialog(FilenameUtils.getBaseName(dialogTempImageName));
+                            }
+                        });
+                    }
+                    else {
+                        saveGif(file);
+                    }
+                    return;
+                }
+                // Images of up to 256 colors are written as palette PNGs
+                final IndexedPngEncoder indexedPngEncoder = imageFormat.equals("png") ?
+                        IndexedPngEncoder.createIndexedPngEncoder(getCurrentBitmap()) : null;
+                if (indexedPngEncoder != null) {
+                    indexedPngEncoder.setCompressionLevel(pngCompressionLevel);
+                    dialogTempImageName = dialogTempImageName + ".png";
+                    ActivityUtils.hideSoftInputFromView(MainActivity.this, dialogTempEtImageName);
+                    final File file = new File(getImagePathname(dialogTempImageName));
+                    if (file.isDirectory()) {
+                        return;
+                    }
+                    if (file.exists()) {
+                        buildFileSameNameDialog(new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                saveIndexedPng(indexedPngEncoder, file);
+                            }
+                        }, new DialogInterface.OnCancelListener() {
+                            @Override
+                            public void onCancel(DialogInterface dialog) {
+                                buildSaveDialog(FilenameUtils.getBaseName(dialogTempImageName));
+                            }
+                        });
+                    }
+                    else {
+                        saveIndexedPng(indexedPngEncoder, file);
+                    }
+                    return;
+                }
                 BitmapEncoder.CompressFormat compressFormat;
                 switch (imageFormat) {
                     case "jpeg":
@@ -2697,7 +3928,9 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         dialogTempRecyclerImageList.setLayoutManager(new LinearLayoutManager(this));
         dialogTempTvCurrentPath = view.findViewById(R.id.tv_current_path);
         dialogTempTvCurrentPath.setText(imagePath);
-        dialogTempRecyclerImageList.setAdapter(flushImageListAdapter(imagePath, true));
+        dialogTempImageListAdapter = createImageListAdapter(true);
+        dialogTempRecyclerImageList.setAdapter(dialogTempImageListAdapter);
+        flushImageList(imagePath);
         ImageView imgBack = view.findViewById(R.id.img_back);
         imgBack.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -2711,13 +3944,19 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                     }
                 }
                 dialogTempTvCurrentPath.setText(imagePath);
-                dialogTempRecyclerImageList.setAdapter(flushImageListAdapter(imagePath, true));
+                flushImageList(imagePath);
             }
         });
         builder.setView(view);
         builder.create().show();
     }
     private int dialogTempImageQuality;
+    private int dialogTempPngCompressionLevel;
+    private boolean dialogTempSpriteSheetTrim;
+    private boolean dialogTempSpriteSheetDedupe;
+    private int dialogTempAtlasFormat;
+    private int dialogTempBatchPngScales;
+    private int dialogTempBatchJpegScales;
     private void buildImageFormatDialog (DialogInterface.OnCancelListener listener) {
         AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AppDialogTheme);
         View view = View.inflate(this, R.layout.dialog_image_format, null);
@@ -2725,7 +3964,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         tabHost.setup();
         TabHost.TabSpec png = tabHost.newTabSpec("png");
         png.setIndicator("PNG");
-        png.setContent(R.id.ll_empty);
+        png.setContent(R.id.ll_png_compression);
         tabHost.addTab(png);
         TabHost.TabSpec jpeg = tabHost.newTabSpec("jpeg");
         jpeg.setIndicator("JPEG");
@@ -2735,6 +3974,22 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         bmp.setIndicator("BMP");
         bmp.setContent(R.id.ll_empty);
         tabHost.addTab(bmp);
+        TabHost.TabSpec pxe = tabHost.newTabSpec(ProjectFile.EXTENSION);
+        pxe.setIndicator("PXE");
+        pxe.setContent(R.id.ll_empty);
+        tabHost.addTab(pxe);
+        TabHost.TabSpec gif = tabHost.newTabSpec("gif");
+        gif.setIndicator("GIF");
+        gif.setContent(R.id.ll_empty);
+        tabHost.addTab(gif);
+        TabHost.TabSpec sheet = tabHost.newTabSpec(IMAGE_FORMAT_SPRITE_SHEET);
+        sheet.setIndicator("SHEET");
+        sheet.setContent(R.id.ll_sprite_sheet);
+        tabHost.addTab(sheet);
+        TabHost.TabSpec batch = tabHost.newTabSpec(IMAGE_FORMAT_BATCH);
+        batch.setIndicator("BATCH");
+        batch.setContent(R.id.ll_batch);
+        tabHost.addTab(batch);
         if (imageFormat.equals("png")) {
             tabHost.setCurrentTabByTag("png");
         }
@@ -2744,6 +3999,93 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         if (imageFormat.equals("bmp")) {
             tabHost.setCurrentTabByTag("bmp");
         }
+        if (imageFormat.equals(ProjectFile.EXTENSION)) {
+            tabHost.setCurrentTabByTag(ProjectFile.EXTENSION);
+        }
+        if (imageFormat.equals("gif")) {
+            tabHost.setCurrentTabByTag("gif");
+        }
+        if (imageFormat.equals(IMAGE_FORMAT_SPRITE_SHEET)) {
+            tabHost.setCurrentTabByTag(IMAGE_FORMAT_SPRITE_SHEET);
+        }
+        if (imageFormat.equals(IMAGE_FORMAT_BATCH)) {
+            tabHost.setCurrentTabByTag(IMAGE_FORMAT_BATCH);
+        }
+        dialogTempSpriteSheetTrim = spriteSheetTrim;
+        dialogTempSpriteSheetDedupe = spriteSheetDedupe;
+        dialogTempAtlasFormat = atlasFormat;
+        CheckBox boxTrim = view.findViewById(R.id.box_trim);
+        boxTrim.setChecked(dialogTempSpriteSheetTrim);
+        boxTrim.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                dialogTempSpriteSheetTrim = isChecked;
+            }
+        });
+        CheckBox boxDedupe = view.findViewById(R.id.box_dedupe);
+        boxDedupe.setChecked(dialogTempSpriteSheetDedupe);
+        boxDedupe.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                dialogTempSpriteSheetDedupe = isChecked;
+            }
+        });
+        RadioGroup groupAtlasFormat = view.findViewById(R.id.group_atlas_format);
+        groupAtlasFormat.check(dialogTempAtlasFormat == AtlasFormatFlag.XML ?
+                R.id.btn_atlas_format_xml : R.id.btn_atlas_format_json);
+        groupAtlasFormat.setOnCheckedChangeListener(new RadioGroup.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(RadioGroup group, int checkedId) {
+                dialogTempAtlasFormat = checkedId == R.id.btn_atlas_format_xml ?
+                        AtlasFormatFlag.XML : AtlasFormatFlag.JSON;
+            }
+        });
+        dialogTempBatchPngScales = batchPngScales;
+        dialogTempBatchJpegScales = batchJpegScales;
+        int[] pngBoxIds = {R.id.box_batch_png_1x, R.id.box_batch_png_2x, R.id.box_batch_png_4x, R.id.box_batch_png_8x};
+        int[] jpegBoxIds = {R.id.box_batch_jpeg_1x, R.id.box_batch_jpeg_2x, R.id.box_batch_jpeg_4x,
+                R.id.box_batch_jpeg_8x};
+        for (int i = 0; i < BATCH_SCALES.length; i ++) {
+            final int scale = BATCH_SCALES[i];
+            CheckBox boxPng = view.findViewById(pngBoxIds[i]);
+            boxPng.setChecked((dialogTempBatchPngScales & scale) != 0);
+            boxPng.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+                @Override
+                public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                    dialogTempBatchPngScales = isChecked ?
+                            dialogTempBatchPngScales | scale : dialogTempBatchPngScales & ~scale;
+                }
+            });
+            CheckBox boxJpeg = view.findViewById(jpegBoxIds[i]);
+            boxJpeg.setChecked((dialogTempBatchJpegScales & scale) != 0);
+            boxJpeg.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+                @Override
+                public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                    dialogTempBatchJpegScales = isChecked ?
+                            dialogTempBatchJpegScales | scale : dialogTempBatchJpegScales & ~scale;
+                }
+            });
+        }
+        dialogTempPngCompressionLevel = pngCompressionLevel;
+        final TextView tvPngCompression = view.findViewById(R.id.tv_png_compression);
+        SeekBar barPngCompression = view.findViewById(R.id.bar_png_compression);
+        tvPngCompression.setText(R.string.compression);
+        tvPngCompression.append(": ");
+        tvPngCompression.append(Integer.toString(dialogTempPngCompressionLevel));
+        barPngCompression.setProgress(dialogTempPngCompressionLevel);
+        barPngCompression.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                dialogTempPngCompressionLevel = progress;
+                tvPngCompression.setText(R.string.compression);
+                tvPngCompression.append(": ");
+                tvPngCompression.append(Integer.toString(dialogTempPngCompressionLevel));
+            }
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {}
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {}
+        });
         dialogTempImageQuality = imageQuality;
         final TextView tvJpegQuality = view.findViewById(R.id.tv_jpeg_quality);
         SeekBar barJpegQuality = view.findViewById(R.id.bar_jpeg_quality);
@@ -2778,8 +4120,26 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                     case 2:
                         imageFormat = "bmp";
                         break;
+                    case 3:
+                        imageFormat = ProjectFile.EXTENSION;
+                        break;
+                    case 4:
+                        imageFormat = "gif";
+                        break;
+                    case 5:
+                        imageFormat = IMAGE_FORMAT_SPRITE_SHEET;
+                        break;
+                    case 6:
+                        imageFormat = IMAGE_FORMAT_BATCH;
+                        break;
                 }
                 imageQuality = dialogTempImageQuality;
+                spriteSheetTrim = dialogTempSpriteSheetTrim;
+                spriteSheetDedupe = dialogTempSpriteSheetDedupe;
+                atlasFormat = dialogTempAtlasFormat;
+                batchPngScales = dialogTempBatchPngScales;
+                batchJpegScales = dialogTempBatchJpegScales;
+                setPngCompressionLevel(dialogTempPngCompressionLevel);
                 dialog.cancel();
             }
         });
@@ -2792,39 +4152,37 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         builder.setOnCancelListener(listener);
         builder.create().show();
     }
+    private FileListAdapter dialogTempImageListAdapter;
+    private String[] dialogTempImageListExtensions;
+    private DirectoryScanner.Request dialogTempImageListRequest;
     @NonNull
-    private FileListAdapter flushImageListAdapter (String newPath, boolean isPaste) {
-        File[] dirs = new File(newPath).listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File pathname) {
-                return pathname.isDirectory();
-            }
-        });
-        Collection<File> files = FileUtils.listFiles(new File(newPath),
-                new String[] {"png", "jpg", "jpeg", "bmp"}, false);
-        List<String> dirNames = new ArrayList<>();
-        if (dirs != null) {
-            for (File dir : dirs) {
-                dirNames.add(dir.getName());
-            }
-        }
-        List<String> fileNames = new ArrayList<>();
-        for (File file : files) {
-            fileNames.add(file.getName());
-        }
-        FileListAdapter adapter = new FileListAdapter(MainActivity.this, dirNames, fileNames,
+    private FileListAdapter createImageListAdapter (final boolean isPaste) {
+        // Projects can be opened but not pasted or quantized
+        dialogTempImageListExtensions = isPaste || dialogTempQuantizeImage ?
+                new String[] {"png", "jpg", "jpeg", "bmp"} :
+                new String[] {"png", "jpg", "jpeg", "bmp", ProjectFile.EXTENSION};
+        FileListAdapter adapter = new FileListAdapter(MainActivity.this, new ArrayList<String>(),
+                new ArrayList<String>(),
                 VectorDrawableCompat.create(getResources(), R.drawable.ic_baseline_image_24, getTheme()));
+        adapter.setThumbnailLoader(thumbnailLoader);
         adapter.setOnItemClickListener(new FileListAdapter.OnItemClickListener() {
             @Override
             public void onDirectoryClick(String name, int position) {
                 imagePath = imagePath + "/" + name;
                 dialogTempTvCurrentPath.setText(imagePath);
-                dialogTempRecyclerImageList.setAdapter(flushImageListAdapter(imagePath, isPaste));
+                flushImageList(imagePath);
             }
             @Override
             public void onFileClick(String name, int position) {
                 if (dialogTempLoadImage) {
                     String pathname = getImagePathname(name);
+                    if (FilenameUtils.isExtension(name, ProjectFile.EXTENSION)) {
+                        openProject(new File(pathname));
+                        if (loadImageDialog != null) {
+                            loadImageDialog.dismiss();
+                        }
+                        return;
+                    }
                     BitmapFactory.Options options = new BitmapFactory.Options();
                     options.inJustDecodeBounds = true;
                     Bitmap bounds = BitmapFactory.decodeFile(pathname, options);
@@ -2833,25 +4191,12 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                         BitmapUtils.recycle(bounds);
                         Bitmap bitmap = BitmapDecoder.decodeFile(pathname);
                         if (bitmap != null) {
-                            if (isPaste) {
-                                groupTools.checkIndex(4);
-                                flushPasteBitmap(bitmap);
-                                buildSelectionPopup2();
-                                canvasView.invalidate();
-                            }
-                            else {
-                                imageName = FilenameUtils.getBaseName(name);
-                                flushImageNameView();
-                                setBitmap(bitmap);
-                                resetImageTranslation();
-                            }
-                            if (loadImageDialog != null) {
-                                loadImageDialog.dismiss();
-                            }
+                            onImageDecoded(bitmap, name, isPaste);
                         }
                     }
                     else {
-                        Utils.showLongToast(MainActivity.this, R.string.error_image_too_large);
+                        BitmapUtils.recycle(bounds);
+                        buildLargeImageDialog(pathname, name, isPaste);
                     }
                 }
                 else {
@@ -2861,6 +4206,186 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         });
         return adapter;
     }
+    private void onImageDecoded (@NonNull Bitmap bitmap, @NonNull String name, boolean isPaste) {
+        if (isPaste) {
+            groupTools.checkIndex(4);
+            flushPasteBitmap(bitmap);
+            buildSelectionPopup2();
+            canvasView.invalidate();
+        }
+        else if (dialogTempQuantizeImage) {
+            dialogTempQuantizeImage = false;
+            quantizeImage(bitmap, name);
+        }
+        else {
+            imageName = FilenameUtils.getBaseName(name);
+            flushImageNameView();
+            setBitmap(bitmap);
+            resetFrameTimeline();
+            resetImageTranslation();
+        }
+        if (loadImageDialog != null) {
+            loadImageDialog.dismiss();
+        }
+    }
+    // Large image dialog, images past the maximum size are cropped and downscaled while decoding
+    private int dialogTempDownscaleFlag = DownscaleFlag.MAJORITY;
+    @SuppressLint("SetTextI18n")
+    private void buildLargeImageDialog (@NonNull String pathname, @NonNull final String name, final boolean isPaste) {
+        final LargeImageImporter importer = LargeImageImporter.createLargeImageImporter(pathname);
+        if (importer == null) {
+            Utils.showLongToast(this, R.string.error_image_load_failed);
+            return;
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AppDialogTheme);
+        View view = View.inflate(this, R.layout.dialog_large_image, null);
+        TextView tvSourceSize = view.findViewById(R.id.tv_source_size);
+        tvSourceSize.setText(getString(R.string.source_size, importer.getWidth(), importer.getHeight()));
+        final EditText etCropLeft = view.findViewById(R.id.et_crop_left);
+        final EditText etCropTop = view.findViewById(R.id.et_crop_top);
+        final EditText etCropWidth = view.findViewById(R.id.et_crop_width);
+        final EditText etCropHeight = view.findViewById(R.id.et_crop_height);
+        final EditText etTargetWidth = view.findViewById(R.id.et_target_width);
+        final EditText etTargetHeight = view.findViewById(R.id.et_target_height);
+        if (importer.getWidth() >= importer.getHeight()) {
+            etTargetWidth.setText(Integer.toString(LARGE_IMAGE_TARGET_DEFAULT));
+        }
+        else {
+            etTargetHeight.setText(Integer.toString(LARGE_IMAGE_TARGET_DEFAULT));
+        }
+        RadioGroup groupDownscale = view.findViewById(R.id.group_downscale);
+        switch (dialogTempDownscaleFlag) {
+            case DownscaleFlag.NEAREST:
+                groupDownscale.check(R.id.btn_downscale_nearest);
+                break;
+            case DownscaleFlag.AVERAGE:
+                groupDownscale.check(R.id.btn_downscale_average);
+                break;
+            default:
+                groupDownscale.check(R.id.btn_downscale_majority);
+                break;
+        }
+        groupDownscale.setOnCheckedChangeListener(new RadioGroup.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(RadioGroup group, int checkedId) {
+                if (checkedId == R.id.btn_downscale_nearest) {
+                    dialogTempDownscaleFlag = DownscaleFlag.NEAREST;
+                }
+                else if (checkedId == R.id.btn_downscale_average) {
+                    dialogTempDownscaleFlag = DownscaleFlag.AVERAGE;
+                }
+                else {
+                    dialogTempDownscaleFlag = DownscaleFlag.MAJORITY;
+                }
+            }
+        });
+        builder.setTitle(R.string.downscale_large_image);
+        builder.setView(view);
+        builder.setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                int cropLeft = parseIntOrDefault(etCropLeft, 0);
+                int cropTop = parseIntOrDefault(etCropTop, 0);
+                importer.setCropRect(cropLeft, cropTop,
+                        cropLeft + parseIntOrDefault(etCropWidth, importer.getWidth()),
+                        cropTop + parseIntOrDefault(etCropHeight, importer.getHeight()));
+                Rect cropRect = importer.getCropRect();
+                // An empty side follows the aspect ratio of the crop
+                int width = parseIntOrDefault(etTargetWidth, 0);
+                int height = parseIntOrDefault(etTargetHeight, 0);
+                if (width < 1 && height < 1) {
+                    width = Math.min(cropRect.width(), LARGE_IMAGE_TARGET_DEFAULT);
+                }
+                if (width < 1) {
+                    width = (int) ((long) height * cropRect.width() / cropRect.height());
+                }
+                else if (height < 1) {
+                    height = (int) ((long) width * cropRect.height() / cropRect.width());
+                }
+                width = MathUtils.clamp(width, 1, Math.min(cropRect.width(), IMAGE_WIDTH_MAX));
+                height = MathUtils.clamp(height, 1, Math.min(cropRect.height(), IMAGE_HEIGHT_MAX));
+                importer.setTargetSize(width, height);
+                importer.setDownscaleFlag(dialogTempDownscaleFlag);
+                dialog.dismiss();
+                importLargeImage(importer, name, isPaste);
+            }
+        });
+        builder.setNegativeButton(android.R.string.cancel, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                dialog.dismiss();
+            }
+        });
+        builder.create().show();
+    }
+    private static int parseIntOrDefault (@NonNull EditText editText, int defaultValue) {
+        String text = editText.getText().toString();
+        if (text.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(text);
+        }
+        catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+    private void importLargeImage (@NonNull LargeImageImporter importer, @NonNull final String name,
+                                   final boolean isPaste) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this, R.style.AppDialogTheme);
+        View view = View.inflate(this, R.layout.dialog_progress, null);
+        final ProgressBar progressBar = view.findViewById(R.id.progress_bar);
+        builder.setTitle(R.string.importing);
+        builder.setView(view);
+        builder.setCancelable(false);
+        final AlertDialog progressDialog = builder.create();
+        progressDialog.show();
+        importer.decodeAsync(new LargeImageImporter.Callback() {
+            @Override
+            public void onProgress(final int progress) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressBar.setProgress(progress);
+                    }
+                });
+            }
+            @Override
+            public void onFinish(@Nullable final Bitmap bitmap) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressDialog.dismiss();
+                        if (bitmap != null) {
+                            onImageDecoded(bitmap, name, isPaste);
+                        }
+                        else {
+                            Utils.showLongToast(MainActivity.this, R.string.error_image_load_failed);
+                        }
+                    }
+                });
+            }
+        });
+    }
+    // Entries stream in from a background scan, visited directories come from the cache at once
+    private void flushImageList (String newPath) {
+        if (dialogTempImageListRequest != null) {
+            dialogTempImageListRequest.cancel();
+        }
+        final FileListAdapter adapter = dialogTempImageListAdapter;
+        adapter.setDirectory(newPath);
+        dialogTempImageListRequest = directoryScanner.scan(newPath, dialogTempImageListExtensions,
+                new DirectoryScanner.Callback() {
+                    @Override
+                    public void onEntries(@NonNull List<String> dirs, @NonNull List<String> files) {
+                        adapter.addEntries(dirs, files);
+                    }
+                    @Override
+                    public void onFinish() {
+                        dialogTempImageListRequest = null;
+                    }
+                });
+    }
     // Delete file dialog
     private void buildDeleteFileDialog(DialogInterface.OnClickListener positiveListener,
                                        DialogInterface.OnCancelListener cancelListener) {
@@ -3039,11 +4564,11 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                 buildGridDialog();
                 break;
             case R.id.img_undo:
-                toolBufferPool.undo();
+                undoEdit();
                 canvasView.invalidate();
                 break;
             case R.id.img_redo:
-                toolBufferPool.redo();
+                redoEdit();
                 canvasView.invalidate();
                 break;
             case R.id.img_menu:
@@ -3062,7 +4587,6 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
-        dataSaved = true;
         if (requestCode == 1) {
             if (grantResults[0] != PackageManager.PERMISSION_GRANTED) {
                 buildPermissionDialog();
@@ -3074,111 +4598,32 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     }
 
     // SAVE & LOAD DATA
+    // Saving only snapshots the image, encoding runs on the auto saver's executor
     // On pause
     @Override
     protected void onPause() {
-        if (isFinishing() && (!dataSaved)) {
-            Thread thread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    if (dataLoaded) {
-                        saveData();
-                        dataSaved = true;
-                    }
-                }
-            });
-            thread.start();
-            try {
-                thread.join();
-            }
-            catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            finally {
-                super.onPause();
-            }
-        }
-        else {
-            super.onPause();
+        stopPlayback();
+        if (dataLoaded) {
+            saveData();
         }
+        super.onPause();
     }
     // On save instance state
     @Override
     protected void onSaveInstanceState(@NonNull Bundle outState) {
-        if (!dataSaved) {
-            Thread thread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    if (dataLoaded) {
-                        saveData();
-                        dataSaved = true;
-                    }
-                }
-            });
-            thread.start();
-            try {
-                thread.join();
-            }
-            catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            finally {
-                super.onSaveInstanceState(outState);
-            }
-        }
-        else {
-            super.onSaveInstanceState(outState);
-        }
-    }
-
-    @Override
-    protected void onResume() {
-        if (dataSaved) {
-            dataSaved = false;
-        }
-        super.onResume();
-    }
-
-    @Override
-    protected void onRestoreInstanceState(@NonNull Bundle savedInstanceState) {
-        if (dataSaved) {
-            dataSaved = false;
+        if (dataLoaded) {
+            saveData();
         }
-        super.onRestoreInstanceState(savedInstanceState);
+        super.onSaveInstanceState(outState);
     }
 
     @Override
     protected void onDestroy() {
-        if (!dataSaved) {
-            Thread thread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    if (dataLoaded) {
-                        saveData();
-                        dataSaved = true;
-                    }
-                }
-            });
-            thread.start();
-            try {
-                thread.join();
-            }
-            catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            finally {
-                if (dataLoaded) {
-                    releaseData();
-                }
-                super.onDestroy();
-            }
-        }
-        else {
-            if (dataLoaded) {
-                releaseData();
-            }
-            super.onDestroy();
+        if (dataLoaded) {
+            saveData();
+            releaseData();
         }
+        super.onDestroy();
     }
 
     // On create
@@ -3186,7 +4631,6 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     protected void onCreate(Bundle savedInstanceState) {
 
         super.onCreate(savedInstanceState);
-        dataSaved = false;
         dataLoaded = false;
 
         // Get permission
@@ -3287,8 +4731,31 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                 canvas.setMatrix(null);
                 canvas.save();
                 canvas.restore();
+                // Draw playback frame
+                Bitmap frameBitmap = playbackBitmap;
+                if (frameBitmap != null) {
+                    canvas.drawBitmap(frameBitmap, matrix, bitmapPaint);
+                    return;
+                }
+                // Draw onion skin
+                if (onionSkinEnabled) {
+                    Bitmap previousBitmap = onionSkinCache.getPreviousBitmap(frameTimeline);
+                    if (previousBitmap != null) {
+                        canvas.drawBitmap(previousBitmap, matrix, bitmapPaint);
+                    }
+                    Bitmap nextBitmap = onionSkinCache.getNextBitmap(frameTimeline);
+                    if (nextBitmap != null) {
+                        canvas.drawBitmap(nextBitmap, matrix, bitmapPaint);
+                    }
+                }
                 // Draw scaled bitmap
-                canvas.drawBitmap(getCurrentBitmap(), matrix, bitmapPaint);
+                if (paletteSwap == null) {
+                    canvas.drawBitmap(getCurrentBitmap(), matrix, bitmapPaint);
+                }
+                else {
+                    canvas.drawBitmap(paletteSwapRenderer.getBitmap(getCurrentBitmap(), paletteSwap),
+                            matrix, bitmapPaint);
+                }
                 canvas.save();
                 canvas.restore();
                 // Draw grid
@@ -3366,6 +4833,10 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             @SuppressLint("ClickableViewAccessibility")
             @Override
             public boolean onTouch(View view, MotionEvent event) {
+                if (animationPlayer != null) {
+                    stopPlayback();
+                    return true;
+                }
                 if (scaleMode) {
                     if (pointer0Changed) {
                         scaleModeRecordX = event.getX(0);
@@ -3472,6 +4943,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                                     }
                                     break;
                             }
+                            invalidateTempToolBuffers();
                             canvasView.invalidate();
                             if (toolFlag != ToolFlag.SELECTION) {
                                 flushSelectionSizeView(Math.abs(moveX - downX) + 1, Math.abs(moveY - downY) + 1);
@@ -3645,6 +5117,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                                         }
                                         break;
                                 }
+                                invalidateTempToolBuffers();
                             }
                             canvasView.invalidate();
                             if (toolFlag != ToolFlag.SELECTION) {
@@ -3680,21 +5153,28 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                             else {
                                 switch (toolFlag) {
                                     case ToolFlag.PAINT:
+                                        beginEdit(getStrokeDirtyRect(paint));
                                         toolBufferPool.addToolBuffer(
                                                 new MultiBuffer(new PointBuffer(paint, downX + 0.5f, downY + 0.5f), new PaintBuffer(paint, path)));
+                                        endEdit();
                                         break;
                                     case ToolFlag.ERASER:
+                                        beginEdit(getStrokeDirtyRect(eraser));
                                         toolBufferPool.addToolBuffer(
                                                 new MultiBuffer(new PointBuffer(eraser, downX + 0.5f, downY + 0.5f), new PaintBuffer(eraser, path)));
+                                        endEdit();
                                         break;
                                     case ToolFlag.SHAPE:
+                                        beginEdit(getStrokeDirtyRect(paint));
                                         toolBufferPool.addToolBuffer(new PaintBuffer(paint, path));
+                                        endEdit();
                                         break;
                                     case ToolFlag.FILL:
-                                        if (downX >= 0 && downY >= 0 &&
-                                                downX < getCurrentBitmap().getWidth() &&
-                                                downY < getCurrentBitmap().getHeight()) {
+                                        Rect fillBounds = new Rect();
+                                        if (floodFillBounds.find(getCurrentBitmap(), downX, downY, fillBounds)) {
+                                            beginEdit(fillBounds);
                                             toolBufferPool.addToolBuffer(new FillBuffer(downX, downY, paint.getColor()));
+                                            endEdit();
                                         }
                                         break;
                                     case ToolFlag.SELECTION:
@@ -3719,8 +5199,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                                                 upY < getCurrentBitmap().getHeight()) {
                                             listPalettes.setCheckedPaletteColor(getCurrentBitmap().getPixel(upX, upY));
                                             if (paletteFlag == PaletteFlag.EXTERNAL) {
-                                                PaletteFactory.encodeFile(externalPalette,
-                                                        getExternalPalettePathname(externalPaletteName), true);
+                                                saveExternalPalette();
                                             }
                                             flushColors(listPalettes.getCheckedPaletteColor());
                                             groupTools.checkIndex(0);
@@ -3909,6 +5388,13 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                 buildColorPickerDialog();
             }
         });
+        // Long press
+        listPalettes.setOnLongPressListener(new PaletteList.OnLongPressListener() {
+            @Override
+            public void onLongPress(PaletteList list, int index) {
+                selectColorPixels(list.getPaletteColor(index));
+            }
+        });
     }
 
     @SuppressLint("SetTextI18n")
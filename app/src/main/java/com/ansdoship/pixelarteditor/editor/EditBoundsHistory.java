@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor;
+
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+
+// Dirty bounds of the recent edits, kept in step with the tool buffer history so that undo
+// and redo can diff only the region they revert. Null bounds mean the whole image.
+// Either stack may be shorter than the real history: older entries are unknown.
+public final class EditBoundsHistory {
+
+    public final static int SIZE_DEFAULT = 64;
+
+    private final int mMaxSize;
+    private final ArrayList<Rect> mUndo;
+    private final ArrayList<Rect> mRedo;
+
+    private EditBoundsHistory(int maxSize) {
+        mMaxSize = Math.max(1, maxSize);
+        mUndo = new ArrayList<>();
+        mRedo = new ArrayList<>();
+    }
+
+    public static @NonNull
+    EditBoundsHistory createEditBoundsHistory (int maxSize) {
+        return new EditBoundsHistory(maxSize);
+    }
+
+    public static @NonNull
+    EditBoundsHistory createEditBoundsHistory () {
+        return new EditBoundsHistory(SIZE_DEFAULT);
+    }
+
+    // A new edit, which also drops everything that could be redone
+    public void record (@Nullable Rect dirty) {
+        push(mUndo, dirty == null ? null : new Rect(dirty));
+        mRedo.clear();
+    }
+
+    // Bounds the next undo reverts, null if unknown
+    @Nullable
+    public Rect getUndoBounds () {
+        return mUndo.isEmpty() ? null : mUndo.get(mUndo.size() - 1);
+    }
+
+    @Nullable
+    public Rect getRedoBounds () {
+        return mRedo.isEmpty() ? null : mRedo.get(mRedo.size() - 1);
+    }
+
+    // Whether the undo changed the image tells an undone edit from an empty history
+    public void onUndo (boolean changed) {
+        move(mUndo, mRedo, changed);
+    }
+
+    public void onRedo (boolean changed) {
+        move(mRedo, mUndo, changed);
+    }
+
+    public void clear () {
+        mUndo.clear();
+        mRedo.clear();
+    }
+
+    private void move (@NonNull ArrayList<Rect> from, @NonNull ArrayList<Rect> to, boolean changed) {
+        if (!changed) {
+            // Nothing left to revert, the remaining entries are older than the real history
+            from.clear();
+            return;
+        }
+        push(to, from.isEmpty() ? null : from.remove(from.size() - 1));
+    }
+
+    private void push (@NonNull ArrayList<Rect> stack, @Nullable Rect dirty) {
+        stack.add(dirty);
+        if (stack.size() > mMaxSize) {
+            stack.remove(0);
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+// Bounds of the region a flood fill from a point will repaint, found before the fill runs.
+// Spans are followed through diagonals too, so the result also covers a fill that only
+// follows edges. Pixels are read in short row segments, the buffers are kept for reuse.
+public final class FloodFillBounds {
+
+    private final static int SEGMENT_SIZE = 64;
+
+    private final int[] mSegment;
+    private int mSegmentX;
+    private int mSegmentY;
+    private int mSegmentLength;
+    private long[] mVisited;
+    private int[] mStack;
+    private Bitmap mBitmap;
+    private int mWidth;
+
+    private FloodFillBounds() {
+        mSegment = new int[SEGMENT_SIZE];
+        mStack = new int[256];
+    }
+
+    public static @NonNull
+    FloodFillBounds createFloodFillBounds () {
+        return new FloodFillBounds();
+    }
+
+    // Returns false if the point is outside the bitmap
+    public boolean find (@NonNull Bitmap bitmap, int x, int y, @NonNull Rect outBounds) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return false;
+        }
+        mBitmap = bitmap;
+        mWidth = width;
+        mSegmentLength = 0;
+        int words = (width * height + 63) >>> 6;
+        if (mVisited == null || mVisited.length < words) {
+            mVisited = new long[words];
+        }
+        else {
+            Arrays.fill(mVisited, 0, words, 0L);
+        }
+        int target = getPixel(x, y);
+        int left = x;
+        int top = y;
+        int right = x;
+        int bottom = y;
+        int size = 0;
+        mStack[size ++] = y * width + x;
+        while (size > 0) {
+            int index = mStack[-- size];
+            int seedX = index % width;
+            int seedY = index / width;
+            if (isVisited(seedX, seedY)) {
+                continue;
+            }
+            int start = seedX;
+            while (start > 0 && !isVisited(start - 1, seedY) && getPixel(start - 1, seedY) == target) {
+                start --;
+            }
+            int end = seedX;
+            while (end < width - 1 && !isVisited(end + 1, seedY) && getPixel(end + 1, seedY) == target) {
+                end ++;
+            }
+            for (int i = start; i <= end; i ++) {
+                setVisited(i, seedY);
+            }
+            left = Math.min(left, start);
+            right = Math.max(right, end);
+            top = Math.min(top, seedY);
+            bottom = Math.max(bottom, seedY);
+            int scanStart = Math.max(0, start - 1);
+            int scanEnd = Math.min(width - 1, end + 1);
+            for (int row = seedY - 1; row <= seedY + 1; row += 2) {
+                if (row < 0 || row >= height) {
+                    continue;
+                }
+                boolean inRun = false;
+                for (int i = scanStart; i <= scanEnd; i ++) {
+                    boolean matches = !isVisited(i, row) && getPixel(i, row) == target;
+                    // One seed per run of matching pixels
+                    if (matches && !inRun) {
+                        if (size == mStack.length) {
+                            mStack = Arrays.copyOf(mStack, size * 2);
+                        }
+                        mStack[size ++] = row * width + i;
+                    }
+                    inRun = matches;
+                }
+            }
+        }
+        mBitmap = null;
+        outBounds.set(left, top, right + 1, bottom + 1);
+        return true;
+    }
+
+    private int getPixel (int x, int y) {
+        if (y != mSegmentY || x < mSegmentX || x >= mSegmentX + mSegmentLength) {
+            // Center the segment so that scans in either direction stay inside it
+            mSegmentX = Math.max(0, Math.min(x - SEGMENT_SIZE / 2, mWidth - SEGMENT_SIZE));
+            mSegmentY = y;
+            mSegmentLength = Math.min(SEGMENT_SIZE, mWidth - mSegmentX);
+            mBitmap.getPixels(mSegment, 0, mSegmentLength, mSegmentX, y, mSegmentLength, 1);
+        }
+        return mSegment[x - mSegmentX];
+    }
+
+    private boolean isVisited (int x, int y) {
+        int index = y * mWidth + x;
+        return (mVisited[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private void setVisited (int x, int y) {
+        int index = y * mWidth + x;
+        mVisited[index >>> 6] |= 1L << index;
+    }
+
+}
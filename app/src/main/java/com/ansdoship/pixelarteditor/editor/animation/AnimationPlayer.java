@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.animation;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.tianscar.androidutils.MathUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Plays a FrameTimeline on background threads. A render thread keeps the frames ahead of
+// the playhead pre-rendered in a bounded cache, the playback thread only hands cached bitmaps
+// to the callback. A frame that is not ready in time, or whose display time has already
+// passed, is skipped and counted as dropped. The frame last handed to the callback stays valid
+// until the next one has been handed over, even when the cache has evicted it meanwhile.
+// The timeline must not be modified while playing.
+public final class AnimationPlayer {
+
+    public final static int FPS_MIN = 1;
+    public final static int FPS_MAX = 60;
+    public final static int FPS_DEFAULT = 12;
+    public final static int CACHE_SIZE_DEFAULT = 8;
+
+    public interface Callback {
+        // The previous frame is recycled once this returns, it must not be drawn afterwards
+        @WorkerThread
+        void onDrawFrame(@NonNull Bitmap bitmap, int index);
+        @WorkerThread
+        void onStop(int droppedFrameCount);
+    }
+
+    private final FrameTimeline mTimeline;
+    private final int mPlaybackFlag;
+    private final long mTickNanos;
+    private final int mCacheSize;
+    private final Callback mCallback;
+
+    private final Object mLock;
+    private final LinkedHashMap<Frame, Bitmap> mCache;
+    private int mPosition;
+    // The frame on screen, never recycled by eviction
+    private Bitmap mShown;
+    private boolean mShownEvicted;
+    private volatile boolean mPlaying;
+    private volatile int mDroppedFrameCount;
+
+    private Thread mRenderThread;
+    private Thread mPlaybackThread;
+
+    private AnimationPlayer(@NonNull FrameTimeline timeline, int playbackFlag, int fps, final int cacheSize,
+                            @NonNull Callback callback) {
+        mTimeline = timeline;
+        mPlaybackFlag = playbackFlag;
+        mTickNanos = 1000000000L / MathUtils.clamp(fps, FPS_MIN, FPS_MAX);
+        mCacheSize = Math.max(1, cacheSize);
+        mCallback = callback;
+        mLock = new Object();
+        mCache = new LinkedHashMap<Frame, Bitmap>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Frame, Bitmap> eldest) {
+                if (size() > mCacheSize) {
+                    // With a cache of one frame the eldest entry can still be on screen
+                    if (eldest.getValue() == mShown) {
+                        mShownEvicted = true;
+                    }
+                    else {
+                        eldest.getValue().recycle();
+                    }
+                    return true;
+                }
+                return false;
+            }
+        };
+        mPosition = 0;
+        mPlaying = false;
+        mDroppedFrameCount = 0;
+    }
+
+    public static @NonNull
+    AnimationPlayer createAnimationPlayer (@NonNull FrameTimeline timeline, int playbackFlag, int fps,
+                                           @NonNull Callback callback) {
+        return new AnimationPlayer(timeline, playbackFlag, fps, CACHE_SIZE_DEFAULT, callback);
+    }
+
+    public static @NonNull
+    AnimationPlayer createAnimationPlayer (@NonNull FrameTimeline timeline, int playbackFlag, int fps,
+                                           int cacheSize, @NonNull Callback callback) {
+        return new AnimationPlayer(timeline, playbackFlag, fps, cacheSize, callback);
+    }
+
+    public void start () {
+        if (mPlaying) {
+            return;
+        }
+        mPlaying = true;
+        mRenderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                render();
+            }
+        });
+        mPlaybackThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                play();
+            }
+        });
+        mRenderThread.start();
+        mPlaybackThread.start();
+    }
+
+    // Blocks until both threads have finished, no frame is handed over afterwards
+    public void stop () {
+        synchronized (mLock) {
+            mPlaying = false;
+            mLock.notifyAll();
+        }
+        try {
+            if (mRenderThread != null) {
+                mRenderThread.join();
+            }
+            if (mPlaybackThread != null && mPlaybackThread != Thread.currentThread()) {
+                mPlaybackThread.join();
+            }
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Recycles the cached frames and the one on screen, call after stop() once nothing draws them
+    public void release () {
+        synchronized (mLock) {
+            for (Bitmap bitmap : mCache.values()) {
+                bitmap.recycle();
+            }
+            mCache.clear();
+            if (mShown != null) {
+                mShown.recycle();
+                mShown = null;
+            }
+            mShownEvicted = false;
+        }
+    }
+
+    public boolean isPlaying () {
+        return mPlaying;
+    }
+
+    public int getDroppedFrameCount () {
+        return mDroppedFrameCount;
+    }
+
+    @WorkerThread
+    private void render () {
+        while (mPlaying) {
+            int position;
+            synchronized (mLock) {
+                position = mPosition;
+            }
+            for (int i = 0; i < mCacheSize && mPlaying; i ++) {
+                Frame frame = getFrameAt(position + i);
+                if (frame == null) {
+                    break;
+                }
+                boolean cached;
+                synchronized (mLock) {
+                    // Touching the entry also keeps it out of eviction
+                    cached = mCache.get(frame) != null;
+                }
+                if (!cached) {
+                    Bitmap bitmap = frame.getImage().toBitmap();
+                    synchronized (mLock) {
+                        mCache.put(frame, bitmap);
+                        mLock.notifyAll();
+                    }
+                }
+            }
+            synchronized (mLock) {
+                while (mPlaying && mPosition == position) {
+                    try {
+                        mLock.wait();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    @WorkerThread
+    private void play () {
+        int position = 0;
+        // Wait for the first frame so that start-up does not count as a drop
+        synchronized (mLock) {
+            while (mPlaying && !mCache.containsKey(getFrameAt(0))) {
+                try {
+                    mLock.wait();
+                }
+                catch (InterruptedException e) {
+                    mPlaying = false;
+                }
+            }
+        }
+        long next = System.nanoTime();
+        while (mPlaying) {
+            Frame frame = getFrameAt(position);
+            if (frame == null) {
+                break;
+            }
+            Bitmap bitmap;
+            Bitmap previous = null;
+            synchronized (mLock) {
+                bitmap = mCache.get(frame);
+                if (bitmap != null) {
+                    // Pinned before the render thread can evict it
+                    if (mShownEvicted) {
+                        previous = mShown;
+                    }
+                    mShown = bitmap;
+                    mShownEvicted = false;
+                }
+            }
+            if (bitmap == null) {
+                mDroppedFrameCount ++;
+            }
+            else {
+                mCallback.onDrawFrame(bitmap, indexAt(position));
+                // Evicted while on screen, it has been replaced now
+                if (previous != null) {
+                    previous.recycle();
+                }
+            }
+            next += getDisplayNanos(frame);
+            position ++;
+            // Catch up by skipping every frame whose display time is already over
+            long now = System.nanoTime();
+            Frame following = getFrameAt(position);
+            while (following != null && now >= next + getDisplayNanos(following)) {
+                next += getDisplayNanos(following);
+                position ++;
+                mDroppedFrameCount ++;
+                following = getFrameAt(position);
+            }
+            synchronized (mLock) {
+                mPosition = position;
+                mLock.notifyAll();
+                long delay = next - System.nanoTime();
+                while (mPlaying && delay > 0) {
+                    try {
+                        mLock.wait(delay / 1000000L, (int) (delay % 1000000L));
+                    }
+                    catch (InterruptedException e) {
+                        mPlaying = false;
+                    }
+                    delay = next - System.nanoTime();
+                }
+            }
+        }
+        synchronized (mLock) {
+            mPlaying = false;
+            mLock.notifyAll();
+        }
+        mCallback.onStop(mDroppedFrameCount);
+    }
+
+    // Display time rounded to whole ticks of the target frame rate, at least one tick
+    private long getDisplayNanos (@NonNull Frame frame) {
+        long ticks = (frame.getDuration() * 1000000L + mTickNanos / 2) / mTickNanos;
+        return Math.max(1, ticks) * mTickNanos;
+    }
+
+    @Nullable
+    private Frame getFrameAt (int position) {
+        int index = indexAt(position);
+        return index < 0 ? null : mTimeline.getFrame(index);
+    }
+
+    // Frame index shown at a playback position, -1 once a single pass has ended
+    private int indexAt (int position) {
+        int size = mTimeline.size();
+        switch (mPlaybackFlag) {
+            case PlaybackFlag.PING_PONG:
+                if (size == 1) {
+                    return 0;
+                }
+                int period = size * 2 - 2;
+                int phase = position % period;
+                return phase < size ? phase : period - phase;
+            case PlaybackFlag.ONCE:
+                return position < size ? position : -1;
+            default:
+                return position % size;
+        }
+    }
+
+}
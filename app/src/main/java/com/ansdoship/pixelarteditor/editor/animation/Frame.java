@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.animation;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ansdoship.pixelarteditor.editor.tile.TiledImage;
+import com.tianscar.androidutils.MathUtils;
+
+public final class Frame {
+
+    // Decodes the image of a frame the first time it is needed
+    public interface ImageLoader {
+        @NonNull
+        TiledImage loadImage();
+    }
+
+    public final static int DURATION_DEFAULT = 100;
+    public final static int DURATION_MIN = 1;
+    public final static int DURATION_MAX = 60000;
+
+    // Written once under the frame's lock, so loaded images are read without locking
+    private volatile TiledImage mImage;
+    private ImageLoader mImageLoader;
+    private int mDuration;
+
+    private Frame(@Nullable TiledImage image, @Nullable ImageLoader imageLoader) {
+        mImage = image;
+        mImageLoader = imageLoader;
+        mDuration = DURATION_DEFAULT;
+    }
+
+    public static @NonNull
+    Frame createFrame (@NonNull TiledImage image) {
+        return new Frame(image, null);
+    }
+
+    public static @NonNull
+    Frame createFrame (@NonNull ImageLoader imageLoader, int duration) {
+        Frame frame = new Frame(null, imageLoader);
+        frame.setDuration(duration);
+        return frame;
+    }
+
+    // Safe from any thread, playback may decode a frame while the UI thread asks for it too
+    @NonNull
+    public TiledImage getImage() {
+        TiledImage image = mImage;
+        if (image == null) {
+            synchronized (this) {
+                image = mImage;
+                if (image == null) {
+                    image = mImageLoader.loadImage();
+                    mImageLoader = null;
+                    mImage = image;
+                }
+            }
+        }
+        return image;
+    }
+
+    public boolean isImageLoaded() {
+        return mImage != null;
+    }
+
+    // Display time in milliseconds
+    public int getDuration() {
+        return mDuration;
+    }
+
+    public void setDuration(int duration) {
+        mDuration = MathUtils.clamp(duration, DURATION_MIN, DURATION_MAX);
+    }
+
+    @NonNull
+    Frame copy() {
+        Frame frame = new Frame(getImage().copy(), null);
+        frame.mDuration = mDuration;
+        return frame;
+    }
+
+    synchronized void release() {
+        if (mImage != null) {
+            mImage.release();
+        }
+        mImageLoader = null;
+    }
+
+}
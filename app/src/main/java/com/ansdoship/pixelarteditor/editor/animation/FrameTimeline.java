@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.animation;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+import com.ansdoship.pixelarteditor.editor.tile.TileStore;
+import com.ansdoship.pixelarteditor.editor.tile.TiledImage;
+import com.tianscar.androidutils.MathUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Ordered frames of one animation, all drawing their tiles from a single TileStore
+// so that content repeated across frames is stored once.
+public final class FrameTimeline {
+
+    private final TileStore mTileStore;
+    private final List<Frame> mFrames;
+    private int mWidth;
+    private int mHeight;
+    private int index;
+
+    private FrameTimeline(@NonNull TileStore tileStore, int width, int height) {
+        mTileStore = tileStore;
+        mFrames = new ArrayList<>();
+        mWidth = width;
+        mHeight = height;
+        index = 0;
+    }
+
+    public static @NonNull
+    FrameTimeline createFrameTimeline (@NonNull Bitmap bitmap) {
+        FrameTimeline timeline = new FrameTimeline(new TileStore(), bitmap.getWidth(), bitmap.getHeight());
+        timeline.mFrames.add(Frame.createFrame(TiledImage.createTiledImage(timeline.mTileStore, bitmap)));
+        return timeline;
+    }
+
+    // Frames must draw their tiles from the given store
+    public static @NonNull
+    FrameTimeline createFrameTimeline (@NonNull TileStore tileStore, int width, int height,
+                                       @NonNull List<Frame> frames, int index) {
+        if (frames.isEmpty()) {
+            throw new IllegalArgumentException("A timeline needs at least one frame");
+        }
+        FrameTimeline timeline = new FrameTimeline(tileStore, width, height);
+        timeline.mFrames.addAll(frames);
+        timeline.setIndex(index);
+        return timeline;
+    }
+
+    // Inserts an empty frame after the current one and makes it current
+    @NonNull
+    public Frame addFrame () {
+        Frame frame = Frame.createFrame(TiledImage.createTiledImage(mTileStore, mWidth, mHeight));
+        index ++;
+        mFrames.add(index, frame);
+        return frame;
+    }
+
+    // Inserts a copy sharing every tile with the source after it and makes it current
+    @NonNull
+    public Frame duplicateFrame (int index) {
+        Frame frame = mFrames.get(index).copy();
+        this.index = index + 1;
+        mFrames.add(this.index, frame);
+        return frame;
+    }
+
+    public void removeFrame (int index) {
+        if (mFrames.size() <= 1) {
+            return;
+        }
+        mFrames.remove(index).release();
+        if (this.index >= index) {
+            setIndex(this.index - 1);
+        }
+    }
+
+    public void moveFrame (int fromIndex, int toIndex) {
+        Frame current = getCurrentFrame();
+        mFrames.add(toIndex, mFrames.remove(fromIndex));
+        index = mFrames.indexOf(current);
+    }
+
+    public void resize (int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        for (Frame frame : mFrames) {
+            frame.getImage().resize(width, height);
+        }
+    }
+
+    public void release () {
+        for (Frame frame : mFrames) {
+            frame.release();
+        }
+        mFrames.clear();
+    }
+
+    @NonNull
+    public Frame getFrame (int index) {
+        return mFrames.get(index);
+    }
+
+    @NonNull
+    public Frame getCurrentFrame () {
+        return mFrames.get(index);
+    }
+
+    public int size () {
+        return mFrames.size();
+    }
+
+    public int getIndex () {
+        return index;
+    }
+
+    public void setIndex (int index) {
+        this.index = MathUtils.clamp(index, 0, mFrames.size() - 1);
+    }
+
+    public int getWidth () {
+        return mWidth;
+    }
+
+    public int getHeight () {
+        return mHeight;
+    }
+
+    @NonNull
+    public TileStore getTileStore () {
+        return mTileStore;
+    }
+
+}
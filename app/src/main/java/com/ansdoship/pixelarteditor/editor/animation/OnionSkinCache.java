@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.animation;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ansdoship.pixelarteditor.editor.layer.BlendComposer;
+import com.ansdoship.pixelarteditor.editor.tile.Tile;
+import com.ansdoship.pixelarteditor.editor.tile.TiledImage;
+
+// Tinted, semi-transparent copies of the frames next to the current one.
+// A copy is rebuilt only when its frame or that frame's content version changes,
+// so rendering costs one bitmap draw per neighbor.
+public final class OnionSkinCache {
+
+    public final static int PREVIOUS_TINT_DEFAULT = 0xFFFF0000;
+    public final static int NEXT_TINT_DEFAULT = 0xFF0000FF;
+    public final static int OPACITY_DEFAULT = 96;
+
+    private final Entry mPrevious;
+    private final Entry mNext;
+    private int mOpacity;
+
+    public OnionSkinCache() {
+        mPrevious = new Entry(PREVIOUS_TINT_DEFAULT);
+        mNext = new Entry(NEXT_TINT_DEFAULT);
+        mOpacity = OPACITY_DEFAULT;
+    }
+
+    @Nullable
+    public Bitmap getPreviousBitmap(@NonNull FrameTimeline timeline) {
+        int index = timeline.getIndex() - 1;
+        if (index < 0) {
+            mPrevious.clear();
+            return null;
+        }
+        return mPrevious.get(timeline.getFrame(index).getImage(), mOpacity);
+    }
+
+    @Nullable
+    public Bitmap getNextBitmap(@NonNull FrameTimeline timeline) {
+        int index = timeline.getIndex() + 1;
+        if (index >= timeline.size()) {
+            mNext.clear();
+            return null;
+        }
+        return mNext.get(timeline.getFrame(index).getImage(), mOpacity);
+    }
+
+    public void setOpacity(int opacity) {
+        if (opacity != mOpacity) {
+            mOpacity = opacity;
+            invalidate();
+        }
+    }
+
+    public int getOpacity() {
+        return mOpacity;
+    }
+
+    public void setTints(int previousTint, int nextTint) {
+        mPrevious.setTint(previousTint);
+        mNext.setTint(nextTint);
+    }
+
+    public void invalidate() {
+        mPrevious.version = -1;
+        mNext.version = -1;
+    }
+
+    public void release() {
+        mPrevious.clear();
+        mNext.clear();
+    }
+
+    private final static class Entry {
+
+        private int tint;
+        private TiledImage image;
+        private int version;
+        private Bitmap bitmap;
+        private int[] band;
+
+        Entry(int tint) {
+            this.tint = tint;
+            version = -1;
+        }
+
+        void setTint(int tint) {
+            if (tint != this.tint) {
+                this.tint = tint;
+                version = -1;
+            }
+        }
+
+        @NonNull
+        Bitmap get(@NonNull TiledImage image, int opacity) {
+            if (image == this.image && image.getVersion() == version && bitmap != null &&
+                    bitmap.getWidth() == image.getWidth() && bitmap.getHeight() == image.getHeight()) {
+                return bitmap;
+            }
+            int width = image.getWidth();
+            int height = image.getHeight();
+            if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+                if (bitmap != null) {
+                    bitmap.recycle();
+                }
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                band = new int[width * Tile.SIZE];
+            }
+            // Pixels keep their alpha scaled by the opacity and take half of the tint color
+            int tintColor = (tint >>> 1) & 0x007F7F7F;
+            for (int y = 0; y < height; y += Tile.SIZE) {
+                int rows = Math.min(Tile.SIZE, height - y);
+                image.getPixels(band, 0, width, 0, y, width, rows);
+                int length = width * rows;
+                for (int i = 0; i < length; i ++) {
+                    int color = band[i];
+                    int alpha = BlendComposer.mul255(color >>> 24, opacity);
+                    band[i] = alpha == 0 ? 0 :
+                            (alpha << 24) | (((color >>> 1) & 0x007F7F7F) + tintColor);
+                }
+                bitmap.setPixels(band, 0, width, 0, y, width, rows);
+            }
+            this.image = image;
+            version = image.getVersion();
+            return bitmap;
+        }
+
+        void clear() {
+            if (bitmap != null) {
+                bitmap.recycle();
+                bitmap = null;
+            }
+            band = null;
+            image = null;
+            version = -1;
+        }
+
+    }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.atlas;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+// MaxRects bin packing: the free space of the bin is kept as a list of maximal, possibly overlapping
+// rectangles. Each rectangle goes to the free position with the lowest bottom edge, then the leftmost.
+// The placed area is cut out of every free rectangle it overlaps and free rectangles contained in
+// another one are dropped, only the new ones need to be compared.
+public final class MaxRectsPacker {
+
+    // Widths tried by pack, starting at the square root of the total area
+    private final static int PACK_ATTEMPTS = 12;
+
+    private final int mBinWidth;
+    private final int mBinHeight;
+    // Free rectangles as x, y, width, height
+    private int[] mFree;
+    private int mFreeCount;
+    private int mUsedWidth;
+    private int mUsedHeight;
+
+    private MaxRectsPacker(int binWidth, int binHeight) {
+        if (binWidth < 1 || binHeight < 1) {
+            throw new IllegalArgumentException("Bin size cannot be < 1");
+        }
+        mBinWidth = binWidth;
+        mBinHeight = binHeight;
+        mFree = new int[64];
+        mFree[0] = 0;
+        mFree[1] = 0;
+        mFree[2] = binWidth;
+        mFree[3] = binHeight;
+        mFreeCount = 1;
+    }
+
+    public static @NonNull
+    MaxRectsPacker createMaxRectsPacker (int binWidth, int binHeight) {
+        return new MaxRectsPacker(binWidth, binHeight);
+    }
+
+    // Packs every rectangle into the smallest sheet found over several bin widths, largest first.
+    // The positions receive x, y pairs in input order, the sheet size is returned as width, height.
+    public static @NonNull int[] pack (@NonNull int[] widths, @NonNull int[] heights, int padding,
+                                       @NonNull int[] positions) {
+        int count = widths.length;
+        Integer[] order = new Integer[count];
+        long area = 0;
+        int maxWidth = 1;
+        int totalWidth = 0;
+        int totalHeight = 0;
+        for (int i = 0; i < count; i ++) {
+            order[i] = i;
+            area += (long) (widths[i] + padding) * (heights[i] + padding);
+            maxWidth = Math.max(maxWidth, widths[i] + padding);
+            totalWidth += widths[i] + padding;
+            totalHeight += heights[i] + padding;
+        }
+        final int[] sortWidths = widths;
+        final int[] sortHeights = heights;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                int result = sortHeights[o2] - sortHeights[o1];
+                return result != 0 ? result : sortWidths[o2] - sortWidths[o1];
+            }
+        });
+        int[] sheetSize = new int[] {1, 1};
+        long bestArea = Long.MAX_VALUE;
+        int[] attempt = new int[count * 2];
+        int[] position = new int[2];
+        int binWidth = Math.max(maxWidth, (int) Math.ceil(Math.sqrt(area)));
+        for (int i = 0; i < PACK_ATTEMPTS && binWidth <= Math.max(maxWidth, totalWidth); i ++) {
+            MaxRectsPacker packer = new MaxRectsPacker(binWidth, Math.max(1, totalHeight));
+            for (int index : order) {
+                // Fits by construction, the bin is as tall as all rectangles stacked
+                packer.insert(widths[index] + padding, heights[index] + padding, position);
+                attempt[index * 2] = position[0];
+                attempt[index * 2 + 1] = position[1];
+            }
+            int width = Math.max(1, packer.getUsedWidth() - padding);
+            int height = Math.max(1, packer.getUsedHeight() - padding);
+            long attemptArea = (long) width * height;
+            // Ties go to the squarer sheet
+            if (attemptArea < bestArea || (attemptArea == bestArea &&
+                    Math.abs(width - height) < Math.abs(sheetSize[0] - sheetSize[1]))) {
+                bestArea = attemptArea;
+                sheetSize[0] = width;
+                sheetSize[1] = height;
+                System.arraycopy(attempt, 0, positions, 0, count * 2);
+            }
+            binWidth += Math.max(1, binWidth / 8);
+        }
+        return sheetSize;
+    }
+
+    // Places a rectangle, the position receives x, y. Returns false if it does not fit.
+    public boolean insert (int width, int height, @NonNull int[] position) {
+        int bestIndex = -1;
+        int bestBottom = Integer.MAX_VALUE;
+        int bestX = Integer.MAX_VALUE;
+        for (int i = 0; i < mFreeCount; i ++) {
+            int offset = i * 4;
+            if (mFree[offset + 2] >= width && mFree[offset + 3] >= height) {
+                int bottom = mFree[offset + 1] + height;
+                if (bottom < bestBottom || (bottom == bestBottom && mFree[offset] < bestX)) {
+                    bestIndex = i;
+                    bestBottom = bottom;
+                    bestX = mFree[offset];
+                }
+            }
+        }
+        if (bestIndex < 0) {
+            return false;
+        }
+        int x = mFree[bestIndex * 4];
+        int y = mFree[bestIndex * 4 + 1];
+        position[0] = x;
+        position[1] = y;
+        mUsedWidth = Math.max(mUsedWidth, x + width);
+        mUsedHeight = Math.max(mUsedHeight, y + height);
+        split(x, y, width, height);
+        return true;
+    }
+
+    public int getBinWidth () {
+        return mBinWidth;
+    }
+
+    public int getBinHeight () {
+        return mBinHeight;
+    }
+
+    public int getUsedWidth () {
+        return mUsedWidth;
+    }
+
+    public int getUsedHeight () {
+        return mUsedHeight;
+    }
+
+    private void split (int x, int y, int width, int height) {
+        int right = x + width;
+        int bottom = y + height;
+        int oldCount = mFreeCount;
+        // Overlapped rectangles are replaced by the up to four parts left around the placed one
+        int kept = 0;
+        int[] added = new int[16];
+        int addedCount = 0;
+        for (int i = 0; i < oldCount; i ++) {
+            int offset = i * 4;
+            int freeX = mFree[offset];
+            int freeY = mFree[offset + 1];
+            int freeRight = freeX + mFree[offset + 2];
+            int freeBottom = freeY + mFree[offset + 3];
+            if (x >= freeRight || right <= freeX || y >= freeBottom || bottom <= freeY) {
+                if (kept != i) {
+                    System.arraycopy(mFree, offset, mFree, kept * 4, 4);
+                }
+                kept ++;
+                continue;
+            }
+            if (addedCount + 16 > added.length) {
+                added = Arrays.copyOf(added, added.length * 2);
+            }
+            if (x > freeX) {
+                addedCount = add(added, addedCount, freeX, freeY, x - freeX, freeBottom - freeY);
+            }
+            if (right < freeRight) {
+                addedCount = add(added, addedCount, right, freeY, freeRight - right, freeBottom - freeY);
+            }
+            if (y > freeY) {
+                addedCount = add(added, addedCount, freeX, freeY, freeRight - freeX, y - freeY);
+            }
+            if (bottom < freeBottom) {
+                addedCount = add(added, addedCount, freeX, bottom, freeRight - freeX, freeBottom - bottom);
+            }
+        }
+        mFreeCount = kept;
+        // New parts contained in a kept rectangle or another new part are redundant
+        int newStart = mFreeCount;
+        for (int i = 0; i < addedCount; i += 4) {
+            boolean contained = false;
+            for (int j = 0; j < mFreeCount * 4 && !contained; j += 4) {
+                contained = contains(mFree, j, added, i);
+            }
+            for (int j = i + 4; j < addedCount && !contained; j += 4) {
+                contained = contains(added, j, added, i);
+            }
+            if (!contained) {
+                if ((mFreeCount + 1) * 4 > mFree.length) {
+                    mFree = Arrays.copyOf(mFree, mFree.length * 2);
+                }
+                System.arraycopy(added, i, mFree, mFreeCount * 4, 4);
+                mFreeCount ++;
+            }
+        }
+        // Kept rectangles contained in a new part
+        int count = 0;
+        for (int i = 0; i < mFreeCount; i ++) {
+            boolean contained = false;
+            if (i < newStart) {
+                for (int j = newStart; j < mFreeCount && !contained; j ++) {
+                    contained = contains(mFree, j * 4, mFree, i * 4);
+                }
+            }
+            if (!contained) {
+                if (count != i) {
+                    System.arraycopy(mFree, i * 4, mFree, count * 4, 4);
+                }
+                count ++;
+            }
+        }
+        mFreeCount = count;
+    }
+
+    private static int add (@NonNull int[] rects, int count, int x, int y, int width, int height) {
+        rects[count] = x;
+        rects[count + 1] = y;
+        rects[count + 2] = width;
+        rects[count + 3] = height;
+        return count + 4;
+    }
+
+    // Whether the inner rectangle lies within the outer one
+    private static boolean contains (@NonNull int[] outer, int outerOffset, @NonNull int[] inner, int innerOffset) {
+        return inner[innerOffset] >= outer[outerOffset] && inner[innerOffset + 1] >= outer[outerOffset + 1] &&
+                inner[innerOffset] + inner[innerOffset + 2] <= outer[outerOffset] + outer[outerOffset + 2] &&
+                inner[innerOffset + 1] + inner[innerOffset + 3] <= outer[outerOffset + 1] + outer[outerOffset + 3];
+    }
+
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.atlas;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.UiThread;
+import androidx.annotation.WorkerThread;
+
+import com.ansdoship.pixelarteditor.editor.animation.FrameTimeline;
+import com.ansdoship.pixelarteditor.editor.tile.TiledImage;
+import com.ansdoship.pixelarteditor.util.IntIntHashMap;
+import com.tianscar.quickbitmap.BitmapEncoder;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Packs the frames of a timeline into one sprite sheet with an atlas descriptor next to it.
+// Frames can be trimmed to their opaque bounds and identical sprites are stored once, every frame
+// still gets its own atlas entry. The JSON atlas follows the TexturePacker array layout with
+// frame durations added, the XML one the Starling TextureAtlas layout.
+public final class SpriteSheetExporter {
+
+    public final static int PADDING_DEFAULT = 1;
+
+    public interface Callback {
+        void onProgress(int progress);
+        void onFinish(boolean isSuccess);
+    }
+
+    private final String mName;
+    private final int mWidth;
+    private final int mHeight;
+    private final TiledImage[] mImages;
+    private final int[] mDurations;
+    private boolean mTrimEnabled;
+    private boolean mDedupeEnabled;
+    private int mPadding;
+    private int mAtlasFormat;
+
+    private SpriteSheetExporter(@NonNull FrameTimeline timeline, @NonNull String name) {
+        mName = name;
+        mWidth = timeline.getWidth();
+        mHeight = timeline.getHeight();
+        mImages = new TiledImage[timeline.size()];
+        mDurations = new int[timeline.size()];
+        for (int i = 0; i < timeline.size(); i ++) {
+            // Copy-on-write, the timeline stays editable while exporting
+            mImages[i] = timeline.getFrame(i).getImage().copy();
+            mDurations[i] = timeline.getFrame(i).getDuration();
+        }
+        mTrimEnabled = true;
+        mDedupeEnabled = true;
+        mPadding = PADDING_DEFAULT;
+        mAtlasFormat = AtlasFormatFlag.JSON;
+    }
+
+    // Snapshots the frames, sprites are named after the sheet with the frame index appended
+    @UiThread
+    public static @NonNull
+    SpriteSheetExporter createSpriteSheetExporter (@NonNull FrameTimeline timeline, @NonNull String name) {
+        return new SpriteSheetExporter(timeline, name);
+    }
+
+    public void setTrimEnabled (boolean trimEnabled) {
+        mTrimEnabled = trimEnabled;
+    }
+
+    public void setDedupeEnabled (boolean dedupeEnabled) {
+        mDedupeEnabled = dedupeEnabled;
+    }
+
+    public void setPadding (int padding) {
+        mPadding = Math.max(0, padding);
+    }
+
+    public void setAtlasFormat (int atlasFormat) {
+        mAtlasFormat = atlasFormat;
+    }
+
+    public int getAtlasFormat () {
+        return mAtlasFormat;
+    }
+
+    public static @NonNull String getAtlasExtension (int atlasFormat) {
+        return atlasFormat == AtlasFormatFlag.XML ? "xml" : "json";
+    }
+
+    // Exports on a new thread, all callbacks are invoked on that thread
+    public void exportAsync (@NonNull final File imageFile, @NonNull final File atlasFile,
+                             @NonNull final Callback callback) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                callback.onFinish(export(imageFile, atlasFile, callback));
+            }
+        }).start();
+    }
+
+    @WorkerThread
+    private boolean export (@NonNull File imageFile, @NonNull File atlasFile, @NonNull Callback callback) {
+        int frameCount = mImages.length;
+        int[] buffer = new int[mWidth * mHeight];
+        // Per frame: the sprite it uses and its trimmed offset within the frame
+        int[] spriteIndices = new int[frameCount];
+        int[] offsets = new int[frameCount * 2];
+        List<int[]> spritePixels = new ArrayList<>();
+        int[] spriteWidths = new int[frameCount];
+        int[] spriteHeights = new int[frameCount];
+        IntIntHashMap hashes = new IntIntHashMap();
+        int lastProgress = 0;
+        for (int i = 0; i < frameCount; i ++) {
+            mImages[i].getPixels(buffer, 0, mWidth, 0, 0, mWidth, mHeight);
+            mImages[i].release();
+            mImages[i] = null;
+            int left = 0;
+            int top = 0;
+            int right = mWidth - 1;
+            int bottom = mHeight - 1;
+            if (mTrimEnabled) {
+                left = mWidth;
+                top = mHeight;
+                right = -1;
+                bottom = -1;
+                for (int y = 0; y < mHeight; y ++) {
+                    int offset = y * mWidth;
+                    for (int x = 0; x < mWidth; x ++) {
+                        if ((buffer[offset + x] >>> 24) != 0) {
+                            left = Math.min(left, x);
+                            right = Math.max(right, x);
+                            top = Math.min(top, y);
+                            bottom = y;
+                        }
+                    }
+                }
+                // Fully transparent frames keep a single pixel
+                if (right < 0) {
+                    left = 0;
+                    top = 0;
+                    right = 0;
+                    bottom = 0;
+                }
+            }
+            int width = right - left + 1;
+            int height = bottom - top + 1;
+            int[] pixels = new int[width * height];
+            for (int y = 0; y < height; y ++) {
+                System.arraycopy(buffer, (top + y) * mWidth + left, pixels, y * width, width);
+            }
+            offsets[i * 2] = left;
+            offsets[i * 2 + 1] = top;
+            int sprite = -1;
+            int hash = 0;
+            if (mDedupeEnabled) {
+                hash = (Arrays.hashCode(pixels) * 31 + width) * 31 + height;
+                sprite = hashes.get(hash, -1);
+                if (sprite >= 0 && !isSameSprite(spritePixels.get(sprite), spriteWidths[sprite], pixels, width)) {
+                    // Hash collision, rare enough for a linear search
+                    sprite = -1;
+                    for (int j = 0; j < spritePixels.size(); j ++) {
+                        if (isSameSprite(spritePixels.get(j), spriteWidths[j], pixels, width)) {
+                            sprite = j;
+                            break;
+                        }
+                    }
+                }
+            }
+            if (sprite < 0) {
+                sprite = spritePixels.size();
+                spritePixels.add(pixels);
+                spriteWidths[sprite] = width;
+                spriteHeights[sprite] = height;
+                if (mDedupeEnabled && !hashes.containsKey(hash)) {
+                    hashes.put(hash, sprite);
+                }
+            }
+            spriteIndices[i] = sprite;
+            // Half of the progress for reading, the rest for encoding
+            int progress = (i + 1) * 50 / frameCount;
+            if (progress != lastProgress) {
+                lastProgress = progress;
+                callback.onProgress(progress);
+            }
+        }
+        int spriteCount = spritePixels.size();
+        int[] positions = new int[spriteCount * 2];
+        int[] sheetSize = MaxRectsPacker.pack(Arrays.copyOf(spriteWidths, spriteCount),
+                Arrays.copyOf(spriteHeights, spriteCount), mPadding, positions);
+        Bitmap sheet;
+        try {
+            sheet = Bitmap.createBitmap(sheetSize[0], sheetSize[1], Bitmap.Config.ARGB_8888);
+        }
+        catch (OutOfMemoryError e) {
+            e.printStackTrace();
+            return false;
+        }
+        for (int i = 0; i < spriteCount; i ++) {
+            sheet.setPixels(spritePixels.get(i), 0, spriteWidths[i], positions[i * 2], positions[i * 2 + 1],
+                    spriteWidths[i], spriteHeights[i]);
+        }
+        spritePixels.clear();
+        final boolean[] result = new boolean[1];
+        BitmapEncoder.encodeFile(imageFile.getAbsolutePath(), sheet, true, BitmapEncoder.CompressFormat.PNG, 100,
+                new BitmapEncoder.Callback() {
+                    @Override
+                    public void onCreateFailure() {}
+                    @Override
+                    public void onCompressFailure() {}
+                    @Override
+                    public void onFileExists(boolean isDirectory) {}
+                    @Override
+                    public void onIOException(IOException e) {
+                        e.printStackTrace();
+                    }
+                    @Override
+                    public void onSuccess() {
+                        result[0] = true;
+                    }
+                });
+        sheet.recycle();
+        if (!result[0]) {
+            return false;
+        }
+        callback.onProgress(90);
+        try {
+            String atlas;
+            if (mAtlasFormat == AtlasFormatFlag.XML) {
+                atlas = buildXmlAtlas(imageFile.getName(), spriteIndices, offsets, spriteWidths, spriteHeights,
+                        positions);
+            }
+            else {
+                atlas = buildJsonAtlas(imageFile.getName(), spriteIndices, offsets, spriteWidths, spriteHeights,
+                        positions, sheetSize);
+            }
+            FileUtils.writeStringToFile(atlasFile, atlas, "UTF-8");
+        }
+        catch (IOException | JSONException e) {
+            e.printStackTrace();
+            return false;
+        }
+        callback.onProgress(100);
+        return true;
+    }
+
+    @NonNull
+    private String buildJsonAtlas (@NonNull String imageName, @NonNull int[] spriteIndices, @NonNull int[] offsets,
+                                   @NonNull int[] spriteWidths, @NonNull int[] spriteHeights,
+                                   @NonNull int[] positions, @NonNull int[] sheetSize) throws JSONException {
+        JSONArray frames = new JSONArray();
+        for (int i = 0; i < spriteIndices.length; i ++) {
+            int sprite = spriteIndices[i];
+            int width = spriteWidths[sprite];
+            int height = spriteHeights[sprite];
+            JSONObject frame = new JSONObject();
+            frame.put("filename", getSpriteName(i));
+            frame.put("frame", createRect(positions[sprite * 2], positions[sprite * 2 + 1], width, height));
+            frame.put("rotated", false);
+            frame.put("trimmed", width != mWidth || height != mHeight);
+            frame.put("spriteSourceSize", createRect(offsets[i * 2], offsets[i * 2 + 1], width, height));
+            frame.put("sourceSize", createSize(mWidth, mHeight));
+            frame.put("duration", mDurations[i]);
+            frames.put(frame);
+        }
+        JSONObject meta = new JSONObject();
+        meta.put("image", imageName);
+        meta.put("format", "RGBA8888");
+        meta.put("size", createSize(sheetSize[0], sheetSize[1]));
+        meta.put("scale", "1");
+        JSONObject atlas = new JSONObject();
+        atlas.put("frames", frames);
+        atlas.put("meta", meta);
+        return atlas.toString(1);
+    }
+
+    @NonNull
+    private String buildXmlAtlas (@NonNull String imageName, @NonNull int[] spriteIndices, @NonNull int[] offsets,
+                                  @NonNull int[] spriteWidths, @NonNull int[] spriteHeights,
+                                  @NonNull int[] positions) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        builder.append("<TextureAtlas imagePath=\"").append(escapeXml(imageName)).append("\">\n");
+        for (int i = 0; i < spriteIndices.length; i ++) {
+            int sprite = spriteIndices[i];
+            builder.append(" <SubTexture name=\"").append(escapeXml(getSpriteName(i)))
+                    .append("\" x=\"").append(positions[sprite * 2])
+                    .append("\" y=\"").append(positions[sprite * 2 + 1])
+                    .append("\" width=\"").append(spriteWidths[sprite])
+                    .append("\" height=\"").append(spriteHeights[sprite])
+                    .append("\" frameX=\"").append(-offsets[i * 2])
+                    .append("\" frameY=\"").append(-offsets[i * 2 + 1])
+                    .append("\" frameWidth=\"").append(mWidth)
+                    .append("\" frameHeight=\"").append(mHeight)
+                    .append("\"/>\n");
+        }
+        builder.append("</TextureAtlas>\n");
+        return builder.toString();
+    }
+
+    @NonNull
+    private String getSpriteName (int frameIndex) {
+        return mName + "_" + frameIndex;
+    }
+
+    private static boolean isSameSprite (@NonNull int[] pixels1, int width1, @NonNull int[] pixels2, int width2) {
+        return width1 == width2 && Arrays.equals(pixels1, pixels2);
+    }
+
+    @NonNull
+    private static JSONObject createRect (int x, int y, int width, int height) throws JSONException {
+        JSONObject rect = new JSONObject();
+        rect.put("x", x);
+        rect.put("y", y);
+        rect.put("w", width);
+        rect.put("h", height);
+        return rect;
+    }
+
+    @NonNull
+    private static JSONObject createSize (int width, int height) throws JSONException {
+        JSONObject size = new JSONObject();
+        size.put("w", width);
+        size.put("h", height);
+        return size;
+    }
+
+    @NonNull
+    private static String escapeXml (@NonNull String string) {
+        return string.replace("&", "&amp;").replace("\"", "&quot;")
+                .replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+}
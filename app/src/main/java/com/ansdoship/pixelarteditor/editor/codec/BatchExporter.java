@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.codec;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.UiThread;
+import androidx.annotation.WorkerThread;
+
+import com.tianscar.quickbitmap.BitmapEncoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Writes one image at several integer scales and formats in one job, the targets run in parallel on a
+// pool no larger than the processor count. PNG targets stream nearest neighbor scaled rows into the
+// encoder, so a scaled copy of the image never exists. JPEG goes through Bitmap compression, which needs
+// the scaled bitmap, so only one JPEG target holds one at a time.
+public final class BatchExporter {
+
+    public final static String FORMAT_PNG = "png";
+    public final static String FORMAT_JPEG = "jpeg";
+
+    public interface Callback {
+        void onProgress(int progress);
+        void onFinish(@NonNull Report report);
+    }
+
+    public final static class Result {
+
+        private final File mFile;
+        private final int mScale;
+        private final String mFormat;
+        private final boolean mSuccess;
+        private final long mMillis;
+
+        private Result(@NonNull File file, int scale, @NonNull String format, boolean success, long millis) {
+            mFile = file;
+            mScale = scale;
+            mFormat = format;
+            mSuccess = success;
+            mMillis = millis;
+        }
+
+        @NonNull
+        public File getFile () {
+            return mFile;
+        }
+
+        public int getScale () {
+            return mScale;
+        }
+
+        @NonNull
+        public String getFormat () {
+            return mFormat;
+        }
+
+        public boolean isSuccess () {
+            return mSuccess;
+        }
+
+        public long getMillis () {
+            return mMillis;
+        }
+
+    }
+
+    public final static class Report {
+
+        private final List<Result> mResults;
+        private final long mMillis;
+
+        private Report(@NonNull List<Result> results, long millis) {
+            mResults = Collections.unmodifiableList(results);
+            mMillis = millis;
+        }
+
+        // In the order the targets were added
+        @NonNull
+        public List<Result> getResults () {
+            return mResults;
+        }
+
+        // Wall time of the whole job
+        public long getMillis () {
+            return mMillis;
+        }
+
+        public boolean isSuccess () {
+            for (Result result : mResults) {
+                if (!result.isSuccess()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+    private final Bitmap mBitmap;
+    private final List<Integer> mScales;
+    private final List<String> mFormats;
+    private int mCompressionLevel;
+    private int mJpegQuality;
+
+    private BatchExporter(@NonNull Bitmap bitmap) {
+        mBitmap = bitmap;
+        mScales = new ArrayList<>();
+        mFormats = new ArrayList<>();
+        mCompressionLevel = IndexedPngEncoder.COMPRESSION_LEVEL_DEFAULT;
+        mJpegQuality = 100;
+    }
+
+    // Snapshots the bitmap, it stays editable while exporting
+    @UiThread
+    public static @NonNull
+    BatchExporter createBatchExporter (@NonNull Bitmap bitmap) {
+        return new BatchExporter(bitmap.copy(Bitmap.Config.ARGB_8888, false));
+    }
+
+    // Targets already added are ignored
+    public void addTarget (int scale, @NonNull String format) {
+        if (scale < 1) {
+            throw new IllegalArgumentException("Scale cannot be < 1");
+        }
+        if (!format.equals(FORMAT_PNG) && !format.equals(FORMAT_JPEG)) {
+            throw new IllegalArgumentException("Unsupported format: " + format);
+        }
+        for (int i = 0; i < mScales.size(); i ++) {
+            if (mScales.get(i) == scale && mFormats.get(i).equals(format)) {
+                return;
+            }
+        }
+        mScales.add(scale);
+        mFormats.add(format);
+    }
+
+    public int getTargetCount () {
+        return mScales.size();
+    }
+
+    public void setCompressionLevel (int compressionLevel) {
+        mCompressionLevel = compressionLevel;
+    }
+
+    public void setJpegQuality (int jpegQuality) {
+        mJpegQuality = jpegQuality;
+    }
+
+    // The 1x image keeps the base name, others get the usual @2x style suffix
+    public static @NonNull String getFileName (@NonNull String baseName, int scale, @NonNull String format) {
+        return (scale == 1 ? baseName : baseName + "@" + scale + "x") + "." + format;
+    }
+
+    @NonNull
+    public List<File> getFiles (@NonNull File directory, @NonNull String baseName) {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < mScales.size(); i ++) {
+            files.add(new File(directory, getFileName(baseName, mScales.get(i), mFormats.get(i))));
+        }
+        return files;
+    }
+
+    // Exports on a new thread, all callbacks are invoked on worker threads. Existing files are replaced.
+    public void exportAsync (@NonNull final File directory, @NonNull final String baseName,
+                             @NonNull final Callback callback) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                callback.onFinish(export(directory, baseName, callback));
+            }
+        }).start();
+    }
+
+    @WorkerThread
+    @NonNull
+    private Report export (@NonNull File directory, @NonNull String baseName, @NonNull final Callback callback) {
+        long start = System.nanoTime();
+        final int count = mScales.size();
+        List<File> files = getFiles(directory, baseName);
+        List<Callable<Result>> tasks = new ArrayList<>();
+        final AtomicInteger finished = new AtomicInteger();
+        final Semaphore materializeLock = new Semaphore(1);
+        for (int i = 0; i < count; i ++) {
+            final File file = files.get(i);
+            final int scale = mScales.get(i);
+            final String format = mFormats.get(i);
+            tasks.add(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    long taskStart = System.nanoTime();
+                    boolean success = format.equals(FORMAT_PNG) ?
+                            writePng(file, scale) : writeJpeg(file, scale, materializeLock);
+                    Result result = new Result(file, scale, format, success,
+                            (System.nanoTime() - taskStart) / 1000000);
+                    callback.onProgress(finished.incrementAndGet() * 100 / count);
+                    return result;
+                }
+            });
+        }
+        List<Result> results = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(count, Runtime.getRuntime().availableProcessors())));
+        try {
+            List<Future<Result>> futures = executor.invokeAll(tasks);
+            for (int i = 0; i < count; i ++) {
+                Result result;
+                try {
+                    result = futures.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    e.printStackTrace();
+                    result = new Result(files.get(i), mScales.get(i), mFormats.get(i), false, 0);
+                }
+                results.add(result);
+            }
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            executor.shutdown();
+        }
+        mBitmap.recycle();
+        return new Report(results, (System.nanoTime() - start) / 1000000);
+    }
+
+    @WorkerThread
+    private boolean writePng (@NonNull File file, int scale) {
+        // Up to 256 colors makes a palette PNG, like a plain save
+        IndexedPngEncoder indexedPngEncoder = IndexedPngEncoder.createIndexedPngEncoder(mBitmap);
+        if (indexedPngEncoder != null) {
+            indexedPngEncoder.setCompressionLevel(mCompressionLevel);
+            indexedPngEncoder.setScale(scale);
+            return indexedPngEncoder.encodeFile(file);
+        }
+        TruecolorPngEncoder truecolorPngEncoder = TruecolorPngEncoder.createTruecolorPngEncoder(mBitmap);
+        truecolorPngEncoder.setCompressionLevel(mCompressionLevel);
+        truecolorPngEncoder.setScale(scale);
+        return truecolorPngEncoder.encodeFile(file);
+    }
+
+    @WorkerThread
+    private boolean writeJpeg (@NonNull File file, int scale, @NonNull Semaphore materializeLock) {
+        materializeLock.acquireUninterruptibly();
+        Bitmap scaled = null;
+        try {
+            scaled = scale == 1 ? mBitmap : Bitmap.createScaledBitmap(mBitmap,
+                    mBitmap.getWidth() * scale, mBitmap.getHeight() * scale, false);
+            final boolean[] success = new boolean[1];
+            BitmapEncoder.encodeFile(file.getAbsolutePath(), scaled, true, BitmapEncoder.CompressFormat.JPEG,
+                    mJpegQuality, new BitmapEncoder.Callback() {
+                        @Override
+                        public void onCreateFailure() {}
+                        @Override
+                        public void onCompressFailure() {}
+                        @Override
+                        public void onFileExists(boolean isDirectory) {}
+                        @Override
+                        public void onIOException(IOException e) {
+                            e.printStackTrace();
+                        }
+                        @Override
+                        public void onSuccess() {
+                            success[0] = true;
+                        }
+                    });
+            return success[0];
+        }
+        catch (OutOfMemoryError e) {
+            e.printStackTrace();
+            return false;
+        }
+        finally {
+            if (scaled != null && scaled != mBitmap) {
+                scaled.recycle();
+            }
+            materializeLock.release();
+        }
+    }
+
+}
@@ -0,0 +1,549 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.codec;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+import androidx.annotation.WorkerThread;
+
+import com.ansdoship.pixelarteditor.editor.animation.FrameTimeline;
+import com.ansdoship.pixelarteditor.editor.animation.PlaybackFlag;
+import com.ansdoship.pixelarteditor.editor.palette.ColorHistogram;
+import com.ansdoship.pixelarteditor.editor.palette.ImageQuantizer;
+import com.ansdoship.pixelarteditor.editor.palette.LabColorMatcher;
+import com.ansdoship.pixelarteditor.editor.palette.Palette;
+import com.ansdoship.pixelarteditor.editor.palette.QuantizerFlag;
+import com.ansdoship.pixelarteditor.editor.tile.TiledImage;
+import com.ansdoship.pixelarteditor.util.IntIntHashMap;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// Streams an animated GIF frame by frame. Each frame is cropped to the rectangle that differs from what is
+// on screen and pixels left unchanged inside it are written transparent. A frame is held back until the
+// next one arrives, which decides its disposal: when the next frame turns opaque pixels transparent the
+// rectangle also covers those pixels and is restored to the background afterwards. Identical consecutive
+// frames are merged. Colors come from the global table built
+// from the document palette, or a local table when a frame uses other colors, quantized past 255 colors.
+// Memory holds four frame sized buffers regardless of the frame count. Alpha below half is transparent.
+public final class GifEncoder {
+
+    public interface Callback {
+        void onProgress(int progress);
+        void onFinish(boolean isSuccess);
+    }
+
+    public final static int DELAY_MIN = 20;
+    public final static int LOOP_FOREVER = 0;
+
+    private final static int TABLE_SIZE_MAX = 256;
+    private final static int CODE_SIZE_MAX = 12;
+
+    private final OutputStream mOut;
+    private final int mWidth;
+    private final int mHeight;
+    // Opaque colors of the global table, its transparent index follows them
+    private final int[] mGlobalColors;
+    private final IntIntHashMap mGlobalIndices;
+    // On screen before the pending frame, the pending frame, the incoming frame
+    private int[] mBase;
+    private int[] mPending;
+    private int[] mNext;
+    private final int[] mScratch;
+    private final byte[] mIndices;
+    private boolean mHasPending;
+    private int mPendingDelay;
+    // Rectangle of the last written frame
+    private int mLeft;
+    private int mTop;
+    private int mRight;
+    private int mBottom;
+    private boolean mFinished;
+
+    private GifEncoder(@NonNull OutputStream out, int width, int height, @Nullable int[] colors) {
+        mOut = out;
+        mWidth = width;
+        mHeight = height;
+        mGlobalIndices = new IntIntHashMap();
+        int count = 0;
+        int[] globalColors = new int[TABLE_SIZE_MAX - 1];
+        if (colors != null) {
+            for (int color : colors) {
+                if ((color >>> 24) < 0x80) {
+                    continue;
+                }
+                color |= 0xFF000000;
+                if (!mGlobalIndices.containsKey(color)) {
+                    if (count == globalColors.length) {
+                        // Too many for one table, every frame gets a local one
+                        mGlobalIndices.clear();
+                        count = 0;
+                        break;
+                    }
+                    mGlobalIndices.put(color, count);
+                    globalColors[count ++] = color;
+                }
+            }
+        }
+        mGlobalColors = Arrays.copyOf(globalColors, count);
+        int length = width * height;
+        mBase = new int[length];
+        mPending = new int[length];
+        mNext = new int[length];
+        mScratch = new int[length];
+        mIndices = new byte[length];
+    }
+
+    // Writes the header, a null palette or one of more than 255 opaque colors gives local tables only.
+    // A negative loop count plays once.
+    public static @NonNull
+    GifEncoder createGifEncoder (@NonNull OutputStream out, int width, int height,
+                                 @Nullable int[] palette, int loopCount) throws IOException {
+        if (width < 1 || height < 1 || width > 0xFFFF || height > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid GIF size");
+        }
+        GifEncoder encoder = new GifEncoder(out, width, height, palette);
+        encoder.writeHeader(loopCount);
+        return encoder;
+    }
+
+    // Encodes the frames of the timeline on a new thread, ping-pong playback repeats them backwards
+    // without the ends. Frames and palette are snapshotted first, so the timeline stays editable.
+    // All callbacks are invoked on that thread.
+    @UiThread
+    public static void encodeFileAsync (@NonNull FrameTimeline timeline, @Nullable Palette palette,
+                                        final int playbackFlag, @NonNull final File file,
+                                        @NonNull final Callback callback) {
+        final int width = timeline.getWidth();
+        final int height = timeline.getHeight();
+        final int[] colors = palette == null ? null : palette.getColors().clone();
+        final TiledImage[] images = new TiledImage[timeline.size()];
+        final int[] durations = new int[timeline.size()];
+        for (int i = 0; i < images.length; i ++) {
+            // Copy-on-write, only the tile references are copied
+            images[i] = timeline.getFrame(i).getImage().copy();
+            durations[i] = timeline.getFrame(i).getDuration();
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean isSuccess = encodeFile(images, durations, colors, width, height, playbackFlag, file, callback);
+                for (TiledImage image : images) {
+                    image.release();
+                }
+                callback.onFinish(isSuccess);
+            }
+        }).start();
+    }
+
+    @WorkerThread
+    private static boolean encodeFile (@NonNull TiledImage[] images, @NonNull int[] durations,
+                                       @Nullable int[] colors, int width, int height, int playbackFlag,
+                                       @NonNull File file, @NonNull Callback callback) {
+        int count = images.length;
+        // Ping-pong plays every frame but the first and the last a second time
+        int total = playbackFlag == PlaybackFlag.PING_PONG ? count + Math.max(0, count - 2) : count;
+        int done = 0;
+        int lastProgress = 0;
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(file));
+            GifEncoder encoder = createGifEncoder(out, width, height, colors,
+                    playbackFlag == PlaybackFlag.ONCE ? -1 : LOOP_FOREVER);
+            for (int step = 0; step < total; step ++) {
+                int i = step < count ? step : 2 * count - 2 - step;
+                encoder.addFrame(images[i], durations[i]);
+                done ++;
+                int progress = done * 99 / total;
+                if (progress != lastProgress) {
+                    lastProgress = progress;
+                    callback.onProgress(progress);
+                }
+            }
+            encoder.finish();
+            out.close();
+            callback.onProgress(100);
+            return true;
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            IOUtils.closeQuietly(out);
+            return false;
+        }
+    }
+
+    public void addFrame (@NonNull TiledImage image, int delayMillis) throws IOException {
+        checkSize(image.getWidth(), image.getHeight());
+        image.getPixels(mNext, 0, mWidth, 0, 0, mWidth, mHeight);
+        pushFrame(delayMillis);
+    }
+
+    public void addFrame (@NonNull Bitmap bitmap, int delayMillis) throws IOException {
+        checkSize(bitmap.getWidth(), bitmap.getHeight());
+        bitmap.getPixels(mNext, 0, mWidth, 0, 0, mWidth, mHeight);
+        pushFrame(delayMillis);
+    }
+
+    // Writes the last frame and the trailer, the stream is flushed but not closed
+    public void finish () throws IOException {
+        if (mFinished) {
+            return;
+        }
+        mFinished = true;
+        if (mHasPending) {
+            writePending(1);
+        }
+        mOut.write(0x3B);
+        mOut.flush();
+    }
+
+    private void checkSize (int width, int height) {
+        if (mFinished) {
+            throw new IllegalStateException("The encoder is finished");
+        }
+        if (width != mWidth || height != mHeight) {
+            throw new IllegalArgumentException("Frame size does not match the GIF size");
+        }
+    }
+
+    private void pushFrame (int delayMillis) throws IOException {
+        int[] next = mNext;
+        for (int i = 0; i < next.length; i ++) {
+            next[i] = (next[i] >>> 24) < 0x80 ? 0 : next[i] | 0xFF000000;
+        }
+        if (!mHasPending) {
+            // The canvas starts transparent
+            Arrays.fill(mBase, 0);
+            swapNextAndPending();
+            mPendingDelay = delayMillis;
+            mHasPending = true;
+            return;
+        }
+        if (Arrays.equals(next, mPending)) {
+            mPendingDelay += delayMillis;
+            return;
+        }
+        boolean clear = false;
+        for (int i = 0; i < next.length; i ++) {
+            if (next[i] == 0 && mPending[i] != 0) {
+                clear = true;
+                break;
+            }
+        }
+        writePending(clear ? 2 : 1);
+        // What the next frame is drawn over
+        if (clear) {
+            for (int y = mTop; y <= mBottom; y ++) {
+                Arrays.fill(mBase, y * mWidth + mLeft, y * mWidth + mRight + 1, 0);
+            }
+        }
+        else {
+            int[] swap = mBase;
+            mBase = mPending;
+            mPending = swap;
+        }
+        swapNextAndPending();
+        mPendingDelay = delayMillis;
+    }
+
+    private void swapNextAndPending () {
+        int[] swap = mPending;
+        mPending = mNext;
+        mNext = swap;
+    }
+
+    private void writePending (int disposal) throws IOException {
+        int[] base = mBase;
+        int[] frame = mPending;
+        // Bounds of the pixels that differ from the canvas
+        int left = mWidth;
+        int top = mHeight;
+        int right = -1;
+        int bottom = -1;
+        for (int y = 0; y < mHeight; y ++) {
+            int offset = y * mWidth;
+            for (int x = 0; x < mWidth; x ++) {
+                if (frame[offset + x] != base[offset + x] ||
+                        (disposal == 2 && frame[offset + x] != 0 && mNext[offset + x] == 0)) {
+                    if (x < left) {
+                        left = x;
+                    }
+                    if (x > right) {
+                        right = x;
+                    }
+                    if (y < top) {
+                        top = y;
+                    }
+                    bottom = y;
+                }
+            }
+        }
+        if (right < 0) {
+            // Nothing to draw, a single transparent pixel keeps the timing
+            left = 0;
+            top = 0;
+            right = 0;
+            bottom = 0;
+        }
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+        int width = right - left + 1;
+        int height = bottom - top + 1;
+        // Opaque pixels that change, only these need colors
+        int changed = 0;
+        for (int y = top; y <= bottom; y ++) {
+            int offset = y * mWidth;
+            for (int x = left; x <= right; x ++) {
+                int color = frame[offset + x];
+                if (color != 0 && color != base[offset + x]) {
+                    mScratch[changed ++] = color;
+                }
+            }
+        }
+        int[] colors = mGlobalColors;
+        IntIntHashMap indices = mGlobalIndices;
+        LabColorMatcher matcher = null;
+        boolean local = false;
+        for (int i = 0; i < changed; i ++) {
+            if (!mGlobalIndices.containsKey(mScratch[i])) {
+                local = true;
+                break;
+            }
+        }
+        if (local) {
+            indices = new IntIntHashMap();
+            int count = 0;
+            int[] localColors = new int[TABLE_SIZE_MAX - 1];
+            for (int i = 0; i < changed; i ++) {
+                int color = mScratch[i];
+                if (!indices.containsKey(color)) {
+                    if (count == localColors.length) {
+                        count = -1;
+                        break;
+                    }
+                    indices.put(color, count);
+                    localColors[count ++] = color;
+                }
+            }
+            if (count >= 0) {
+                colors = Arrays.copyOf(localColors, count);
+            }
+            else {
+                Palette palette = ImageQuantizer.createPalette(ColorHistogram.createColorHistogram(mScratch, 0, changed),
+                        TABLE_SIZE_MAX - 1, QuantizerFlag.MEDIAN_CUT);
+                colors = palette == null ? new int[] {0xFF000000} : palette.getColors();
+                matcher = LabColorMatcher.createLabColorMatcher(colors);
+                indices = null;
+            }
+        }
+        int transparent = colors.length;
+        int index = 0;
+        for (int y = top; y <= bottom; y ++) {
+            int offset = y * mWidth;
+            for (int x = left; x <= right; x ++) {
+                int color = frame[offset + x];
+                int value;
+                if (color == 0 || color == base[offset + x]) {
+                    value = transparent;
+                }
+                else if (indices != null) {
+                    value = indices.get(color, 0);
+                }
+                else {
+                    value = matcher.nearestIndexOf(color);
+                }
+                mIndices[index ++] = (byte) value;
+            }
+        }
+        int tableBits = tableBitsOf(colors.length + 1);
+        writeGraphicControl(disposal, transparent);
+        // Image descriptor
+        mOut.write(0x2C);
+        writeShort(left);
+        writeShort(top);
+        writeShort(width);
+        writeShort(height);
+        if (local) {
+            mOut.write(0x80 | (tableBits - 1));
+            writeColorTable(colors, tableBits);
+        }
+        else {
+            mOut.write(0);
+        }
+        writePixels(width * height, Math.max(2, tableBits));
+    }
+
+    private void writeHeader (int loopCount) throws IOException {
+        mOut.write(new byte[] {'G', 'I', 'F', '8', '9', 'a'});
+        writeShort(mWidth);
+        writeShort(mHeight);
+        int tableBits = tableBitsOf(mGlobalColors.length + 1);
+        boolean global = mGlobalColors.length > 0;
+        // Global table flag, 8 bit color resolution, table size
+        mOut.write((global ? 0x80 : 0) | 0x70 | (global ? tableBits - 1 : 0));
+        // Background color index and pixel aspect ratio
+        mOut.write(0);
+        mOut.write(0);
+        if (global) {
+            writeColorTable(mGlobalColors, tableBits);
+        }
+        if (loopCount >= 0) {
+            mOut.write(new byte[] {0x21, (byte) 0xFF, 0x0B,
+                    'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0', 0x03, 0x01});
+            writeShort(loopCount);
+            mOut.write(0);
+        }
+    }
+
+    private void writeGraphicControl (int disposal, int transparent) throws IOException {
+        mOut.write(new byte[] {0x21, (byte) 0xF9, 0x04});
+        mOut.write((disposal << 2) | 0x01);
+        writeShort(Math.max(DELAY_MIN, mPendingDelay) / 10);
+        mOut.write(transparent);
+        mOut.write(0);
+    }
+
+    // Padded with black up to the power of two the header announces
+    private void writeColorTable (@NonNull int[] colors, int tableBits) throws IOException {
+        byte[] table = new byte[(1 << tableBits) * 3];
+        for (int i = 0; i < colors.length; i ++) {
+            table[i * 3] = (byte) (colors[i] >> 16);
+            table[i * 3 + 1] = (byte) (colors[i] >> 8);
+            table[i * 3 + 2] = (byte) colors[i];
+        }
+        mOut.write(table);
+    }
+
+    // Variable width LZW, the dictionary is reset once it reaches 4096 codes
+    private void writePixels (int length, int minCodeSize) throws IOException {
+        mOut.write(minCodeSize);
+        BlockWriter writer = new BlockWriter(mOut);
+        int clearCode = 1 << minCodeSize;
+        int endCode = clearCode + 1;
+        IntIntHashMap dictionary = new IntIntHashMap();
+        int codeSize = minCodeSize + 1;
+        int nextCode = endCode + 1;
+        writer.writeCode(clearCode, codeSize);
+        int prefix = mIndices[0] & 0xFF;
+        for (int i = 1; i < length; i ++) {
+            int suffix = mIndices[i] & 0xFF;
+            int key = (prefix << 8) | suffix;
+            int code = dictionary.get(key, -1);
+            if (code >= 0) {
+                prefix = code;
+                continue;
+            }
+            writer.writeCode(prefix, codeSize);
+            if (nextCode == 1 << CODE_SIZE_MAX) {
+                writer.writeCode(clearCode, codeSize);
+                dictionary.clear();
+                codeSize = minCodeSize + 1;
+                nextCode = endCode + 1;
+            }
+            else {
+                dictionary.put(key, nextCode);
+                if (nextCode == 1 << codeSize) {
+                    codeSize ++;
+                }
+                nextCode ++;
+            }
+            prefix = suffix;
+        }
+        writer.writeCode(prefix, codeSize);
+        writer.writeCode(endCode, codeSize);
+        writer.finish();
+    }
+
+    private void writeShort (int value) throws IOException {
+        mOut.write(value & 0xFF);
+        mOut.write((value >> 8) & 0xFF);
+    }
+
+    private static int tableBitsOf (int count) {
+        int bits = 1;
+        while ((1 << bits) < count) {
+            bits ++;
+        }
+        return bits;
+    }
+
+    // Packs codes least significant bit first into sub-blocks of up to 255 bytes
+    private final static class BlockWriter {
+
+        private final OutputStream mOut;
+        private final byte[] mBlock;
+        private int mCount;
+        private int mBits;
+        private int mBitCount;
+
+        BlockWriter(@NonNull OutputStream out) {
+            mOut = out;
+            mBlock = new byte[255];
+        }
+
+        void writeCode(int code, int codeSize) throws IOException {
+            mBits |= code << mBitCount;
+            mBitCount += codeSize;
+            while (mBitCount >= 8) {
+                writeByte(mBits & 0xFF);
+                mBits >>>= 8;
+                mBitCount -= 8;
+            }
+        }
+
+        void finish() throws IOException {
+            if (mBitCount > 0) {
+                writeByte(mBits & 0xFF);
+                mBits = 0;
+                mBitCount = 0;
+            }
+            if (mCount > 0) {
+                flushBlock();
+            }
+            // Block terminator
+            mOut.write(0);
+        }
+
+        private void writeByte(int value) throws IOException {
+            mBlock[mCount ++] = (byte) value;
+            if (mCount == mBlock.length) {
+                flushBlock();
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            mOut.write(mCount);
+            mOut.write(mBlock, 0, mCount);
+            mCount = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.codec;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ansdoship.pixelarteditor.util.IntIntHashMap;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+// Writes images of at most 256 colors as palette PNGs (color type 3) with PLTE and, for translucent colors,
+// tRNS, at the lowest bit depth that holds the palette. Rows are read from the bitmap, filtered and deflated
+// one at a time, so no copy of the whole image is made, even when it is written scaled up.
+public final class IndexedPngEncoder {
+
+    public final static int COLOR_COUNT_MAX = 256;
+    public final static int COMPRESSION_LEVEL_MIN = Deflater.NO_COMPRESSION;
+    public final static int COMPRESSION_LEVEL_MAX = Deflater.BEST_COMPRESSION;
+    public final static int COMPRESSION_LEVEL_DEFAULT = 6;
+
+    private final Bitmap mBitmap;
+    private final int[] mPalette;
+    // Palette entries with alpha below 255, they come first so tRNS stays short
+    private final int mTranslucentCount;
+    private final IntIntHashMap mIndices;
+    private final int mBitDepth;
+    private int mCompressionLevel;
+    private int mScale;
+
+    private IndexedPngEncoder(@NonNull Bitmap bitmap, @NonNull int[] palette, int translucentCount,
+                              @NonNull IntIntHashMap indices) {
+        mBitmap = bitmap;
+        mPalette = palette;
+        mTranslucentCount = translucentCount;
+        mIndices = indices;
+        int count = palette.length;
+        mBitDepth = count <= 2 ? 1 : count <= 4 ? 2 : count <= 16 ? 4 : 8;
+        mCompressionLevel = COMPRESSION_LEVEL_DEFAULT;
+        mScale = 1;
+    }
+
+    // Null when the bitmap has more colors than a palette holds. The bitmap must not change until encoded.
+    @Nullable
+    public static IndexedPngEncoder createIndexedPngEncoder (@NonNull Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        IntIntHashMap colors = new IntIntHashMap();
+        int[] row = new int[width];
+        int translucentCount = 0;
+        for (int y = 0; y < height; y ++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            int last = row[0] + 1;
+            for (int color : row) {
+                if (color == last) {
+                    continue;
+                }
+                last = color;
+                if (!colors.containsKey(color)) {
+                    if (colors.size() == COLOR_COUNT_MAX) {
+                        return null;
+                    }
+                    colors.put(color, 0);
+                    if ((color >>> 24) != 0xFF) {
+                        translucentCount ++;
+                    }
+                }
+            }
+        }
+        int[] keys = new int[colors.size()];
+        colors.toArrays(keys, new int[keys.length]);
+        int[] palette = new int[keys.length];
+        int translucent = 0;
+        int opaque = translucentCount;
+        for (int color : keys) {
+            if ((color >>> 24) != 0xFF) {
+                palette[translucent ++] = color;
+            }
+            else {
+                palette[opaque ++] = color;
+            }
+        }
+        IntIntHashMap indices = new IntIntHashMap();
+        for (int i = 0; i < palette.length; i ++) {
+            indices.put(palette[i], i);
+        }
+        return new IndexedPngEncoder(bitmap, palette, translucentCount, indices);
+    }
+
+    // Deflate level from 0, stored, to 9, smallest
+    public void setCompressionLevel (int compressionLevel) {
+        mCompressionLevel = Math.max(COMPRESSION_LEVEL_MIN, Math.min(COMPRESSION_LEVEL_MAX, compressionLevel));
+    }
+
+    public int getCompressionLevel () {
+        return mCompressionLevel;
+    }
+
+    // Every pixel is written as a scale x scale block
+    public void setScale (int scale) {
+        if (scale < 1) {
+            throw new IllegalArgumentException("Scale cannot be < 1");
+        }
+        mScale = scale;
+    }
+
+    public int getScale () {
+        return mScale;
+    }
+
+    public int getColorCount () {
+        return mPalette.length;
+    }
+
+    public int getBitDepth () {
+        return mBitDepth;
+    }
+
+    public boolean encodeFile (@NonNull File file) {
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(file));
+            encode(out);
+            out.close();
+            return true;
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            IOUtils.closeQuietly(out);
+            return false;
+        }
+    }
+
+    // The stream is flushed but not closed
+    public void encode (@NonNull OutputStream out) throws IOException {
+        int width = mBitmap.getWidth();
+        int height = mBitmap.getHeight();
+        int scaledWidth = width * mScale;
+        PngStreamWriter writer = new PngStreamWriter(out, scaledWidth, mBitDepth, mCompressionLevel);
+        writer.writeHeader(scaledWidth, height * mScale, mBitDepth, PngStreamWriter.COLOR_TYPE_INDEXED);
+        byte[] palette = new byte[mPalette.length * 3];
+        for (int i = 0; i < mPalette.length; i ++) {
+            palette[i * 3] = (byte) (mPalette[i] >> 16);
+            palette[i * 3 + 1] = (byte) (mPalette[i] >> 8);
+            palette[i * 3 + 2] = (byte) mPalette[i];
+        }
+        writer.writeChunk(PngStreamWriter.CHUNK_PLTE, palette, palette.length);
+        if (mTranslucentCount > 0) {
+            byte[] alphas = new byte[mTranslucentCount];
+            for (int i = 0; i < mTranslucentCount; i ++) {
+                alphas[i] = (byte) (mPalette[i] >>> 24);
+            }
+            writer.writeChunk(PngStreamWriter.CHUNK_TRNS, alphas, alphas.length);
+        }
+        int[] pixels = new int[width];
+        int[] scaled = mScale == 1 ? pixels : new int[scaledWidth];
+        byte[] row = new byte[writer.getRowBytes()];
+        for (int y = 0; y < height; y ++) {
+            mBitmap.getPixels(pixels, 0, width, 0, y, width, 1);
+            if (mScale > 1) {
+                scaleRow(pixels, scaled, mScale);
+            }
+            packRow(scaled, row);
+            writer.writeRow(row);
+            for (int i = 1; i < mScale; i ++) {
+                writer.repeatRow();
+            }
+        }
+        writer.finish();
+    }
+
+    // Repeats every pixel scale times
+    static void scaleRow (@NonNull int[] pixels, @NonNull int[] scaled, int scale) {
+        int offset = 0;
+        for (int color : pixels) {
+            for (int i = 0; i < scale; i ++) {
+                scaled[offset ++] = color;
+            }
+        }
+    }
+
+    private void packRow (@NonNull int[] pixels, @NonNull byte[] row) {
+        if (mBitDepth == 8) {
+            int last = pixels[0] + 1;
+            int index = 0;
+            for (int x = 0; x < pixels.length; x ++) {
+                if (pixels[x] != last) {
+                    last = pixels[x];
+                    index = mIndices.get(last, 0);
+                }
+                row[x] = (byte) index;
+            }
+            return;
+        }
+        int perByte = 8 / mBitDepth;
+        int value = 0;
+        int shift = 8 - mBitDepth;
+        int offset = 0;
+        for (int x = 0; x < pixels.length; x ++) {
+            value |= mIndices.get(pixels[x], 0) << shift;
+            if (x % perByte == perByte - 1) {
+                row[offset ++] = (byte) value;
+                value = 0;
+                shift = 8 - mBitDepth;
+            }
+            else {
+                shift -= mBitDepth;
+            }
+        }
+        if (offset < row.length) {
+            row[offset] = (byte) value;
+        }
+    }
+
+}
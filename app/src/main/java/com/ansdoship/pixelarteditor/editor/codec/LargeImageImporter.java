@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.codec;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.ansdoship.pixelarteditor.util.IntIntHashMap;
+
+import java.io.IOException;
+
+// Brings an image of any size in at a small target size without decoding it whole. The crop region is
+// decoded in horizontal strips through BitmapRegionDecoder, subsampled by the largest power of two that
+// still leaves four samples per output pixel on each axis, and every output pixel is reduced from its
+// block of source pixels: the center one, the most frequent color or the average. Formats the region
+// decoder cannot read are decoded whole, subsampled the same way.
+public final class LargeImageImporter {
+
+    // Decoded pixels held at once per strip
+    public final static int STRIP_PIXELS_MAX = 1 << 20;
+
+    public interface Callback {
+        void onProgress(int progress);
+        void onFinish(@Nullable Bitmap bitmap);
+    }
+
+    private final String mPathname;
+    private final int mWidth;
+    private final int mHeight;
+    private final Rect mCropRect;
+    private int mTargetWidth;
+    private int mTargetHeight;
+    private int mDownscaleFlag;
+
+    private LargeImageImporter(@NonNull String pathname, int width, int height) {
+        mPathname = pathname;
+        mWidth = width;
+        mHeight = height;
+        mCropRect = new Rect(0, 0, width, height);
+        mTargetWidth = width;
+        mTargetHeight = height;
+        mDownscaleFlag = DownscaleFlag.MAJORITY;
+    }
+
+    // Reads the bounds only, null if the file is not a decodable image
+    @Nullable
+    public static LargeImageImporter createLargeImageImporter (@NonNull String pathname) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(pathname, options);
+        if (options.outWidth < 1 || options.outHeight < 1) {
+            return null;
+        }
+        return new LargeImageImporter(pathname, options.outWidth, options.outHeight);
+    }
+
+    public int getWidth () {
+        return mWidth;
+    }
+
+    public int getHeight () {
+        return mHeight;
+    }
+
+    // Clipped to the image, an empty intersection keeps the whole image
+    public void setCropRect (int left, int top, int right, int bottom) {
+        Rect bounds = new Rect(0, 0, mWidth, mHeight);
+        if (!mCropRect.setIntersect(bounds, new Rect(left, top, right, bottom))) {
+            mCropRect.set(bounds.left, bounds.top, bounds.right, bounds.bottom);
+        }
+    }
+
+    @NonNull
+    public Rect getCropRect () {
+        return new Rect(mCropRect.left, mCropRect.top, mCropRect.right, mCropRect.bottom);
+    }
+
+    public void setTargetSize (int width, int height) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Target size cannot be < 1");
+        }
+        mTargetWidth = width;
+        mTargetHeight = height;
+    }
+
+    public void setDownscaleFlag (int downscaleFlag) {
+        mDownscaleFlag = downscaleFlag;
+    }
+
+    // Decodes on a new thread, all callbacks are invoked on that thread
+    public void decodeAsync (@NonNull final Callback callback) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                callback.onFinish(decode(callback));
+            }
+        }).start();
+    }
+
+    @WorkerThread
+    @Nullable
+    public Bitmap decode (@Nullable Callback callback) {
+        int cropWidth = mCropRect.width();
+        int cropHeight = mCropRect.height();
+        int sampleSize = 1;
+        while (cropWidth / (sampleSize * 8) >= mTargetWidth && cropHeight / (sampleSize * 8) >= mTargetHeight) {
+            sampleSize *= 2;
+        }
+        BitmapRegionDecoder regionDecoder = null;
+        Bitmap whole = null;
+        try {
+            regionDecoder = BitmapRegionDecoder.newInstance(mPathname, false);
+        }
+        catch (IOException e) {
+            // Not a region decodable format, BMP for instance
+            regionDecoder = null;
+        }
+        Bitmap result;
+        try {
+            if (regionDecoder == null) {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = sampleSize;
+                options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+                whole = BitmapFactory.decodeFile(mPathname, options);
+                if (whole == null) {
+                    return null;
+                }
+            }
+            result = Bitmap.createBitmap(mTargetWidth, mTargetHeight, Bitmap.Config.ARGB_8888);
+            // Output rows per strip, at least one
+            int sampledWidth = (cropWidth + sampleSize - 1) / sampleSize;
+            int sourceRowsPerRow = Math.max(1, (cropHeight + mTargetHeight - 1) / mTargetHeight);
+            int rowsPerStrip = Math.max(1, STRIP_PIXELS_MAX / Math.max(1,
+                    sampledWidth * Math.max(1, sourceRowsPerRow / sampleSize)));
+            IntIntHashMap counts = new IntIntHashMap();
+            int lastProgress = 0;
+            for (int row = 0; row < mTargetHeight; row += rowsPerStrip) {
+                int rowEnd = Math.min(mTargetHeight, row + rowsPerStrip);
+                int top = mCropRect.top + sourceStart(row, cropHeight, mTargetHeight);
+                int bottom = mCropRect.top + sourceEnd(rowEnd - 1, cropHeight, mTargetHeight);
+                // Aligned to the sample grid of the crop so that strips sample the same rows a whole decode would
+                top = mCropRect.top + (top - mCropRect.top) / sampleSize * sampleSize;
+                int[] strip;
+                int stripWidth;
+                int stripHeight;
+                if (regionDecoder != null) {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inSampleSize = sampleSize;
+                    options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+                    Bitmap bitmap = regionDecoder.decodeRegion(new Rect(mCropRect.left, top, mCropRect.right, bottom),
+                            options);
+                    if (bitmap == null) {
+                        result.recycle();
+                        return null;
+                    }
+                    stripWidth = bitmap.getWidth();
+                    stripHeight = bitmap.getHeight();
+                    strip = new int[stripWidth * stripHeight];
+                    bitmap.getPixels(strip, 0, stripWidth, 0, 0, stripWidth, stripHeight);
+                    bitmap.recycle();
+                }
+                else {
+                    int left = Math.min(whole.getWidth() - 1, mCropRect.left / sampleSize);
+                    int sampledTop = Math.min(whole.getHeight() - 1, top / sampleSize);
+                    stripWidth = Math.max(1, Math.min(whole.getWidth() - left, sampledWidth));
+                    stripHeight = Math.max(1, Math.min(whole.getHeight() - sampledTop,
+                            (bottom - top + sampleSize - 1) / sampleSize));
+                    strip = new int[stripWidth * stripHeight];
+                    whole.getPixels(strip, 0, stripWidth, left, sampledTop, stripWidth, stripHeight);
+                }
+                int[] pixels = new int[mTargetWidth * (rowEnd - row)];
+                for (int y = row; y < rowEnd; y ++) {
+                    int blockTop = clamp((mCropRect.top + sourceStart(y, cropHeight, mTargetHeight) - top) / sampleSize,
+                            stripHeight);
+                    int blockBottom = Math.max(blockTop + 1, Math.min(stripHeight,
+                            (mCropRect.top + sourceEnd(y, cropHeight, mTargetHeight) - top) / sampleSize));
+                    for (int x = 0; x < mTargetWidth; x ++) {
+                        int blockLeft = clamp(sourceStart(x, cropWidth, mTargetWidth) / sampleSize, stripWidth);
+                        int blockRight = Math.max(blockLeft + 1, Math.min(stripWidth,
+                                sourceEnd(x, cropWidth, mTargetWidth) / sampleSize));
+                        pixels[(y - row) * mTargetWidth + x] = reduce(strip, stripWidth,
+                                blockLeft, blockTop, blockRight, blockBottom, counts);
+                    }
+                }
+                result.setPixels(pixels, 0, mTargetWidth, 0, row, mTargetWidth, rowEnd - row);
+                if (callback != null) {
+                    int progress = rowEnd * 100 / mTargetHeight;
+                    if (progress != lastProgress) {
+                        lastProgress = progress;
+                        callback.onProgress(progress);
+                    }
+                }
+            }
+        }
+        catch (OutOfMemoryError e) {
+            e.printStackTrace();
+            return null;
+        }
+        finally {
+            if (regionDecoder != null) {
+                regionDecoder.recycle();
+            }
+            if (whole != null) {
+                whole.recycle();
+            }
+        }
+        return result;
+    }
+
+    private int reduce (@NonNull int[] strip, int stripWidth, int left, int top, int right, int bottom,
+                        @NonNull IntIntHashMap counts) {
+        switch (mDownscaleFlag) {
+            case DownscaleFlag.NEAREST:
+                return strip[((top + bottom - 1) / 2) * stripWidth + (left + right - 1) / 2];
+            case DownscaleFlag.AVERAGE:
+                // Colors are weighted by alpha so that transparent pixels do not darken the result
+                long alpha = 0;
+                long red = 0;
+                long green = 0;
+                long blue = 0;
+                for (int y = top; y < bottom; y ++) {
+                    for (int x = left; x < right; x ++) {
+                        int color = strip[y * stripWidth + x];
+                        int a = color >>> 24;
+                        alpha += a;
+                        red += ((color >> 16) & 0xFF) * a;
+                        green += ((color >> 8) & 0xFF) * a;
+                        blue += (color & 0xFF) * a;
+                    }
+                }
+                int count = (right - left) * (bottom - top);
+                if (alpha == 0) {
+                    return 0;
+                }
+                return (int) ((alpha + count / 2) / count) << 24 | (int) (red / alpha) << 16 |
+                        (int) (green / alpha) << 8 | (int) (blue / alpha);
+            case DownscaleFlag.MAJORITY:
+            default:
+                // Most frequent color, ties go to the first one found. Transparent pixels count as one color.
+                counts.clear();
+                int best = 0;
+                int bestCount = 0;
+                for (int y = top; y < bottom; y ++) {
+                    for (int x = left; x < right; x ++) {
+                        int color = strip[y * stripWidth + x];
+                        if ((color >>> 24) == 0) {
+                            color = 0;
+                        }
+                        int colorCount = counts.addTo(color, 1);
+                        if (colorCount > bestCount) {
+                            bestCount = colorCount;
+                            best = color;
+                        }
+                    }
+                }
+                return best;
+        }
+    }
+
+    // First source pixel of the output pixel, along one axis
+    private static int sourceStart (int index, int sourceLength, int targetLength) {
+        return (int) ((long) index * sourceLength / targetLength);
+    }
+
+    // Past the last source pixel, never before the start
+    private static int sourceEnd (int index, int sourceLength, int targetLength) {
+        return Math.max(sourceStart(index, sourceLength, targetLength) + 1,
+                (int) ((long) (index + 1) * sourceLength / targetLength));
+    }
+
+    private static int clamp (int value, int length) {
+        return Math.max(0, Math.min(length - 1, value));
+    }
+
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.codec;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Writes the chunks of a PNG and deflates its rows as they arrive, so encoders never hold the whole
+// image. Each row takes the filter with the smallest sum of absolute filtered bytes. A row that repeats
+// the previous one, as rows of an integer upscale do, is written as Up filtered zeros without trying
+// the other filters.
+final class PngStreamWriter {
+
+    final static int CHUNK_IHDR = 0x49484452;
+    final static int CHUNK_PLTE = 0x504C5445;
+    final static int CHUNK_TRNS = 0x74524E53;
+    final static int CHUNK_IDAT = 0x49444154;
+    final static int CHUNK_IEND = 0x49454E44;
+
+    final static int COLOR_TYPE_RGB = 2;
+    final static int COLOR_TYPE_INDEXED = 3;
+    final static int COLOR_TYPE_RGBA = 6;
+
+    private final static byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private final static int IDAT_SIZE_MAX = 1 << 15;
+
+    private final OutputStream mOut;
+    private final int mRowBytes;
+    // Distance to the byte of the left pixel, 1 for pixels narrower than a byte
+    private final int mBytesPerPixel;
+    private final int mCompressionLevel;
+    private final byte[][] mFiltered;
+    private byte[] mPrevious;
+    private Deflater mDeflater;
+    private DeflaterOutputStream mIdat;
+
+    PngStreamWriter(@NonNull OutputStream out, int width, int bitsPerPixel, int compressionLevel) {
+        mOut = out;
+        mRowBytes = (int) (((long) width * bitsPerPixel + 7) >> 3);
+        mBytesPerPixel = Math.max(1, bitsPerPixel >> 3);
+        mCompressionLevel = compressionLevel;
+        mFiltered = new byte[5][mRowBytes + 1];
+        mPrevious = new byte[mRowBytes];
+    }
+
+    int getRowBytes() {
+        return mRowBytes;
+    }
+
+    // Signature and IHDR, deflate, adaptive filtering, no interlace
+    void writeHeader(int width, int height, int bitDepth, int colorType) throws IOException {
+        mOut.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = (byte) bitDepth;
+        header[9] = (byte) colorType;
+        writeChunk(CHUNK_IHDR, header, header.length);
+    }
+
+    void writeChunk(int type, @NonNull byte[] data, int length) throws IOException {
+        writeChunk(mOut, type, data, length);
+    }
+
+    // The row is copied, the caller may reuse it
+    void writeRow(@NonNull byte[] row) throws IOException {
+        byte[] filtered = filterRow(row, mPrevious, mFiltered, mBytesPerPixel);
+        idat().write(filtered, 0, filtered.length);
+        System.arraycopy(row, 0, mPrevious, 0, mRowBytes);
+    }
+
+    // Writes the last row again
+    void repeatRow() throws IOException {
+        byte[] filtered = mFiltered[2];
+        filtered[0] = 2;
+        Arrays.fill(filtered, 1, filtered.length, (byte) 0);
+        idat().write(filtered, 0, filtered.length);
+    }
+
+    // Ends the image data and writes IEND. The stream is flushed but not closed.
+    void finish() throws IOException {
+        DeflaterOutputStream idat = idat();
+        idat.finish();
+        idat.flush();
+        mDeflater.end();
+        writeChunk(CHUNK_IEND, new byte[0], 0);
+        mOut.flush();
+    }
+
+    @NonNull
+    private DeflaterOutputStream idat() {
+        if (mIdat == null) {
+            mDeflater = new Deflater(mCompressionLevel);
+            mIdat = new DeflaterOutputStream(new IdatOutputStream(mOut), mDeflater, IDAT_SIZE_MAX);
+        }
+        return mIdat;
+    }
+
+    // Tries all five filters on the row
+    @NonNull
+    private static byte[] filterRow (@NonNull byte[] row, @NonNull byte[] prior, @NonNull byte[][] filtered,
+                                     int bytesPerPixel) {
+        int length = row.length;
+        long bestSum = Long.MAX_VALUE;
+        int best = 0;
+        for (int type = 0; type < 5; type ++) {
+            byte[] out = filtered[type];
+            out[0] = (byte) type;
+            long sum = 0;
+            for (int i = 0; i < length; i ++) {
+                int raw = row[i] & 0xFF;
+                int left = i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xFF : 0;
+                int up = prior[i] & 0xFF;
+                int upLeft = i >= bytesPerPixel ? prior[i - bytesPerPixel] & 0xFF : 0;
+                int value;
+                switch (type) {
+                    case 1:
+                        value = raw - left;
+                        break;
+                    case 2:
+                        value = raw - up;
+                        break;
+                    case 3:
+                        value = raw - ((left + up) >> 1);
+                        break;
+                    case 4:
+                        value = raw - paeth(left, up, upLeft);
+                        break;
+                    default:
+                        value = raw;
+                        break;
+                }
+                out[i + 1] = (byte) value;
+                sum += Math.abs((byte) value);
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = type;
+            }
+        }
+        return filtered[best];
+    }
+
+    private static int paeth (int left, int up, int upLeft) {
+        int estimate = left + up - upLeft;
+        int distanceLeft = Math.abs(estimate - left);
+        int distanceUp = Math.abs(estimate - up);
+        int distanceUpLeft = Math.abs(estimate - upLeft);
+        if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) {
+            return left;
+        }
+        else if (distanceUp <= distanceUpLeft) {
+            return up;
+        }
+        else {
+            return upLeft;
+        }
+    }
+
+    private static void writeChunk (@NonNull OutputStream out, int type, @NonNull byte[] data, int length)
+            throws IOException {
+        byte[] header = new byte[8];
+        putInt(header, 0, length);
+        putInt(header, 4, type);
+        out.write(header);
+        out.write(data, 0, length);
+        CRC32 crc = new CRC32();
+        crc.update(header, 4, 4);
+        crc.update(data, 0, length);
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) crc.getValue());
+        out.write(trailer);
+    }
+
+    private static void putInt (@NonNull byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    // Cuts the deflated stream into IDAT chunks
+    private final static class IdatOutputStream extends OutputStream {
+
+        private final OutputStream mOut;
+        private final byte[] mBuffer;
+        private int mCount;
+
+        IdatOutputStream(@NonNull OutputStream out) {
+            mOut = out;
+            mBuffer = new byte[IDAT_SIZE_MAX];
+            mCount = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (mCount == mBuffer.length) {
+                flushChunk();
+            }
+            mBuffer[mCount ++] = (byte) b;
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (mCount == mBuffer.length) {
+                    flushChunk();
+                }
+                int count = Math.min(len, mBuffer.length - mCount);
+                System.arraycopy(b, off, mBuffer, mCount, count);
+                mCount += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushChunk();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            if (mCount > 0) {
+                writeChunk(mOut, CHUNK_IDAT, mBuffer, mCount);
+                mCount = 0;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.codec;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Writes any image as an 8 bit RGB PNG, or RGBA when a pixel is not opaque, for the images that
+// IndexedPngEncoder cannot take. Rows are streamed like there, so scaling up needs one scaled row only.
+public final class TruecolorPngEncoder {
+
+    private final Bitmap mBitmap;
+    private final boolean mHasAlpha;
+    private int mCompressionLevel;
+    private int mScale;
+
+    private TruecolorPngEncoder(@NonNull Bitmap bitmap, boolean hasAlpha) {
+        mBitmap = bitmap;
+        mHasAlpha = hasAlpha;
+        mCompressionLevel = IndexedPngEncoder.COMPRESSION_LEVEL_DEFAULT;
+        mScale = 1;
+    }
+
+    // The bitmap must not change until encoded
+    @NonNull
+    public static TruecolorPngEncoder createTruecolorPngEncoder (@NonNull Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y ++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int color : row) {
+                if ((color >>> 24) != 0xFF) {
+                    return new TruecolorPngEncoder(bitmap, true);
+                }
+            }
+        }
+        return new TruecolorPngEncoder(bitmap, false);
+    }
+
+    // Deflate level from 0, stored, to 9, smallest
+    public void setCompressionLevel (int compressionLevel) {
+        mCompressionLevel = Math.max(IndexedPngEncoder.COMPRESSION_LEVEL_MIN,
+                Math.min(IndexedPngEncoder.COMPRESSION_LEVEL_MAX, compressionLevel));
+    }
+
+    public int getCompressionLevel () {
+        return mCompressionLevel;
+    }
+
+    // Every pixel is written as a scale x scale block
+    public void setScale (int scale) {
+        if (scale < 1) {
+            throw new IllegalArgumentException("Scale cannot be < 1");
+        }
+        mScale = scale;
+    }
+
+    public int getScale () {
+        return mScale;
+    }
+
+    public boolean hasAlpha () {
+        return mHasAlpha;
+    }
+
+    public boolean encodeFile (@NonNull File file) {
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(file));
+            encode(out);
+            out.close();
+            return true;
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            IOUtils.closeQuietly(out);
+            return false;
+        }
+    }
+
+    // The stream is flushed but not closed
+    public void encode (@NonNull OutputStream out) throws IOException {
+        int width = mBitmap.getWidth();
+        int height = mBitmap.getHeight();
+        int scaledWidth = width * mScale;
+        int channels = mHasAlpha ? 4 : 3;
+        PngStreamWriter writer = new PngStreamWriter(out, scaledWidth, channels * 8, mCompressionLevel);
+        writer.writeHeader(scaledWidth, height * mScale, 8,
+                mHasAlpha ? PngStreamWriter.COLOR_TYPE_RGBA : PngStreamWriter.COLOR_TYPE_RGB);
+        int[] pixels = new int[width];
+        int[] scaled = mScale == 1 ? pixels : new int[scaledWidth];
+        byte[] row = new byte[writer.getRowBytes()];
+        for (int y = 0; y < height; y ++) {
+            mBitmap.getPixels(pixels, 0, width, 0, y, width, 1);
+            if (mScale > 1) {
+                IndexedPngEncoder.scaleRow(pixels, scaled, mScale);
+            }
+            int offset = 0;
+            for (int color : scaled) {
+                row[offset ++] = (byte) (color >> 16);
+                row[offset ++] = (byte) (color >> 8);
+                row[offset ++] = (byte) color;
+                if (mHasAlpha) {
+                    row[offset ++] = (byte) (color >>> 24);
+                }
+            }
+            writer.writeRow(row);
+            for (int i = 1; i < mScale; i ++) {
+                writer.repeatRow();
+            }
+        }
+        writer.finish();
+    }
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.document;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+import androidx.annotation.WorkerThread;
+
+import com.ansdoship.pixelarteditor.editor.codec.IndexedPngEncoder;
+import com.ansdoship.pixelarteditor.editor.tile.TileStore;
+import com.ansdoship.pixelarteditor.editor.tile.TiledImage;
+import com.tianscar.quickbitmap.BitmapEncoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Saves the document image in the background. The UI thread only takes a copy-on-write snapshot:
+// a tiled mirror of the image re-interns the tiles that changed, and the snapshot shares them,
+// so later edits never touch pixels being encoded. Only tiles covering the reported dirty
+// regions are compared, writes that were not reported make the whole image compared.
+// Saves are debounced while editing, skipped when nothing changed, and written to a temp file
+// that replaces the target when complete.
+public final class AutoSaver {
+
+    public final static long DEBOUNCE_MILLIS_DEFAULT = 2000;
+
+    public interface Source {
+        // The image to save, null when there is nothing to save yet
+        @UiThread
+        @Nullable
+        Bitmap getBitmap();
+    }
+
+    private final String mPathname;
+    private final Source mSource;
+    private final long mDebounceMillis;
+    private final Handler mHandler;
+    private final ExecutorService mExecutor;
+    private final TileStore mTileStore;
+    // Only the newest snapshot waiting for the executor is kept
+    private final AtomicReference<TiledImage> mPending;
+    private final Runnable mSaveRunnable;
+    private TiledImage mMirror;
+    // Regions reported since the last snapshot, mDirtyAll when one covered the whole image
+    private final Rect mDirty;
+    private boolean mDirtyAll;
+    private Bitmap mSnapshotBitmap;
+    private int mSnapshotGenerationId;
+    private boolean mReleased;
+
+    private AutoSaver(@NonNull String pathname, @NonNull Source source, long debounceMillis) {
+        mPathname = pathname;
+        mSource = source;
+        mDebounceMillis = debounceMillis;
+        mHandler = new Handler(Looper.getMainLooper());
+        mExecutor = Executors.newSingleThreadExecutor();
+        mTileStore = new TileStore();
+        mPending = new AtomicReference<>();
+        mDirty = new Rect();
+        mSaveRunnable = new Runnable() {
+            @Override
+            public void run() {
+                saveNow();
+            }
+        };
+    }
+
+    public static @NonNull
+    AutoSaver createAutoSaver (@NonNull String pathname, @NonNull Source source) {
+        return new AutoSaver(pathname, source, DEBOUNCE_MILLIS_DEFAULT);
+    }
+
+    public static @NonNull
+    AutoSaver createAutoSaver (@NonNull String pathname, @NonNull Source source, long debounceMillis) {
+        return new AutoSaver(pathname, source, debounceMillis);
+    }
+
+    // The image was edited, saves once no further edit arrives within the debounce delay
+    @UiThread
+    public void notifyChanged() {
+        notifyChanged(null);
+    }
+
+    // Same as notifyChanged(), with the region of the edit, null for the whole image
+    @UiThread
+    public void notifyChanged(@Nullable Rect dirty) {
+        if (mReleased) {
+            return;
+        }
+        if (dirty == null) {
+            mDirtyAll = true;
+        }
+        else {
+            mDirty.union(dirty);
+        }
+        mHandler.removeCallbacks(mSaveRunnable);
+        mHandler.postDelayed(mSaveRunnable, mDebounceMillis);
+    }
+
+    // Snapshots the image now and enqueues the encode, for lifecycle callbacks
+    @UiThread
+    public void saveNow() {
+        mHandler.removeCallbacks(mSaveRunnable);
+        if (mReleased) {
+            return;
+        }
+        Bitmap bitmap = mSource.getBitmap();
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        TiledImage snapshot = takeSnapshot(bitmap);
+        if (snapshot == null) {
+            return;
+        }
+        TiledImage replaced = mPending.getAndSet(snapshot);
+        if (replaced != null) {
+            replaced.release();
+        }
+        else {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    TiledImage pending = mPending.getAndSet(null);
+                    if (pending != null) {
+                        write(pending);
+                        pending.release();
+                    }
+                }
+            });
+        }
+    }
+
+    // The file already holds this image, the next save is skipped unless it changes
+    @UiThread
+    public void markSaved(@NonNull Bitmap bitmap) {
+        TiledImage snapshot = takeSnapshot(bitmap);
+        if (snapshot != null) {
+            snapshot.release();
+        }
+    }
+
+    // Cancels debounced saves, enqueued saves still complete in the background
+    @UiThread
+    public void release() {
+        mHandler.removeCallbacks(mSaveRunnable);
+        mReleased = true;
+        mExecutor.shutdown();
+        if (mMirror != null) {
+            mMirror.release();
+            mMirror = null;
+        }
+        mSnapshotBitmap = null;
+    }
+
+    @Nullable
+    private TiledImage takeSnapshot(@NonNull Bitmap bitmap) {
+        // Same bitmap with no pixel write since the last snapshot
+        if (bitmap == mSnapshotBitmap && bitmap.getGenerationId() == mSnapshotGenerationId) {
+            return null;
+        }
+        boolean changed;
+        if (mMirror == null || mMirror.getWidth() != bitmap.getWidth() ||
+                mMirror.getHeight() != bitmap.getHeight()) {
+            if (mMirror != null) {
+                mMirror.release();
+            }
+            mMirror = TiledImage.createTiledImage(mTileStore, bitmap);
+            changed = true;
+        }
+        else if (bitmap != mSnapshotBitmap || mDirtyAll || mDirty.isEmpty()) {
+            changed = mMirror.update(bitmap);
+        }
+        else {
+            changed = mMirror.update(bitmap, mDirty);
+        }
+        mDirty.setEmpty();
+        mDirtyAll = false;
+        // The first snapshot of a bitmap is always written, it may differ from the file
+        changed |= bitmap != mSnapshotBitmap;
+        mSnapshotBitmap = bitmap;
+        mSnapshotGenerationId = bitmap.getGenerationId();
+        return changed ? mMirror.copy() : null;
+    }
+
+    @WorkerThread
+    private void write(@NonNull TiledImage snapshot) {
+        final File file = new File(mPathname);
+        final File temp = new File(mPathname + ".tmp");
+        Bitmap bitmap = snapshot.toBitmap();
+        IndexedPngEncoder indexedPngEncoder = IndexedPngEncoder.createIndexedPngEncoder(bitmap);
+        if (indexedPngEncoder != null) {
+            if (indexedPngEncoder.encodeFile(temp) && !temp.renameTo(file)) {
+                temp.delete();
+            }
+            bitmap.recycle();
+            return;
+        }
+        BitmapEncoder.encodeFile(temp.getAbsolutePath(), bitmap, true, BitmapEncoder.CompressFormat.PNG, 100,
+                new BitmapEncoder.Callback() {
+                    @Override
+                    public void onCreateFailure() {}
+                    @Override
+                    public void onCompressFailure() {}
+                    @Override
+                    public void onFileExists(boolean isDirectory) {}
+                    @Override
+                    public void onIOException(IOException e) {
+                        e.printStackTrace();
+                    }
+                    @Override
+                    public void onSuccess() {
+                        if (!temp.renameTo(file)) {
+                            temp.delete();
+                        }
+                    }
+                });
+        bitmap.recycle();
+    }
+
+}
@@ -0,0 +1,711 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.document;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ansdoship.pixelarteditor.editor.animation.Frame;
+import com.ansdoship.pixelarteditor.editor.animation.FrameTimeline;
+import com.ansdoship.pixelarteditor.editor.palette.Palette;
+import com.ansdoship.pixelarteditor.editor.palette.PaletteFactory;
+import com.ansdoship.pixelarteditor.editor.tile.Tile;
+import com.ansdoship.pixelarteditor.editor.tile.TileStore;
+import com.ansdoship.pixelarteditor.editor.tile.TiledImage;
+
+import org.apache.commons.io.IOUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Native project file (.pxe): a header followed by chunks, each a type, a payload length and the payload.
+// Every distinct tile is stored once as a deflated chunk and frames reference tiles by id. The index chunk,
+// located by the header, holds the offsets of all other chunks, so opening maps the file and reads only
+// the index and the frame table, tiles are decoded the first time a frame is viewed.
+// Saving appends the tiles that are not in the file yet plus a new frame table, palette, metadata and index,
+// then points the header at the new index. Once unreferenced chunks outweigh live ones the file is rewritten.
+// Decoding, saving and closing lock the project, since playback may decode frames on its own thread.
+public final class ProjectFile {
+
+    public interface Callback {
+        void onProgress(int progress);
+        void onFinish(boolean isSuccess);
+    }
+
+    public final static String EXTENSION = "pxe";
+
+    // "PXED"
+    public final static int MAGIC = 0x50584544;
+    public final static int VERSION = 1;
+    public final static int HEADER_SIZE = 24;
+    public final static int CHUNK_HEADER_SIZE = 8;
+
+    public final static int CHUNK_TILE = 0x54494C45;
+    public final static int CHUNK_FRAMES = 0x46524D53;
+    public final static int CHUNK_PALETTE = 0x50414C54;
+    public final static int CHUNK_METADATA = 0x4D455441;
+    public final static int CHUNK_INDEX = 0x494E4458;
+
+    // Unreferenced bytes tolerated on top of the live ones before a save rewrites the file
+    private final static long GARBAGE_SLACK = 1 << 16;
+    private final static int TILE_BYTES = Tile.LENGTH * 4;
+
+    private final File mFile;
+    private final TileStore mTileStore;
+    private MappedByteBuffer mBuffer;
+    private long mLength;
+    private int mWidth;
+    private int mHeight;
+    private int mColumns;
+    private int mRows;
+    // Tile chunks by tile id, and the tiles decoded or written so far, each holding one reference
+    private long[] mTileOffsets;
+    private int[] mTileLengths;
+    private Tile[] mTiles;
+    private int mTileCount;
+    private final IdentityHashMap<Tile, Integer> mTileIds;
+    private int[][] mFrameTiles;
+    private int[] mFrameDurations;
+    private int mFrameIndex;
+    // Frames handed out whose images were not decoded yet, with their tile ids
+    private final IdentityHashMap<Frame, int[]> mPendingFrames;
+    private Palette mPalette;
+    private JSONObject mMetadata;
+    // Receives the progress of the running saveAsync(), null otherwise
+    private Callback mCallback;
+    private int mLastProgress;
+
+    private ProjectFile(@NonNull File file, @NonNull TileStore tileStore) {
+        mFile = file;
+        mTileStore = tileStore;
+        mTileOffsets = new long[0];
+        mTileLengths = new int[0];
+        mTiles = new Tile[0];
+        mTileIds = new IdentityHashMap<>();
+        mPendingFrames = new IdentityHashMap<>();
+    }
+
+    // Reads the index, frame table, palette and metadata, no tile is decoded
+    public static @NonNull
+    ProjectFile openProjectFile (@NonNull File file, @NonNull TileStore tileStore) throws IOException {
+        ProjectFile project = new ProjectFile(file, tileStore);
+        project.map();
+        project.readIndex();
+        return project;
+    }
+
+    // Nothing is read, the first save writes the whole file
+    public static @NonNull
+    ProjectFile createProjectFile (@NonNull File file, @NonNull TileStore tileStore) {
+        return new ProjectFile(file, tileStore);
+    }
+
+    // Frames decode their images on first use
+    @NonNull
+    public synchronized FrameTimeline createFrameTimeline () {
+        if (mFrameTiles == null) {
+            throw new IllegalStateException("The project has not been written yet");
+        }
+        List<Frame> frames = new ArrayList<>(mFrameTiles.length);
+        for (int i = 0; i < mFrameTiles.length; i ++) {
+            final int[] tileIds = mFrameTiles[i];
+            Frame frame = Frame.createFrame(new Frame.ImageLoader() {
+                @NonNull
+                @Override
+                public TiledImage loadImage() {
+                    return decodeImage(tileIds);
+                }
+            }, mFrameDurations[i]);
+            mPendingFrames.put(frame, tileIds);
+            frames.add(frame);
+        }
+        return FrameTimeline.createFrameTimeline(mTileStore, mWidth, mHeight, frames, mFrameIndex);
+    }
+
+    // Writes the timeline, which must draw its tiles from this project's store
+    public synchronized void save (@NonNull FrameTimeline timeline, @Nullable Palette palette,
+                      @Nullable JSONObject metadata) throws IOException {
+        if (timeline.getTileStore() != mTileStore) {
+            throw new IllegalArgumentException("The timeline uses another TileStore");
+        }
+        int width = timeline.getWidth();
+        int height = timeline.getHeight();
+        int columns = (width + Tile.MASK) >> Tile.SHIFT;
+        int rows = (height + Tile.MASK) >> Tile.SHIFT;
+        int frameCount = timeline.size();
+        int[][] frameTiles = new int[frameCount][];
+        int[] frameDurations = new int[frameCount];
+        List<Tile> newTiles = new ArrayList<>();
+        IdentityHashMap<Frame, int[]> pendingFrames = new IdentityHashMap<>();
+        for (int i = 0; i < frameCount; i ++) {
+            Frame frame = timeline.getFrame(i);
+            frameDurations[i] = frame.getDuration();
+            int[] tileIds = mPendingFrames.get(frame);
+            if (tileIds != null && !frame.isImageLoaded()) {
+                // Untouched since it was read, its tiles are all in the file already
+                frameTiles[i] = tileIds;
+                pendingFrames.put(frame, tileIds);
+                continue;
+            }
+            TiledImage image = frame.getImage();
+            tileIds = new int[columns * rows];
+            for (int row = 0; row < rows; row ++) {
+                for (int column = 0; column < columns; column ++) {
+                    Tile tile = image.getTile(column, row);
+                    int id = -1;
+                    if (tile != null) {
+                        Integer known = mTileIds.get(tile);
+                        if (known == null) {
+                            id = mTileCount + newTiles.size();
+                            mTileIds.put(tile, id);
+                            mTileStore.retain(tile);
+                            newTiles.add(tile);
+                        }
+                        else {
+                            id = known;
+                        }
+                    }
+                    tileIds[row * columns + column] = id;
+                }
+            }
+            frameTiles[i] = tileIds;
+        }
+        mWidth = width;
+        mHeight = height;
+        mColumns = columns;
+        mRows = rows;
+        mFrameTiles = frameTiles;
+        mFrameDurations = frameDurations;
+        mFrameIndex = timeline.getIndex();
+        mPendingFrames.clear();
+        mPendingFrames.putAll(pendingFrames);
+        mPalette = palette;
+        mMetadata = metadata;
+        appendTiles(newTiles);
+        if (mBuffer == null || getGarbageLength() > getLiveLength() + GARBAGE_SLACK) {
+            rewrite();
+        }
+        else {
+            append(newTiles.size());
+        }
+        map();
+    }
+
+    // Saves on a worker thread with a snapshot of the palette. The timeline must not be edited
+    // until the callback finishes, progress follows the tiles being written.
+    public void saveAsync (@NonNull final FrameTimeline timeline, @Nullable Palette palette,
+                           @Nullable final JSONObject metadata, @NonNull final Callback callback) {
+        final Palette paletteSnapshot = palette == null ? null : Palette.createPalette(palette);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean isSuccess = false;
+                synchronized (ProjectFile.this) {
+                    mCallback = callback;
+                    mLastProgress = 0;
+                    try {
+                        save(timeline, paletteSnapshot, metadata);
+                        isSuccess = true;
+                    }
+                    catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    finally {
+                        mCallback = null;
+                    }
+                }
+                callback.onFinish(isSuccess);
+            }
+        }).start();
+    }
+
+    // Drops the decoded tiles, frames not decoded yet can no longer be loaded
+    public synchronized void close () {
+        for (int i = 0; i < mTileCount; i ++) {
+            mTileStore.release(mTiles[i]);
+            mTiles[i] = null;
+        }
+        mTileIds.clear();
+        mPendingFrames.clear();
+        mBuffer = null;
+    }
+
+    @NonNull
+    public File getFile () {
+        return mFile;
+    }
+
+    @NonNull
+    public TileStore getTileStore () {
+        return mTileStore;
+    }
+
+    public int getWidth () {
+        return mWidth;
+    }
+
+    public int getHeight () {
+        return mHeight;
+    }
+
+    @Nullable
+    public Palette getPalette () {
+        return mPalette;
+    }
+
+    @Nullable
+    public JSONObject getMetadata () {
+        return mMetadata;
+    }
+
+    // Frames call this from whichever thread first needs them, it must not overlap a save
+    @NonNull
+    private synchronized TiledImage decodeImage (@NonNull int[] tileIds) {
+        TiledImage image = TiledImage.createTiledImage(mTileStore, mWidth, mHeight);
+        for (int row = 0; row < mRows; row ++) {
+            for (int column = 0; column < mColumns; column ++) {
+                int id = tileIds[row * mColumns + column];
+                if (id >= 0) {
+                    image.setTile(column, row, getTile(id));
+                }
+            }
+        }
+        return image;
+    }
+
+    // Unreadable tiles come back transparent
+    @Nullable
+    private Tile getTile (int id) {
+        Tile tile = mTiles[id];
+        if (tile != null || mBuffer == null) {
+            return tile;
+        }
+        try {
+            ByteBuffer chunk = readChunk(mTileOffsets[id], CHUNK_TILE);
+            byte[] compressed = new byte[chunk.remaining()];
+            chunk.get(compressed);
+            Inflater inflater = new Inflater();
+            byte[] bytes = new byte[TILE_BYTES];
+            inflater.setInput(compressed);
+            int length = inflater.inflate(bytes);
+            inflater.end();
+            if (length != TILE_BYTES) {
+                throw new IOException("Truncated tile " + id);
+            }
+            int[] pixels = new int[Tile.LENGTH];
+            ByteBuffer.wrap(bytes).asIntBuffer().get(pixels);
+            tile = mTileStore.intern(pixels);
+        }
+        catch (IOException | DataFormatException e) {
+            e.printStackTrace();
+            return null;
+        }
+        mTiles[id] = tile;
+        if (tile != null) {
+            mTileIds.put(tile, id);
+        }
+        return tile;
+    }
+
+    private void map () throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            mLength = channel.size();
+            // The mapping stays valid after the channel is closed
+            mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, mLength);
+        }
+        finally {
+            IOUtils.closeQuietly(file);
+        }
+    }
+
+    private void readIndex () throws IOException {
+        if (mLength < HEADER_SIZE) {
+            throw new IOException("Not a project file");
+        }
+        ByteBuffer header = mBuffer.duplicate();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a project file");
+        }
+        int version = header.getShort() & 0xFFFF;
+        if (version > VERSION) {
+            throw new IOException("Unsupported project version " + version);
+        }
+        header.getShort();
+        mWidth = header.getInt();
+        mHeight = header.getInt();
+        if (mWidth < 1 || mHeight < 1) {
+            throw new IOException("Invalid image size");
+        }
+        mColumns = (mWidth + Tile.MASK) >> Tile.SHIFT;
+        mRows = (mHeight + Tile.MASK) >> Tile.SHIFT;
+        ByteBuffer index = readChunk(header.getLong(), CHUNK_INDEX);
+        mTileCount = index.getInt();
+        if (mTileCount < 0 || mTileCount > index.remaining() / 12) {
+            throw new IOException("Invalid tile count");
+        }
+        mTileOffsets = new long[mTileCount];
+        mTileLengths = new int[mTileCount];
+        mTiles = new Tile[mTileCount];
+        for (int i = 0; i < mTileCount; i ++) {
+            mTileOffsets[i] = index.getLong();
+            mTileLengths[i] = index.getInt();
+        }
+        readFrames(readChunk(index.getLong(), CHUNK_FRAMES));
+        long paletteOffset = index.getLong();
+        mPalette = paletteOffset < 0 ? null :
+                PaletteFactory.decodeByteBuffer(readChunk(paletteOffset, CHUNK_PALETTE));
+        long metadataOffset = index.getLong();
+        mMetadata = null;
+        if (metadataOffset >= 0) {
+            ByteBuffer chunk = readChunk(metadataOffset, CHUNK_METADATA);
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            try {
+                mMetadata = new JSONObject(new String(bytes, "UTF-8"));
+            }
+            catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void readFrames (@NonNull ByteBuffer chunk) throws IOException {
+        int frameCount = chunk.getInt();
+        mFrameIndex = chunk.getInt();
+        int slots = mColumns * mRows;
+        if (frameCount < 1 || (long) frameCount * (slots + 1) * 4 > chunk.remaining()) {
+            throw new IOException("Invalid frame table");
+        }
+        mFrameTiles = new int[frameCount][];
+        mFrameDurations = new int[frameCount];
+        for (int i = 0; i < frameCount; i ++) {
+            mFrameDurations[i] = chunk.getInt();
+            int[] tileIds = new int[slots];
+            chunk.asIntBuffer().get(tileIds);
+            chunk.position(chunk.position() + slots * 4);
+            for (int id : tileIds) {
+                if (id >= mTileCount) {
+                    throw new IOException("Invalid tile id " + id);
+                }
+            }
+            mFrameTiles[i] = tileIds;
+        }
+    }
+
+    // Payload of the chunk at the offset, checked against the expected type
+    @NonNull
+    private ByteBuffer readChunk (long offset, int type) throws IOException {
+        if (offset < HEADER_SIZE || offset > mLength - CHUNK_HEADER_SIZE) {
+            throw new IOException("Chunk out of bounds");
+        }
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position((int) offset);
+        if (buffer.getInt() != type) {
+            throw new IOException("Unexpected chunk type");
+        }
+        int length = buffer.getInt();
+        if (length < 0 || length > mLength - buffer.position()) {
+            throw new IOException("Chunk out of bounds");
+        }
+        buffer.limit(buffer.position() + length);
+        return buffer.slice();
+    }
+
+    // Gives new tiles their ids, offsets are assigned when they are written
+    private void appendTiles (@NonNull List<Tile> newTiles) {
+        int count = mTileCount + newTiles.size();
+        if (count > mTiles.length) {
+            mTiles = Arrays.copyOf(mTiles, count);
+            mTileOffsets = Arrays.copyOf(mTileOffsets, count);
+            mTileLengths = Arrays.copyOf(mTileLengths, count);
+        }
+        for (int i = 0; i < newTiles.size(); i ++) {
+            mTiles[mTileCount + i] = newTiles.get(i);
+            mTileOffsets[mTileCount + i] = -1;
+        }
+        mTileCount = count;
+    }
+
+    private long getLiveLength () {
+        long length = HEADER_SIZE;
+        boolean[] referenced = getReferencedTiles();
+        for (int i = 0; i < mTileCount; i ++) {
+            if (referenced[i] && mTileOffsets[i] >= 0) {
+                length += CHUNK_HEADER_SIZE + mTileLengths[i];
+            }
+        }
+        return length;
+    }
+
+    private long getGarbageLength () {
+        return mLength - getLiveLength();
+    }
+
+    @NonNull
+    private boolean[] getReferencedTiles () {
+        boolean[] referenced = new boolean[mTileCount];
+        for (int[] tileIds : mFrameTiles) {
+            for (int id : tileIds) {
+                if (id >= 0) {
+                    referenced[id] = true;
+                }
+            }
+        }
+        return referenced;
+    }
+
+    // Writes the unwritten tiles and the small chunks after the end of the file
+    private void append (int newTileCount) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)));
+        long indexOffset;
+        try {
+            ChunkWriter writer = new ChunkWriter(out, mLength);
+            for (int id = mTileCount - newTileCount; id < mTileCount; id ++) {
+                writer.writeTile(id);
+                reportProgress(id - mTileCount + newTileCount + 1, newTileCount);
+            }
+            indexOffset = writer.writeTrailer();
+        }
+        finally {
+            IOUtils.closeQuietly(out);
+        }
+        // The header is switched last, a failed save leaves the previous index in effect
+        writeHeader(mFile, indexOffset);
+    }
+
+    // Writes only the referenced tiles into a new file, renumbering them, and replaces the old file
+    private void rewrite () throws IOException {
+        boolean[] referenced = getReferencedTiles();
+        int[] newIds = new int[mTileCount];
+        Tile[] tiles = new Tile[mTileCount];
+        long[] oldOffsets = mTileOffsets;
+        int[] oldLengths = mTileLengths;
+        long[] tileOffsets = new long[mTileCount];
+        int[] tileLengths = new int[mTileCount];
+        int count = 0;
+        for (int i = 0; i < mTileCount; i ++) {
+            if (referenced[i]) {
+                newIds[i] = count;
+                tiles[count] = mTiles[i];
+                tileOffsets[count] = oldOffsets[i];
+                tileLengths[count] = oldLengths[i];
+                count ++;
+            }
+            else {
+                newIds[i] = -1;
+                Tile tile = mTiles[i];
+                if (tile != null) {
+                    Integer id = mTileIds.get(tile);
+                    if (id != null && id == i) {
+                        mTileIds.remove(tile);
+                    }
+                    mTileStore.release(tile);
+                }
+            }
+        }
+        File temp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        long indexOffset;
+        try {
+            out.write(new byte[HEADER_SIZE]);
+            ChunkWriter writer = new ChunkWriter(out, HEADER_SIZE);
+            int written = 0;
+            for (int i = 0; i < count; i ++) {
+                if (tileOffsets[i] >= 0 && mBuffer != null) {
+                    // Already compressed, the chunk is copied as is
+                    tileOffsets[i] = writer.copyTile(tileOffsets[i], tileLengths[i]);
+                    reportProgress(++ written, count);
+                }
+                else {
+                    tileOffsets[i] = -1;
+                }
+            }
+            mTiles = tiles;
+            mTileOffsets = tileOffsets;
+            mTileLengths = tileLengths;
+            mTileCount = count;
+            for (int i = 0; i < count; i ++) {
+                if (mTileOffsets[i] < 0) {
+                    writer.writeTile(i);
+                    reportProgress(++ written, count);
+                }
+            }
+            renumber(newIds);
+            indexOffset = writer.writeTrailer();
+        }
+        finally {
+            IOUtils.closeQuietly(out);
+        }
+        writeHeader(temp, indexOffset);
+        if (!temp.renameTo(mFile)) {
+            temp.delete();
+            throw new IOException("Could not replace " + mFile);
+        }
+    }
+
+    private void reportProgress (int done, int total) {
+        if (mCallback == null) {
+            return;
+        }
+        int progress = done * 100 / total;
+        if (progress != mLastProgress) {
+            mLastProgress = progress;
+            mCallback.onProgress(progress);
+        }
+    }
+
+    private void renumber (@NonNull int[] newIds) {
+        for (Tile tile : mTileIds.keySet()) {
+            mTileIds.put(tile, newIds[mTileIds.get(tile)]);
+        }
+        // Pending frames share their arrays with the frame table, renumbering in place keeps their loaders valid
+        for (int[] tileIds : mFrameTiles) {
+            renumber(tileIds, newIds);
+        }
+    }
+
+    private static void renumber (@NonNull int[] tileIds, @NonNull int[] newIds) {
+        for (int i = 0; i < tileIds.length; i ++) {
+            if (tileIds[i] >= 0) {
+                tileIds[i] = newIds[tileIds[i]];
+            }
+        }
+    }
+
+    private void writeHeader (@NonNull File file, long indexOffset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(0);
+            raf.writeInt(MAGIC);
+            raf.writeShort(VERSION);
+            raf.writeShort(0);
+            raf.writeInt(mWidth);
+            raf.writeInt(mHeight);
+            raf.writeLong(indexOffset);
+            raf.getFD().sync();
+        }
+        finally {
+            IOUtils.closeQuietly(raf);
+        }
+    }
+
+    // Writes chunks to a stream positioned at a known file offset
+    private final class ChunkWriter {
+
+        private final DataOutputStream mOut;
+        private final Deflater mDeflater;
+        private final ByteBuffer mTileBuffer;
+        private final byte[] mCompressed;
+        private long mPosition;
+
+        ChunkWriter(@NonNull DataOutputStream out, long position) {
+            mOut = out;
+            mDeflater = new Deflater(Deflater.BEST_SPEED);
+            mTileBuffer = ByteBuffer.allocate(TILE_BYTES);
+            // Deflate output of incompressible data grows by a few bytes per block
+            mCompressed = new byte[TILE_BYTES + 1024];
+            mPosition = position;
+        }
+
+        void writeTile(int id) throws IOException {
+            mTileBuffer.clear();
+            mTileBuffer.asIntBuffer().put(mTiles[id].getPixels());
+            mDeflater.reset();
+            mDeflater.setInput(mTileBuffer.array());
+            mDeflater.finish();
+            int length = mDeflater.deflate(mCompressed);
+            mTileOffsets[id] = writeChunk(CHUNK_TILE, mCompressed, length);
+            mTileLengths[id] = length;
+        }
+
+        long copyTile(long offset, int length) throws IOException {
+            ByteBuffer chunk = mBuffer.duplicate();
+            chunk.position((int) offset + CHUNK_HEADER_SIZE);
+            byte[] bytes = new byte[length];
+            chunk.get(bytes);
+            return writeChunk(CHUNK_TILE, bytes, length);
+        }
+
+        // Frame table, palette, metadata and the index pointing at all of them, returns the index offset
+        long writeTrailer() throws IOException {
+            mDeflater.end();
+            int slots = mColumns * mRows;
+            ByteBuffer frames = ByteBuffer.allocate(8 + mFrameTiles.length * (slots + 1) * 4);
+            frames.putInt(mFrameTiles.length);
+            frames.putInt(mFrameIndex);
+            for (int i = 0; i < mFrameTiles.length; i ++) {
+                frames.putInt(mFrameDurations[i]);
+                frames.asIntBuffer().put(mFrameTiles[i]);
+                frames.position(frames.position() + slots * 4);
+            }
+            long framesOffset = writeChunk(CHUNK_FRAMES, frames.array(), frames.capacity());
+            long paletteOffset = -1;
+            if (mPalette != null) {
+                byte[] bytes = PaletteFactory.encodeBytes(mPalette);
+                paletteOffset = writeChunk(CHUNK_PALETTE, bytes, bytes.length);
+            }
+            long metadataOffset = -1;
+            if (mMetadata != null) {
+                byte[] bytes = mMetadata.toString().getBytes("UTF-8");
+                metadataOffset = writeChunk(CHUNK_METADATA, bytes, bytes.length);
+            }
+            ByteBuffer index = ByteBuffer.allocate(4 + mTileCount * 12 + 24);
+            index.putInt(mTileCount);
+            for (int i = 0; i < mTileCount; i ++) {
+                index.putLong(mTileOffsets[i]);
+                index.putInt(mTileLengths[i]);
+            }
+            index.putLong(framesOffset);
+            index.putLong(paletteOffset);
+            index.putLong(metadataOffset);
+            long indexOffset = writeChunk(CHUNK_INDEX, index.array(), index.capacity());
+            mOut.flush();
+            return indexOffset;
+        }
+
+        private long writeChunk(int type, @NonNull byte[] payload, int length) throws IOException {
+            long offset = mPosition;
+            mOut.writeInt(type);
+            mOut.writeInt(length);
+            mOut.write(payload, 0, length);
+            mPosition += CHUNK_HEADER_SIZE + length;
+            return offset;
+        }
+
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.layer;
+
+import androidx.annotation.NonNull;
+
+// Blends unpremultiplied ARGB rows (as returned by Bitmap.getPixels) with integer math only.
+// Premultiplied products are kept at full precision so every channel is rounded exactly once.
+public final class BlendComposer {
+
+    public final static int OPACITY_MAX = 255;
+
+    // round(a * b / 255), exact for a, b in [0, 255]
+    public static int mul255(int a, int b) {
+        int t = a * b + 128;
+        return (t + (t >>> 8)) >>> 8;
+    }
+
+    public static int blend(int blendFlag, int src, int dst) {
+        return blend(blendFlag, src, dst, OPACITY_MAX);
+    }
+
+    public static int blend(int blendFlag, int src, int dst, int opacity) {
+        int sa = mul255(src >>> 24, opacity);
+        if (sa == 0) {
+            return dst;
+        }
+        int da = dst >>> 24;
+        if (blendFlag == BlendFlag.ERASE) {
+            // Destination-out keeps the destination color and only scales its alpha
+            int alpha = mul255(da, 255 - sa);
+            return alpha == 0 ? 0 : (alpha << 24) | (dst & 0x00FFFFFF);
+        }
+        if (da == 0) {
+            return (sa << 24) | (src & 0x00FFFFFF);
+        }
+        if (blendFlag == BlendFlag.NORMAL && sa == 255) {
+            return src;
+        }
+        // Alpha is carried at scale 255^2, channel numerators at scale 255^4, and rounded only once
+        int alpha2;
+        long r;
+        long g;
+        long b;
+        switch (blendFlag) {
+            case BlendFlag.MULTIPLY:
+            case BlendFlag.SCREEN:
+            case BlendFlag.OVERLAY:
+                alpha2 = (sa + da) * 255 - sa * da;
+                r = separable(blendFlag, (src >> 16) & 0xFF, sa, (dst >> 16) & 0xFF, da);
+                g = separable(blendFlag, (src >> 8) & 0xFF, sa, (dst >> 8) & 0xFF, da);
+                b = separable(blendFlag, src & 0xFF, sa, dst & 0xFF, da);
+                break;
+            case BlendFlag.ADD:
+                alpha2 = Math.min(255 * 255, (sa + da) * 255);
+                r = Math.min(255 * 255, ((src >> 16) & 0xFF) * sa + ((dst >> 16) & 0xFF) * da) * (255L * 255L);
+                g = Math.min(255 * 255, ((src >> 8) & 0xFF) * sa + ((dst >> 8) & 0xFF) * da) * (255L * 255L);
+                b = Math.min(255 * 255, (src & 0xFF) * sa + (dst & 0xFF) * da) * (255L * 255L);
+                break;
+            default:
+                int inverse = 255 - sa;
+                alpha2 = sa * 255 + da * inverse;
+                r = (((src >> 16) & 0xFF) * sa * 255L + ((dst >> 16) & 0xFF) * da * inverse) * 255L;
+                g = (((src >> 8) & 0xFF) * sa * 255L + ((dst >> 8) & 0xFF) * da * inverse) * 255L;
+                b = ((src & 0xFF) * sa * 255L + (dst & 0xFF) * da * inverse) * 255L;
+                break;
+        }
+        return (div255(alpha2) << 24) |
+                (unpremultiply(r, alpha2) << 16) |
+                (unpremultiply(g, alpha2) << 8) |
+                unpremultiply(b, alpha2);
+    }
+
+    public static void blendRow(int blendFlag, @NonNull int[] src, int srcOffset,
+                                @NonNull int[] dst, int dstOffset, int length) {
+        blendRow(blendFlag, src, srcOffset, dst, dstOffset, length, OPACITY_MAX);
+    }
+
+    public static void blendRow(int blendFlag, @NonNull int[] src, int srcOffset,
+                                @NonNull int[] dst, int dstOffset, int length, int opacity) {
+        if (opacity <= 0) {
+            return;
+        }
+        if (opacity > OPACITY_MAX) {
+            opacity = OPACITY_MAX;
+        }
+        if (blendFlag == BlendFlag.NORMAL && opacity == OPACITY_MAX) {
+            for (int i = 0; i < length; i ++) {
+                int color = src[srcOffset + i];
+                int alpha = color >>> 24;
+                if (alpha == 255) {
+                    dst[dstOffset + i] = color;
+                }
+                else if (alpha != 0) {
+                    dst[dstOffset + i] = blend(BlendFlag.NORMAL, color, dst[dstOffset + i], OPACITY_MAX);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < length; i ++) {
+            dst[dstOffset + i] = blend(blendFlag, src[srcOffset + i], dst[dstOffset + i], opacity);
+        }
+    }
+
+    // Blends a rectangle of rows, e.g. one tile of a layer into the matching tile of the composite cache
+    public static void blendRows(int blendFlag, @NonNull int[] src, int srcOffset, int srcStride,
+                                 @NonNull int[] dst, int dstOffset, int dstStride,
+                                 int width, int height, int opacity) {
+        for (int y = 0; y < height; y ++) {
+            blendRow(blendFlag, src, srcOffset + y * srcStride,
+                    dst, dstOffset + y * dstStride, width, opacity);
+        }
+    }
+
+    // Premultiplied separable blend: Cs * as * (1 - ab) + Cb * ab * (1 - as) + as * ab * B(Cb, Cs)
+    private static long separable(int blendFlag, int s, int sa, int d, int da) {
+        long mixed;
+        switch (blendFlag) {
+            case BlendFlag.MULTIPLY:
+                mixed = s * d;
+                break;
+            case BlendFlag.SCREEN:
+                mixed = (s + d) * 255 - s * d;
+                break;
+            default:
+                if (2 * d <= 255) {
+                    mixed = 2 * s * d;
+                }
+                else {
+                    mixed = 255 * 255 - 2 * (255 - s) * (255 - d);
+                }
+                break;
+        }
+        return (s * sa * (255L - da) + d * da * (255L - sa)) * 255L + sa * da * mixed;
+    }
+
+    // round(x / 255), exact for x in [0, 255 * 255]
+    private static int div255(int x) {
+        int t = x + 128;
+        return (t + (t >>> 8)) >>> 8;
+    }
+
+    private static int unpremultiply(long numerator, int alpha2) {
+        if (alpha2 == 255 * 255) {
+            // Opaque results divide by a constant, which the compiler turns into a multiply
+            return (int) Math.min(255, (numerator + 255L * 255L * 255L / 2) / (255L * 255L * 255L));
+        }
+        long denominator = alpha2 * 255L;
+        return (int) Math.min(255, (numerator + (denominator >> 1)) / denominator);
+    }
+
+}
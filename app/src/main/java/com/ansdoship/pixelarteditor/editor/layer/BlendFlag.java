@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.layer;
+
+public final class BlendFlag {
+
+    public final static int NORMAL = 0;
+
+    public final static int MULTIPLY = 1;
+
+    public final static int SCREEN = 2;
+
+    public final static int OVERLAY = 3;
+
+    public final static int ADD = 4;
+
+    public final static int ERASE = 5;
+
+}
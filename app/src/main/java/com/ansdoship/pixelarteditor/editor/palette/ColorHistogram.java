@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.palette;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ansdoship.pixelarteditor.util.IntIntHashMap;
+
+import java.util.Arrays;
+
+// Distinct colors of an image with their pixel counts, most frequent first.
+// Fully transparent pixels are not counted.
+public final class ColorHistogram {
+
+    private final static int BAND_HEIGHT_MIN = 64;
+
+    private final int[] mColors;
+    private final int[] mCounts;
+
+    private ColorHistogram(@NonNull int[] colors, @NonNull int[] counts) {
+        mColors = colors;
+        mCounts = counts;
+    }
+
+    // Counts row bands on parallel threads into separate maps, then merges them
+    public static @NonNull
+    ColorHistogram createColorHistogram (@NonNull final Bitmap bitmap) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        int threadCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                height / BAND_HEIGHT_MIN));
+        final IntIntHashMap[] maps = new IntIntHashMap[threadCount];
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i ++) {
+            final int index = i;
+            final int top = height * i / threadCount;
+            final int bottom = height * (i + 1) / threadCount;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    maps[index] = count(bitmap, width, top, bottom);
+                }
+            });
+            threads[i].start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        IntIntHashMap merged = maps[0];
+        for (int i = 1; i < threadCount; i ++) {
+            IntIntHashMap map = maps[i];
+            int[] colors = new int[map.size()];
+            int[] counts = new int[map.size()];
+            int size = map.toArrays(colors, counts);
+            for (int j = 0; j < size; j ++) {
+                merged.addTo(colors[j], counts[j]);
+            }
+        }
+        return createColorHistogram(merged);
+    }
+
+    public static @NonNull
+    ColorHistogram createColorHistogram (@NonNull int[] pixels, int offset, int length) {
+        IntIntHashMap map = new IntIntHashMap();
+        count(pixels, offset, length, map);
+        return createColorHistogram(map);
+    }
+
+    private static @NonNull
+    ColorHistogram createColorHistogram (@NonNull IntIntHashMap map) {
+        int size = map.size();
+        int[] colors = new int[size];
+        int[] counts = new int[size];
+        map.toArrays(colors, counts);
+        // Sort by count through packed longs, the low half keeps the entry index
+        long[] order = new long[size];
+        for (int i = 0; i < size; i ++) {
+            order[i] = ((long) counts[i] << 32) | i;
+        }
+        Arrays.sort(order);
+        int[] sortedColors = new int[size];
+        int[] sortedCounts = new int[size];
+        for (int i = 0; i < size; i ++) {
+            int index = (int) order[size - 1 - i];
+            sortedColors[i] = colors[index];
+            sortedCounts[i] = counts[index];
+        }
+        return new ColorHistogram(sortedColors, sortedCounts);
+    }
+
+    public int size () {
+        return mColors.length;
+    }
+
+    public int getColor (int index) {
+        return mColors[index];
+    }
+
+    public int getCount (int index) {
+        return mCounts[index];
+    }
+
+    // Palette of the most frequent colors, null when the image is fully transparent
+    @Nullable
+    public Palette toPalette (int maxSize) {
+        int size = Math.min(maxSize, mColors.length);
+        if (size < 1) {
+            return null;
+        }
+        return Palette.createPalette(Arrays.copyOf(mColors, size));
+    }
+
+    @NonNull
+    private static IntIntHashMap count (@NonNull Bitmap bitmap, int width, int top, int bottom) {
+        IntIntHashMap map = new IntIntHashMap();
+        int[] row = new int[width];
+        for (int y = top; y < bottom; y ++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            count(row, 0, width, map);
+        }
+        return map;
+    }
+
+    private static void count (@NonNull int[] pixels, int offset, int length, @NonNull IntIntHashMap map) {
+        int lastColor = 0;
+        int run = 0;
+        for (int i = offset; i < offset + length; i ++) {
+            int color = pixels[i];
+            if (color == lastColor) {
+                run ++;
+                continue;
+            }
+            if (run > 0 && (lastColor >>> 24) != 0) {
+                map.addTo(lastColor, run);
+            }
+            lastColor = color;
+            run = 1;
+        }
+        if (run > 0 && (lastColor >>> 24) != 0) {
+            map.addTo(lastColor, run);
+        }
+    }
+
+}
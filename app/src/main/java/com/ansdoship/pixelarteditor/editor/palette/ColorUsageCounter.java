@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.palette;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ansdoship.pixelarteditor.util.IntIntHashMap;
+
+// Number of pixels of every color in an image. Counted once, then kept up to date by diffing
+// the dirty region of each edit: beginUpdate() snapshots the region, endUpdate() compares it
+// with the result and adjusts the counts of the changed pixels only.
+// Regions larger than the snapshot buffer, such as undo and redo without known bounds, are
+// copied into a snapshot bitmap instead and diffed in strips of rows that fit the buffer.
+public final class ColorUsageCounter {
+
+    // Upper bound of the snapshot and strip buffers, which are kept for reuse
+    private final static int SCRATCH_SIZE_MAX = 1 << 18;
+
+    private final IntIntHashMap mCounts;
+    private final Rect mDirty;
+    private Bitmap mSource;
+    private int mWidth;
+    private int mHeight;
+    private int[] mScratch;
+    private int[] mStrip;
+    private int[] mRow;
+    // Holds the region when it does not fit mScratch, allocated on first use at the image size
+    private Bitmap mSnapshotBitmap;
+    private boolean mStrips;
+    private boolean mUpdating;
+
+    private ColorUsageCounter() {
+        mCounts = new IntIntHashMap();
+        mDirty = new Rect();
+    }
+
+    public static @NonNull
+    ColorUsageCounter createColorUsageCounter (@NonNull Bitmap bitmap) {
+        ColorUsageCounter counter = new ColorUsageCounter();
+        counter.reset(bitmap);
+        return counter;
+    }
+
+    // Recounts every pixel, for images that were replaced rather than edited
+    public void reset(@NonNull Bitmap bitmap) {
+        mCounts.clear();
+        mSource = bitmap;
+        mWidth = bitmap.getWidth();
+        mHeight = bitmap.getHeight();
+        mUpdating = false;
+        addRegion(bitmap, new Rect(0, 0, mWidth, mHeight));
+    }
+
+    public int getCount(int color) {
+        return mCounts.get(color, 0);
+    }
+
+    // Number of distinct colors
+    public int size() {
+        return mCounts.size();
+    }
+
+    // Snapshots the region an edit is about to change, null for the whole image
+    public void beginUpdate(@NonNull Bitmap bitmap, @Nullable Rect dirty) {
+        if (bitmap != mSource || bitmap.getWidth() != mWidth || bitmap.getHeight() != mHeight) {
+            reset(bitmap);
+        }
+        if (dirty == null) {
+            mDirty.set(0, 0, mWidth, mHeight);
+        }
+        else if (!mDirty.setIntersect(dirty, new Rect(0, 0, mWidth, mHeight))) {
+            mDirty.setEmpty();
+        }
+        int width = mDirty.width();
+        int length = width * mDirty.height();
+        mStrips = length > SCRATCH_SIZE_MAX;
+        if (!mStrips) {
+            obtainScratch(length);
+            if (length > 0) {
+                bitmap.getPixels(mScratch, 0, width, mDirty.left, mDirty.top, width, mDirty.height());
+            }
+        }
+        else {
+            if (mSnapshotBitmap == null ||
+                    mSnapshotBitmap.getWidth() != mWidth || mSnapshotBitmap.getHeight() != mHeight) {
+                release();
+                mSnapshotBitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+            }
+            int rows = getStripRows(width);
+            obtainScratch(rows * width);
+            for (int y = mDirty.top; y < mDirty.bottom; y += rows) {
+                int height = Math.min(rows, mDirty.bottom - y);
+                bitmap.getPixels(mScratch, 0, width, mDirty.left, y, width, height);
+                mSnapshotBitmap.setPixels(mScratch, 0, width, mDirty.left, y, width, height);
+            }
+        }
+        mUpdating = true;
+    }
+
+    // Applies the difference between the snapshot and the bitmap after the edit
+    public void endUpdate(@NonNull Bitmap bitmap) {
+        if (!mUpdating) {
+            return;
+        }
+        mUpdating = false;
+        if (bitmap != mSource || bitmap.getWidth() != mWidth || bitmap.getHeight() != mHeight) {
+            reset(bitmap);
+            return;
+        }
+        int width = mDirty.width();
+        if (width < 1) {
+            return;
+        }
+        if (!mStrips) {
+            mRow = obtain(mRow, mWidth);
+            for (int y = mDirty.top; y < mDirty.bottom; y ++) {
+                bitmap.getPixels(mRow, 0, width, mDirty.left, y, width, 1);
+                diff(mScratch, (y - mDirty.top) * width, mRow, width);
+            }
+            return;
+        }
+        int rows = getStripRows(width);
+        mStrip = obtain(mStrip, rows * width);
+        for (int y = mDirty.top; y < mDirty.bottom; y += rows) {
+            int height = Math.min(rows, mDirty.bottom - y);
+            mSnapshotBitmap.getPixels(mScratch, 0, width, mDirty.left, y, width, height);
+            bitmap.getPixels(mStrip, 0, width, mDirty.left, y, width, height);
+            diff(mScratch, 0, mStrip, width * height);
+        }
+    }
+
+    // Drops the snapshot bitmap, which is allocated again by the next large update
+    public void release() {
+        if (mSnapshotBitmap != null) {
+            mSnapshotBitmap.recycle();
+            mSnapshotBitmap = null;
+        }
+    }
+
+    // Copies the pixels of one color into a bitmap the size of their bounds, null if the
+    // color is unused. The scan stops as soon as all counted pixels were found.
+    @Nullable
+    public Bitmap createColorMask(@NonNull Bitmap bitmap, int color, @NonNull Rect outBounds) {
+        int remaining = getCount(color);
+        if (remaining == 0) {
+            return null;
+        }
+        mRow = obtain(mRow, mWidth);
+        int[] row = mRow;
+        int left = mWidth;
+        int top = -1;
+        int right = -1;
+        int bottom = -1;
+        for (int y = 0; y < mHeight && remaining > 0; y ++) {
+            bitmap.getPixels(row, 0, mWidth, 0, y, mWidth, 1);
+            for (int x = 0; x < mWidth; x ++) {
+                if (row[x] == color) {
+                    if (top < 0) {
+                        top = y;
+                    }
+                    bottom = y;
+                    left = Math.min(left, x);
+                    right = Math.max(right, x);
+                    remaining --;
+                }
+            }
+        }
+        if (top < 0) {
+            return null;
+        }
+        outBounds.set(left, top, right + 1, bottom + 1);
+        int width = outBounds.width();
+        int height = outBounds.height();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, left, top, width, height);
+        for (int i = 0; i < pixels.length; i ++) {
+            if (pixels[i] != color) {
+                pixels[i] = 0;
+            }
+        }
+        Bitmap mask = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        mask.setPixels(pixels, 0, width, 0, 0, width, height);
+        return mask;
+    }
+
+    // Adds every pixel of the region
+    private void addRegion(@NonNull Bitmap bitmap, @NonNull Rect region) {
+        int width = region.width();
+        if (width < 1) {
+            return;
+        }
+        mRow = obtain(mRow, mWidth);
+        for (int y = region.top; y < region.bottom; y ++) {
+            bitmap.getPixels(mRow, 0, width, region.left, y, width, 1);
+            addRow(mRow, width);
+        }
+    }
+
+    // Moves the count of every changed pixel from its old color to its new one
+    private void diff(@NonNull int[] before, int offset, @NonNull int[] after, int length) {
+        for (int i = 0; i < length; i ++) {
+            int color = after[i];
+            if (before[offset + i] != color) {
+                add(before[offset + i], -1);
+                mCounts.addTo(color, 1);
+            }
+        }
+    }
+
+    // Rows per strip, so that a strip of the region fits the scratch buffer
+    private static int getStripRows(int width) {
+        return Math.max(1, SCRATCH_SIZE_MAX / width);
+    }
+
+    private void obtainScratch(int length) {
+        if (mScratch == null || mScratch.length < length) {
+            int size = mScratch == null ? length : Math.max(length, mScratch.length * 2);
+            mScratch = new int[Math.max(1, Math.max(length, Math.min(SCRATCH_SIZE_MAX, size)))];
+        }
+    }
+
+    // Counts a row, neighboring pixels usually repeat so runs are added at once
+    private void addRow(@NonNull int[] pixels, int length) {
+        int lastColor = pixels[0];
+        int run = 0;
+        for (int i = 0; i < length; i ++) {
+            int color = pixels[i];
+            if (color != lastColor) {
+                add(lastColor, run);
+                lastColor = color;
+                run = 0;
+            }
+            run ++;
+        }
+        add(lastColor, run);
+    }
+
+    private void add(int color, int count) {
+        if (mCounts.addTo(color, count) <= 0) {
+            mCounts.remove(color);
+        }
+    }
+
+    @NonNull
+    private static int[] obtain(@Nullable int[] buffer, int length) {
+        if (buffer == null || buffer.length < length) {
+            return new int[Math.max(1, length)];
+        }
+        return buffer;
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.palette;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.util.Arrays;
+
+// Reduces an image to a limited palette: builds the palette with the selected quantizer,
+// then maps every pixel onto it, optionally with Floyd-Steinberg error diffusion.
+// Pixels below half alpha become transparent, all others opaque.
+public final class ImageQuantizer {
+
+    public final static int COLOR_COUNT_MIN = 2;
+    public final static int COLOR_COUNT_MAX = 256;
+    public final static int COLOR_COUNT_DEFAULT = 16;
+
+    public interface Callback {
+        @WorkerThread
+        void onProgress(int progress);
+        @WorkerThread
+        void onSuccess(@NonNull Bitmap bitmap, @NonNull Palette palette);
+        @WorkerThread
+        void onFailure();
+    }
+
+    private final Bitmap mBitmap;
+    private final int mColorCount;
+    private final int mQuantizerFlag;
+    private final boolean mDither;
+    private final Callback mCallback;
+
+    private ImageQuantizer(@NonNull Bitmap bitmap, int colorCount, int quantizerFlag, boolean dither,
+                           @NonNull Callback callback) {
+        mBitmap = bitmap;
+        mColorCount = Math.max(COLOR_COUNT_MIN, Math.min(COLOR_COUNT_MAX, colorCount));
+        mQuantizerFlag = quantizerFlag;
+        mDither = dither;
+        mCallback = callback;
+    }
+
+    // Quantizes on a new thread, all callbacks are invoked on that thread
+    public static void quantizeAsync(@NonNull Bitmap bitmap, int colorCount, int quantizerFlag, boolean dither,
+                                     @NonNull Callback callback) {
+        final ImageQuantizer quantizer = new ImageQuantizer(bitmap, colorCount, quantizerFlag, dither, callback);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                quantizer.run();
+            }
+        }).start();
+    }
+
+    @WorkerThread
+    private void run() {
+        int width = mBitmap.getWidth();
+        int height = mBitmap.getHeight();
+        int[] pixels = new int[width * height];
+        mBitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        for (int i = 0; i < pixels.length; i ++) {
+            pixels[i] = (pixels[i] >>> 24) < 0x80 ? 0 : pixels[i] | 0xFF000000;
+        }
+        mCallback.onProgress(10);
+        ColorHistogram histogram = ColorHistogram.createColorHistogram(pixels, 0, pixels.length);
+        mCallback.onProgress(30);
+        Palette palette = createPalette(histogram, mColorCount, mQuantizerFlag);
+        if (palette == null) {
+            mCallback.onFailure();
+            return;
+        }
+        mCallback.onProgress(40);
+        int lastProgress = 40;
+        if (mDither) {
+            NearestColorTable table = new NearestColorTable(palette);
+            // Error of the current and the next row, three channels per pixel plus padding at both ends
+            int[] current = new int[(width + 2) * 3];
+            int[] next = new int[(width + 2) * 3];
+            for (int y = 0; y < height; y ++) {
+                for (int x = 0; x < width; x ++) {
+                    int offset = y * width + x;
+                    int color = pixels[offset];
+                    if (color == 0) {
+                        continue;
+                    }
+                    int e = (x + 1) * 3;
+                    int red = clamp(((color >> 16) & 0xFF) + current[e] / 16);
+                    int green = clamp(((color >> 8) & 0xFF) + current[e + 1] / 16);
+                    int blue = clamp((color & 0xFF) + current[e + 2] / 16);
+                    int mapped = table.nearestColorOf(red, green, blue);
+                    pixels[offset] = mapped;
+                    int errorRed = red - ((mapped >> 16) & 0xFF);
+                    int errorGreen = green - ((mapped >> 8) & 0xFF);
+                    int errorBlue = blue - (mapped & 0xFF);
+                    // Errors are kept in sixteenths: 7 right, 3 below left, 5 below, 1 below right
+                    current[e + 3] += errorRed * 7;
+                    current[e + 4] += errorGreen * 7;
+                    current[e + 5] += errorBlue * 7;
+                    next[e - 3] += errorRed * 3;
+                    next[e - 2] += errorGreen * 3;
+                    next[e - 1] += errorBlue * 3;
+                    next[e] += errorRed * 5;
+                    next[e + 1] += errorGreen * 5;
+                    next[e + 2] += errorBlue * 5;
+                    next[e + 3] += errorRed;
+                    next[e + 4] += errorGreen;
+                    next[e + 5] += errorBlue;
+                }
+                int[] swap = current;
+                current = next;
+                next = swap;
+                Arrays.fill(next, 0);
+                lastProgress = reportRow(y, height, lastProgress);
+            }
+        }
+        else {
+            PaletteColorIndex index = palette.getColorIndex();
+            for (int y = 0; y < height; y ++) {
+                for (int x = 0; x < width; x ++) {
+                    int offset = y * width + x;
+                    if (pixels[offset] != 0) {
+                        pixels[offset] = index.nearestColorOf(pixels[offset]);
+                    }
+                }
+                lastProgress = reportRow(y, height, lastProgress);
+            }
+        }
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        mCallback.onProgress(100);
+        mCallback.onSuccess(bitmap, palette);
+    }
+
+    private int reportRow(int y, int height, int lastProgress) {
+        int progress = 40 + (y + 1) * 59 / height;
+        if (progress != lastProgress) {
+            mCallback.onProgress(progress);
+        }
+        return progress;
+    }
+
+    @Nullable
+    public static Palette createPalette(@NonNull ColorHistogram histogram, int colorCount, int quantizerFlag) {
+        switch (quantizerFlag) {
+            case QuantizerFlag.OCTREE:
+                return OctreeQuantizer.createPalette(histogram, colorCount);
+            case QuantizerFlag.MEDIAN_CUT:
+            default:
+                return MedianCutQuantizer.createPalette(histogram, colorCount);
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+
+    // Nearest palette color for diffused colors, which rarely repeat exactly, memoized on a 6 bit per channel grid
+    private final static class NearestColorTable {
+
+        private final int[] mColors;
+        private final LabColorMatcher mMatcher;
+        private final int[] mTable;
+
+        NearestColorTable(@NonNull Palette palette) {
+            mColors = palette.getColors();
+            mMatcher = LabColorMatcher.createLabColorMatcher(mColors);
+            mTable = new int[1 << 18];
+            Arrays.fill(mTable, -1);
+        }
+
+        int nearestColorOf(int red, int green, int blue) {
+            int key = ((red >> 2) << 12) | ((green >> 2) << 6) | (blue >> 2);
+            int index = mTable[key];
+            if (index < 0) {
+                index = mMatcher.nearestIndexOf((red << 16) | (green << 8) | blue);
+                mTable[key] = index;
+            }
+            return mColors[index];
+        }
+
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.palette;
+
+import androidx.annotation.NonNull;
+
+import com.ansdoship.pixelarteditor.util.IntIntHashMap;
+
+// Perceptual nearest color search: palette colors are converted to CIELAB once and,
+// for larger palettes, indexed in a k-d tree. Distances are CIE76 delta E, alpha is ignored,
+// so callers pass opaque colors only. Works on a snapshot of the colors, create a new matcher
+// after the palette changes.
+public final class LabColorMatcher {
+
+    // Below this size a linear scan beats walking the tree
+    public final static int TREE_SIZE_MIN = 64;
+    // Tree ranges of at most this size are leaves scanned linearly
+    private final static int LEAF_SIZE = 8;
+
+    // Memoized queries are dropped once this many distinct colors have been looked up
+    private final static int MEMO_SIZE_MAX = 1 << 16;
+
+    private final static float[] LINEAR = new float[256];
+    static {
+        for (int i = 0; i < 256; i ++) {
+            double c = i / 255.0;
+            LINEAR[i] = (float) (c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4));
+        }
+    }
+
+    private final int[] mColors;
+    private final float[] mLab;
+    // Implicit k-d tree: node order of mIndices, split axis by depth.
+    // mTreeLab holds the same Lab values in node order for locality.
+    private final int[] mIndices;
+    private final float[] mTreeLab;
+    private final boolean mUseTree;
+    private final IntIntHashMap mMemo;
+    private final float[] mQuery;
+
+    private LabColorMatcher(@NonNull int[] colors, int treeSizeMin) {
+        if (colors.length < 1) {
+            throw new IllegalArgumentException("Color array length cannot be < 1");
+        }
+        mColors = colors.clone();
+        mLab = new float[colors.length * 3];
+        for (int i = 0; i < colors.length; i ++) {
+            toLab(colors[i], mLab, i * 3);
+        }
+        mIndices = new int[colors.length];
+        for (int i = 0; i < colors.length; i ++) {
+            mIndices[i] = i;
+        }
+        mUseTree = colors.length >= treeSizeMin;
+        if (mUseTree) {
+            build(0, colors.length, 0);
+        }
+        mTreeLab = new float[mLab.length];
+        for (int i = 0; i < mIndices.length; i ++) {
+            System.arraycopy(mLab, mIndices[i] * 3, mTreeLab, i * 3, 3);
+        }
+        mMemo = new IntIntHashMap();
+        mQuery = new float[3];
+    }
+
+    public static @NonNull
+    LabColorMatcher createLabColorMatcher (@NonNull int[] colors) {
+        return new LabColorMatcher(colors, TREE_SIZE_MIN);
+    }
+
+    // Lets tests and benchmarks force the tree on or off regardless of the palette size
+    static @NonNull
+    LabColorMatcher createLabColorMatcher (@NonNull int[] colors, int treeSizeMin) {
+        return new LabColorMatcher(colors, treeSizeMin);
+    }
+
+    public int size() {
+        return mColors.length;
+    }
+
+    public int nearestIndexOf(int color) {
+        int key = color | 0xFF000000;
+        int index = mMemo.get(key, -1);
+        if (index >= 0) {
+            return index;
+        }
+        index = search(key);
+        if (mMemo.size() >= MEMO_SIZE_MAX) {
+            mMemo.clear();
+        }
+        mMemo.put(key, index);
+        return index;
+    }
+
+    public int nearestColorOf(int color) {
+        return mColors[nearestIndexOf(color)];
+    }
+
+    // Batch query over a row, runs of equal pixels are looked up once
+    public void nearestIndicesOf(@NonNull int[] pixels, int offset, int length,
+                                 @NonNull int[] indices, int indicesOffset) {
+        if (length < 1) {
+            return;
+        }
+        int lastColor = pixels[offset];
+        int lastIndex = nearestIndexOf(lastColor);
+        for (int i = 0; i < length; i ++) {
+            int color = pixels[offset + i];
+            if (color != lastColor) {
+                lastColor = color;
+                lastIndex = nearestIndexOf(color);
+            }
+            indices[indicesOffset + i] = lastIndex;
+        }
+    }
+
+    // Replaces every pixel of a row with its nearest palette color in place
+    public void remap(@NonNull int[] pixels, int offset, int length) {
+        if (length < 1) {
+            return;
+        }
+        int lastColor = pixels[offset];
+        int lastResult = nearestColorOf(lastColor);
+        for (int i = offset; i < offset + length; i ++) {
+            int color = pixels[i];
+            if (color != lastColor) {
+                lastColor = color;
+                lastResult = nearestColorOf(color);
+            }
+            pixels[i] = lastResult;
+        }
+    }
+
+    // Exhaustive search, kept as the reference the tree must agree with
+    public int bruteForceIndexOf(int color) {
+        toLab(color, mQuery, 0);
+        int nearest = 0;
+        float minDistance = Float.MAX_VALUE;
+        for (int i = 0; i < mColors.length; i ++) {
+            float distance = distance(i);
+            if (distance < minDistance) {
+                minDistance = distance;
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+
+    public static void toLab(int color, @NonNull float[] lab, int offset) {
+        float red = LINEAR[(color >> 16) & 0xFF];
+        float green = LINEAR[(color >> 8) & 0xFF];
+        float blue = LINEAR[color & 0xFF];
+        // sRGB to XYZ under D65, normalized by the white point
+        float x = (0.4124564f * red + 0.3575761f * green + 0.1804375f * blue) / 0.95047f;
+        float y = 0.2126729f * red + 0.7151522f * green + 0.0721750f * blue;
+        float z = (0.0193339f * red + 0.1191920f * green + 0.9503041f * blue) / 1.08883f;
+        float fx = labF(x);
+        float fy = labF(y);
+        float fz = labF(z);
+        lab[offset] = 116f * fy - 16f;
+        lab[offset + 1] = 500f * (fx - fy);
+        lab[offset + 2] = 200f * (fy - fz);
+    }
+
+    private int search(int color) {
+        if (!mUseTree) {
+            return bruteForceIndexOf(color);
+        }
+        toLab(color, mQuery, 0);
+        mBest = mIndices[0];
+        mBestDistance = Float.MAX_VALUE;
+        searchTree(0, mIndices.length, 0);
+        return mBest;
+    }
+
+    private int mBest;
+    private float mBestDistance;
+
+    private void searchTree(int start, int end, int axis) {
+        if (end - start <= LEAF_SIZE) {
+            for (int i = start; i < end; i ++) {
+                consider(i);
+            }
+            return;
+        }
+        int middle = (start + end) >>> 1;
+        consider(middle);
+        float delta = mQuery[axis] - mTreeLab[middle * 3 + axis];
+        int nextAxis = axis == 2 ? 0 : axis + 1;
+        if (delta < 0) {
+            searchTree(start, middle, nextAxis);
+            if (delta * delta <= mBestDistance) {
+                searchTree(middle + 1, end, nextAxis);
+            }
+        }
+        else {
+            searchTree(middle + 1, end, nextAxis);
+            if (delta * delta <= mBestDistance) {
+                searchTree(start, middle, nextAxis);
+            }
+        }
+    }
+
+    private void consider(int node) {
+        int offset = node * 3;
+        float dl = mQuery[0] - mTreeLab[offset];
+        float da = mQuery[1] - mTreeLab[offset + 1];
+        float db = mQuery[2] - mTreeLab[offset + 2];
+        float distance = dl * dl + da * da + db * db;
+        int index = mIndices[node];
+        // Ties go to the lower index like the linear scan
+        if (distance < mBestDistance || (distance == mBestDistance && index < mBest)) {
+            mBestDistance = distance;
+            mBest = index;
+        }
+    }
+
+    // Sorts the range by the axis and recurses into both halves around the median
+    private void build(int start, int end, int axis) {
+        if (end - start <= LEAF_SIZE) {
+            return;
+        }
+        for (int i = start + 1; i < end; i ++) {
+            int index = mIndices[i];
+            float value = mLab[index * 3 + axis];
+            int j = i - 1;
+            while (j >= start && mLab[mIndices[j] * 3 + axis] > value) {
+                mIndices[j + 1] = mIndices[j];
+                j --;
+            }
+            mIndices[j + 1] = index;
+        }
+        int middle = (start + end) >>> 1;
+        int nextAxis = axis == 2 ? 0 : axis + 1;
+        build(start, middle, nextAxis);
+        build(middle + 1, end, nextAxis);
+    }
+
+    private float distance(int index) {
+        int offset = index * 3;
+        float dl = mQuery[0] - mLab[offset];
+        float da = mQuery[1] - mLab[offset + 1];
+        float db = mQuery[2] - mLab[offset + 2];
+        return dl * dl + da * da + db * db;
+    }
+
+    private static float labF(float t) {
+        return t > 0.008856f ? (float) Math.cbrt(t) : 7.787f * t + 16f / 116f;
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package com.ansdoship.pixelarteditor.editor.palette;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Splits the color cube at the population median of the longest axis of the widest box
+// until the requested number of boxes exists, each box becoming its weighted mean color.
+// Alpha is ignored, the resulting colors are opaque.
+public final class MedianCutQuantizer {
+
+    @Nullable
+    public static Palette createPalette(@NonNull ColorHistogram histogram, int colorCount) {
+        int size = histogram.size();
+        if (size < 1 || colorCount < 1) {
+            return null;
+        }
+        int[] colors = new int[size];
+        int[] counts = new int[size];
+        for (int i = 0; i < size; i ++) {
+            colors[i] = histogram.getColor(i) | 0xFF000000;
+            counts[i] = histogram.getCount(i);
+        }
+        List<Box> boxes = new ArrayList<>();
+        boxes.add(new Box(colors, counts, 0, size));
+        int[] tempColors = new int[size];
+        int[] tempCounts = new int[size];
+        while (boxes.size() < colorCount) {
+            Box widest = null;
+            long maxScore = 0;
+            for (Box box : boxes) {
+                long score = (long) box.getLongestRange() * box.population;
+                if (box.end - box.start > 1 && score > maxScore) {
+                    maxScore = score;
+                    widest = box;
+                }
+            }
+            if (widest == null) {
+                break;
+            }
+            boxes.add(widest.split(colors, counts, tempColors, tempCounts));
+        }
+        int[] paletteColors = new int[boxes.size()];
+        for (int i = 0; i < paletteColors.length; i ++) {
+            paletteColors[i] = boxes.get(i).getMeanColor(colors, counts);
+        }
+        return Palette.createPalette(paletteColors);
+    }
+
+    private final static class Box {
+
+        int start;
+        int end;
+        long population;
+        int[] min = new int[3];
+        int[] max = new int[3];
+
+        Box(@NonNull int[] colors, @NonNull int[] counts, int start, int end) {
+            this.start = start;
+            this.end = end;
+            shrink(colors, counts);
+        }
+
+        void shrink(@NonNull int[] colors, @NonNull int[] counts) {
+            population = 0;
+            for (int channel = 0; channel < 3; channel ++) {
+                min[channel] = 255;
+                max[channel] = 0;
+            }
+            for (int i = start; i < end; i ++) {
+                population += counts[i];
+                for (int channel = 0; channel < 3; channel ++) {
+                    int value = channelOf(colors[i], channel);
+                    min[channel] = Math.min(min[channel], value);
+                    max[channel] = Math.max(max[channel], value);
+                }
+            }
+        }
+
+        int getLongestChannel() {
+            int longest = 0;
+            for (int channel = 1; channel < 3; channel ++) {
+                if (max[channel] - min[channel] > max[longest] - min[longest]) {
+                    longest = channel;
+                }
+            }
+            return longest;
+        }
+
+        int getLongestRange() {
+            int channel = getLongestChannel();
+            return max[channel] - min[channel];
+        }
+
+        // Keeps the lower half and returns the upper half
+        @NonNull
+        Box split(@NonNull int[] colors, @NonNull int[] counts,
+                  @NonNull int[] tempColors, @NonNull int[] tempCounts) {
+            int channel = getLongestChannel();
+            // Stable counting sort of the range by the channel value
+            int[] offsets = new int[257];
+            for (int i = start; i < end; i ++) {
+                offsets[channelOf(colors[i], channel) + 1] ++;
+            }
+            for (int value = 0; value < 256; value ++) {
+                offsets[value + 1] += offsets[value];
+            }
+            for (int i = start; i < end; i ++) {
+                int position = start + offsets[channelOf(colors[i], channel)] ++;
+                tempColors[position] = colors[i];
+                tempCounts[position] = counts[i];
+            }
+            System.arraycopy(tempColors, start, colors, start, end - start);
+            System.arraycopy(tempCounts, start, counts, start, end - start);
+            long half = population / 2;
+            long sum = 0;
+            int median = start + 1;
+            for (int i = start; i < end - 1; i ++) {
+                sum += counts[i];
+                if (sum >= half) {
+                    median = i + 1;
+                    break;
+                }
+            }
+            Box upper = new Box(colors, counts, median, end);
+            end = median;
+            shrink(colors, counts);
+            return upper;
+        }
+
+        int getMeanColor(@NonNull int[] colors, @NonNull int[] counts) {
+            long red = 0;
+            long green = 0;
+            long blue = 0;
+            for (int i = start; i < end; i ++) {
+                red += (long) ((colors[i] >> 16) & 0xFF) * counts[i];
+                green += (long) ((colors[i] >> 8) & 0xFF) * counts[i];
+                blue += (long) (colors[i] & 0xFF) * counts[i];
+            }
+            long half = population / 2;
+            return 0xFF000000 |
+                    (int) ((red + half) / population) << 16 |
+                    (int) ((green + half) / population) << 8 |
+                    (int) ((blue + half) / population);
+        }
+
+    }
+
+    private static int channelOf(int color, int channel) {
+        return (color >> (16 - channel * 8)) & 0xFF;
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+package com.ansdoship.pixelarteditor.editor.palette;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Builds an 8 level RGB octree of the histogram and folds the least populated nodes of the
+// deepest level into their parents until at most the requested number of leaves remain.
+// Alpha is ignored, the resulting colors are opaque.
+public final class OctreeQuantizer {
+
+    private final static int DEPTH = 8;
+
+    private final Node mRoot;
+    private final List<List<Node>> mReducible;
+    private int mLeafCount;
+
+    private OctreeQuantizer() {
+        mReducible = new ArrayList<>(DEPTH);
+        for (int level = 0; level < DEPTH; level ++) {
+            mReducible.add(new ArrayList<Node>());
+        }
+        mLeafCount = 0;
+        mRoot = createNode(0);
+    }
+
+    @Nullable
+    public static Palette createPalette(@NonNull ColorHistogram histogram, int colorCount) {
+        if (histogram.size() < 1 || colorCount < 1) {
+            return null;
+        }
+        OctreeQuantizer quantizer = new OctreeQuantizer();
+        for (int i = 0; i < histogram.size(); i ++) {
+            quantizer.add(histogram.getColor(i), histogram.getCount(i));
+        }
+        quantizer.reduce(colorCount);
+        List<Node> leaves = new ArrayList<>();
+        quantizer.collectLeaves(quantizer.mRoot, leaves);
+        // Most populated colors first, like a histogram palette
+        long[] order = new long[leaves.size()];
+        for (int i = 0; i < order.length; i ++) {
+            order[i] = (leaves.get(i).pixelCount << 24) | i;
+        }
+        Arrays.sort(order);
+        int[] colors = new int[leaves.size()];
+        for (int i = 0; i < colors.length; i ++) {
+            colors[i] = leaves.get((int) (order[colors.length - 1 - i] & 0xFFFFFF)).getColor();
+        }
+        return Palette.createPalette(colors);
+    }
+
+    private void add(int color, int count) {
+        int red = (color >> 16) & 0xFF;
+        int green = (color >> 8) & 0xFF;
+        int blue = color & 0xFF;
+        Node node = mRoot;
+        for (int level = 0; ; level ++) {
+            node.pixelCount += count;
+            if (node.leaf) {
+                node.red += (long) red * count;
+                node.green += (long) green * count;
+                node.blue += (long) blue * count;
+                return;
+            }
+            int shift = 7 - level;
+            int index = (((red >> shift) & 1) << 2) | (((green >> shift) & 1) << 1) | ((blue >> shift) & 1);
+            if (node.children[index] == null) {
+                node.children[index] = createNode(level + 1);
+            }
+            node = node.children[index];
+        }
+    }
+
+    private void reduce(int colorCount) {
+        for (int level = DEPTH - 1; level >= 0 && mLeafCount > colorCount; level --) {
+            List<Node> nodes = mReducible.get(level);
+            // Totals below a level no longer change once it is reached, so one sort suffices
+            long[] order = new long[nodes.size()];
+            for (int i = 0; i < order.length; i ++) {
+                order[i] = (nodes.get(i).pixelCount << 24) | i;
+            }
+            Arrays.sort(order);
+            for (int i = 0; i < order.length && mLeafCount > colorCount; i ++) {
+                merge(nodes.get((int) (order[i] & 0xFFFFFF)));
+            }
+        }
+    }
+
+    private void merge(@NonNull Node node) {
+        for (Node child : node.children) {
+            if (child != null) {
+                node.red += child.red;
+                node.green += child.green;
+                node.blue += child.blue;
+                mLeafCount --;
+            }
+        }
+        node.children = null;
+        node.leaf = true;
+        mLeafCount ++;
+    }
+
+    private void collectLeaves(@NonNull Node node, @NonNull List<Node> leaves) {
+        if (node.leaf) {
+            leaves.add(node);
+            return;
+        }
+        for (Node child : node.children) {
+            if (child != null) {
+                collectLeaves(child, leaves);
+            }
+        }
+    }
+
+    @NonNull
+    private Node createNode(int level) {
+        Node node = new Node();
+        if (level == DEPTH) {
+            node.leaf = true;
+            mLeafCount ++;
+        }
+        else {
+            node.children = new Node[8];
+            mReducible.get(level).add(node);
+        }
+        return node;
+    }
+
+    private final static class Node {
+
+        boolean leaf;
+        Node[] children;
+        long pixelCount;
+        long red;
+        long green;
+        long blue;
+
+        int getColor() {
+            long half = pixelCount / 2;
+            return 0xFF000000 |
+                    (int) ((red + half) / pixelCount) << 16 |
+                    (int) ((green + half) / pixelCount) << 8 |
+                    (int) ((blue + half) / pixelCount);
+        }
+
+    }
+
+}
@@ -27,6 +27,8 @@ public final class Palette {
 
     private int index;
 
+    private PaletteColorIndex mColorIndex;
+
     private Palette(@NonNull int[] colors) {
         this(colors, 0);
     }
@@ -107,7 +109,11 @@ public final class Palette {
     }
 
     public void setColor (int index, int color) {
+        int oldColor = mColors[index];
         mColors[index] = color;
+        if (mColorIndex != null) {
+            mColorIndex.onColorChanged(index, oldColor, color);
+        }
     }
 
     public void setAllColors (int color) {
@@ -140,8 +146,18 @@ public final class Palette {
         setColor(getIndex(), color);
     }
 
+    // Must not be modified directly, use setColor() so the color index stays valid
     public int[] getColors() {
         return mColors;
     }
 
+    // Built on first use and kept up to date by setColor()
+    @NonNull
+    public PaletteColorIndex getColorIndex() {
+        if (mColorIndex == null) {
+            mColorIndex = new PaletteColorIndex(this);
+        }
+        return mColorIndex;
+    }
+
 }
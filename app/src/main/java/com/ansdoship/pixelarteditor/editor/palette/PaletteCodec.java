@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.palette;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+// Streaming readers and writers for palette formats of other applications:
+// GIMP .gpl, Photoshop .act, JASC .pal and plain .hex. Text formats are parsed line by line,
+// .act as fixed 3 byte records, so no file is ever held in memory as a whole.
+public final class PaletteCodec {
+
+    // Entries beyond this count are ignored when reading
+    public final static int COLOR_COUNT_MAX = 256;
+
+    public final static String[] EXTENSIONS = {"gpl", "act", "pal", "hex"};
+
+    private final static int ACT_COLOR_COUNT = 256;
+    private final static int ACT_SIZE = ACT_COLOR_COUNT * 3;
+
+    private final static Charset CHARSET = Charset.forName("UTF-8");
+
+    // Returns the format flag for a file extension, or -1 if it is not supported
+    public static int getFormatFlag(@NonNull String extension) {
+        String lowerCase = extension.toLowerCase(Locale.US);
+        for (int i = 0; i < EXTENSIONS.length; i ++) {
+            if (EXTENSIONS[i].equals(lowerCase)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Nullable
+    public static Palette decodeFile(@NonNull File file) {
+        int formatFlag = getFormatFlag(FilenameUtils.getExtension(file.getName()));
+        if (formatFlag < 0 || !file.isFile() || !file.canRead()) {
+            return null;
+        }
+        InputStream stream = null;
+        try {
+            stream = new BufferedInputStream(new FileInputStream(file));
+            return decodeStream(stream, formatFlag);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    // Returns null if the stream holds no colors
+    @Nullable
+    public static Palette decodeStream(@NonNull InputStream stream, int formatFlag) throws IOException {
+        ColorList colors = new ColorList();
+        switch (formatFlag) {
+            case PaletteFormatFlag.GPL:
+                readGPL(newReader(stream), colors);
+                break;
+            case PaletteFormatFlag.ACT:
+                readACT(stream, colors);
+                break;
+            case PaletteFormatFlag.PAL:
+                readPAL(newReader(stream), colors);
+                break;
+            case PaletteFormatFlag.HEX:
+                readHEX(newReader(stream), colors);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown palette format flag: " + formatFlag);
+        }
+        if (colors.size == 0) {
+            return null;
+        }
+        return Palette.createPalette(colors.toArray());
+    }
+
+    public static boolean encodeFile(@NonNull Palette palette, @NonNull File file, int formatFlag) {
+        OutputStream stream = null;
+        try {
+            stream = new BufferedOutputStream(new FileOutputStream(file, false));
+            encodeStream(palette, stream, formatFlag);
+            return true;
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    public static void encodeStream(@NonNull Palette palette, @NonNull OutputStream stream, int formatFlag)
+            throws IOException {
+        int[] colors = palette.getColors();
+        switch (formatFlag) {
+            case PaletteFormatFlag.GPL:
+                writeGPL(colors, stream);
+                break;
+            case PaletteFormatFlag.ACT:
+                writeACT(colors, stream);
+                break;
+            case PaletteFormatFlag.PAL:
+                writePAL(colors, stream);
+                break;
+            case PaletteFormatFlag.HEX:
+                writeHEX(colors, stream);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown palette format flag: " + formatFlag);
+        }
+        stream.flush();
+    }
+
+    private static void readGPL(@NonNull BufferedReader reader, @NonNull ColorList colors) throws IOException {
+        String line = reader.readLine();
+        if (line == null || !line.trim().equals("GIMP Palette")) {
+            throw new IOException("Not a GIMP palette");
+        }
+        int[] rgb = new int[3];
+        while ((line = reader.readLine()) != null && !colors.isFull()) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#") || line.startsWith("Name:") || line.startsWith("Columns:")) {
+                continue;
+            }
+            if (parseRGB(line, rgb)) {
+                colors.add(0xFF000000 | (rgb[0] << 16) | (rgb[1] << 8) | rgb[2]);
+            }
+        }
+    }
+
+    private static void readPAL(@NonNull BufferedReader reader, @NonNull ColorList colors) throws IOException {
+        String line = reader.readLine();
+        if (line == null || !line.trim().equals("JASC-PAL")) {
+            throw new IOException("Not a JASC palette");
+        }
+        // Version line and color count, the count is only a hint
+        reader.readLine();
+        reader.readLine();
+        int[] rgb = new int[3];
+        while ((line = reader.readLine()) != null && !colors.isFull()) {
+            if (parseRGB(line.trim(), rgb)) {
+                colors.add(0xFF000000 | (rgb[0] << 16) | (rgb[1] << 8) | rgb[2]);
+            }
+        }
+    }
+
+    private static void readHEX(@NonNull BufferedReader reader, @NonNull ColorList colors) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null && !colors.isFull()) {
+            line = line.trim();
+            if (line.startsWith("#")) {
+                line = line.substring(1);
+            }
+            if (line.length() != 6 && line.length() != 8) {
+                continue;
+            }
+            try {
+                long value = Long.parseLong(line, 16);
+                colors.add(line.length() == 6 ? 0xFF000000 | (int) value : (int) value);
+            }
+            catch (NumberFormatException ignored) {
+            }
+        }
+    }
+
+    // 256 RGB records, optionally followed by the used color count and the transparent index
+    private static void readACT(@NonNull InputStream stream, @NonNull ColorList colors) throws IOException {
+        byte[] record = new byte[3];
+        int[] table = new int[ACT_COLOR_COUNT];
+        int count = 0;
+        while (count < ACT_COLOR_COUNT && readFully(stream, record, 3)) {
+            table[count] = 0xFF000000 | ((record[0] & 0xFF) << 16) | ((record[1] & 0xFF) << 8) | (record[2] & 0xFF);
+            count ++;
+        }
+        if (count < ACT_COLOR_COUNT) {
+            throw new IOException("Truncated ACT palette");
+        }
+        int transparentIndex = -1;
+        byte[] trailer = new byte[4];
+        if (readFully(stream, trailer, 4)) {
+            int used = ((trailer[0] & 0xFF) << 8) | (trailer[1] & 0xFF);
+            if (used > 0 && used <= ACT_COLOR_COUNT) {
+                count = used;
+            }
+            transparentIndex = ((trailer[2] & 0xFF) << 8) | (trailer[3] & 0xFF);
+        }
+        for (int i = 0; i < count && !colors.isFull(); i ++) {
+            colors.add(i == transparentIndex ? 0 : table[i]);
+        }
+    }
+
+    private static void writeGPL(@NonNull int[] colors, @NonNull OutputStream stream) throws IOException {
+        Writer writer = newWriter(stream);
+        writer.write("GIMP Palette\nName: Pixel Art Editor\nColumns: 16\n#\n");
+        for (int color : colors) {
+            writer.write(String.format(Locale.US, "%3d %3d %3d\t#%06X\n",
+                    (color >> 16) & 0xFF, (color >> 8) & 0xFF, color & 0xFF, color & 0xFFFFFF));
+        }
+        writer.flush();
+    }
+
+    private static void writePAL(@NonNull int[] colors, @NonNull OutputStream stream) throws IOException {
+        Writer writer = newWriter(stream);
+        writer.write("JASC-PAL\r\n0100\r\n" + colors.length + "\r\n");
+        for (int color : colors) {
+            writer.write(((color >> 16) & 0xFF) + " " + ((color >> 8) & 0xFF) + " " + (color & 0xFF) + "\r\n");
+        }
+        writer.flush();
+    }
+
+    // Opaque colors as RRGGBB, others as AARRGGBB
+    private static void writeHEX(@NonNull int[] colors, @NonNull OutputStream stream) throws IOException {
+        Writer writer = newWriter(stream);
+        for (int color : colors) {
+            if ((color >>> 24) == 0xFF) {
+                writer.write(String.format(Locale.US, "%06x\n", color & 0xFFFFFF));
+            }
+            else {
+                writer.write(String.format(Locale.US, "%08x\n", color));
+            }
+        }
+        writer.flush();
+    }
+
+    // Colors past 256 are dropped, the first transparent color becomes the transparent index
+    private static void writeACT(@NonNull int[] colors, @NonNull OutputStream stream) throws IOException {
+        int count = Math.min(colors.length, ACT_COLOR_COUNT);
+        int transparentIndex = 0xFFFF;
+        byte[] buffer = new byte[ACT_SIZE + 4];
+        for (int i = 0; i < count; i ++) {
+            int color = colors[i];
+            buffer[i * 3] = (byte) (color >> 16);
+            buffer[i * 3 + 1] = (byte) (color >> 8);
+            buffer[i * 3 + 2] = (byte) color;
+            if (transparentIndex == 0xFFFF && (color >>> 24) == 0) {
+                transparentIndex = i;
+            }
+        }
+        buffer[ACT_SIZE] = (byte) (count >> 8);
+        buffer[ACT_SIZE + 1] = (byte) count;
+        buffer[ACT_SIZE + 2] = (byte) (transparentIndex >> 8);
+        buffer[ACT_SIZE + 3] = (byte) transparentIndex;
+        stream.write(buffer);
+    }
+
+    // Parses the first three whitespace separated integers of a line
+    private static boolean parseRGB(@NonNull String line, @NonNull int[] rgb) {
+        int position = 0;
+        int length = line.length();
+        for (int i = 0; i < 3; i ++) {
+            while (position < length && Character.isWhitespace(line.charAt(position))) {
+                position ++;
+            }
+            int value = 0;
+            int start = position;
+            while (position < length) {
+                char c = line.charAt(position);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+                if (value > 255) {
+                    return false;
+                }
+                position ++;
+            }
+            if (position == start) {
+                return false;
+            }
+            rgb[i] = value;
+        }
+        return true;
+    }
+
+    private static boolean readFully(@NonNull InputStream stream, @NonNull byte[] buffer, int length)
+            throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = stream.read(buffer, offset, length - offset);
+            if (read < 0) {
+                return false;
+            }
+            offset += read;
+        }
+        return true;
+    }
+
+    @NonNull
+    private static BufferedReader newReader(@NonNull InputStream stream) {
+        return new BufferedReader(new InputStreamReader(stream, CHARSET));
+    }
+
+    @NonNull
+    private static Writer newWriter(@NonNull OutputStream stream) {
+        return new BufferedWriter(new OutputStreamWriter(stream, CHARSET));
+    }
+
+    private final static class ColorList {
+
+        private final int[] mColors = new int[COLOR_COUNT_MAX];
+        int size;
+
+        void add(int color) {
+            mColors[size ++] = color;
+        }
+
+        boolean isFull() {
+            return size >= COLOR_COUNT_MAX;
+        }
+
+        @NonNull
+        int[] toArray() {
+            int[] colors = new int[size];
+            System.arraycopy(mColors, 0, colors, 0, size);
+            return colors;
+        }
+
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.palette;
+
+import androidx.annotation.NonNull;
+
+import com.ansdoship.pixelarteditor.util.IntIntHashMap;
+
+// Maps colors to palette indices. Exact lookups are a single hash probe, nearest matches
+// are resolved once per distinct color and memoized until the palette changes.
+// Obtained from Palette.getColorIndex(), which keeps it up to date on every setColor().
+public final class PaletteColorIndex {
+
+    public final static int NOT_FOUND = -1;
+
+    private final Palette mPalette;
+    private final IntIntHashMap mExact;
+    // Exact and nearest results of every color looked up so far
+    private final IntIntHashMap mNearest;
+    // Built from the opaque entries on the first opaque miss, dropped when the palette changes.
+    // mMatcherIndices maps matcher indices back to palette indices, empty without opaque entries.
+    private LabColorMatcher mMatcher;
+    private int[] mMatcherIndices;
+
+    PaletteColorIndex(@NonNull Palette palette) {
+        mPalette = palette;
+        mExact = new IntIntHashMap(palette.size());
+        mNearest = new IntIntHashMap();
+        int[] colors = palette.getColors();
+        // Iterate backwards so that duplicated colors map to their first index
+        for (int i = colors.length - 1; i >= 0; i --) {
+            mExact.put(colors[i], i);
+        }
+    }
+
+    public int indexOf(int color) {
+        return mExact.get(color, NOT_FOUND);
+    }
+
+    public boolean contains(int color) {
+        return mExact.containsKey(color);
+    }
+
+    // Exact index if present, otherwise the perceptually closest opaque entry for opaque colors
+    // and the closest by squared ARGB distance for translucent ones or palettes without opaque entries
+    public int nearestIndexOf(int color) {
+        int index = mNearest.get(color, NOT_FOUND);
+        if (index != NOT_FOUND) {
+            return index;
+        }
+        index = mExact.get(color, NOT_FOUND);
+        if (index == NOT_FOUND) {
+            index = searchNearest(color);
+        }
+        mNearest.put(color, index);
+        return index;
+    }
+
+    public int nearestColorOf(int color) {
+        return mPalette.getColor(nearestIndexOf(color));
+    }
+
+    void onColorChanged(int index, int oldColor, int newColor) {
+        if (oldColor == newColor) {
+            return;
+        }
+        if (mExact.get(oldColor, NOT_FOUND) == index) {
+            int other = findColor(oldColor, index);
+            if (other == NOT_FOUND) {
+                mExact.remove(oldColor);
+            }
+            else {
+                mExact.put(oldColor, other);
+            }
+        }
+        int current = mExact.get(newColor, NOT_FOUND);
+        if (current == NOT_FOUND || current > index) {
+            mExact.put(newColor, index);
+        }
+        mNearest.clear();
+        mMatcher = null;
+        mMatcherIndices = null;
+    }
+
+    private int findColor(int color, int excludedIndex) {
+        int[] colors = mPalette.getColors();
+        for (int i = 0; i < colors.length; i ++) {
+            if (i != excludedIndex && colors[i] == color) {
+                return i;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private int searchNearest(int color) {
+        int a = color >>> 24;
+        int[] colors = mPalette.getColors();
+        if (a == 0xFF) {
+            if (mMatcherIndices == null) {
+                createMatcher(colors);
+            }
+            // The matcher ignores alpha, so it must never see translucent entries
+            if (mMatcher != null) {
+                return mMatcherIndices[mMatcher.nearestIndexOf(color)];
+            }
+        }
+        int r = (color >> 16) & 0xFF;
+        int g = (color >> 8) & 0xFF;
+        int b = color & 0xFF;
+        int nearest = 0;
+        int minDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < colors.length; i ++) {
+            int c = colors[i];
+            int da = (c >>> 24) - a;
+            int dr = ((c >> 16) & 0xFF) - r;
+            int dg = ((c >> 8) & 0xFF) - g;
+            int db = (c & 0xFF) - b;
+            int distance = da * da + dr * dr + dg * dg + db * db;
+            if (distance < minDistance) {
+                minDistance = distance;
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+
+    private void createMatcher(@NonNull int[] colors) {
+        int count = 0;
+        for (int color : colors) {
+            if (color >>> 24 == 0xFF) {
+                count ++;
+            }
+        }
+        int[] opaqueColors = new int[count];
+        mMatcherIndices = new int[count];
+        count = 0;
+        for (int i = 0; i < colors.length; i ++) {
+            if (colors[i] >>> 24 == 0xFF) {
+                opaqueColors[count] = colors[i];
+                mMatcherIndices[count] = i;
+                count ++;
+            }
+        }
+        mMatcher = count == 0 ? null : LabColorMatcher.createLabColorMatcher(opaqueColors);
+    }
+
+}
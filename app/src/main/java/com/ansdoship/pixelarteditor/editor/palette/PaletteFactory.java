@@ -17,20 +17,29 @@
 
 package com.ansdoship.pixelarteditor.editor.palette;
 
+import android.util.Base64;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.ansdoship.pixelarteditor.util.JSONCodec;
-
+import org.apache.commons.io.FileUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+// Palettes are written in a binary format: a 16 byte big-endian header
+// (magic "PXPL", version, reserved, color count, index) followed by packed ARGB colors.
+// Legacy JSON palettes are still read so that existing files and preferences migrate on save.
 public final class PaletteFactory {
 
+    public final static int BINARY_MAGIC = 0x5058504C;
+    public final static int BINARY_VERSION = 1;
+    public final static int BINARY_HEADER_SIZE = 16;
+
     public interface Callback {
         void onCreateFile(boolean isSuccess);
         void onException(Exception e);
@@ -45,9 +54,12 @@ public final class PaletteFactory {
     public @Nullable static Palette decodeFile (@NonNull File file) {
         if (file.exists() && file.canRead()) {
             try {
-                JSONObject jsonObject = JSONCodec.decodeFile(file);
-                return Palette.createPalette(JSONColor2IntArray(jsonObject.getString("colors")),
-                        jsonObject.getInt("index"));
+                byte[] bytes = FileUtils.readFileToByteArray(file);
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                if (isBinary(buffer)) {
+                    return decodeByteBuffer(buffer);
+                }
+                return decodeJSONObject(new JSONObject(new String(bytes, "UTF-8")));
             }
             catch (IOException | JSONException e) {
                 e.printStackTrace();
@@ -57,12 +69,47 @@ public final class PaletteFactory {
         return null;
     }
 
+    @Nullable
+    public static Palette decodeBytes (@NonNull byte[] bytes) {
+        return decodeByteBuffer(ByteBuffer.wrap(bytes));
+    }
+
+    // Reads from the buffer's position, the colors are copied with a single bulk get
+    @Nullable
+    public static Palette decodeByteBuffer (@NonNull ByteBuffer buffer) {
+        if (!isBinary(buffer)) {
+            return null;
+        }
+        ByteBuffer header = buffer.duplicate();
+        header.getInt();
+        int version = header.getShort() & 0xFFFF;
+        header.getShort();
+        int count = header.getInt();
+        int index = header.getInt();
+        if (version > BINARY_VERSION || count < 1 || count > header.remaining() / 4) {
+            return null;
+        }
+        int[] colors = new int[count];
+        header.asIntBuffer().get(colors);
+        return Palette.createPalette(colors, index);
+    }
+
+    // Accepts Base64 binary palettes as well as legacy JSON ones
     @Nullable
     public static Palette decodeString (@NonNull String string) {
+        if (string.startsWith("{")) {
+            try {
+                return decodeJSONObject(new JSONObject(string));
+            }
+            catch (JSONException e) {
+                e.printStackTrace();
+            }
+            return null;
+        }
         try {
-            return decodeJSONObject(new JSONObject(string));
+            return decodeBytes(Base64.decode(string, Base64.NO_WRAP));
         }
-        catch (JSONException e) {
+        catch (IllegalArgumentException e) {
             e.printStackTrace();
         }
         return null;
@@ -85,10 +132,10 @@ public final class PaletteFactory {
         if((!file.exists()) || (override && file.isFile())) {
             try {
                 callback.onCreateFile(file.createNewFile());
-                JSONCodec.encodeFile(palette2JSON(palette), file);
+                FileUtils.writeByteArrayToFile(file, encodeBytes(palette), false);
                 callback.onSuccess();
             }
-            catch (IOException | JSONException e) {
+            catch (IOException e) {
                 callback.onException(e);
             }
         }
@@ -132,11 +179,20 @@ public final class PaletteFactory {
 
     @Nullable
     public static String encodeString(@NonNull Palette palette) {
-        JSONObject jsonObject = encodeJSONObject(palette);
-        if (jsonObject == null) {
-            return null;
-        }
-        return jsonObject.toString();
+        return Base64.encodeToString(encodeBytes(palette), Base64.NO_WRAP);
+    }
+
+    @NonNull
+    public static byte[] encodeBytes(@NonNull Palette palette) {
+        int[] colors = palette.getColors();
+        ByteBuffer buffer = ByteBuffer.allocate(BINARY_HEADER_SIZE + colors.length * 4);
+        buffer.putInt(BINARY_MAGIC);
+        buffer.putShort((short) BINARY_VERSION);
+        buffer.putShort((short) 0);
+        buffer.putInt(colors.length);
+        buffer.putInt(palette.getIndex());
+        buffer.asIntBuffer().put(colors);
+        return buffer.array();
     }
 
     @Nullable
@@ -150,6 +206,10 @@ public final class PaletteFactory {
         return null;
     }
 
+    private static boolean isBinary (@NonNull ByteBuffer buffer) {
+        return buffer.remaining() >= BINARY_HEADER_SIZE && buffer.getInt(buffer.position()) == BINARY_MAGIC;
+    }
+
     private static @NonNull JSONObject palette2JSON (@NonNull Palette palette) throws JSONException {
         JSONObject jsonObject = new JSONObject();
         jsonObject.put("index", palette.getIndex());
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.palette;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Imports every supported palette file of a folder into the palettes folder,
+// converting each one to the app's own format. Existing names get a numeric suffix.
+public final class PaletteImporter {
+
+    public interface Callback {
+        @WorkerThread
+        void onProgress(int progress);
+        @WorkerThread
+        void onFinish(int importedCount, int failedCount);
+    }
+
+    private final File mDirectory;
+    private final File mDestDirectory;
+    private final String mDestExtension;
+    private final Callback mCallback;
+
+    private PaletteImporter(@NonNull File directory, @NonNull File destDirectory, @NonNull String destExtension,
+                            @NonNull Callback callback) {
+        mDirectory = directory;
+        mDestDirectory = destDirectory;
+        mDestExtension = destExtension;
+        mCallback = callback;
+    }
+
+    // Imports on a new thread, all callbacks are invoked on that thread
+    public static void importDirectoryAsync(@NonNull File directory, @NonNull File destDirectory,
+                                            @NonNull String destExtension, @NonNull Callback callback) {
+        final PaletteImporter importer = new PaletteImporter(directory, destDirectory, destExtension, callback);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                importer.run();
+            }
+        }).start();
+    }
+
+    @WorkerThread
+    private void run() {
+        List<File> files = new ArrayList<>();
+        if (mDirectory.isDirectory() && mDirectory.canRead()) {
+            // Extensions match in any case, palettes exported on Windows are often named *.GPL or *.ACT
+            File[] children = mDirectory.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File file) {
+                    return file.isFile() &&
+                            PaletteCodec.getFormatFlag(FilenameUtils.getExtension(file.getName())) >= 0;
+                }
+            });
+            if (children != null) {
+                files.addAll(Arrays.asList(children));
+            }
+        }
+        int importedCount = 0;
+        int failedCount = 0;
+        int lastProgress = 0;
+        for (int i = 0; i < files.size(); i ++) {
+            File file = files.get(i);
+            Palette palette = PaletteCodec.decodeFile(file);
+            if (palette != null && PaletteFactory.encodeFile(palette,
+                    getUniqueFile(FilenameUtils.getBaseName(file.getName())), false)) {
+                importedCount ++;
+            }
+            else {
+                failedCount ++;
+            }
+            int progress = (i + 1) * 100 / files.size();
+            if (progress != lastProgress) {
+                lastProgress = progress;
+                mCallback.onProgress(progress);
+            }
+        }
+        mCallback.onFinish(importedCount, failedCount);
+    }
+
+    @NonNull
+    private File getUniqueFile(@NonNull String baseName) {
+        File file = new File(mDestDirectory, baseName + "." + mDestExtension);
+        for (int suffix = 1; file.exists(); suffix ++) {
+            file = new File(mDestDirectory, baseName + "_" + suffix + "." + mDestExtension);
+        }
+        return file;
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.palette;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+
+import com.ansdoship.pixelarteditor.util.IntIntHashMap;
+
+import java.util.Arrays;
+
+// Color to color lookup table that replaces every color of one palette with the color
+// at the same index of another. Colors outside the source palette are kept.
+// Works on snapshots of both palettes.
+public final class PaletteSwap {
+
+    private final int[] mFromColors;
+    private final int[] mToColors;
+    private final IntIntHashMap mTable;
+
+    private PaletteSwap(@NonNull int[] fromColors, @NonNull int[] toColors) {
+        mFromColors = fromColors;
+        mToColors = toColors;
+        int size = Math.min(fromColors.length, toColors.length);
+        mTable = new IntIntHashMap(size);
+        // Iterate backwards so that duplicated colors map by their first index
+        for (int i = size - 1; i >= 0; i --) {
+            mTable.put(fromColors[i], toColors[i]);
+        }
+    }
+
+    public static @NonNull
+    PaletteSwap createPaletteSwap (@NonNull Palette from, @NonNull Palette to) {
+        return new PaletteSwap(from.getColors().clone(), to.getColors().clone());
+    }
+
+    // Whether this swap was created from palettes with the same colors
+    public boolean matches(@NonNull Palette from, @NonNull Palette to) {
+        return Arrays.equals(mFromColors, from.getColors()) && Arrays.equals(mToColors, to.getColors());
+    }
+
+    public int map(int color) {
+        return mTable.get(color, color);
+    }
+
+    public void remap(@NonNull int[] pixels, int offset, int length) {
+        int lastColor = 0;
+        int lastResult = map(0);
+        for (int i = offset; i < offset + length; i ++) {
+            int color = pixels[i];
+            if (color != lastColor) {
+                lastColor = color;
+                lastResult = map(color);
+            }
+            pixels[i] = lastResult;
+        }
+    }
+
+    // Remaps a region of the source into the same region of dst, which must be mutable and of the
+    // same size. Rows go through the buffer, which must hold the region width.
+    public void remap(@NonNull Bitmap src, @NonNull Bitmap dst, @NonNull Rect region, @NonNull int[] row) {
+        int width = region.width();
+        for (int y = region.top; y < region.bottom; y ++) {
+            src.getPixels(row, 0, width, region.left, y, width, 1);
+            remap(row, 0, width);
+            dst.setPixels(row, 0, width, region.left, y, width, 1);
+        }
+    }
+
+    // Remaps a copy of the source and reports the bounds of the pixels whose color changed, empty if none did
+    @NonNull
+    public Bitmap apply(@NonNull Bitmap src, @NonNull Rect outChanged) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        Bitmap dst = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        int[] row = new int[width];
+        outChanged.setEmpty();
+        for (int y = 0; y < height; y ++) {
+            src.getPixels(row, 0, width, 0, y, width, 1);
+            int lastColor = 0;
+            int lastResult = map(0);
+            int left = -1;
+            int right = -1;
+            for (int x = 0; x < width; x ++) {
+                int color = row[x];
+                if (color != lastColor) {
+                    lastColor = color;
+                    lastResult = map(color);
+                }
+                if (lastResult != color) {
+                    if (left < 0) {
+                        left = x;
+                    }
+                    right = x;
+                    row[x] = lastResult;
+                }
+            }
+            if (left >= 0) {
+                outChanged.union(left, y, right + 1, y + 1);
+            }
+            dst.setPixels(row, 0, width, 0, y, width, 1);
+        }
+        return dst;
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.palette;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Keeps remapped copies of the document for recently previewed swaps, so switching between
+// them does not remap again. Changed regions of the document are marked on every copy and
+// remapped when that copy is next drawn, one row at a time through a shared buffer.
+public final class PaletteSwapRenderer {
+
+    public final static int CACHE_SIZE_DEFAULT = 4;
+    public final static long CACHE_BYTES_MAX = 64L * 1024 * 1024;
+
+    private final static class Entry {
+
+        private final Bitmap mBitmap;
+        // Region of the document changed since this copy was last remapped
+        private final Rect mDirty;
+
+        private Entry(@NonNull Bitmap bitmap) {
+            mBitmap = bitmap;
+            mDirty = new Rect();
+        }
+
+    }
+
+    private final int mCacheSize;
+    private final LinkedHashMap<PaletteSwap, Entry> mCache;
+    private Bitmap mSource;
+    private int mSourceGenerationId;
+    // Whether a change was reported since the generation id was last seen
+    private boolean mInvalidated;
+    private int[] mRow;
+
+    public PaletteSwapRenderer(int cacheSize) {
+        mCacheSize = Math.max(1, cacheSize);
+        mCache = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public PaletteSwapRenderer() {
+        this(CACHE_SIZE_DEFAULT);
+    }
+
+    // Reports a changed region of the document, null when the whole document may have changed.
+    // A change that is not reported is caught by the generation id and remaps whole copies.
+    public void invalidate(@Nullable Rect dirty) {
+        if (mSource == null) {
+            return;
+        }
+        Rect region = new Rect(0, 0, mSource.getWidth(), mSource.getHeight());
+        if (dirty != null && !region.setIntersect(region, dirty)) {
+            return;
+        }
+        for (Entry entry : mCache.values()) {
+            entry.mDirty.union(region);
+        }
+        mInvalidated = true;
+    }
+
+    // Returns the remapped document, owned by this renderer
+    @NonNull
+    public Bitmap getBitmap(@NonNull Bitmap source, @NonNull PaletteSwap swap) {
+        if (source != mSource || mRow == null || mRow.length != source.getWidth()) {
+            release();
+            mSource = source;
+            mSourceGenerationId = source.getGenerationId();
+            mRow = new int[source.getWidth()];
+        }
+        else if (source.getGenerationId() != mSourceGenerationId) {
+            if (!mInvalidated) {
+                invalidate(null);
+            }
+            mSourceGenerationId = source.getGenerationId();
+        }
+        mInvalidated = false;
+        Entry entry = mCache.get(swap);
+        if (entry == null) {
+            Bitmap bitmap = Bitmap.createBitmap(source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888);
+            entry = new Entry(bitmap);
+            entry.mDirty.set(0, 0, source.getWidth(), source.getHeight());
+            mCache.put(swap, entry);
+            trim();
+        }
+        if (!entry.mDirty.isEmpty()) {
+            swap.remap(source, entry.mBitmap, entry.mDirty, mRow);
+            entry.mDirty.setEmpty();
+        }
+        return entry.mBitmap;
+    }
+
+    public void release() {
+        for (Entry entry : mCache.values()) {
+            entry.mBitmap.recycle();
+        }
+        mCache.clear();
+        mSource = null;
+        mInvalidated = false;
+        mRow = null;
+    }
+
+    // Evicts least recently used copies, always keeping the newest
+    private void trim() {
+        long byteCount = 0;
+        for (Entry entry : mCache.values()) {
+            byteCount += entry.mBitmap.getByteCount();
+        }
+        Iterator<Map.Entry<PaletteSwap, Entry>> iterator = mCache.entrySet().iterator();
+        while (mCache.size() > 1 && (mCache.size() > mCacheSize || byteCount > CACHE_BYTES_MAX)) {
+            Bitmap bitmap = iterator.next().getValue().mBitmap;
+            byteCount -= bitmap.getByteCount();
+            bitmap.recycle();
+            iterator.remove();
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.tile;
+
+import androidx.annotation.NonNull;
+
+// Immutable square block of ARGB pixels, shared between images through a TileStore.
+public final class Tile {
+
+    public final static int SHIFT = 5;
+    public final static int SIZE = 1 << SHIFT;
+    public final static int MASK = SIZE - 1;
+    public final static int LENGTH = SIZE * SIZE;
+
+    private final int[] mPixels;
+    private final int mHash;
+
+    // Guarded by the owning TileStore
+    int refCount;
+    Tile next;
+
+    Tile(@NonNull int[] pixels, int hash) {
+        mPixels = pixels;
+        mHash = hash;
+    }
+
+    public int getPixel(int x, int y) {
+        return mPixels[(y << SHIFT) | x];
+    }
+
+    // Shared backing array, must not be modified
+    @NonNull
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    public void getPixels(@NonNull int[] pixels, int offset, int stride, int width, int height) {
+        for (int y = 0; y < height; y ++) {
+            System.arraycopy(mPixels, y << SHIFT, pixels, offset + y * stride, width);
+        }
+    }
+
+    public int getHash() {
+        return mHash;
+    }
+
+    // Compares against a region padded with transparent pixels up to the tile size
+    boolean contentEquals(@NonNull int[] pixels, int offset, int stride, int width, int height) {
+        for (int y = 0; y < SIZE; y ++) {
+            int row = y << SHIFT;
+            if (y < height) {
+                int start = offset + y * stride;
+                for (int x = 0; x < width; x ++) {
+                    if (mPixels[row + x] != pixels[start + x]) {
+                        return false;
+                    }
+                }
+                for (int x = width; x < SIZE; x ++) {
+                    if (mPixels[row + x] != 0) {
+                        return false;
+                    }
+                }
+            }
+            else {
+                for (int x = 0; x < SIZE; x ++) {
+                    if (mPixels[row + x] != 0) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    static int hash(@NonNull int[] pixels, int offset, int stride, int width, int height) {
+        int hash = 1;
+        for (int y = 0; y < height; y ++) {
+            int start = offset + y * stride;
+            for (int x = 0; x < width; x ++) {
+                hash = (hash ^ pixels[start + x]) * 0x01000193;
+            }
+            // Transparent padding has to hash like stored zeros
+            for (int x = width; x < SIZE; x ++) {
+                hash *= 0x01000193;
+            }
+        }
+        for (int y = height; y < SIZE; y ++) {
+            for (int x = 0; x < SIZE; x ++) {
+                hash *= 0x01000193;
+            }
+        }
+        return hash;
+    }
+
+    static boolean isTransparent(@NonNull int[] pixels, int offset, int stride, int width, int height) {
+        for (int y = 0; y < height; y ++) {
+            int start = offset + y * stride;
+            for (int x = 0; x < width; x ++) {
+                if (pixels[start + x] != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.tile;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+
+// Content-addressed tile storage: identical tiles are stored once and reference counted.
+// Fully transparent tiles are never stored, images keep null for them instead.
+public final class TileStore {
+
+    private final HashMap<Integer, Tile> mBuckets;
+    private int mTileCount;
+
+    public TileStore() {
+        mBuckets = new HashMap<>();
+        mTileCount = 0;
+    }
+
+    // Returns a retained tile with the region's content, padded with transparent pixels
+    @Nullable
+    public synchronized Tile intern(@NonNull int[] pixels, int offset, int stride, int width, int height) {
+        if (Tile.isTransparent(pixels, offset, stride, width, height)) {
+            return null;
+        }
+        int hash = Tile.hash(pixels, offset, stride, width, height);
+        Tile head = mBuckets.get(hash);
+        for (Tile tile = head; tile != null; tile = tile.next) {
+            if (tile.contentEquals(pixels, offset, stride, width, height)) {
+                tile.refCount ++;
+                return tile;
+            }
+        }
+        int[] tilePixels = new int[Tile.LENGTH];
+        for (int y = 0; y < height; y ++) {
+            System.arraycopy(pixels, offset + y * stride, tilePixels, y << Tile.SHIFT, width);
+        }
+        Tile tile = new Tile(tilePixels, hash);
+        tile.refCount = 1;
+        tile.next = head;
+        mBuckets.put(hash, tile);
+        mTileCount ++;
+        return tile;
+    }
+
+    @Nullable
+    public Tile intern(@NonNull int[] tilePixels) {
+        return intern(tilePixels, 0, Tile.SIZE, Tile.SIZE, Tile.SIZE);
+    }
+
+    public synchronized void retain(@Nullable Tile tile) {
+        if (tile != null) {
+            tile.refCount ++;
+        }
+    }
+
+    public synchronized void release(@Nullable Tile tile) {
+        if (tile == null) {
+            return;
+        }
+        tile.refCount --;
+        if (tile.refCount > 0) {
+            return;
+        }
+        Tile head = mBuckets.get(tile.getHash());
+        if (head == tile) {
+            if (tile.next == null) {
+                mBuckets.remove(tile.getHash());
+            }
+            else {
+                mBuckets.put(tile.getHash(), tile.next);
+            }
+        }
+        else {
+            for (Tile previous = head; previous != null; previous = previous.next) {
+                if (previous.next == tile) {
+                    previous.next = tile.next;
+                    break;
+                }
+            }
+        }
+        tile.next = null;
+        mTileCount --;
+    }
+
+    public synchronized int size() {
+        return mTileCount;
+    }
+
+    public synchronized long getByteCount() {
+        return (long) mTileCount * Tile.LENGTH * 4;
+    }
+
+}
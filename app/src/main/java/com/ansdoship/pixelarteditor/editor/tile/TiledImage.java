@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.editor.tile;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+// Image made of shared tiles from a TileStore, null tiles are transparent.
+// Memory scales with the painted area: fully transparent tiles are never allocated.
+public final class TiledImage {
+
+    private final TileStore mTileStore;
+    private int mWidth;
+    private int mHeight;
+    private int mColumns;
+    private int mRows;
+    private Tile[] mTiles;
+    private int mVersion;
+
+    private TiledImage(@NonNull TileStore tileStore, int width, int height) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Width and height must be > 0");
+        }
+        mTileStore = tileStore;
+        mWidth = width;
+        mHeight = height;
+        mColumns = columnsOf(width);
+        mRows = rowsOf(height);
+        mTiles = new Tile[mColumns * mRows];
+        mVersion = 0;
+    }
+
+    public static @NonNull
+    TiledImage createTiledImage (@NonNull TileStore tileStore, int width, int height) {
+        return new TiledImage(tileStore, width, height);
+    }
+
+    public static @NonNull
+    TiledImage createTiledImage (@NonNull TileStore tileStore, @NonNull Bitmap bitmap) {
+        TiledImage image = new TiledImage(tileStore, bitmap.getWidth(), bitmap.getHeight());
+        image.update(bitmap);
+        return image;
+    }
+
+    // Shares every tile with the source, no pixels are copied
+    @NonNull
+    public TiledImage copy () {
+        TiledImage image = new TiledImage(mTileStore, mWidth, mHeight);
+        for (int i = 0; i < mTiles.length; i ++) {
+            mTileStore.retain(mTiles[i]);
+            image.mTiles[i] = mTiles[i];
+        }
+        return image;
+    }
+
+    // Re-interns only the tiles whose content differs from the bitmap
+    public boolean update (@NonNull Bitmap bitmap) {
+        return update(bitmap, new Rect(0, 0, mWidth, mHeight));
+    }
+
+    // Same as update(Bitmap), but only compares the tiles covering the region
+    public boolean update (@NonNull Bitmap bitmap, @NonNull Rect region) {
+        if (bitmap.getWidth() != mWidth || bitmap.getHeight() != mHeight) {
+            throw new IllegalArgumentException("Bitmap size does not match the image size");
+        }
+        int left = Math.max(0, region.left);
+        int top = Math.max(0, region.top);
+        int right = Math.min(mWidth, region.right);
+        int bottom = Math.min(mHeight, region.bottom);
+        if (left >= right || top >= bottom) {
+            return false;
+        }
+        int firstColumn = left >> Tile.SHIFT;
+        int lastColumn = (right - 1) >> Tile.SHIFT;
+        int bandX = firstColumn << Tile.SHIFT;
+        int bandWidth = Math.min(mWidth, (lastColumn + 1) << Tile.SHIFT) - bandX;
+        int[] band = new int[bandWidth * Tile.SIZE];
+        boolean changed = false;
+        for (int row = top >> Tile.SHIFT; row <= (bottom - 1) >> Tile.SHIFT; row ++) {
+            int y = row << Tile.SHIFT;
+            int height = Math.min(Tile.SIZE, mHeight - y);
+            bitmap.getPixels(band, 0, bandWidth, bandX, y, bandWidth, height);
+            for (int column = firstColumn; column <= lastColumn; column ++) {
+                int x = column << Tile.SHIFT;
+                int width = Math.min(Tile.SIZE, mWidth - x);
+                if (setTile(column, row, band, x - bandX, bandWidth, width, height)) {
+                    changed = true;
+                }
+            }
+        }
+        if (changed) {
+            mVersion ++;
+        }
+        return changed;
+    }
+
+    @NonNull
+    public Bitmap toBitmap () {
+        Bitmap bitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+        drawInto(bitmap);
+        return bitmap;
+    }
+
+    public void drawInto (@NonNull Bitmap bitmap) {
+        int[] band = new int[mWidth * Tile.SIZE];
+        for (int row = 0; row < mRows; row ++) {
+            int y = row << Tile.SHIFT;
+            int height = Math.min(Tile.SIZE, mHeight - y);
+            getPixels(band, 0, mWidth, 0, y, mWidth, height);
+            bitmap.setPixels(band, 0, mWidth, 0, y, mWidth, height);
+        }
+    }
+
+    public void getPixels (@NonNull int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+        for (int j = 0; j < height; j ++) {
+            int py = y + j;
+            int tileY = py & Tile.MASK;
+            int rowStart = (py >> Tile.SHIFT) * mColumns;
+            int start = offset + j * stride;
+            int i = 0;
+            while (i < width) {
+                int px = x + i;
+                int tileX = px & Tile.MASK;
+                int count = Math.min(Tile.SIZE - tileX, width - i);
+                Tile tile = mTiles[rowStart + (px >> Tile.SHIFT)];
+                if (tile == null) {
+                    for (int k = 0; k < count; k ++) {
+                        pixels[start + i + k] = 0;
+                    }
+                }
+                else {
+                    System.arraycopy(tile.getPixels(), (tileY << Tile.SHIFT) | tileX,
+                            pixels, start + i, count);
+                }
+                i += count;
+            }
+        }
+    }
+
+    public int getPixel (int x, int y) {
+        Tile tile = mTiles[(y >> Tile.SHIFT) * mColumns + (x >> Tile.SHIFT)];
+        return tile == null ? 0 : tile.getPixel(x & Tile.MASK, y & Tile.MASK);
+    }
+
+    // Crops or extends with transparency, keeping the top left corner in place
+    public void resize (int width, int height) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Width and height must be > 0");
+        }
+        if (width == mWidth && height == mHeight) {
+            return;
+        }
+        int columns = columnsOf(width);
+        int rows = rowsOf(height);
+        Tile[] tiles = new Tile[columns * rows];
+        int[] pixels = new int[Tile.LENGTH];
+        for (int row = 0; row < mRows; row ++) {
+            for (int column = 0; column < mColumns; column ++) {
+                Tile tile = mTiles[row * mColumns + column];
+                if (tile == null) {
+                    continue;
+                }
+                if (column >= columns || row >= rows) {
+                    mTileStore.release(tile);
+                    continue;
+                }
+                int tileWidth = Math.min(Tile.SIZE, width - (column << Tile.SHIFT));
+                int tileHeight = Math.min(Tile.SIZE, height - (row << Tile.SHIFT));
+                if (tileWidth == Tile.SIZE && tileHeight == Tile.SIZE) {
+                    tiles[row * columns + column] = tile;
+                }
+                else {
+                    tile.getPixels(pixels, 0, Tile.SIZE, tileWidth, tileHeight);
+                    tiles[row * columns + column] =
+                            mTileStore.intern(pixels, 0, Tile.SIZE, tileWidth, tileHeight);
+                    mTileStore.release(tile);
+                }
+            }
+        }
+        mWidth = width;
+        mHeight = height;
+        mColumns = columns;
+        mRows = rows;
+        mTiles = tiles;
+        mVersion ++;
+    }
+
+    public void release () {
+        for (int i = 0; i < mTiles.length; i ++) {
+            mTileStore.release(mTiles[i]);
+            mTiles[i] = null;
+        }
+        mVersion ++;
+    }
+
+    @Nullable
+    public Tile getTile (int column, int row) {
+        return mTiles[row * mColumns + column];
+    }
+
+    // Shares a tile from the same TileStore, the image takes its own reference
+    public void setTile (int column, int row, @Nullable Tile tile) {
+        int index = row * mColumns + column;
+        Tile old = mTiles[index];
+        if (old == tile) {
+            return;
+        }
+        mTileStore.retain(tile);
+        mTiles[index] = tile;
+        mTileStore.release(old);
+        mVersion ++;
+    }
+
+    public int getWidth () {
+        return mWidth;
+    }
+
+    public int getHeight () {
+        return mHeight;
+    }
+
+    public int getColumns () {
+        return mColumns;
+    }
+
+    public int getRows () {
+        return mRows;
+    }
+
+    public int getAllocatedTileCount () {
+        int count = 0;
+        for (Tile tile : mTiles) {
+            if (tile != null) {
+                count ++;
+            }
+        }
+        return count;
+    }
+
+    // Increases whenever any pixel may have changed
+    public int getVersion () {
+        return mVersion;
+    }
+
+    @NonNull
+    public TileStore getTileStore () {
+        return mTileStore;
+    }
+
+    private boolean setTile (int column, int row, @NonNull int[] pixels, int offset, int stride,
+                             int width, int height) {
+        int index = row * mColumns + column;
+        Tile tile = mTiles[index];
+        if (tile == null) {
+            if (Tile.isTransparent(pixels, offset, stride, width, height)) {
+                return false;
+            }
+        }
+        else if (tile.contentEquals(pixels, offset, stride, width, height)) {
+            return false;
+        }
+        mTiles[index] = mTileStore.intern(pixels, offset, stride, width, height);
+        mTileStore.release(tile);
+        return true;
+    }
+
+    private static int columnsOf (int width) {
+        return (width + Tile.MASK) >> Tile.SHIFT;
+    }
+
+    private static int rowsOf (int height) {
+        return (height + Tile.MASK) >> Tile.SHIFT;
+    }
+
+}
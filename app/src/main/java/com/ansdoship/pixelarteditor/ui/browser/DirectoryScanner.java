@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.ui.browser;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Lists directories on a background thread and streams the entries to the main thread in batches,
+// classifying an entry costs a stat call which dominates on large folders. Complete listings are
+// cached per directory and delivered at once when the directory is opened again, a FileObserver
+// watching each cached directory drops its listing as soon as an entry is added, removed or renamed.
+// The cache holds every file, the extension filter is applied on delivery.
+public final class DirectoryScanner {
+
+    public final static int BATCH_SIZE = 64;
+    public final static int CACHE_SIZE = 32;
+
+    private final static int OBSERVER_MASK = FileObserver.CREATE | FileObserver.DELETE |
+            FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    public interface Callback {
+        @UiThread
+        void onEntries(@NonNull List<String> dirs, @NonNull List<String> files);
+        @UiThread
+        void onFinish();
+    }
+
+    public final static class Request {
+
+        private volatile boolean mCancelled;
+
+        private Request() {}
+
+        // No callback follows, a running scan stops at the next batch
+        @UiThread
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+    }
+
+    private final static class Listing {
+        final List<String> dirs = new ArrayList<>();
+        final List<String> files = new ArrayList<>();
+        FileObserver observer;
+        boolean complete;
+    }
+
+    private final LinkedHashMap<String, Listing> mCache;
+    private final ExecutorService mExecutor;
+    private final Handler mHandler;
+
+    private DirectoryScanner() {
+        mCache = new LinkedHashMap<String, Listing>(CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Listing> eldest) {
+                if (size() > CACHE_SIZE) {
+                    eldest.getValue().observer.stopWatching();
+                    return true;
+                }
+                return false;
+            }
+        };
+        mExecutor = Executors.newSingleThreadExecutor();
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public static @NonNull
+    DirectoryScanner createDirectoryScanner () {
+        return new DirectoryScanner();
+    }
+
+    // A cached directory is delivered before this returns, otherwise batches follow on the main thread.
+    // Only files with one of the extensions are delivered, all of them if null.
+    @UiThread
+    @NonNull
+    public Request scan (@NonNull final String path, @Nullable final String[] extensions,
+                         @NonNull final Callback callback) {
+        final Request request = new Request();
+        Listing cached = mCache.get(path);
+        if (cached != null && cached.complete) {
+            callback.onEntries(new ArrayList<>(cached.dirs), filter(cached.files, extensions));
+            callback.onFinish();
+            return request;
+        }
+        final Listing listing = new Listing();
+        // Watching starts before the scan so that no change slips in between
+        listing.observer = new FileObserver(path, OBSERVER_MASK) {
+            @Override
+            public void onEvent(int event, @Nullable String name) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        invalidate(path, listing);
+                    }
+                });
+            }
+        };
+        listing.observer.startWatching();
+        Listing replaced = mCache.put(path, listing);
+        if (replaced != null) {
+            replaced.observer.stopWatching();
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File directory = new File(path);
+                String[] names = directory.list();
+                if (names == null) {
+                    names = new String[0];
+                }
+                for (int start = 0; start < names.length; start += BATCH_SIZE) {
+                    if (request.mCancelled) {
+                        return;
+                    }
+                    final List<String> dirs = new ArrayList<>();
+                    final List<String> files = new ArrayList<>();
+                    for (int i = start; i < Math.min(names.length, start + BATCH_SIZE); i ++) {
+                        File file = new File(directory, names[i]);
+                        if (file.isDirectory()) {
+                            dirs.add(names[i]);
+                        }
+                        else if (file.isFile()) {
+                            files.add(names[i]);
+                        }
+                    }
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listing.dirs.addAll(dirs);
+                            listing.files.addAll(files);
+                            if (!request.mCancelled) {
+                                callback.onEntries(dirs, filter(files, extensions));
+                            }
+                        }
+                    });
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listing.complete = true;
+                        if (!request.mCancelled) {
+                            callback.onFinish();
+                        }
+                    }
+                });
+            }
+        });
+        return request;
+    }
+
+    // Drops the cached listing of the directory, the next scan reads it again
+    @UiThread
+    public void invalidate (@NonNull String path) {
+        Listing listing = mCache.remove(path);
+        if (listing != null) {
+            listing.observer.stopWatching();
+        }
+    }
+
+    @UiThread
+    public void release () {
+        mExecutor.shutdownNow();
+        mHandler.removeCallbacksAndMessages(null);
+        for (Listing listing : mCache.values()) {
+            listing.observer.stopWatching();
+        }
+        mCache.clear();
+    }
+
+    private void invalidate (@NonNull String path, @NonNull Listing listing) {
+        if (mCache.get(path) == listing) {
+            invalidate(path);
+        }
+    }
+
+    @NonNull
+    private static List<String> filter (@NonNull List<String> names, @Nullable String[] extensions) {
+        if (extensions == null) {
+            return new ArrayList<>(names);
+        }
+        List<String> result = new ArrayList<>();
+        for (String name : names) {
+            if (FilenameUtils.isExtension(name, extensions)) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+}
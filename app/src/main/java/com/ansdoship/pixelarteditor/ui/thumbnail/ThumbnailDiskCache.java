@@ -0,0 +1,495 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.ui.thumbnail;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Thumbnails persisted in one append-only pack file: an 8 byte big-endian header (magic "PXTC", version,
+// reserved) followed by entries, each holding the source path, its length and modification time, the
+// thumbnail size it was decoded for and the deflated ARGB pixels. The index lives in memory and is
+// rebuilt by walking the entry headers on first use, a torn entry at the end is cut off.
+// A newer entry for the same path supersedes the older one. Once the pack outgrows its cap or holds
+// more garbage than live data it is rewritten in the background without stale entries, the oldest
+// live ones are dropped until it fits half the cap when the cap was the trigger.
+public final class ThumbnailDiskCache {
+
+    public final static int MAGIC = 0x50585443;
+    public final static int VERSION = 1;
+    public final static int HEADER_SIZE = 8;
+    public final static int ENTRY_MAGIC = 0x54484D42;
+
+    public final static long MAX_SIZE_DEFAULT = 8L << 20;
+    // Garbage below this is not worth a rewrite
+    private final static long GARBAGE_MIN = 256L << 10;
+    // Thumbnails larger than this on any edge are not stored
+    private final static int DIMENSION_MAX = 0xFFFF;
+
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final static class Entry {
+        long offset;
+        int entryLength;
+        long fileLength;
+        long lastModified;
+        int size;
+        int width;
+        int height;
+        int dataOffset;
+        int dataLength;
+    }
+
+    private final File mFile;
+    private final long mMaxSize;
+    private final HashMap<String, Entry> mEntries;
+    private final ExecutorService mExecutor;
+    private RandomAccessFile mPack;
+    private long mLength;
+    private long mLiveLength;
+    private boolean mLoaded;
+    private boolean mCompactionPending;
+    private volatile boolean mClosed;
+
+    private ThumbnailDiskCache(@NonNull File file, long maxSize) {
+        mFile = file;
+        mMaxSize = maxSize;
+        mEntries = new HashMap<>();
+        mExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    // Nothing is read until the first lookup, which may then walk the pack
+    public static @NonNull
+    ThumbnailDiskCache createThumbnailDiskCache (@NonNull File file) {
+        return new ThumbnailDiskCache(file, MAX_SIZE_DEFAULT);
+    }
+
+    public static @NonNull
+    ThumbnailDiskCache createThumbnailDiskCache (@NonNull File file, long maxSize) {
+        if (maxSize < HEADER_SIZE) {
+            throw new IllegalArgumentException("Max size cannot be < " + HEADER_SIZE);
+        }
+        return new ThumbnailDiskCache(file, maxSize);
+    }
+
+    // Null unless the stored entry matches the file's current length and modification time
+    @WorkerThread
+    @Nullable
+    public Bitmap get (@NonNull File file, int size) {
+        byte[] data;
+        Entry entry;
+        synchronized (this) {
+            if (!ensureLoaded()) {
+                return null;
+            }
+            entry = mEntries.get(file.getAbsolutePath());
+            if (entry == null || entry.size != size ||
+                    entry.fileLength != file.length() || entry.lastModified != file.lastModified()) {
+                return null;
+            }
+            data = new byte[entry.dataLength];
+            try {
+                mPack.seek(entry.offset + entry.dataOffset);
+                mPack.readFully(data);
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        int[] pixels = new int[entry.width * entry.height];
+        byte[] bytes = new byte[pixels.length * 4];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            if (inflater.inflate(bytes) != bytes.length) {
+                return null;
+            }
+        }
+        catch (DataFormatException e) {
+            e.printStackTrace();
+            return null;
+        }
+        finally {
+            inflater.end();
+        }
+        ByteBuffer.wrap(bytes).asIntBuffer().get(pixels);
+        return Bitmap.createBitmap(pixels, entry.width, entry.height, Bitmap.Config.ARGB_8888);
+    }
+
+    // Appends the thumbnail of the file as it is now
+    @WorkerThread
+    public void put (@NonNull File file, int size, @NonNull Bitmap thumbnail) {
+        int width = thumbnail.getWidth();
+        int height = thumbnail.getHeight();
+        if (width > DIMENSION_MAX || height > DIMENSION_MAX) {
+            return;
+        }
+        String path = file.getAbsolutePath();
+        long fileLength = file.length();
+        long lastModified = file.lastModified();
+        int[] pixels = new int[width * height];
+        thumbnail.getPixels(pixels, 0, width, 0, 0, width, height);
+        ByteBuffer pixelBytes = ByteBuffer.allocate(pixels.length * 4);
+        pixelBytes.asIntBuffer().put(pixels);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(pixelBytes.array());
+        deflater.finish();
+        byte[] buffer = new byte[pixelBytes.capacity() + 64];
+        int dataLength = 0;
+        while (!deflater.finished()) {
+            if (dataLength == buffer.length) {
+                byte[] grown = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, grown, 0, dataLength);
+                buffer = grown;
+            }
+            dataLength += deflater.deflate(buffer, dataLength, buffer.length - dataLength);
+        }
+        deflater.end();
+        byte[] pathBytes = path.getBytes(UTF_8);
+        int dataOffset = 4 + 2 + pathBytes.length + 8 + 8 + 2 + 2 + 2 + 4;
+        ByteBuffer record = ByteBuffer.allocate(dataOffset + dataLength);
+        record.putInt(ENTRY_MAGIC);
+        record.putShort((short) pathBytes.length);
+        record.put(pathBytes);
+        record.putLong(fileLength);
+        record.putLong(lastModified);
+        record.putShort((short) size);
+        record.putShort((short) width);
+        record.putShort((short) height);
+        record.putInt(dataLength);
+        record.put(buffer, 0, dataLength);
+        synchronized (this) {
+            if (!ensureLoaded()) {
+                return;
+            }
+            Entry entry = new Entry();
+            entry.offset = mLength;
+            entry.entryLength = record.capacity();
+            entry.fileLength = fileLength;
+            entry.lastModified = lastModified;
+            entry.size = size;
+            entry.width = width;
+            entry.height = height;
+            entry.dataOffset = dataOffset;
+            entry.dataLength = dataLength;
+            try {
+                mPack.seek(mLength);
+                mPack.write(record.array());
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            mLength += entry.entryLength;
+            addEntry(path, entry);
+            scheduleCompactionIfNeeded();
+        }
+    }
+
+    public synchronized long getLength () {
+        return mLength;
+    }
+
+    public synchronized int getEntryCount () {
+        return mEntries.size();
+    }
+
+    // Returns at once, the pack is closed after a running compaction. Later calls find the cache empty.
+    public void close () {
+        mClosed = true;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ThumbnailDiskCache.this) {
+                    IOUtils.closeQuietly(mPack);
+                    mPack = null;
+                    mEntries.clear();
+                }
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    private boolean ensureLoaded () {
+        if (mClosed) {
+            return false;
+        }
+        if (mLoaded) {
+            return mPack != null;
+        }
+        mLoaded = true;
+        try {
+            File parent = mFile.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                return false;
+            }
+            mPack = new RandomAccessFile(mFile, "rw");
+            if (!readIndex()) {
+                // Not a pack or an unknown version, start over
+                mEntries.clear();
+                mLiveLength = 0;
+                mPack.setLength(0);
+                writeHeader(mPack);
+                mLength = HEADER_SIZE;
+            }
+            scheduleCompactionIfNeeded();
+            return true;
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            IOUtils.closeQuietly(mPack);
+            mPack = null;
+            return false;
+        }
+    }
+
+    private boolean readIndex () throws IOException {
+        long fileLength = mPack.length();
+        if (fileLength < HEADER_SIZE) {
+            return false;
+        }
+        mPack.seek(0);
+        if (mPack.readInt() != MAGIC || (mPack.readShort() & 0xFFFF) > VERSION) {
+            return false;
+        }
+        mPack.readShort();
+        long offset = HEADER_SIZE;
+        while (offset < fileLength) {
+            Entry entry = readEntryHeader(offset, fileLength);
+            if (entry == null) {
+                break;
+            }
+            mPack.seek(offset + 4);
+            byte[] pathBytes = new byte[mPack.readShort() & 0xFFFF];
+            mPack.readFully(pathBytes);
+            addEntry(new String(pathBytes, UTF_8), entry);
+            offset += entry.entryLength;
+        }
+        if (offset < fileLength) {
+            mPack.setLength(offset);
+        }
+        mLength = offset;
+        return true;
+    }
+
+    // Null for a torn or corrupt entry
+    @Nullable
+    private Entry readEntryHeader (long offset, long fileLength) throws IOException {
+        if (fileLength - offset < 6) {
+            return null;
+        }
+        mPack.seek(offset);
+        if (mPack.readInt() != ENTRY_MAGIC) {
+            return null;
+        }
+        int pathLength = mPack.readShort() & 0xFFFF;
+        int dataOffset = 4 + 2 + pathLength + 8 + 8 + 2 + 2 + 2 + 4;
+        if (fileLength - offset < dataOffset) {
+            return null;
+        }
+        mPack.skipBytes(pathLength);
+        Entry entry = new Entry();
+        entry.offset = offset;
+        entry.fileLength = mPack.readLong();
+        entry.lastModified = mPack.readLong();
+        entry.size = mPack.readShort() & 0xFFFF;
+        entry.width = mPack.readShort() & 0xFFFF;
+        entry.height = mPack.readShort() & 0xFFFF;
+        entry.dataLength = mPack.readInt();
+        entry.dataOffset = dataOffset;
+        if (entry.dataLength < 0 || fileLength - offset - dataOffset < entry.dataLength) {
+            return null;
+        }
+        entry.entryLength = dataOffset + entry.dataLength;
+        return entry;
+    }
+
+    private void addEntry (@NonNull String path, @NonNull Entry entry) {
+        Entry replaced = mEntries.put(path, entry);
+        if (replaced != null) {
+            mLiveLength -= replaced.entryLength;
+        }
+        mLiveLength += entry.entryLength;
+    }
+
+    private void scheduleCompactionIfNeeded () {
+        long garbage = mLength - HEADER_SIZE - mLiveLength;
+        if (mCompactionPending || mClosed ||
+                (mLength <= mMaxSize && (garbage < GARBAGE_MIN || garbage <= mLiveLength))) {
+            return;
+        }
+        mCompactionPending = true;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        });
+    }
+
+    @WorkerThread
+    private void compact () {
+        List<String> paths;
+        synchronized (this) {
+            mCompactionPending = false;
+            if (mClosed || mPack == null) {
+                return;
+            }
+            paths = new ArrayList<>(mEntries.keySet());
+        }
+        // Source files are checked outside the lock, stat calls can be slow on external storage
+        List<String> stalePaths = new ArrayList<>();
+        List<Entry> staleEntries = new ArrayList<>();
+        for (String path : paths) {
+            File file = new File(path);
+            Entry entry;
+            synchronized (this) {
+                entry = mEntries.get(path);
+            }
+            if (entry != null && (entry.fileLength != file.length() || entry.lastModified != file.lastModified())) {
+                stalePaths.add(path);
+                staleEntries.add(entry);
+            }
+        }
+        synchronized (this) {
+            if (mClosed || mPack == null) {
+                return;
+            }
+            for (int i = 0; i < stalePaths.size(); i ++) {
+                // Unless a fresh thumbnail was put meanwhile
+                if (mEntries.get(stalePaths.get(i)) == staleEntries.get(i)) {
+                    mEntries.remove(stalePaths.get(i));
+                    mLiveLength -= staleEntries.get(i).entryLength;
+                }
+            }
+            List<Map.Entry<String, Entry>> live = new ArrayList<>(mEntries.entrySet());
+            // Newest first, the oldest ones are dropped to fit
+            Collections.sort(live, new Comparator<Map.Entry<String, Entry>>() {
+                @Override
+                public int compare(Map.Entry<String, Entry> o1, Map.Entry<String, Entry> o2) {
+                    return Long.compare(o2.getValue().offset, o1.getValue().offset);
+                }
+            });
+            long budget = mLength > mMaxSize ? mMaxSize / 2 : mMaxSize;
+            long length = HEADER_SIZE;
+            File temp = new File(mFile.getPath() + ".tmp");
+            RandomAccessFile output = null;
+            HashMap<String, Entry> entries = new HashMap<>();
+            try {
+                output = new RandomAccessFile(temp, "rw");
+                output.setLength(0);
+                writeHeader(output);
+                int keptCount = 0;
+                long keptLength = HEADER_SIZE;
+                while (keptCount < live.size() && keptLength + live.get(keptCount).getValue().entryLength <= budget) {
+                    keptLength += live.get(keptCount).getValue().entryLength;
+                    keptCount ++;
+                }
+                // Written oldest first so that offsets keep the age order
+                byte[] record = new byte[0];
+                for (int i = keptCount - 1; i >= 0; i --) {
+                    Map.Entry<String, Entry> liveEntry = live.get(i);
+                    Entry entry = liveEntry.getValue();
+                    if (record.length < entry.entryLength) {
+                        record = new byte[entry.entryLength];
+                    }
+                    mPack.seek(entry.offset);
+                    mPack.readFully(record, 0, entry.entryLength);
+                    output.write(record, 0, entry.entryLength);
+                    Entry moved = new Entry();
+                    moved.offset = length;
+                    moved.entryLength = entry.entryLength;
+                    moved.fileLength = entry.fileLength;
+                    moved.lastModified = entry.lastModified;
+                    moved.size = entry.size;
+                    moved.width = entry.width;
+                    moved.height = entry.height;
+                    moved.dataOffset = entry.dataOffset;
+                    moved.dataLength = entry.dataLength;
+                    entries.put(liveEntry.getKey(), moved);
+                    length += entry.entryLength;
+                }
+                output.close();
+                output = null;
+                mPack.close();
+                mPack = null;
+                if (!temp.renameTo(mFile)) {
+                    throw new IOException("Could not replace " + mFile);
+                }
+                mPack = new RandomAccessFile(mFile, "rw");
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                IOUtils.closeQuietly(output);
+                temp.delete();
+                if (mPack == null) {
+                    // The old pack is gone or unreadable, start over
+                    try {
+                        mPack = new RandomAccessFile(mFile, "rw");
+                        mPack.setLength(0);
+                        writeHeader(mPack);
+                        mEntries.clear();
+                        mLength = HEADER_SIZE;
+                        mLiveLength = 0;
+                    }
+                    catch (IOException e1) {
+                        e1.printStackTrace();
+                        IOUtils.closeQuietly(mPack);
+                        mPack = null;
+                    }
+                }
+                return;
+            }
+            mEntries.clear();
+            mEntries.putAll(entries);
+            mLength = length;
+            mLiveLength = length - HEADER_SIZE;
+        }
+    }
+
+    private static void writeHeader (@NonNull RandomAccessFile file) throws IOException {
+        file.seek(0);
+        file.writeInt(MAGIC);
+        file.writeShort(VERSION);
+        file.writeShort(0);
+    }
+
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.ui.thumbnail;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+import androidx.annotation.WorkerThread;
+
+import com.ansdoship.pixelarteditor.editor.animation.FrameTimeline;
+import com.ansdoship.pixelarteditor.editor.document.ProjectFile;
+import com.ansdoship.pixelarteditor.editor.tile.TileStore;
+import com.ansdoship.pixelarteditor.editor.tile.TiledImage;
+
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Decodes file thumbnails on worker threads and keeps them in a memory LRU sized in bytes.
+// Images are probed for their bounds first and subsampled so that no edge is decoded much larger
+// than the thumbnail size, projects show their current frame. The newest request is decoded first,
+// so while scrolling the rows on screen win over the ones already scrolled past, which are
+// cancelled when their holders are recycled. The memory cache is keyed by path and remembers the
+// modification time, which workers check before a cached thumbnail is reused.
+// An optional disk cache is checked before decoding and receives every decoded thumbnail.
+public final class ThumbnailLoader {
+
+    public final static int THREAD_COUNT = 2;
+    // Fraction of the heap the memory cache may use
+    public final static int CACHE_SIZE_DIVISOR = 16;
+
+    public interface Callback {
+        @UiThread
+        void onThumbnailLoaded(@NonNull String pathname, @NonNull Bitmap thumbnail);
+    }
+
+    public final static class Request {
+
+        private volatile boolean mCancelled;
+        private Future<?> mFuture;
+
+        private Request() {}
+
+        // No callback follows, a decode in progress is interrupted
+        @UiThread
+        public void cancel() {
+            mCancelled = true;
+            if (mFuture != null) {
+                mFuture.cancel(true);
+            }
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+    }
+
+    private final static class Entry {
+
+        private final Bitmap mBitmap;
+        private final long mLastModified;
+
+        private Entry(@NonNull Bitmap bitmap, long lastModified) {
+            mBitmap = bitmap;
+            mLastModified = lastModified;
+        }
+
+    }
+
+    private final int mSize;
+    private final LruCache<String, Entry> mCache;
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mHandler;
+    private final ThumbnailDiskCache mDiskCache;
+
+    private ThumbnailLoader(int size, @Nullable ThumbnailDiskCache diskCache) {
+        mSize = size;
+        mDiskCache = diskCache;
+        mCache = new LruCache<String, Entry>((int) Math.min(Integer.MAX_VALUE,
+                Runtime.getRuntime().maxMemory() / CACHE_SIZE_DIVISOR)) {
+            @Override
+            protected int sizeOf(String key, Entry value) {
+                return value.mBitmap.getRowBytes() * value.mBitmap.getHeight();
+            }
+        };
+        // Last in, first out
+        mExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingDeque<Runnable>() {
+                    @Override
+                    public boolean offer(Runnable runnable) {
+                        return offerFirst(runnable);
+                    }
+                });
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    // Thumbnails are decoded to at most the size on each edge
+    public static @NonNull
+    ThumbnailLoader createThumbnailLoader (int size) {
+        return createThumbnailLoader(size, null);
+    }
+
+    // The loader closes the disk cache on release
+    public static @NonNull
+    ThumbnailLoader createThumbnailLoader (int size, @Nullable ThumbnailDiskCache diskCache) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Thumbnail size cannot be < 1");
+        }
+        return new ThumbnailLoader(size, diskCache);
+    }
+
+    public int getSize () {
+        return mSize;
+    }
+
+    // May be outdated, load() delivers the current thumbnail
+    @UiThread
+    @Nullable
+    public Bitmap getCached (@NonNull String pathname) {
+        Entry entry = mCache.get(pathname);
+        return entry == null ? null : entry.mBitmap;
+    }
+
+    // The callback runs on the main thread unless the request is cancelled first. Files that fail to decode
+    // get no callback. A cached thumbnail that is still current is delivered without decoding.
+    @UiThread
+    @NonNull
+    public Request load (@NonNull final String pathname, @NonNull final Callback callback) {
+        final Request request = new Request();
+        request.mFuture = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (request.mCancelled) {
+                    return;
+                }
+                File file = new File(pathname);
+                final long lastModified = file.lastModified();
+                final Entry cached = mCache.get(pathname);
+                if (cached != null && cached.mLastModified == lastModified) {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!request.mCancelled) {
+                                callback.onThumbnailLoaded(pathname, cached.mBitmap);
+                            }
+                        }
+                    });
+                    return;
+                }
+                Bitmap loaded = mDiskCache == null ? null : mDiskCache.get(file, mSize);
+                if (loaded == null) {
+                    loaded = decodeThumbnail(file, mSize);
+                    if (loaded == null) {
+                        return;
+                    }
+                    if (mDiskCache != null) {
+                        mDiskCache.put(file, mSize, loaded);
+                    }
+                }
+                final Bitmap thumbnail = loaded;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCache.put(pathname, new Entry(thumbnail, lastModified));
+                        if (!request.mCancelled) {
+                            callback.onThumbnailLoaded(pathname, thumbnail);
+                        }
+                    }
+                });
+            }
+        });
+        return request;
+    }
+
+    // Pending requests are dropped, cached thumbnails stay with their views
+    @UiThread
+    public void release () {
+        mExecutor.shutdownNow();
+        mHandler.removeCallbacksAndMessages(null);
+        mCache.evictAll();
+        if (mDiskCache != null) {
+            mDiskCache.close();
+        }
+    }
+
+    @WorkerThread
+    @Nullable
+    public static Bitmap decodeThumbnail (@NonNull File file, int size) {
+        if (FilenameUtils.isExtension(file.getName(), ProjectFile.EXTENSION)) {
+            return decodeProjectThumbnail(file, size);
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (options.outWidth < 1 || options.outHeight < 1) {
+            return null;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, size);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        }
+        catch (OutOfMemoryError e) {
+            e.printStackTrace();
+            return null;
+        }
+        return bitmap == null ? null : fit(bitmap, size);
+    }
+
+    @WorkerThread
+    @Nullable
+    private static Bitmap decodeProjectThumbnail (@NonNull File file, int size) {
+        ProjectFile projectFile = null;
+        try {
+            projectFile = ProjectFile.openProjectFile(file, new TileStore());
+            FrameTimeline timeline = projectFile.createFrameTimeline();
+            return sample(timeline.getCurrentFrame().getImage(), size);
+        }
+        catch (IOException | RuntimeException | OutOfMemoryError e) {
+            e.printStackTrace();
+            return null;
+        }
+        finally {
+            if (projectFile != null) {
+                projectFile.close();
+            }
+        }
+    }
+
+    // Largest power of two that keeps the longer edge at least the thumbnail size
+    private static int getSampleSize (int width, int height, int size) {
+        int sampleSize = 1;
+        while (Math.max(width, height) / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    // Picks the nearest pixel of every thumbnail pixel straight from the tiles, like fit() does,
+    // so that the full size image is never drawn into a bitmap
+    @NonNull
+    private static Bitmap sample (@NonNull TiledImage image, int size) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int thumbnailWidth = width;
+        int thumbnailHeight = height;
+        if (width > size || height > size) {
+            float scale = (float) size / Math.max(width, height);
+            thumbnailWidth = Math.max(1, Math.round(width * scale));
+            thumbnailHeight = Math.max(1, Math.round(height * scale));
+        }
+        int[] row = new int[width];
+        int[] thumbnailRow = new int[thumbnailWidth];
+        Bitmap thumbnail = Bitmap.createBitmap(thumbnailWidth, thumbnailHeight, Bitmap.Config.ARGB_8888);
+        for (int y = 0; y < thumbnailHeight; y ++) {
+            int sourceY = (int) ((2L * y + 1) * height / (2L * thumbnailHeight));
+            image.getPixels(row, 0, width, 0, sourceY, width, 1);
+            for (int x = 0; x < thumbnailWidth; x ++) {
+                thumbnailRow[x] = row[(int) ((2L * x + 1) * width / (2L * thumbnailWidth))];
+            }
+            thumbnail.setPixels(thumbnailRow, 0, thumbnailWidth, 0, y, thumbnailWidth, 1);
+        }
+        return thumbnail;
+    }
+
+    // Scales down without filtering so that pixel art stays sharp, smaller images are kept as they are
+    @NonNull
+    private static Bitmap fit (@NonNull Bitmap bitmap, int size) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (width <= size && height <= size) {
+            return bitmap;
+        }
+        float scale = (float) size / Math.max(width, height);
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(width * scale)),
+                Math.max(1, Math.round(height * scale)), false);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+}
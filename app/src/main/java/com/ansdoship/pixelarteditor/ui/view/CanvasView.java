@@ -65,7 +65,8 @@ public class CanvasView extends SurfaceView implements SurfaceHolder.Callback {
         setKeepScreenOn(true);
     }
 
-    public void invalidate() {
+    // May also be called from a worker thread, e.g. during animation playback
+    public synchronized void invalidate() {
         try {
             mCanvas = mSurfaceHolder.lockCanvas();
             if(mOnInvalidateListener != null) {
@@ -40,6 +40,8 @@ public class PaletteView extends View implements Checkable {
 	private int paletteBackgroundColor2;
 	private boolean mChecked;
 	private boolean mTouched;
+	private Paint textPaint;
+	private int usageCount;
 
 	public PaletteView(@NonNull Context context){
 		this(context, null);
@@ -50,6 +52,7 @@ public class PaletteView extends View implements Checkable {
     public PaletteView(@NonNull Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
 		paletteColor = Color.TRANSPARENT;
+		usageCount = -1;
 		TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.PaletteView, defStyleAttr, 0);
 		mChecked = typedArray.getBoolean(R.styleable.PaletteView_android_checked, false);
 		paletteBackgroundColor1 = typedArray.getInt(R.styleable.PaletteView_paletteBackgroundColor1, Color.LTGRAY);
@@ -105,6 +108,18 @@ public class PaletteView extends View implements Checkable {
 		return paletteColor;
 	}
 
+	// Number of pixels using the color, shown at the bottom; negative hides it
+	public void setUsageCount(int usageCount) {
+		if (this.usageCount != usageCount) {
+			this.usageCount = usageCount;
+			invalidate();
+		}
+	}
+
+	public int getUsageCount() {
+		return usageCount;
+	}
+
 	@Override
 	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
 		super.onMeasure(widthMeasureSpec, heightMeasureSpec);
@@ -163,10 +178,34 @@ public class PaletteView extends View implements Checkable {
 				canvas.drawRect(getWidth() * 0.1f, getHeight() * 0.1f,
 						getWidth() * 0.9f, getHeight() * 0.9f, paint);
 			}
+			if (usageCount >= 0) {
+				if (textPaint == null) {
+					textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+					textPaint.setTextAlign(Paint.Align.CENTER);
+				}
+				textPaint.setTextSize(getHeight() * 0.22f);
+				textPaint.setColor(0x99000000);
+				canvas.drawRect(getWidth() * 0.1f, getHeight() * 0.64f,
+						getWidth() * 0.9f, getHeight() * 0.9f, textPaint);
+				textPaint.setColor(Color.WHITE);
+				canvas.drawText(formatCount(usageCount), getWidth() * 0.5f, getHeight() * 0.84f, textPaint);
+			}
 
 		}
 	}
 
+	private static String formatCount(int count) {
+		if (count < 1000) {
+			return Integer.toString(count);
+		}
+		else if (count < 1000000) {
+			return (count / 1000) + "K";
+		}
+		else {
+			return (count / 1000000) + "M";
+		}
+	}
+
 	@SuppressLint("ClickableViewAccessibility")
 	@Override
 	public boolean onTouchEvent(MotionEvent event) {
@@ -19,6 +19,8 @@ package com.ansdoship.pixelarteditor.ui.viewAdapter.recycleView;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -31,7 +33,9 @@ import androidx.recyclerview.widget.RecyclerView;
 import androidx.vectordrawable.graphics.drawable.VectorDrawableCompat;
 
 import com.ansdoship.pixelarteditor.R;
+import com.ansdoship.pixelarteditor.ui.thumbnail.ThumbnailLoader;
 
+import java.io.File;
 import java.util.List;
 
 public class FileListAdapter extends RecyclerView.Adapter<FileListAdapter.ViewHolder> {
@@ -42,6 +46,8 @@ public class FileListAdapter extends RecyclerView.Adapter<FileListAdapter.ViewHo
     private OnItemClickListener mOnItemClickListener;
     private final Drawable mFolderDrawable;
     private final Drawable mFileDrawable;
+    private ThumbnailLoader mThumbnailLoader;
+    private String mDirectory;
 
     public FileListAdapter(@NonNull Context context, @NonNull List<String> dirs,
                            @NonNull List<String> files, Drawable fileIcon) {
@@ -78,6 +84,34 @@ public class FileListAdapter extends RecyclerView.Adapter<FileListAdapter.ViewHo
         mOnItemClickListener = onItemClickListener;
     }
 
+    // Files show thumbnails in place of the file icon once decoded, needs the directory to be set
+    public void setThumbnailLoader(@Nullable ThumbnailLoader thumbnailLoader) {
+        mThumbnailLoader = thumbnailLoader;
+        notifyDataSetChanged();
+    }
+
+    // Removes every entry, those of the new directory are added as they are listed
+    public void setDirectory(@Nullable String directory) {
+        mDirectory = directory;
+        mDirs.clear();
+        mFiles.clear();
+        notifyDataSetChanged();
+    }
+
+    // Directories are inserted after the listed ones, files at the end
+    public void addEntries(@NonNull List<String> dirs, @NonNull List<String> files) {
+        if (!dirs.isEmpty()) {
+            int start = mDirs.size();
+            mDirs.addAll(dirs);
+            notifyItemRangeInserted(start, dirs.size());
+        }
+        if (!files.isEmpty()) {
+            int start = mDirs.size() + mFiles.size();
+            mFiles.addAll(files);
+            notifyItemRangeInserted(start, files.size());
+        }
+    }
+
     @SuppressLint("InflateParams")
     @NonNull
     @Override
@@ -86,32 +120,62 @@ public class FileListAdapter extends RecyclerView.Adapter<FileListAdapter.ViewHo
     }
 
     @Override
-    public void onBindViewHolder(@NonNull ViewHolder holder, final int position) {
+    public void onBindViewHolder(@NonNull final ViewHolder holder, final int position) {
+        holder.cancelThumbnail();
         if (position < mDirs.size()) {
             holder.tvItem.setText(mDirs.get(position));
             holder.tvItem.setCompoundDrawables(mFolderDrawable, null, null, null);
-            if (mOnItemClickListener != null) {
-                holder.tvItem.setOnClickListener(new View.OnClickListener() {
-                    @Override
-                    public void onClick(View view) {
-                        mOnItemClickListener.onDirectoryClick(mDirs.get(position), position);
-                    }
-                });
-            }
         }
         else {
-            final int position2 = position - mDirs.size();
+            int position2 = position - mDirs.size();
             holder.tvItem.setText(mFiles.get(position2));
             holder.tvItem.setCompoundDrawables(mFileDrawable, null, null, null);
-            if (mOnItemClickListener != null) {
-                holder.tvItem.setOnClickListener(new View.OnClickListener() {
+            if (mThumbnailLoader != null && mDirectory != null) {
+                String pathname = new File(mDirectory, mFiles.get(position2)).getAbsolutePath();
+                final Bitmap cached = mThumbnailLoader.getCached(pathname);
+                if (cached != null) {
+                    holder.tvItem.setCompoundDrawables(createThumbnailDrawable(cached), null, null, null);
+                }
+                // The cached thumbnail may be outdated, the loader checks the file on a worker
+                holder.pathname = pathname;
+                holder.request = mThumbnailLoader.load(pathname, new ThumbnailLoader.Callback() {
                     @Override
-                    public void onClick(View view) {
-                        mOnItemClickListener.onFileClick(mFiles.get(position2), position2);
+                    public void onThumbnailLoaded(@NonNull String pathname, @NonNull Bitmap thumbnail) {
+                        if (pathname.equals(holder.pathname)) {
+                            holder.request = null;
+                            if (thumbnail != cached) {
+                                holder.tvItem.setCompoundDrawables(createThumbnailDrawable(thumbnail),
+                                        null, null, null);
+                            }
+                        }
                     }
                 });
             }
         }
+        if (mOnItemClickListener != null) {
+            // Entries inserted above shift the position after binding
+            holder.tvItem.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    int adapterPosition = holder.getAdapterPosition();
+                    if (adapterPosition == RecyclerView.NO_POSITION) {
+                        return;
+                    }
+                    if (adapterPosition < mDirs.size()) {
+                        mOnItemClickListener.onDirectoryClick(mDirs.get(adapterPosition), adapterPosition);
+                    }
+                    else {
+                        int filePosition = adapterPosition - mDirs.size();
+                        mOnItemClickListener.onFileClick(mFiles.get(filePosition), filePosition);
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        holder.cancelThumbnail();
     }
 
     @Override
@@ -119,14 +183,41 @@ public class FileListAdapter extends RecyclerView.Adapter<FileListAdapter.ViewHo
         return mDirs.size() + mFiles.size();
     }
 
+    // Fitted into a square of the loader's size, scaled up without filtering
+    @NonNull
+    private Drawable createThumbnailDrawable(@NonNull Bitmap thumbnail) {
+        BitmapDrawable drawable = new BitmapDrawable(mContext.getResources(), thumbnail);
+        drawable.setFilterBitmap(false);
+        int size = mThumbnailLoader.getSize();
+        int width = thumbnail.getWidth();
+        int height = thumbnail.getHeight();
+        if (width >= height) {
+            drawable.setBounds(0, 0, size, Math.max(1, size * height / width));
+        }
+        else {
+            drawable.setBounds(0, 0, Math.max(1, size * width / height), size);
+        }
+        return drawable;
+    }
+
     public static class ViewHolder extends RecyclerView.ViewHolder {
 
         public TextView tvItem;
+        private ThumbnailLoader.Request request;
+        private String pathname;
         public ViewHolder(@NonNull View itemView) {
             super(itemView);
             tvItem = itemView.findViewById(R.id.tv_adapter_item);
         }
 
+        private void cancelThumbnail() {
+            if (request != null) {
+                request.cancel();
+                request = null;
+            }
+            pathname = null;
+        }
+
     }
 
 }
@@ -20,38 +20,49 @@ package com.ansdoship.pixelarteditor.ui.viewgroup;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
-import android.view.Gravity;
 import android.view.View;
-import android.view.animation.AnimationUtils;
+import android.view.ViewGroup;
 import android.widget.LinearLayout;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.ansdoship.pixelarteditor.R;
+import com.ansdoship.pixelarteditor.editor.palette.ColorUsageCounter;
 import com.ansdoship.pixelarteditor.editor.palette.Palette;
 import com.ansdoship.pixelarteditor.ui.view.PaletteView;
 import com.tianscar.androidutils.MathUtils;
 
-public class PaletteList extends LinearLayout implements View.OnClickListener {
+import java.util.List;
+
+// Recycling list of palette swatches: only visible colors have views, a color or checked
+// state change rebinds the affected items alone.
+public class PaletteList extends RecyclerView {
+
+    private final static Object PAYLOAD_CHECKED = new Object();
+    private final static Object PAYLOAD_BACKGROUND = new Object();
+    private final static Object PAYLOAD_USAGE = new Object();
 
     private int mIndex;
     private OnCheckedChangeListener mOnCheckedChangeListener;
     private OnDoubleTapListener mOnDoubleTapListener;
+    private OnLongPressListener mOnLongPressListener;
+    private ColorUsageCounter mColorUsageCounter;
     private final Context mContext;
     private Palette mPalette;
+    private int[] mColors;
     private final int mPaletteWidth;
     private final int mPaletteHeight;
+    private final PaletteAdapter mAdapter;
 
     private int paletteBackgroundColor1;
     private int paletteBackgroundColor2;
 
-    @Override
-    public void onClick(View view) {
-        checkIndex(this.indexOfChild(view));
-    }
-
     public void setOnCheckedChangeListener(OnCheckedChangeListener onCheckedChangeListener) {
         mOnCheckedChangeListener = onCheckedChangeListener;
     }
@@ -60,6 +71,10 @@ public class PaletteList extends LinearLayout implements View.OnClickListener {
         mOnDoubleTapListener = onDoubleTapListener;
     }
 
+    public void setOnLongPressListener(OnLongPressListener onLongPressListener) {
+        mOnLongPressListener = onLongPressListener;
+    }
+
     public interface OnCheckedChangeListener {
         void onCheckedChanged(PaletteList paletteList, int checkedIndex);
     }
@@ -68,6 +83,21 @@ public class PaletteList extends LinearLayout implements View.OnClickListener {
         void onDoubleTap(PaletteList paletteList, int checkedIndex);
     }
 
+    public interface OnLongPressListener {
+        void onLongPress(PaletteList paletteList, int index);
+    }
+
+    // Shows the pixel count of every color, null hides the counts
+    public void setColorUsageCounter(@Nullable ColorUsageCounter colorUsageCounter) {
+        mColorUsageCounter = colorUsageCounter;
+        notifyColorUsageChanged();
+    }
+
+    // Rebinds the counts of the bound items after the counter was updated
+    public void notifyColorUsageChanged() {
+        mAdapter.notifyItemRangeChanged(0, getSize(), PAYLOAD_USAGE);
+    }
+
     private void setIndex(int index) {
         mIndex = MathUtils.clamp(index, 0, getSize() - 1);
         if (mPalette != null) {
@@ -86,11 +116,12 @@ public class PaletteList extends LinearLayout implements View.OnClickListener {
                 mOnDoubleTapListener.onDoubleTap(this, index);
             }
         }
+        int oldIndex = mIndex;
         setIndex(index);
-        for (int i = 0; i < getChildCount(); i ++) {
-            ((PaletteView) getChildAt(i)).setChecked(false);
+        if (oldIndex != mIndex) {
+            mAdapter.notifyItemChanged(oldIndex, PAYLOAD_CHECKED);
+            mAdapter.notifyItemChanged(mIndex, PAYLOAD_CHECKED);
         }
-        ((PaletteView) getChildAt(mIndex)).setChecked(true);
     }
 
     public int getCheckedIndex() {
@@ -99,24 +130,18 @@ public class PaletteList extends LinearLayout implements View.OnClickListener {
 
     public void setPaletteBackgroundColor1(int paletteBackgroundColor1) {
         this.paletteBackgroundColor1 = paletteBackgroundColor1;
-        for (int i = 0; i < getChildCount(); i ++) {
-            ((PaletteView) getChildAt(i)).setPaletteBackgroundColor1(paletteBackgroundColor1);
-        }
+        mAdapter.notifyItemRangeChanged(0, getSize(), PAYLOAD_BACKGROUND);
     }
 
     public void setPaletteBackgroundColor2(int paletteBackgroundColor2) {
         this.paletteBackgroundColor2 = paletteBackgroundColor2;
-        for (int i = 0; i < getChildCount(); i ++) {
-            ((PaletteView) getChildAt(i)).setPaletteBackgroundColor1(paletteBackgroundColor2);
-        }
+        mAdapter.notifyItemRangeChanged(0, getSize(), PAYLOAD_BACKGROUND);
     }
 
     public void setPaletteBackgroundColors(int paletteBackgroundColor1, int paletteBackgroundColor2) {
         this.paletteBackgroundColor1 = paletteBackgroundColor1;
         this.paletteBackgroundColor2 = paletteBackgroundColor2;
-        for (int i = 0; i < getChildCount(); i ++) {
-            ((PaletteView) getChildAt(i)).setPaletteBackgroundColors(paletteBackgroundColor1, paletteBackgroundColor2);
-        }
+        mAdapter.notifyItemRangeChanged(0, getSize(), PAYLOAD_BACKGROUND);
     }
 
     public PaletteList(@NonNull Context context) {
@@ -133,20 +158,24 @@ public class PaletteList extends LinearLayout implements View.OnClickListener {
         TypedArray typedArray = context.obtainStyledAttributes(attrs, R.styleable.PaletteList, defStyleAttr, 0);
         mPaletteWidth = measureSizeWithMargin(typedArray.getDimensionPixelSize(R.styleable.PaletteList_paletteWidth, 0),12);
         mPaletteHeight = measureSizeWithMargin(typedArray.getDimensionPixelSize(R.styleable.PaletteList_paletteHeight, 0),12);
-        int size = typedArray.getInt(R.styleable.PaletteList_size, 1);
-        for (int i = 0; i < size; i ++) {
-            PaletteView paletteView = new PaletteView(context);
-            paletteView.setLayoutParams(new LinearLayout.LayoutParams(mPaletteWidth, mPaletteHeight));
-            paletteView.setOnClickListener(this);
-            paletteBackgroundColor1 = typedArray.getInt(R.styleable.PaletteList_paletteBackgroundColor1, Color.LTGRAY);
-            paletteBackgroundColor2 = typedArray.getInt(R.styleable.PaletteList_paletteBackgroundColor2, Color.GRAY);
-            paletteView.setPaletteBackgroundColors(paletteBackgroundColor1, paletteBackgroundColor2);
-            paletteView.setAnimation(AnimationUtils.loadAnimation(mContext, android.R.anim.fade_in));
-            addView(paletteView);
-        }
-        checkIndex(typedArray.getInt(R.styleable.PaletteList_checkedIndex, 0));
+        paletteBackgroundColor1 = typedArray.getInt(R.styleable.PaletteList_paletteBackgroundColor1, Color.LTGRAY);
+        paletteBackgroundColor2 = typedArray.getInt(R.styleable.PaletteList_paletteBackgroundColor2, Color.GRAY);
+        int orientation = typedArray.getInt(R.styleable.PaletteList_android_orientation, LinearLayout.HORIZONTAL);
+        Drawable divider = typedArray.getDrawable(R.styleable.PaletteList_android_divider);
+        mColors = new int[Math.max(1, typedArray.getInt(R.styleable.PaletteList_size, 1))];
+        int checkedIndex = typedArray.getInt(R.styleable.PaletteList_checkedIndex, 0);
         typedArray.recycle();
-        setGravity(Gravity.CENTER_VERTICAL);
+        setLayoutManager(new LinearLayoutManager(context,
+                orientation == LinearLayout.VERTICAL ? VERTICAL : HORIZONTAL, false));
+        if (divider != null) {
+            addItemDecoration(new DividerDecoration(orientation == LinearLayout.VERTICAL ?
+                    divider.getIntrinsicHeight() : divider.getIntrinsicWidth(), orientation == LinearLayout.VERTICAL));
+        }
+        setClipToPadding(false);
+        setHasFixedSize(true);
+        mAdapter = new PaletteAdapter();
+        setAdapter(mAdapter);
+        setIndex(checkedIndex);
     }
 
     public void setSize (int size) {
@@ -158,15 +187,8 @@ public class PaletteList extends LinearLayout implements View.OnClickListener {
             return;
         }
         mPalette = null;
-        removeAllViews();
-        for (int i = 0; i < size; i ++) {
-            PaletteView paletteView = new PaletteView(mContext);
-            paletteView.setLayoutParams(new LinearLayout.LayoutParams(mPaletteWidth, mPaletteHeight));
-            paletteView.setOnClickListener(this);
-            paletteView.setPaletteBackgroundColors(paletteBackgroundColor1, paletteBackgroundColor2);
-            paletteView.setAnimation(AnimationUtils.loadAnimation(mContext, android.R.anim.fade_in));
-            addView(paletteView);
-        }
+        mColors = new int[size];
+        mAdapter.notifyDataSetChanged();
         checkIndex(index);
     }
 
@@ -176,7 +198,7 @@ public class PaletteList extends LinearLayout implements View.OnClickListener {
     }
 
     public int getSize () {
-        return getChildCount();
+        return mPalette == null ? mColors.length : mPalette.size();
     }
 
     public void setPalette (@NonNull Palette palette) {
@@ -185,29 +207,23 @@ public class PaletteList extends LinearLayout implements View.OnClickListener {
 
     public void setPalette (@NonNull Palette palette, int index) {
         mPalette = palette;
-        removeAllViews();
-        for (int i = 0; i < palette.size(); i++) {
-            PaletteView paletteView = new PaletteView(mContext);
-            paletteView.setLayoutParams(new LayoutParams(mPaletteWidth, mPaletteHeight));
-            paletteView.setPaletteColor(palette.getColor(i));
-            paletteView.setOnClickListener(this);
-            paletteView.setPaletteBackgroundColors(paletteBackgroundColor1, paletteBackgroundColor2);
-            paletteView.setAnimation(AnimationUtils.loadAnimation(mContext, android.R.anim.fade_in));
-            addView(paletteView);
-        }
         setIndex(index);
-        ((PaletteView) getChildAt(index)).setChecked(true);
+        mAdapter.notifyDataSetChanged();
+        scrollToPosition(mIndex);
     }
 
     public void setPaletteColor (int index, int color) {
-        ((PaletteView) getChildAt(index)).setPaletteColor(color);
-        if (mPalette != null) {
+        if (mPalette == null) {
+            mColors[index] = color;
+        }
+        else {
             mPalette.setColor(index, color);
         }
+        mAdapter.notifyItemChanged(index);
     }
 
     public int getPaletteColor (int index) {
-        return ((PaletteView) getChildAt(index)).getPaletteColor();
+        return mPalette == null ? mColors[index] : mPalette.getColor(index);
     }
 
     public void setCheckedPaletteColor (int color) {
@@ -218,4 +234,114 @@ public class PaletteList extends LinearLayout implements View.OnClickListener {
         return getPaletteColor(getCheckedIndex());
     }
 
+    private final class PaletteAdapter extends RecyclerView.Adapter<PaletteViewHolder> {
+
+        @NonNull
+        @Override
+        public PaletteViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            PaletteView paletteView = new PaletteView(mContext);
+            paletteView.setLayoutParams(new RecyclerView.LayoutParams(mPaletteWidth, mPaletteHeight));
+            final PaletteViewHolder holder = new PaletteViewHolder(paletteView);
+            paletteView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    int position = holder.getAdapterPosition();
+                    if (position != RecyclerView.NO_POSITION) {
+                        checkIndex(position);
+                    }
+                }
+            });
+            paletteView.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View view) {
+                    int position = holder.getAdapterPosition();
+                    if (position == RecyclerView.NO_POSITION || mOnLongPressListener == null) {
+                        return false;
+                    }
+                    mOnLongPressListener.onLongPress(PaletteList.this, position);
+                    return true;
+                }
+            });
+            return holder;
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull PaletteViewHolder holder, int position) {
+            holder.paletteView.setPaletteColor(getPaletteColor(position));
+            holder.paletteView.setPaletteBackgroundColors(paletteBackgroundColor1, paletteBackgroundColor2);
+            holder.paletteView.setChecked(position == mIndex);
+            bindUsageCount(holder, position);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull PaletteViewHolder holder, int position, @NonNull List<Object> payloads) {
+            if (payloads.isEmpty()) {
+                onBindViewHolder(holder, position);
+                return;
+            }
+            for (Object payload : payloads) {
+                if (payload == PAYLOAD_CHECKED) {
+                    holder.paletteView.setChecked(position == mIndex);
+                }
+                else if (payload == PAYLOAD_BACKGROUND) {
+                    holder.paletteView.setPaletteBackgroundColors(paletteBackgroundColor1, paletteBackgroundColor2);
+                }
+                else if (payload == PAYLOAD_USAGE) {
+                    bindUsageCount(holder, position);
+                }
+            }
+        }
+
+        private void bindUsageCount(@NonNull PaletteViewHolder holder, int position) {
+            holder.paletteView.setUsageCount(mColorUsageCounter == null ?
+                    -1 : mColorUsageCounter.getCount(getPaletteColor(position)));
+        }
+
+        @Override
+        public int getItemCount() {
+            return getSize();
+        }
+
+    }
+
+    private final static class PaletteViewHolder extends RecyclerView.ViewHolder {
+
+        final PaletteView paletteView;
+
+        PaletteViewHolder(@NonNull PaletteView paletteView) {
+            super(paletteView);
+            this.paletteView = paletteView;
+        }
+
+    }
+
+    // Spacing between items, like LinearLayout's middle dividers
+    private final static class DividerDecoration extends RecyclerView.ItemDecoration {
+
+        private final int mSize;
+        private final boolean mVertical;
+
+        DividerDecoration(int size, boolean vertical) {
+            mSize = Math.max(0, size);
+            mVertical = vertical;
+        }
+
+        @Override
+        public void getItemOffsets(@NonNull Rect outRect, @NonNull View view, @NonNull RecyclerView parent,
+                                   @NonNull State state) {
+            if (parent.getChildAdapterPosition(view) > 0) {
+                if (mVertical) {
+                    outRect.set(0, mSize, 0, 0);
+                }
+                else {
+                    outRect.set(mSize, 0, 0, 0);
+                }
+            }
+            else {
+                outRect.set(0, 0, 0, 0);
+            }
+        }
+
+    }
+
 }
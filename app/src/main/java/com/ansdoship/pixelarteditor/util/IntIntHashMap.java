@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package com.ansdoship.pixelarteditor.util;
+
+import java.util.Arrays;
+
+// Open-addressing int to int map with linear probing and no boxing.
+// Key 0 is stored out of line, so 0 can mark free slots in the key array.
+public final class IntIntHashMap {
+
+    private final static int CAPACITY_MIN = 8;
+
+    private int[] mKeys;
+    private int[] mValues;
+    private int mSize;
+    private int mMask;
+    private boolean mHasZeroKey;
+    private int mZeroValue;
+
+    public IntIntHashMap() {
+        this(CAPACITY_MIN);
+    }
+
+    public IntIntHashMap(int expectedSize) {
+        int capacity = CAPACITY_MIN;
+        // Keep the load factor at or below 0.5
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    public int size() {
+        return mHasZeroKey ? mSize + 1 : mSize;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean containsKey(int key) {
+        if (key == 0) {
+            return mHasZeroKey;
+        }
+        return mKeys[find(key)] == key;
+    }
+
+    public int get(int key, int defaultValue) {
+        if (key == 0) {
+            return mHasZeroKey ? mZeroValue : defaultValue;
+        }
+        int slot = find(key);
+        return mKeys[slot] == key ? mValues[slot] : defaultValue;
+    }
+
+    public void put(int key, int value) {
+        if (key == 0) {
+            mHasZeroKey = true;
+            mZeroValue = value;
+            return;
+        }
+        int slot = find(key);
+        if (mKeys[slot] == key) {
+            mValues[slot] = value;
+            return;
+        }
+        mKeys[slot] = key;
+        mValues[slot] = value;
+        mSize ++;
+        if (mSize * 2 > mKeys.length) {
+            rehash(mKeys.length << 1);
+        }
+    }
+
+    // Adds delta to the value of the key, treating a missing key as 0, and returns the sum
+    public int addTo(int key, int delta) {
+        if (key == 0) {
+            mZeroValue = mHasZeroKey ? mZeroValue + delta : delta;
+            mHasZeroKey = true;
+            return mZeroValue;
+        }
+        int slot = find(key);
+        if (mKeys[slot] == key) {
+            mValues[slot] += delta;
+            return mValues[slot];
+        }
+        put(key, delta);
+        return delta;
+    }
+
+    // Copies all entries into the arrays, which must hold size() elements, and returns the count
+    public int toArrays(int[] keys, int[] values) {
+        int count = 0;
+        if (mHasZeroKey) {
+            keys[count] = 0;
+            values[count] = mZeroValue;
+            count ++;
+        }
+        for (int i = 0; i < mKeys.length; i ++) {
+            if (mKeys[i] != 0) {
+                keys[count] = mKeys[i];
+                values[count] = mValues[i];
+                count ++;
+            }
+        }
+        return count;
+    }
+
+    public boolean remove(int key) {
+        if (key == 0) {
+            boolean had = mHasZeroKey;
+            mHasZeroKey = false;
+            return had;
+        }
+        int slot = find(key);
+        if (mKeys[slot] != key) {
+            return false;
+        }
+        // Shift later entries of the probe run back so that lookups never stop early
+        int free = slot;
+        int next = (slot + 1) & mMask;
+        while (mKeys[next] != 0) {
+            int home = mix(mKeys[next]) & mMask;
+            if (((next - home) & mMask) >= ((next - free) & mMask)) {
+                mKeys[free] = mKeys[next];
+                mValues[free] = mValues[next];
+                free = next;
+            }
+            next = (next + 1) & mMask;
+        }
+        mKeys[free] = 0;
+        mSize --;
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(mKeys, 0);
+        mSize = 0;
+        mHasZeroKey = false;
+    }
+
+    // Slot holding the key, or the free slot where it would be inserted
+    private int find(int key) {
+        int slot = mix(key) & mMask;
+        while (mKeys[slot] != 0 && mKeys[slot] != key) {
+            slot = (slot + 1) & mMask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        int[] keys = mKeys;
+        int[] values = mValues;
+        allocate(capacity);
+        for (int i = 0; i < keys.length; i ++) {
+            if (keys[i] != 0) {
+                int slot = find(keys[i]);
+                mKeys[slot] = keys[i];
+                mValues[slot] = values[i];
+                mSize ++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new int[capacity];
+        mValues = new int[capacity];
+        mMask = capacity - 1;
+        mSize = 0;
+    }
+
+    // Colors differ mostly in their low bits, spread them over the whole table
+    private static int mix(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+}
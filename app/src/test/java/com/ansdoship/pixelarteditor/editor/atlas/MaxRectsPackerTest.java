@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.atlas;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// Placements must stay inside the bin and never overlap, and simple cases should pack tightly
+public class MaxRectsPackerTest {
+
+    @Test
+    public void insertFillsTheBinExactly() {
+        MaxRectsPacker packer = MaxRectsPacker.createMaxRectsPacker(10, 10);
+        int[] position = new int[2];
+        int[] corners = new int[4];
+        for (int i = 0; i < 4; i ++) {
+            assertTrue(packer.insert(5, 5, position));
+            corners[position[1] / 5 * 2 + position[0] / 5] ++;
+        }
+        assertArrayEquals(new int[] {1, 1, 1, 1}, corners);
+        assertFalse(packer.insert(1, 1, position));
+        assertEquals(10, packer.getUsedWidth());
+        assertEquals(10, packer.getUsedHeight());
+    }
+
+    @Test
+    public void insertRejectsWhatDoesNotFit() {
+        MaxRectsPacker packer = MaxRectsPacker.createMaxRectsPacker(8, 4);
+        int[] position = new int[2];
+        assertFalse(packer.insert(9, 1, position));
+        assertFalse(packer.insert(1, 5, position));
+        assertTrue(packer.insert(8, 3, position));
+        assertFalse(packer.insert(2, 2, position));
+        assertTrue(packer.insert(8, 1, position));
+        assertArrayEquals(new int[] {0, 3}, position);
+    }
+
+    @Test
+    public void randomInsertsNeverOverlap() {
+        Random random = new Random(45);
+        for (int round = 0; round < 50; round ++) {
+            int binWidth = 16 + random.nextInt(200);
+            int binHeight = 16 + random.nextInt(200);
+            MaxRectsPacker packer = MaxRectsPacker.createMaxRectsPacker(binWidth, binHeight);
+            int[] rects = new int[400 * 4];
+            int count = 0;
+            int[] position = new int[2];
+            for (int i = 0; i < 400; i ++) {
+                int width = 1 + random.nextInt(40);
+                int height = 1 + random.nextInt(40);
+                if (packer.insert(width, height, position)) {
+                    rects[count * 4] = position[0];
+                    rects[count * 4 + 1] = position[1];
+                    rects[count * 4 + 2] = width;
+                    rects[count * 4 + 3] = height;
+                    count ++;
+                }
+            }
+            assertTrue(count > 0);
+            assertPlacement(rects, count, binWidth, binHeight);
+        }
+    }
+
+    @Test
+    public void packKeepsPaddingBetweenRectangles() {
+        Random random = new Random(450);
+        for (int round = 0; round < 50; round ++) {
+            int count = 1 + random.nextInt(60);
+            int padding = random.nextInt(3);
+            int[] widths = new int[count];
+            int[] heights = new int[count];
+            long area = 0;
+            for (int i = 0; i < count; i ++) {
+                widths[i] = 1 + random.nextInt(64);
+                heights[i] = 1 + random.nextInt(64);
+                area += (long) widths[i] * heights[i];
+            }
+            int[] positions = new int[count * 2];
+            int[] size = MaxRectsPacker.pack(widths, heights, padding, positions);
+            assertTrue((long) size[0] * size[1] >= area);
+            // Grow every rectangle by the padding, the grown ones must still not overlap
+            int[] rects = new int[count * 4];
+            for (int i = 0; i < count; i ++) {
+                rects[i * 4] = positions[i * 2];
+                rects[i * 4 + 1] = positions[i * 2 + 1];
+                rects[i * 4 + 2] = widths[i] + padding;
+                rects[i * 4 + 3] = heights[i] + padding;
+            }
+            assertPlacement(rects, count, size[0] + padding, size[1] + padding);
+        }
+    }
+
+    @Test
+    public void packEqualSquaresIntoASquare() {
+        int[] widths = new int[16];
+        int[] heights = new int[16];
+        Arrays.fill(widths, 8);
+        Arrays.fill(heights, 8);
+        int[] positions = new int[32];
+        assertArrayEquals(new int[] {32, 32}, MaxRectsPacker.pack(widths, heights, 0, positions));
+        // With padding a 4x4 grid is 35x35, a flatter sheet may be smaller
+        int[] size = MaxRectsPacker.pack(widths, heights, 1, positions);
+        assertTrue(size[0] * size[1] <= 35 * 35);
+    }
+
+    @Test
+    public void packNothing() {
+        assertArrayEquals(new int[] {1, 1}, MaxRectsPacker.pack(new int[0], new int[0], 2, new int[0]));
+    }
+
+    private static void assertPlacement(int[] rects, int count, int binWidth, int binHeight) {
+        for (int i = 0; i < count; i ++) {
+            int x = rects[i * 4];
+            int y = rects[i * 4 + 1];
+            int right = x + rects[i * 4 + 2];
+            int bottom = y + rects[i * 4 + 3];
+            assertTrue("outside the bin", x >= 0 && y >= 0 && right <= binWidth && bottom <= binHeight);
+            for (int j = 0; j < i; j ++) {
+                int otherX = rects[j * 4];
+                int otherY = rects[j * 4 + 1];
+                boolean apart = right <= otherX || x >= otherX + rects[j * 4 + 2] ||
+                        bottom <= otherY || y >= otherY + rects[j * 4 + 3];
+                assertTrue("rectangles " + j + " and " + i + " overlap", apart);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.codec;
+
+import com.ansdoship.pixelarteditor.editor.tile.Tile;
+import com.ansdoship.pixelarteditor.editor.tile.TileStore;
+import com.ansdoship.pixelarteditor.editor.tile.TiledImage;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Encodes frames, decodes the stream with a plain GIF89a decoder written from the specification
+// and compares what would be on screen after every frame with the frames that went in
+public class GifEncoderTest {
+
+    private final TileStore mTileStore = new TileStore();
+
+    @Test
+    public void noisyFrameResetsTheDictionary() throws IOException {
+        // Random pixels of 200 colors produce far more than 4096 codes
+        Random random = new Random(44);
+        int[] palette = randomOpaqueColors(random, 200);
+        int[] pixels = new int[256 * 256];
+        for (int i = 0; i < pixels.length; i ++) {
+            pixels[i] = palette[random.nextInt(palette.length)];
+        }
+        assertRoundTrip(256, 256, palette, new int[][] {pixels}, new int[] {100});
+    }
+
+    @Test
+    public void longRunsGrowCodesToTheLimit() throws IOException {
+        // Long runs of one color build long dictionary strings, a few colors keep the code size small
+        Random random = new Random(440);
+        int[] palette = {0xFF000000, 0xFFFFFFFF, 0xFFFF0000};
+        int[] pixels = new int[300 * 200];
+        int color = 0;
+        for (int i = 0; i < pixels.length; i ++) {
+            if (random.nextInt(500) == 0) {
+                color = random.nextInt(palette.length);
+            }
+            pixels[i] = palette[color];
+        }
+        assertRoundTrip(300, 200, palette, new int[][] {pixels}, new int[] {100});
+    }
+
+    @Test
+    public void singleColorUsesTheMinimumCodeSize() throws IOException {
+        int[] pixels = new int[17 * 5];
+        Arrays.fill(pixels, 0xFF336699);
+        assertRoundTrip(17, 5, new int[] {0xFF336699}, new int[][] {pixels}, new int[] {100});
+        assertRoundTrip(1, 1, new int[] {0xFF336699}, new int[][] {{0xFF336699}}, new int[] {100});
+    }
+
+    @Test
+    public void framesKeepTheirContentThroughDiffsAndClears() throws IOException {
+        Random random = new Random(4400);
+        int[] palette = randomOpaqueColors(random, 16);
+        int width = 70;
+        int height = 40;
+        int[][] frames = new int[12][];
+        int[] delays = new int[frames.length];
+        int[] pixels = new int[width * height];
+        for (int f = 0; f < frames.length; f ++) {
+            // Paint, erase or keep a few rectangles, erasing makes the encoder restore to background
+            for (int r = 0; r < 3; r ++) {
+                int left = random.nextInt(width);
+                int top = random.nextInt(height);
+                int right = Math.min(width, left + 1 + random.nextInt(20));
+                int bottom = Math.min(height, top + 1 + random.nextInt(20));
+                int color = random.nextInt(4) == 0 ? 0 : palette[random.nextInt(palette.length)];
+                for (int y = top; y < bottom; y ++) {
+                    Arrays.fill(pixels, y * width + left, y * width + right, color);
+                }
+            }
+            frames[f] = pixels.clone();
+            delays[f] = 10 + random.nextInt(200);
+        }
+        // Repeated frames are merged into one with the summed delay
+        frames[5] = frames[4].clone();
+        frames[6] = frames[4].clone();
+        assertRoundTrip(width, height, palette, frames, delays);
+    }
+
+    @Test
+    public void colorsOutsideThePaletteGetLocalTables() throws IOException {
+        Random random = new Random(44000);
+        int width = 40;
+        int height = 30;
+        int[][] frames = new int[3][];
+        for (int f = 0; f < frames.length; f ++) {
+            int[] colors = randomOpaqueColors(random, 100);
+            frames[f] = new int[width * height];
+            for (int i = 0; i < frames[f].length; i ++) {
+                frames[f][i] = colors[random.nextInt(colors.length)];
+            }
+        }
+        assertRoundTrip(width, height, new int[] {0xFF000000}, frames, new int[] {50, 50, 50});
+        assertRoundTrip(width, height, null, frames, new int[] {50, 50, 50});
+    }
+
+    @Test
+    public void translucentPixelsSplitAtHalfAlpha() throws IOException {
+        int[] frame = {0x7FFF0000, 0x80FF0000, 0x00000000, 0xFFFF0000};
+        GifImage gif = encode(2, 2, new int[] {0xFFFF0000}, new int[][] {frame}, new int[] {100});
+        assertArrayEquals(new int[] {0, 0xFFFF0000, 0, 0xFFFF0000}, gif.frames.get(0));
+    }
+
+    private void assertRoundTrip(int width, int height, int[] palette, int[][] frames, int[] delays)
+            throws IOException {
+        GifImage gif = encode(width, height, palette, frames, delays);
+        assertEquals(width, gif.width);
+        assertEquals(height, gif.height);
+        // Merge identical neighbors the way the encoder does
+        List<int[]> expected = new ArrayList<>();
+        List<Integer> expectedDelays = new ArrayList<>();
+        for (int i = 0; i < frames.length; i ++) {
+            if (i > 0 && Arrays.equals(frames[i], frames[i - 1])) {
+                int last = expectedDelays.size() - 1;
+                expectedDelays.set(last, expectedDelays.get(last) + delays[i]);
+                continue;
+            }
+            expected.add(frames[i]);
+            expectedDelays.add(delays[i]);
+        }
+        assertEquals(expected.size(), gif.frames.size());
+        for (int i = 0; i < expected.size(); i ++) {
+            assertArrayEquals("frame " + i, expected.get(i), gif.frames.get(i));
+            assertEquals(Math.max(GifEncoder.DELAY_MIN, expectedDelays.get(i)) / 10, (int) gif.delays.get(i));
+        }
+    }
+
+    private GifImage encode(int width, int height, int[] palette, int[][] frames, int[] delays)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GifEncoder encoder = GifEncoder.createGifEncoder(out, width, height, palette, GifEncoder.LOOP_FOREVER);
+        for (int i = 0; i < frames.length; i ++) {
+            TiledImage image = createImage(frames[i], width, height);
+            encoder.addFrame(image, delays[i]);
+            image.release();
+        }
+        encoder.finish();
+        return decode(out.toByteArray());
+    }
+
+    private TiledImage createImage(int[] pixels, int width, int height) {
+        TiledImage image = TiledImage.createTiledImage(mTileStore, width, height);
+        for (int row = 0; row < image.getRows(); row ++) {
+            for (int column = 0; column < image.getColumns(); column ++) {
+                int x = column << Tile.SHIFT;
+                int y = row << Tile.SHIFT;
+                Tile tile = mTileStore.intern(pixels, y * width + x, width,
+                        Math.min(Tile.SIZE, width - x), Math.min(Tile.SIZE, height - y));
+                image.setTile(column, row, tile);
+                mTileStore.release(tile);
+            }
+        }
+        return image;
+    }
+
+    private static int[] randomOpaqueColors(Random random, int count) {
+        int[] colors = new int[count];
+        for (int i = 0; i < count; i ++) {
+            colors[i] = random.nextInt() | 0xFF000000;
+        }
+        return colors;
+    }
+
+    private final static class GifImage {
+        int width;
+        int height;
+        // Canvas after each frame, transparent pixels are 0
+        final List<int[]> frames = new ArrayList<>();
+        final List<Integer> delays = new ArrayList<>();
+    }
+
+    private static GifImage decode(byte[] data) {
+        Reader in = new Reader(data);
+        assertEquals("GIF89a", new String(data, 0, 6));
+        in.position = 6;
+        GifImage gif = new GifImage();
+        gif.width = in.readShort();
+        gif.height = in.readShort();
+        int flags = in.readByte();
+        in.readByte();
+        in.readByte();
+        int[] globalTable = (flags & 0x80) != 0 ? in.readTable(flags & 0x07) : null;
+        int[] canvas = new int[gif.width * gif.height];
+        int disposal = 0;
+        int transparent = -1;
+        int delay = 0;
+        while (true) {
+            int block = in.readByte();
+            if (block == 0x3B) {
+                break;
+            }
+            if (block == 0x21) {
+                int label = in.readByte();
+                if (label == 0xF9) {
+                    assertEquals(4, in.readByte());
+                    int packed = in.readByte();
+                    disposal = (packed >> 2) & 0x07;
+                    delay = in.readShort();
+                    transparent = (packed & 0x01) != 0 ? in.readByte() : -1;
+                    if (transparent < 0) {
+                        in.readByte();
+                    }
+                    assertEquals(0, in.readByte());
+                }
+                else {
+                    in.skipSubBlocks();
+                }
+                continue;
+            }
+            assertEquals(0x2C, block);
+            int left = in.readShort();
+            int top = in.readShort();
+            int width = in.readShort();
+            int height = in.readShort();
+            assertTrue(left + width <= gif.width && top + height <= gif.height);
+            int packed = in.readByte();
+            int[] table = (packed & 0x80) != 0 ? in.readTable(packed & 0x07) : globalTable;
+            assertTrue(table != null);
+            int[] indices = decodeLzw(in, width * height);
+            for (int y = 0; y < height; y ++) {
+                for (int x = 0; x < width; x ++) {
+                    int index = indices[y * width + x];
+                    assertTrue("index " + index + " outside the table", index < table.length);
+                    if (index != transparent) {
+                        canvas[(top + y) * gif.width + left + x] = table[index];
+                    }
+                }
+            }
+            gif.frames.add(canvas.clone());
+            gif.delays.add(delay);
+            if (disposal == 2) {
+                for (int y = 0; y < height; y ++) {
+                    Arrays.fill(canvas, (top + y) * gif.width + left, (top + y) * gif.width + left + width, 0);
+                }
+            }
+            disposal = 0;
+            transparent = -1;
+        }
+        assertEquals(data.length, in.position);
+        return gif;
+    }
+
+    // Variable width LZW as in appendix F of the GIF89a specification
+    private static int[] decodeLzw(Reader in, int length) {
+        int minCodeSize = in.readByte();
+        assertTrue(minCodeSize >= 2 && minCodeSize <= 8);
+        byte[] data = in.readSubBlocks();
+        int clearCode = 1 << minCodeSize;
+        int endCode = clearCode + 1;
+        int[] prefixes = new int[4096];
+        int[] suffixes = new int[4096];
+        int[] firsts = new int[4096];
+        int[] lengths = new int[4096];
+        for (int i = 0; i < clearCode; i ++) {
+            suffixes[i] = i;
+            firsts[i] = i;
+            lengths[i] = 1;
+        }
+        int[] out = new int[length];
+        int count = 0;
+        int codeSize = minCodeSize + 1;
+        int nextCode = endCode + 1;
+        int previous = -1;
+        int bits = 0;
+        int bitCount = 0;
+        int position = 0;
+        boolean ended = false;
+        while (!ended) {
+            while (bitCount < codeSize) {
+                assertTrue("stream ends without an end code", position < data.length);
+                bits |= (data[position ++] & 0xFF) << bitCount;
+                bitCount += 8;
+            }
+            int code = bits & ((1 << codeSize) - 1);
+            bits >>>= codeSize;
+            bitCount -= codeSize;
+            if (code == clearCode) {
+                codeSize = minCodeSize + 1;
+                nextCode = endCode + 1;
+                previous = -1;
+                continue;
+            }
+            if (code == endCode) {
+                ended = true;
+                continue;
+            }
+            assertTrue("code " + code + " not defined yet", code <= nextCode && (previous >= 0 || code < clearCode));
+            int first;
+            if (previous < 0) {
+                first = firsts[code];
+            }
+            else {
+                first = code < nextCode ? firsts[code] : firsts[previous];
+                assertTrue("dictionary overflow without a clear code", nextCode < 4096);
+                prefixes[nextCode] = previous;
+                suffixes[nextCode] = first;
+                firsts[nextCode] = firsts[previous];
+                lengths[nextCode] = lengths[previous] + 1;
+                nextCode ++;
+                if (nextCode == 1 << codeSize && codeSize < 12) {
+                    codeSize ++;
+                }
+            }
+            int entryLength = lengths[code];
+            assertTrue("more pixels than the frame holds", count + entryLength <= length);
+            int c = code;
+            for (int i = entryLength - 1; i >= 0; i --) {
+                out[count + i] = suffixes[c];
+                c = prefixes[c];
+            }
+            count += entryLength;
+            previous = code;
+        }
+        assertEquals(length, count);
+        return out;
+    }
+
+    private final static class Reader {
+
+        final byte[] data;
+        int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() {
+            return data[position ++] & 0xFF;
+        }
+
+        int readShort() {
+            return readByte() | (readByte() << 8);
+        }
+
+        int[] readTable(int sizeBits) {
+            int[] table = new int[1 << (sizeBits + 1)];
+            for (int i = 0; i < table.length; i ++) {
+                table[i] = 0xFF000000 | (readByte() << 16) | (readByte() << 8) | readByte();
+            }
+            return table;
+        }
+
+        byte[] readSubBlocks() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (int size = readByte(); size > 0; size = readByte()) {
+                out.write(data, position, size);
+                position += size;
+            }
+            return out.toByteArray();
+        }
+
+        void skipSubBlocks() {
+            readSubBlocks();
+        }
+
+    }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.codec;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Streams are decoded by the JDK's PNG reader, the filter types are read back from the inflated data
+public class PngStreamWriterTest {
+
+    @Test
+    public void rgbaRowsDecodeWithEveryFilter() throws IOException, DataFormatException {
+        int width = 64;
+        int height = 96;
+        int[] pixels = new int[width * height];
+        Random random = new Random(50);
+        for (int y = 0; y < height; y ++) {
+            for (int x = 0; x < width; x ++) {
+                int color;
+                switch (y / 16) {
+                    case 0:
+                        // Noise, nothing to predict
+                        color = random.nextInt();
+                        break;
+                    case 1:
+                        // Horizontal gradient, Sub
+                        color = 0xFF000000 | (x * 4) << 16 | (x * 2) << 8 | x;
+                        break;
+                    case 2:
+                        // Noise repeated down the band, Up
+                        color = y % 16 == 0 ? random.nextInt() : pixels[(y - 1) * width + x];
+                        break;
+                    case 3:
+                        // Diagonal gradient, Paeth or Average
+                        color = 0xFF000000 | ((x + y) * 2) << 16 | (x * 3 + y) << 8 | (x ^ y);
+                        break;
+                    default:
+                        color = random.nextInt(8) == 0 ? random.nextInt() : 0x80336699;
+                        break;
+                }
+                pixels[y * width + x] = color;
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngStreamWriter writer = new PngStreamWriter(out, width, 32, 9);
+        writer.writeHeader(width, height, 8, PngStreamWriter.COLOR_TYPE_RGBA);
+        byte[] row = new byte[writer.getRowBytes()];
+        for (int y = 0; y < height; y ++) {
+            for (int x = 0; x < width; x ++) {
+                int color = pixels[y * width + x];
+                row[x * 4] = (byte) (color >>> 16);
+                row[x * 4 + 1] = (byte) (color >>> 8);
+                row[x * 4 + 2] = (byte) color;
+                row[x * 4 + 3] = (byte) (color >>> 24);
+            }
+            writer.writeRow(row);
+        }
+        writer.finish();
+        byte[] png = out.toByteArray();
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        for (int y = 0; y < height; y ++) {
+            for (int x = 0; x < width; x ++) {
+                assertEquals("pixel " + x + ", " + y, pixels[y * width + x], image.getRGB(x, y));
+            }
+        }
+        boolean[] used = new boolean[5];
+        for (int type : readFilterTypes(png, writer.getRowBytes(), height)) {
+            used[type] = true;
+        }
+        for (int type = 0; type < 5; type ++) {
+            assertTrue("filter " + type + " never chosen", used[type]);
+        }
+    }
+
+    @Test
+    public void repeatedRowsUseUp() throws IOException, DataFormatException {
+        // An RGB image upscaled by 3, every row written once and repeated twice
+        int width = 30;
+        int height = 21;
+        Random random = new Random(500);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngStreamWriter writer = new PngStreamWriter(out, width, 24, 6);
+        writer.writeHeader(width, height, 8, PngStreamWriter.COLOR_TYPE_RGB);
+        byte[] row = new byte[writer.getRowBytes()];
+        int[] colors = new int[width * height];
+        for (int y = 0; y < height; y += 3) {
+            for (int x = 0; x < width; x += 3) {
+                int color = random.nextInt() | 0xFF000000;
+                for (int i = 0; i < 9; i ++) {
+                    colors[(y + i / 3) * width + x + i % 3] = color;
+                }
+                for (int i = 0; i < 3; i ++) {
+                    row[(x + i) * 3] = (byte) (color >>> 16);
+                    row[(x + i) * 3 + 1] = (byte) (color >>> 8);
+                    row[(x + i) * 3 + 2] = (byte) color;
+                }
+            }
+            writer.writeRow(row);
+            writer.repeatRow();
+            writer.repeatRow();
+        }
+        writer.finish();
+        byte[] png = out.toByteArray();
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        for (int y = 0; y < height; y ++) {
+            for (int x = 0; x < width; x ++) {
+                assertEquals("pixel " + x + ", " + y, colors[y * width + x], image.getRGB(x, y));
+            }
+        }
+        int[] types = readFilterTypes(png, writer.getRowBytes(), height);
+        for (int y = 0; y < height; y ++) {
+            if (y % 3 != 0) {
+                assertEquals(2, types[y]);
+            }
+        }
+    }
+
+    @Test
+    public void packedIndexedRowsFilterByWholeBytes() throws IOException {
+        // Two bit indices, four pixels to a byte, so the left neighbor is the previous byte
+        int width = 37;
+        int height = 23;
+        int[] palette = {0xFF000000, 0xFFFF0000, 0xFF00FF00, 0xFF0000FF};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngStreamWriter writer = new PngStreamWriter(out, width, 2, 9);
+        writer.writeHeader(width, height, 2, PngStreamWriter.COLOR_TYPE_INDEXED);
+        byte[] plte = new byte[palette.length * 3];
+        for (int i = 0; i < palette.length; i ++) {
+            plte[i * 3] = (byte) (palette[i] >>> 16);
+            plte[i * 3 + 1] = (byte) (palette[i] >>> 8);
+            plte[i * 3 + 2] = (byte) palette[i];
+        }
+        writer.writeChunk(PngStreamWriter.CHUNK_PLTE, plte, plte.length);
+        assertEquals(10, writer.getRowBytes());
+        int[] indices = new int[width * height];
+        byte[] row = new byte[writer.getRowBytes()];
+        for (int y = 0; y < height; y ++) {
+            Arrays.fill(row, (byte) 0);
+            for (int x = 0; x < width; x ++) {
+                int index = ((x / 5) + (y / 4)) & 3;
+                indices[y * width + x] = index;
+                row[x >> 2] |= index << (6 - (x & 3) * 2);
+            }
+            writer.writeRow(row);
+        }
+        writer.finish();
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        for (int y = 0; y < height; y ++) {
+            for (int x = 0; x < width; x ++) {
+                assertEquals("pixel " + x + ", " + y, palette[indices[y * width + x]], image.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void largeStreamsSplitIntoValidIdatChunks() throws IOException, DataFormatException {
+        int width = 256;
+        int height = 256;
+        Random random = new Random(5000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngStreamWriter writer = new PngStreamWriter(out, width, 32, 1);
+        writer.writeHeader(width, height, 8, PngStreamWriter.COLOR_TYPE_RGBA);
+        byte[] row = new byte[writer.getRowBytes()];
+        for (int y = 0; y < height; y ++) {
+            random.nextBytes(row);
+            writer.writeRow(row);
+        }
+        writer.finish();
+        byte[] png = out.toByteArray();
+        assertTrue(countChunks(png, PngStreamWriter.CHUNK_IDAT) > 1);
+        assertEquals(height, readFilterTypes(png, writer.getRowBytes(), height).length);
+        assertEquals(width, ImageIO.read(new ByteArrayInputStream(png)).getWidth());
+    }
+
+    private static int countChunks(byte[] png, int type) {
+        int count = 0;
+        for (int position = 8; position < png.length; ) {
+            int length = readInt(png, position);
+            if (readInt(png, position + 4) == type) {
+                count ++;
+            }
+            position += length + 12;
+        }
+        return count;
+    }
+
+    // Checks every chunk's CRC, inflates the IDAT chunks and returns the filter byte of each row
+    private static int[] readFilterTypes(byte[] png, int rowBytes, int height) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        byte[] data = new byte[(rowBytes + 1) * height];
+        int inflated = 0;
+        int position = 8;
+        while (position < png.length) {
+            int length = readInt(png, position);
+            int type = readInt(png, position + 4);
+            CRC32 crc = new CRC32();
+            crc.update(png, position + 4, length + 4);
+            assertEquals("chunk CRC", (int) crc.getValue(), readInt(png, position + 8 + length));
+            if (type == PngStreamWriter.CHUNK_IDAT) {
+                inflater.setInput(png, position + 8, length);
+                inflated += inflater.inflate(data, inflated, data.length - inflated);
+            }
+            position += length + 12;
+        }
+        assertEquals(png.length, position);
+        assertTrue(inflater.finished());
+        inflater.end();
+        assertEquals(data.length, inflated);
+        int[] types = new int[height];
+        for (int y = 0; y < height; y ++) {
+            types[y] = data[y * (rowBytes + 1)];
+            assertTrue(types[y] >= 0 && types[y] < 5);
+        }
+        return types;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 |
+                (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+}
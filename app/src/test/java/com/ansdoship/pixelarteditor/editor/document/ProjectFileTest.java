@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.document;
+
+import com.ansdoship.pixelarteditor.editor.animation.Frame;
+import com.ansdoship.pixelarteditor.editor.animation.FrameTimeline;
+import com.ansdoship.pixelarteditor.editor.palette.Palette;
+import com.ansdoship.pixelarteditor.editor.tile.Tile;
+import com.ansdoship.pixelarteditor.editor.tile.TileStore;
+import com.ansdoship.pixelarteditor.editor.tile.TiledImage;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Saves timelines, opens them again from the file and compares frames, palette and metadata
+public class ProjectFileTest {
+
+    // Not a multiple of the tile size, so the last column and row are partial
+    private final static int WIDTH = Tile.SIZE * 2 + 7;
+    private final static int HEIGHT = Tile.SIZE + 3;
+
+    private File mFile;
+    private final Random mRandom = new Random(42);
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("project", "." + ProjectFile.EXTENSION);
+    }
+
+    @After
+    public void tearDown() {
+        assertTrue(mFile.delete());
+    }
+
+    @Test
+    public void savedProjectOpensWithTheSameContent() throws IOException, JSONException {
+        TileStore tileStore = new TileStore();
+        int[][] frames = createFrames(4);
+        int[] durations = {100, 250, 40, 1000};
+        FrameTimeline timeline = createTimeline(tileStore, frames, durations, 2);
+        Palette palette = Palette.createPalette(new int[] {0xFF000000, 0xFF123456, 0x80FFFFFF}, 1);
+        JSONObject metadata = new JSONObject();
+        metadata.put("author", "test");
+        ProjectFile project = ProjectFile.createProjectFile(mFile, tileStore);
+        project.save(timeline, palette, metadata);
+        project.close();
+        timeline.release();
+
+        ProjectFile opened = ProjectFile.openProjectFile(mFile, new TileStore());
+        assertEquals(WIDTH, opened.getWidth());
+        assertEquals(HEIGHT, opened.getHeight());
+        assertArrayEquals(palette.getColors(), opened.getPalette().getColors());
+        assertEquals("test", opened.getMetadata().getString("author"));
+        FrameTimeline openedTimeline = opened.createFrameTimeline();
+        assertEquals(2, openedTimeline.getIndex());
+        assertTimeline(frames, durations, openedTimeline);
+        openedTimeline.release();
+        opened.close();
+    }
+
+    @Test
+    public void resavingAppendsOnlyWhatChanged() throws IOException {
+        TileStore tileStore = new TileStore();
+        int[][] frames = createFrames(3);
+        int[] durations = {100, 100, 100};
+        FrameTimeline timeline = createTimeline(tileStore, frames, durations, 0);
+        ProjectFile project = ProjectFile.createProjectFile(mFile, tileStore);
+        project.save(timeline, null, null);
+        project.close();
+        timeline.release();
+
+        // Edit one frame of the opened project and leave the others undecoded
+        TileStore openedStore = new TileStore();
+        ProjectFile opened = ProjectFile.openProjectFile(mFile, openedStore);
+        FrameTimeline openedTimeline = opened.createFrameTimeline();
+        int x = Tile.SIZE + 2;
+        int y = 5;
+        frames[1][y * WIDTH + x] = 0xFFABCDEF;
+        setPixels(openedTimeline.getFrame(1).getImage(), frames[1]);
+        openedTimeline.getFrame(2).setDuration(300);
+        durations[2] = 300;
+        long length = mFile.length();
+        opened.save(openedTimeline, null, null);
+        assertFalse(openedTimeline.getFrame(0).isImageLoaded());
+        assertFalse(openedTimeline.getFrame(2).isImageLoaded());
+        // One new tile plus the tables, far less than the frames themselves
+        assertTrue(mFile.length() > length);
+        assertTrue(mFile.length() - length < (long) Tile.LENGTH * 4);
+        // Frames left pending still decode from the old tiles
+        assertTimeline(frames, durations, openedTimeline);
+        openedTimeline.release();
+        opened.close();
+
+        ProjectFile reopened = ProjectFile.openProjectFile(mFile, new TileStore());
+        assertNull(reopened.getPalette());
+        assertNull(reopened.getMetadata());
+        FrameTimeline reopenedTimeline = reopened.createFrameTimeline();
+        assertTimeline(frames, durations, reopenedTimeline);
+        reopenedTimeline.release();
+        reopened.close();
+    }
+
+    @Test
+    public void saveAsyncReportsProgressAndFinishes() throws IOException, InterruptedException {
+        TileStore tileStore = new TileStore();
+        int[][] frames = createFrames(5);
+        int[] durations = {100, 100, 100, 100, 100};
+        FrameTimeline timeline = createTimeline(tileStore, frames, durations, 0);
+        ProjectFile project = ProjectFile.createProjectFile(mFile, tileStore);
+        final List<Integer> progress = new ArrayList<>();
+        final boolean[] result = new boolean[2];
+        project.saveAsync(timeline, null, null, new ProjectFile.Callback() {
+            @Override
+            public void onProgress(int percent) {
+                synchronized (progress) {
+                    progress.add(percent);
+                }
+            }
+            @Override
+            public void onFinish(boolean isSuccess) {
+                synchronized (result) {
+                    result[0] = true;
+                    result[1] = isSuccess;
+                    result.notifyAll();
+                }
+            }
+        });
+        synchronized (result) {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!result[0] && System.currentTimeMillis() < deadline) {
+                result.wait(deadline - System.currentTimeMillis());
+            }
+        }
+        assertTrue(result[0]);
+        assertTrue(result[1]);
+        synchronized (progress) {
+            for (int i = 1; i < progress.size(); i ++) {
+                assertTrue(progress.get(i) >= progress.get(i - 1));
+            }
+            assertTrue(progress.isEmpty() || progress.get(progress.size() - 1) <= 100);
+        }
+        project.close();
+        timeline.release();
+
+        ProjectFile opened = ProjectFile.openProjectFile(mFile, new TileStore());
+        FrameTimeline openedTimeline = opened.createFrameTimeline();
+        assertTimeline(frames, durations, openedTimeline);
+        openedTimeline.release();
+        opened.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void openRejectsOtherFiles() throws IOException {
+        ProjectFile.openProjectFile(mFile, new TileStore());
+    }
+
+    // Random pixels, a transparent tile and tiles repeated from the previous frame
+    private int[][] createFrames(int count) {
+        int[][] frames = new int[count][];
+        for (int i = 0; i < count; i ++) {
+            int[] pixels = new int[WIDTH * HEIGHT];
+            for (int y = 0; y < HEIGHT; y ++) {
+                for (int x = 0; x < WIDTH; x ++) {
+                    int column = x >> Tile.SHIFT;
+                    if (column == 1) {
+                        continue;
+                    }
+                    pixels[y * WIDTH + x] = i > 0 && column == 0 ? frames[i - 1][y * WIDTH + x] : mRandom.nextInt();
+                }
+            }
+            frames[i] = pixels;
+        }
+        return frames;
+    }
+
+    private static FrameTimeline createTimeline(TileStore tileStore, int[][] frames, int[] durations, int index) {
+        List<Frame> list = new ArrayList<>();
+        for (int i = 0; i < frames.length; i ++) {
+            TiledImage image = TiledImage.createTiledImage(tileStore, WIDTH, HEIGHT);
+            setPixels(image, frames[i]);
+            Frame frame = Frame.createFrame(image);
+            frame.setDuration(durations[i]);
+            list.add(frame);
+        }
+        return FrameTimeline.createFrameTimeline(tileStore, WIDTH, HEIGHT, list, index);
+    }
+
+    private static void setPixels(TiledImage image, int[] pixels) {
+        TileStore tileStore = image.getTileStore();
+        for (int row = 0; row < image.getRows(); row ++) {
+            for (int column = 0; column < image.getColumns(); column ++) {
+                int x = column << Tile.SHIFT;
+                int y = row << Tile.SHIFT;
+                Tile tile = tileStore.intern(pixels, y * WIDTH + x, WIDTH,
+                        Math.min(Tile.SIZE, WIDTH - x), Math.min(Tile.SIZE, HEIGHT - y));
+                image.setTile(column, row, tile);
+                tileStore.release(tile);
+            }
+        }
+    }
+
+    private static void assertTimeline(int[][] frames, int[] durations, FrameTimeline timeline) {
+        assertEquals(WIDTH, timeline.getWidth());
+        assertEquals(HEIGHT, timeline.getHeight());
+        assertEquals(frames.length, timeline.size());
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < frames.length; i ++) {
+            Frame frame = timeline.getFrame(i);
+            assertEquals(durations[i], frame.getDuration());
+            frame.getImage().getPixels(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+            assertArrayEquals("frame " + i, frames[i], pixels);
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.layer;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+// Throughput of every blend mode over tile sized rows, printed for comparison between devices and changes
+public class BlendComposerBenchmark {
+
+    private final static int TILE_SIZE = 64;
+    private final static int TILE_COUNT = 256;
+    private final static int WARMUP_ROUNDS = 3;
+    private final static int ROUNDS = 5;
+
+    @Test
+    public void blendModes() {
+        Random random = new Random(26);
+        int[] src = new int[TILE_SIZE * TILE_SIZE];
+        int[] dst = new int[TILE_SIZE * TILE_SIZE];
+        for (int i = 0; i < src.length; i ++) {
+            src[i] = random.nextInt();
+            dst[i] = random.nextInt();
+        }
+        String[] names = {"normal", "multiply", "screen", "overlay", "add", "erase"};
+        int[] modes = {BlendFlag.NORMAL, BlendFlag.MULTIPLY, BlendFlag.SCREEN,
+                BlendFlag.OVERLAY, BlendFlag.ADD, BlendFlag.ERASE};
+        int checksum = 0;
+        for (int m = 0; m < modes.length; m ++) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round ++) {
+                int[] composite = dst.clone();
+                long start = System.nanoTime();
+                for (int tile = 0; tile < TILE_COUNT; tile ++) {
+                    BlendComposer.blendRows(modes[m], src, 0, TILE_SIZE, composite, 0, TILE_SIZE,
+                            TILE_SIZE, TILE_SIZE, BlendComposer.OPACITY_MAX);
+                }
+                long elapsed = System.nanoTime() - start;
+                checksum += composite[round];
+                if (round >= WARMUP_ROUNDS) {
+                    best = Math.min(best, elapsed);
+                }
+            }
+            double pixels = (double) TILE_COUNT * TILE_SIZE * TILE_SIZE;
+            System.out.printf("%-8s %8.1f Mpx/s%n", names[m], pixels / best * 1000);
+        }
+        // Keeps the results alive
+        assertTrue(checksum != 1);
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.layer;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Compares every blend mode with the floating point compositing formulas on unpremultiplied colors
+public class BlendComposerTest {
+
+    private final static int[] MODES = {
+            BlendFlag.NORMAL, BlendFlag.MULTIPLY, BlendFlag.SCREEN,
+            BlendFlag.OVERLAY, BlendFlag.ADD, BlendFlag.ERASE
+    };
+
+    // Every channel may differ by one level from the rounded reference
+    private final static int TOLERANCE = 1;
+
+    @Test
+    public void mul255IsExact() {
+        for (int a = 0; a < 256; a ++) {
+            for (int b = 0; b < 256; b ++) {
+                assertEquals(Math.round(a * b / 255.0), BlendComposer.mul255(a, b));
+            }
+        }
+    }
+
+    @Test
+    public void randomColorsMatchReference() {
+        Random random = new Random(26);
+        for (int mode : MODES) {
+            for (int i = 0; i < 200000; i ++) {
+                int src = random.nextInt();
+                int dst = random.nextInt();
+                int opacity = i % 4 == 0 ? random.nextInt(256) : BlendComposer.OPACITY_MAX;
+                assertBlend(mode, src, dst, opacity);
+            }
+        }
+    }
+
+    @Test
+    public void alphaEdgesMatchReference() {
+        int[] alphas = {0, 1, 127, 128, 254, 255};
+        int[] colors = {0x000000, 0xFFFFFF, 0x808080, 0x7F7F7F, 0x123456, 0xFEDCBA, 0xFF0000};
+        for (int mode : MODES) {
+            for (int srcAlpha : alphas) {
+                for (int dstAlpha : alphas) {
+                    for (int srcColor : colors) {
+                        for (int dstColor : colors) {
+                            int src = (srcAlpha << 24) | srcColor;
+                            int dst = (dstAlpha << 24) | dstColor;
+                            assertBlend(mode, src, dst, BlendComposer.OPACITY_MAX);
+                            assertBlend(mode, src, dst, 128);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void transparentSourceKeepsDestination() {
+        for (int mode : MODES) {
+            assertEquals(0x80123456, BlendComposer.blend(mode, 0x00FFFFFF, 0x80123456));
+            assertEquals(0x80123456, BlendComposer.blend(mode, 0xFFFFFFFF, 0x80123456, 0));
+        }
+    }
+
+    @Test
+    public void opaqueNormalSourceReplacesDestination() {
+        assertEquals(0xFF123456, BlendComposer.blend(BlendFlag.NORMAL, 0xFF123456, 0xFFFEDCBA));
+        assertEquals(0xFF123456, BlendComposer.blend(BlendFlag.NORMAL, 0xFF123456, 0x00000000));
+    }
+
+    @Test
+    public void opaqueEraseClearsDestination() {
+        assertEquals(0, BlendComposer.blend(BlendFlag.ERASE, 0xFF000000, 0xFF123456));
+    }
+
+    @Test
+    public void rowsMatchSinglePixels() {
+        Random random = new Random(27);
+        int width = 37;
+        int height = 5;
+        int stride = 41;
+        for (int mode : MODES) {
+            for (int opacity : new int[] {0, 77, BlendComposer.OPACITY_MAX}) {
+                int[] src = new int[stride * height];
+                int[] dst = new int[stride * height];
+                for (int i = 0; i < src.length; i ++) {
+                    src[i] = random.nextInt();
+                    dst[i] = random.nextInt();
+                }
+                int[] expected = dst.clone();
+                for (int y = 0; y < height; y ++) {
+                    for (int x = 0; x < width; x ++) {
+                        int index = y * stride + x;
+                        expected[index] = opacity == 0 ? dst[index] :
+                                BlendComposer.blend(mode, src[index], dst[index], opacity);
+                    }
+                }
+                BlendComposer.blendRows(mode, src, 0, stride, dst, 0, stride, width, height, opacity);
+                for (int i = 0; i < dst.length; i ++) {
+                    assertEquals("mode " + mode + " opacity " + opacity + " at " + i, expected[i], dst[i]);
+                }
+            }
+        }
+    }
+
+    private static void assertBlend(int mode, int src, int dst, int opacity) {
+        int actual = BlendComposer.blend(mode, src, dst, opacity);
+        int expected = reference(mode, src, dst, opacity);
+        String message = "mode " + mode + " src " + Integer.toHexString(src) + " dst " + Integer.toHexString(dst) +
+                " opacity " + opacity + ": expected " + Integer.toHexString(expected) +
+                " but was " + Integer.toHexString(actual);
+        int expectedAlpha = expected >>> 24;
+        int actualAlpha = actual >>> 24;
+        assertTrue(message, Math.abs(expectedAlpha - actualAlpha) <= TOLERANCE);
+        if (expectedAlpha == 0 || actualAlpha == 0) {
+            // Fully transparent results carry no meaningful color
+            return;
+        }
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int e = (expected >> shift) & 0xFF;
+            int a = (actual >> shift) & 0xFF;
+            assertTrue(message, Math.abs(e - a) <= TOLERANCE);
+        }
+    }
+
+    // W3C compositing and blending formulas in floating point, source alpha scaled by the opacity
+    private static int reference(int mode, int src, int dst, int opacity) {
+        double as = BlendComposer.mul255(src >>> 24, opacity) / 255.0;
+        double ab = (dst >>> 24) / 255.0;
+        if (as == 0) {
+            return dst;
+        }
+        double ao;
+        double[] co = new double[3];
+        if (mode == BlendFlag.ERASE) {
+            ao = ab * (1 - as);
+            int alpha = (int) Math.round(ao * 255);
+            return alpha == 0 ? 0 : (alpha << 24) | (dst & 0x00FFFFFF);
+        }
+        if (mode == BlendFlag.ADD) {
+            ao = Math.min(1, as + ab);
+        }
+        else {
+            ao = as + ab - as * ab;
+        }
+        for (int i = 0; i < 3; i ++) {
+            int shift = 16 - i * 8;
+            double cs = ((src >> shift) & 0xFF) / 255.0;
+            double cb = ((dst >> shift) & 0xFF) / 255.0;
+            double premultiplied;
+            switch (mode) {
+                case BlendFlag.MULTIPLY:
+                case BlendFlag.SCREEN:
+                case BlendFlag.OVERLAY:
+                    premultiplied = cs * as * (1 - ab) + cb * ab * (1 - as) + as * ab * mix(mode, cs, cb);
+                    break;
+                case BlendFlag.ADD:
+                    premultiplied = Math.min(1, cs * as + cb * ab);
+                    break;
+                default:
+                    premultiplied = cs * as + cb * ab * (1 - as);
+                    break;
+            }
+            co[i] = Math.min(1, premultiplied / ao);
+        }
+        return ((int) Math.round(ao * 255) << 24) |
+                ((int) Math.round(co[0] * 255) << 16) |
+                ((int) Math.round(co[1] * 255) << 8) |
+                (int) Math.round(co[2] * 255);
+    }
+
+    private static double mix(int mode, double cs, double cb) {
+        switch (mode) {
+            case BlendFlag.MULTIPLY:
+                return cs * cb;
+            case BlendFlag.SCREEN:
+                return cs + cb - cs * cb;
+            default:
+                return cb <= 0.5 ? 2 * cs * cb : 1 - 2 * (1 - cs) * (1 - cb);
+        }
+    }
+
+}
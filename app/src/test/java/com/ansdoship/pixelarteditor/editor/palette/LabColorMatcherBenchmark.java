@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.palette;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+// Nearest color queries per second with the k-d tree and with the linear scan, printed per palette size.
+// The crossover is what TREE_SIZE_MIN should be set to.
+public class LabColorMatcherBenchmark {
+
+    private final static int[] SIZES = {16, 64, 256};
+    private final static int QUERIES = 1 << 16;
+    private final static int WARMUP_ROUNDS = 3;
+    private final static int ROUNDS = 5;
+
+    @Test
+    public void treeVersusLinearScan() {
+        Random random = new Random(34);
+        // Distinct colors, so the memo never answers a query
+        int[] queries = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i ++) {
+            queries[i] = 0xFF000000 | ((i * 0x9E3779) & 0xFFFFFF);
+        }
+        int checksum = 0;
+        for (int size : SIZES) {
+            int[] colors = new int[size];
+            for (int i = 0; i < size; i ++) {
+                colors[i] = random.nextInt() | 0xFF000000;
+            }
+            long tree = Long.MAX_VALUE;
+            long linear = Long.MAX_VALUE;
+            for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round ++) {
+                LabColorMatcher matcher = LabColorMatcher.createLabColorMatcher(colors, 1);
+                long start = System.nanoTime();
+                for (int query : queries) {
+                    checksum += matcher.nearestIndexOf(query);
+                }
+                long treeElapsed = System.nanoTime() - start;
+                matcher = LabColorMatcher.createLabColorMatcher(colors, Integer.MAX_VALUE);
+                start = System.nanoTime();
+                for (int query : queries) {
+                    checksum += matcher.nearestIndexOf(query);
+                }
+                long linearElapsed = System.nanoTime() - start;
+                if (round >= WARMUP_ROUNDS) {
+                    tree = Math.min(tree, treeElapsed);
+                    linear = Math.min(linear, linearElapsed);
+                }
+            }
+            System.out.printf("%4d colors  tree %7.2f Mq/s  linear %7.2f Mq/s%n", size,
+                    QUERIES * 1000.0 / tree, QUERIES * 1000.0 / linear);
+        }
+        // Keeps the results alive
+        assertTrue(checksum != 1);
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.palette;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Compares nearestIndexOf with an exhaustive CIELAB search done in double precision
+public class LabColorMatcherTest {
+
+    private final static int[] SIZES = {1, 2, 7, 16, 63, 64, 65, 256};
+    private final static int QUERIES = 20000;
+    // Float Lab values may round a near tie either way
+    private final static double DISTANCE_TOLERANCE = 1e-3;
+
+    @Test
+    public void randomPalettesMatchReference() {
+        Random random = new Random(34);
+        for (int size : SIZES) {
+            int[] colors = new int[size];
+            for (int i = 0; i < size; i ++) {
+                colors[i] = random.nextInt() | 0xFF000000;
+            }
+            assertMatchesReference(colors, random);
+        }
+    }
+
+    // Tight clusters put many entries at almost equal distances, which stresses tree pruning
+    @Test
+    public void clusteredPalettesMatchReference() {
+        Random random = new Random(340);
+        for (int size : SIZES) {
+            int[] colors = new int[size];
+            for (int i = 0; i < size; i ++) {
+                int grey = 96 + random.nextInt(64);
+                int red = grey + random.nextInt(5) - 2;
+                int blue = grey + random.nextInt(5) - 2;
+                colors[i] = 0xFF000000 | (red << 16) | (grey << 8) | blue;
+            }
+            assertMatchesReference(colors, random);
+        }
+    }
+
+    @Test
+    public void treeAgreesWithLinearScan() {
+        Random random = new Random(3400);
+        for (int size : SIZES) {
+            int[] colors = new int[size];
+            for (int i = 0; i < size; i ++) {
+                // Few distinct values, so duplicates and exact ties are common
+                colors[i] = 0xFF000000 | (random.nextInt(4) * 0x550000) |
+                        (random.nextInt(4) * 0x5500) | (random.nextInt(4) * 0x55);
+            }
+            LabColorMatcher tree = LabColorMatcher.createLabColorMatcher(colors, 1);
+            LabColorMatcher linear = LabColorMatcher.createLabColorMatcher(colors, Integer.MAX_VALUE);
+            for (int i = 0; i < QUERIES; i ++) {
+                int color = random.nextInt() | 0xFF000000;
+                int expected = linear.bruteForceIndexOf(color);
+                assertEquals(expected, tree.nearestIndexOf(color));
+                assertEquals(expected, linear.nearestIndexOf(color));
+            }
+        }
+    }
+
+    @Test
+    public void paletteColorsMatchTheirFirstIndex() {
+        int[] colors = new int[128];
+        for (int i = 0; i < colors.length; i ++) {
+            colors[i] = 0xFF000000 | ((i % 100) * 0x020301);
+        }
+        LabColorMatcher matcher = LabColorMatcher.createLabColorMatcher(colors);
+        for (int i = 0; i < colors.length; i ++) {
+            assertEquals(i % 100, matcher.nearestIndexOf(colors[i]));
+            assertEquals(colors[i], matcher.nearestColorOf(colors[i]));
+        }
+    }
+
+    @Test
+    public void alphaIsIgnored() {
+        Random random = new Random(34000);
+        int[] colors = new int[100];
+        for (int i = 0; i < colors.length; i ++) {
+            colors[i] = random.nextInt() | 0xFF000000;
+        }
+        LabColorMatcher matcher = LabColorMatcher.createLabColorMatcher(colors);
+        for (int i = 0; i < QUERIES; i ++) {
+            int color = random.nextInt();
+            assertEquals(matcher.nearestIndexOf(color | 0xFF000000), matcher.nearestIndexOf(color & 0x00FFFFFF));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyPaletteIsRejected() {
+        LabColorMatcher.createLabColorMatcher(new int[0]);
+    }
+
+    private static void assertMatchesReference(int[] colors, Random random) {
+        double[][] lab = new double[colors.length][];
+        for (int i = 0; i < colors.length; i ++) {
+            lab[i] = referenceLab(colors[i]);
+        }
+        LabColorMatcher matcher = LabColorMatcher.createLabColorMatcher(colors);
+        LabColorMatcher tree = LabColorMatcher.createLabColorMatcher(colors, 1);
+        for (int i = 0; i < QUERIES; i ++) {
+            int color = random.nextInt() | 0xFF000000;
+            double[] query = referenceLab(color);
+            double min = Double.MAX_VALUE;
+            for (double[] entry : lab) {
+                min = Math.min(min, distance(query, entry));
+            }
+            assertNearest(min, query, lab[matcher.nearestIndexOf(color)]);
+            assertNearest(min, query, lab[tree.nearestIndexOf(color)]);
+        }
+    }
+
+    private static void assertNearest(double min, double[] query, double[] found) {
+        double distance = distance(query, found);
+        assertTrue("delta E squared " + distance + " but the nearest is " + min,
+                distance <= min + DISTANCE_TOLERANCE * Math.max(1, min));
+    }
+
+    private static double distance(double[] a, double[] b) {
+        double dl = a[0] - b[0];
+        double da = a[1] - b[1];
+        double db = a[2] - b[2];
+        return dl * dl + da * da + db * db;
+    }
+
+    // sRGB under D65 to CIELAB, straight from the definitions
+    private static double[] referenceLab(int color) {
+        double red = linear((color >> 16) & 0xFF);
+        double green = linear((color >> 8) & 0xFF);
+        double blue = linear(color & 0xFF);
+        double x = (0.4124564 * red + 0.3575761 * green + 0.1804375 * blue) / 0.95047;
+        double y = 0.2126729 * red + 0.7151522 * green + 0.0721750 * blue;
+        double z = (0.0193339 * red + 0.1191920 * green + 0.9503041 * blue) / 1.08883;
+        double fx = f(x);
+        double fy = f(y);
+        double fz = f(z);
+        return new double[] {116 * fy - 16, 500 * (fx - fy), 200 * (fy - fz)};
+    }
+
+    private static double linear(int value) {
+        double c = value / 255.0;
+        return c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+    }
+
+    private static double f(double t) {
+        double epsilon = 216.0 / 24389.0;
+        double kappa = 24389.0 / 27.0;
+        return t > epsilon ? Math.cbrt(t) : (kappa * t + 16) / 116;
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.editor.palette;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PaletteSwapTest {
+
+    private final static int RED = 0xFFFF0000;
+    private final static int GREEN = 0xFF00FF00;
+    private final static int BLUE = 0xFF0000FF;
+    private final static int WHITE = 0xFFFFFFFF;
+
+    @Test
+    public void mapsByIndexAndKeepsOtherColors() {
+        PaletteSwap swap = PaletteSwap.createPaletteSwap(
+                Palette.createPalette(new int[] {RED, GREEN, RED}),
+                Palette.createPalette(new int[] {BLUE, WHITE, GREEN}));
+        // Duplicated source colors map by their first index
+        assertEquals(BLUE, swap.map(RED));
+        assertEquals(WHITE, swap.map(GREEN));
+        assertEquals(0x80123456, swap.map(0x80123456));
+        int[] pixels = {0, RED, RED, GREEN, 0x80123456, 0};
+        swap.remap(pixels, 1, 4);
+        assertArrayEquals(new int[] {0, BLUE, BLUE, WHITE, 0x80123456, 0}, pixels);
+    }
+
+    // The swap must not follow later edits, otherwise a cached swap is never seen as stale
+    @Test
+    public void editedPalettesNoLongerMatch() {
+        Palette from = Palette.createPalette(new int[] {RED, GREEN});
+        Palette to = Palette.createPalette(new int[] {BLUE, WHITE});
+        PaletteSwap swap = PaletteSwap.createPaletteSwap(from, to);
+        assertTrue(swap.matches(from, to));
+        from.setColor(0, WHITE);
+        assertFalse(swap.matches(from, to));
+        assertEquals(BLUE, swap.map(RED));
+        from.setColor(0, RED);
+        assertTrue(swap.matches(from, to));
+        to.setColor(1, RED);
+        assertFalse(swap.matches(from, to));
+        assertEquals(WHITE, swap.map(GREEN));
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2021 AnsdoShip Studio
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+
+package com.ansdoship.pixelarteditor.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// Checks the map against java.util.HashMap under random puts, adds and removes
+public class IntIntHashMapTest {
+
+    private final static int NOT_FOUND = -1;
+
+    @Test
+    public void zeroKeyIsStoredOutOfLine() {
+        IntIntHashMap map = new IntIntHashMap();
+        assertFalse(map.containsKey(0));
+        assertEquals(NOT_FOUND, map.get(0, NOT_FOUND));
+        map.put(0, 7);
+        assertTrue(map.containsKey(0));
+        assertEquals(7, map.get(0, NOT_FOUND));
+        assertEquals(1, map.size());
+        assertEquals(10, map.addTo(0, 3));
+        assertTrue(map.remove(0));
+        assertFalse(map.remove(0));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void addToTreatsMissingKeysAsZero() {
+        IntIntHashMap map = new IntIntHashMap();
+        assertEquals(5, map.addTo(0xFF00FF00, 5));
+        assertEquals(3, map.addTo(0xFF00FF00, -2));
+        assertEquals(-1, map.addTo(0, -1));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void removeKeepsCollidingKeysReachable() {
+        // Keys 1 apart in a small table end up in one probe run
+        IntIntHashMap map = new IntIntHashMap();
+        for (int key = 1; key <= 64; key ++) {
+            map.put(key, key * 10);
+        }
+        for (int key = 1; key <= 64; key += 2) {
+            assertTrue(map.remove(key));
+        }
+        for (int key = 1; key <= 64; key ++) {
+            assertEquals(key % 2 == 0 ? key * 10 : NOT_FOUND, map.get(key, NOT_FOUND));
+        }
+        assertEquals(32, map.size());
+    }
+
+    @Test
+    public void randomOperationsMatchHashMap() {
+        Random random = new Random(31);
+        IntIntHashMap map = new IntIntHashMap();
+        Map<Integer, Integer> reference = new HashMap<>();
+        for (int i = 0; i < 500000; i ++) {
+            // A narrow key range makes hits, collisions and removals frequent
+            int key = random.nextInt(4096) - 16;
+            int value = random.nextInt();
+            switch (random.nextInt(4)) {
+                case 0:
+                    map.put(key, value);
+                    reference.put(key, value);
+                    break;
+                case 1:
+                    Integer old = reference.get(key);
+                    int sum = (old == null ? 0 : old) + value;
+                    reference.put(key, sum);
+                    assertEquals(sum, map.addTo(key, value));
+                    break;
+                case 2:
+                    assertEquals(reference.remove(key) != null, map.remove(key));
+                    break;
+                default:
+                    Integer expected = reference.get(key);
+                    assertEquals(expected != null, map.containsKey(key));
+                    assertEquals(expected == null ? NOT_FOUND : expected, map.get(key, NOT_FOUND));
+                    break;
+            }
+            assertEquals(reference.size(), map.size());
+        }
+        assertEntries(reference, map);
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(0));
+    }
+
+    @Test
+    public void growsFromAnySizeHint() {
+        for (int hint : new int[] {0, 1, 5, 1000}) {
+            IntIntHashMap map = new IntIntHashMap(hint);
+            Map<Integer, Integer> reference = new HashMap<>();
+            for (int key = -5000; key < 5000; key += 3) {
+                map.put(key * 0x01010101, key);
+                reference.put(key * 0x01010101, key);
+            }
+            assertEntries(reference, map);
+        }
+    }
+
+    private static void assertEntries(Map<Integer, Integer> reference, IntIntHashMap map) {
+        int[] keys = new int[map.size()];
+        int[] values = new int[map.size()];
+        assertEquals(reference.size(), map.toArrays(keys, values));
+        for (int i = 0; i < keys.length; i ++) {
+            assertEquals(reference.get(keys[i]), Integer.valueOf(values[i]));
+        }
+        for (Map.Entry<Integer, Integer> entry : reference.entrySet()) {
+            assertEquals((int) entry.getValue(), map.get(entry.getKey(), NOT_FOUND));
+        }
+    }
+
+}
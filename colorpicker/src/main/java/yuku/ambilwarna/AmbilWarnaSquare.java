@@ -1,18 +1,17 @@
 package yuku.ambilwarna;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.ComposeShader;
-import android.graphics.LinearGradient;
 import android.graphics.Paint;
-import android.graphics.PorterDuff;
-import android.graphics.Shader;
-import android.graphics.Shader.TileMode;
+import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.view.View;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /*
 由Dobando修改
 删去了原有不需要的类
@@ -21,9 +20,26 @@ import android.view.View;
 
 public class AmbilWarnaSquare extends View {
 
+	// The field is a smooth gradient, so it is rendered small and drawn filtered
+	static final int FIELD_SIZE_MAX = 256;
+	// Hues are quantized to whole degrees, recently used ones stay cached
+	static final int HUE_STEPS = 360;
+	static final int CACHE_SIZE = 8;
+
 	Paint paint;
-	Shader luar;
+	final Rect dst = new Rect();
 	final float[] color = { 1.f, 1.f, 1.f };
+	final LinkedHashMap<Integer, Bitmap> cache = new LinkedHashMap<Integer, Bitmap>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Bitmap> eldest) {
+			if (size() > CACHE_SIZE) {
+				eldest.getValue().recycle();
+				return true;
+			}
+			return false;
+		}
+	};
+	int[] pixels;
 
 	public AmbilWarnaSquare(Context context) {
 		super(context);
@@ -37,22 +53,36 @@ public class AmbilWarnaSquare extends View {
 		super(context, attrs, defStyle);
 	}
 
-	@SuppressLint("DrawAllocation") @Override protected void onDraw(Canvas canvas) {
+	@Override protected void onDraw(Canvas canvas) {
 		super.onDraw(canvas);
+		int width = this.getMeasuredWidth();
+		int height = this.getMeasuredHeight();
+		if (width <= 0 || height <= 0) {
+			return;
+		}
 		if (paint == null) {
-			paint = new Paint();
-			luar = new LinearGradient(0.f, 0.f, 0.f, this.getMeasuredHeight(), 0xffffffff, 0xff000000, TileMode.CLAMP);
+			paint = new Paint(Paint.FILTER_BITMAP_FLAG);
 		}
-		int rgb = Color.HSVToColor(color);
-		Shader dalam = new LinearGradient(0.f, 0.f, this.getMeasuredWidth(), 0.f, 0xffffffff, rgb, TileMode.CLAMP);
-		ComposeShader shader = new ComposeShader(luar, dalam, PorterDuff.Mode.MULTIPLY);
-		paint.setShader(shader);
-		canvas.drawPaint(paint);
+		dst.set(0, 0, width, height);
+		canvas.drawBitmap(getField(width, height), null, dst, paint);
+	}
+
+	@Override protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		clearCache();
+	}
+
+	@Override protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		clearCache();
 	}
 
 	public void setHue(float hue) {
+		int oldStep = hueStep(color[0]);
 		color[0] = hue;
-		invalidate();
+		if (hueStep(hue) != oldStep) {
+			invalidate();
+		}
 	}
 
 	@Override
@@ -60,4 +90,60 @@ public class AmbilWarnaSquare extends View {
 		return super.performClick();
 	}
 
+	Bitmap getField(int width, int height) {
+		int step = hueStep(color[0]);
+		Bitmap field = cache.get(step);
+		if (field == null) {
+			float scale = Math.min(1.f, (float) FIELD_SIZE_MAX / Math.max(width, height));
+			int fieldWidth = Math.max(2, Math.round(width * scale));
+			int fieldHeight = Math.max(2, Math.round(height * scale));
+			field = renderField(step * 360.f / HUE_STEPS, fieldWidth, fieldHeight);
+			cache.put(step, field);
+		}
+		return field;
+	}
+
+	// Same result as multiplying a white to black vertical gradient with a white to hue horizontal one
+	Bitmap renderField(float hue, int width, int height) {
+		if (pixels == null || pixels.length < width * height) {
+			pixels = new int[width * height];
+		}
+		int rgb = Color.HSVToColor(new float[] { hue, 1.f, 1.f });
+		int red = Color.red(rgb);
+		int green = Color.green(rgb);
+		int blue = Color.blue(rgb);
+		for (int x = 0; x < width; x ++) {
+			float sat = (float) x / (width - 1);
+			pixels[x] = 0xff000000
+					| Math.round(255 + (red - 255) * sat) << 16
+					| Math.round(255 + (green - 255) * sat) << 8
+					| Math.round(255 + (blue - 255) * sat);
+		}
+		for (int y = height - 1; y >= 0; y --) {
+			float val = 1.f - (float) y / (height - 1);
+			int offset = y * width;
+			for (int x = 0; x < width; x ++) {
+				int top = pixels[x];
+				pixels[offset + x] = 0xff000000
+						| Math.round(((top >> 16) & 0xff) * val) << 16
+						| Math.round(((top >> 8) & 0xff) * val) << 8
+						| Math.round((top & 0xff) * val);
+			}
+		}
+		Bitmap field = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		field.setPixels(pixels, 0, width, 0, 0, width, height);
+		return field;
+	}
+
+	void clearCache() {
+		for (Bitmap bitmap : cache.values()) {
+			bitmap.recycle();
+		}
+		cache.clear();
+	}
+
+	static int hueStep(float hue) {
+		return Math.round(hue * HUE_STEPS / 360.f) % HUE_STEPS;
+	}
+
 }